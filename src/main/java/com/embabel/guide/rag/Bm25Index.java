@@ -0,0 +1,157 @@
+package com.embabel.guide.rag;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.Predicate;
+import java.util.regex.Pattern;
+
+/**
+ * Inverted index over passage text scored with Okapi BM25, the in-memory store's counterpart
+ * to a Neo4j full-text index.
+ * <p>
+ * Text is split into lowercase words of letters, digits and underscores. Dotted names such as
+ * {@code PromptRunner.Rendering} are indexed whole as well as by their parts, so a query quoting
+ * the full name ranks passages containing it above those that only mention its parts.
+ * <p>
+ * Safe for concurrent searches; writes are serialized.
+ */
+final class Bm25Index {
+
+    private static final double K1 = 1.2;
+    private static final double B = 0.75;
+
+    private static final Pattern WORD = Pattern.compile("[\\p{L}\\p{N}_]+(?:\\.[\\p{L}\\p{N}_]+)*");
+
+    record Match(String id, double score) {
+    }
+
+    private final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+
+    // term -> passage id -> occurrences
+    private final Map<String, Map<String, Integer>> postings = new HashMap<>();
+    private final Map<String, Map<String, Integer>> passages = new HashMap<>();
+    private final Map<String, Integer> lengths = new HashMap<>();
+    private long totalLength;
+
+    /**
+     * Lowercase terms of {@code text}, in order, with dotted names followed by their parts.
+     */
+    static List<String> terms(String text) {
+        var terms = new ArrayList<String>();
+        var matcher = WORD.matcher(text);
+        while (matcher.find()) {
+            var word = matcher.group().toLowerCase(Locale.ROOT);
+            terms.add(word);
+            if (word.indexOf('.') >= 0) {
+                for (var part : word.split("\\.")) {
+                    terms.add(part);
+                }
+            }
+        }
+        return terms;
+    }
+
+    int size() {
+        lock.readLock().lock();
+        try {
+            return lengths.size();
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Add or replace the text for {@code id}.
+     */
+    void add(String id, String text) {
+        var terms = terms(text);
+        var counts = new HashMap<String, Integer>();
+        for (var term : terms) {
+            counts.merge(term, 1, Integer::sum);
+        }
+        lock.writeLock().lock();
+        try {
+            removeLocked(id);
+            counts.forEach((term, count) -> postings.computeIfAbsent(term, t -> new HashMap<>()).put(id, count));
+            passages.put(id, counts);
+            lengths.put(id, terms.size());
+            totalLength += terms.size();
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * @return whether it was in the index
+     */
+    boolean remove(String id) {
+        lock.writeLock().lock();
+        try {
+            return removeLocked(id);
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    private boolean removeLocked(String id) {
+        var counts = passages.remove(id);
+        if (counts == null) {
+            return false;
+        }
+        for (var term : counts.keySet()) {
+            var ids = postings.get(term);
+            ids.remove(id);
+            if (ids.isEmpty()) {
+                postings.remove(term);
+            }
+        }
+        totalLength -= lengths.remove(id);
+        return true;
+    }
+
+    /**
+     * The {@code k} passages scoring highest for {@code query} whose ids {@code filter} accepts,
+     * highest first. Passages sharing no term with the query aren't returned.
+     */
+    List<Match> search(String query, int k, Predicate<String> filter) {
+        lock.readLock().lock();
+        try {
+            int n = lengths.size();
+            if (n == 0 || k <= 0) {
+                return List.of();
+            }
+            double averageLength = (double) totalLength / n;
+            var scores = new HashMap<String, Double>();
+            for (var term : terms(query)) {
+                var ids = postings.get(term);
+                if (ids == null) {
+                    continue;
+                }
+                double idf = Math.log(1 + (n - ids.size() + 0.5) / (ids.size() + 0.5));
+                ids.forEach((id, tf) -> {
+                    double norm = K1 * (1 - B + B * lengths.get(id) / averageLength);
+                    scores.merge(id, idf * tf * (K1 + 1) / (tf + norm), Double::sum);
+                });
+            }
+            var top = new PriorityQueue<Match>((a, b) -> Double.compare(a.score(), b.score()));
+            scores.forEach((id, score) -> {
+                if (filter.test(id)) {
+                    top.add(new Match(id, score));
+                    if (top.size() > k) {
+                        top.poll();
+                    }
+                }
+            });
+            var matches = new ArrayList<>(top);
+            matches.sort((a, b) -> Double.compare(b.score(), a.score()));
+            return matches;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+}
@@ -11,17 +11,25 @@ import com.embabel.agent.rag.store.ContentElementRepositoryInfo;
 import com.embabel.agent.tools.file.FileTools;
 import com.embabel.guide.GuideProperties;
 import com.google.common.collect.Iterables;
+import com.google.common.collect.Lists;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.ObjectProvider;
 import org.springframework.lang.NonNull;
 import org.springframework.lang.Nullable;
 import org.springframework.stereotype.Service;
 
+import java.io.IOException;
+import java.net.URI;
+import java.nio.file.Path;
 import java.time.Duration;
 import java.time.Instant;
 import java.util.ArrayList;
 import java.util.Collections;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.stream.Collectors;
 
 /**
  * Exposes references and RAG configuration.
@@ -38,6 +46,22 @@ public class DataManager {
     private final ChunkingContentElementRepository store;
 
     private final HierarchicalContentReader hierarchicalContentReader;
+    private final ContentFetcher contentFetcher;
+    @Nullable
+    private final HttpFetchCache httpFetchCache;
+    @Nullable
+    private final BulkDocumentWriter bulkDocumentWriter;
+    @Nullable
+    private final SectionReplacer sectionReplacer;
+    @Nullable
+    private final VersionPartitions versionPartitions;
+    @Nullable
+    private final RagStoreSnapshot ragStoreSnapshot;
+    @Nullable
+    private final DocsQueryCache docsQueryCache;
+
+    // One set of file selection rules for whole-tree, streaming and incremental directory ingestion
+    private final DirectoryParsingConfig directoryParsingConfig = new DirectoryParsingConfig();
 
     // Refresh only snapshots
     private final ContentRefreshPolicy contentRefreshPolicy = UrlSpecificContentRefreshPolicy.containingAny(
@@ -47,11 +71,28 @@ public class DataManager {
     public DataManager(
             ChunkingContentElementRepository store,
             GuideProperties guideProperties,
-            HierarchicalContentReader hierarchicalContentReader
+            HierarchicalContentReader hierarchicalContentReader,
+            ContentFetcher contentFetcher,
+            ObjectProvider<HttpFetchCache> httpFetchCache,
+            ObjectProvider<BulkDocumentWriter> bulkDocumentWriter,
+            ObjectProvider<SectionReplacer> sectionReplacer,
+            ObjectProvider<VersionPartitions> versionPartitions,
+            ObjectProvider<RagStoreSnapshot> ragStoreSnapshot,
+            ObjectProvider<DocsQueryCache> docsQueryCache
     ) {
-        this.store = store;
+        this.docsQueryCache = docsQueryCache.getIfAvailable();
+        // Every write through the store, whichever ingestion path makes it, drops cached searches
+        this.store = this.docsQueryCache == null
+                ? store
+                : new ContentChangeNotifyingRepository(store, this.docsQueryCache::invalidate);
         this.guideProperties = guideProperties;
         this.hierarchicalContentReader = hierarchicalContentReader;
+        this.contentFetcher = contentFetcher;
+        this.httpFetchCache = httpFetchCache.getIfAvailable();
+        this.bulkDocumentWriter = bulkDocumentWriter.getIfAvailable();
+        this.sectionReplacer = sectionReplacer.getIfAvailable();
+        this.versionPartitions = versionPartitions.getIfAvailable();
+        this.ragStoreSnapshot = ragStoreSnapshot.getIfAvailable();
         this.references = LlmReferenceProviders.fromYmlFile(guideProperties.getReferencesFile());
         store.provision();
         // Ingestion on startup is now handled by IngestionRunner (ApplicationRunner)
@@ -94,28 +135,193 @@ public class DataManager {
      *
      * @param dir             absolute path
      * @param failedDocuments collector for per-document failures (mutated)
-     * @return the parsing result (may still be useful even when some documents failed)
+     * @return the parsed documents (may still be useful even when some documents failed)
+     */
+    public List<NavigableDocument> ingestDirectory(String dir, List<IngestionFailure> failedDocuments)
+            throws IOException {
+        return ingestDirectory(dir, failedDocuments, IngestionListener.NONE);
+    }
+
+    /**
+     * As {@link #ingestDirectory(String, List)}, reporting each document to {@code listener}.
      */
-    public DirectoryParsingResult ingestDirectory(String dir, List<IngestionFailure> failedDocuments) {
-        var ft = FileTools.readOnly(dir);
-        var directoryParsingResult = hierarchicalContentReader
-                .parseFromDirectory(ft, new DirectoryParsingConfig());
-        for (var root : directoryParsingResult.getContentRoots()) {
+    public List<NavigableDocument> ingestDirectory(
+            String dir, List<IngestionFailure> failedDocuments, IngestionListener listener) throws IOException {
+        return ingestDirectory(
+                dir, failedDocuments, listener, IngestionCheckpoint.disabled(), NearDuplicateDetector.disabled());
+    }
+
+    private List<NavigableDocument> ingestDirectory(
+            String dir, List<IngestionFailure> failedDocuments, IngestionListener listener,
+            IngestionCheckpoint checkpoint, NearDuplicateDetector duplicates) throws IOException {
+        var documents = parseDirectory(dir, failedDocuments, listener, checkpoint);
+        if (bulkWriteEnabled()) {
+            writeInBulk(dir, documents, failedDocuments, listener, checkpoint, duplicates);
+            return documents;
+        }
+        for (var doc : documents) {
             String docTitle = "unknown";
             try {
-                var doc = (NavigableDocument) root;
                 docTitle = doc.getTitle();
+                if (checkpoint.isCompleted(doc.getUri())) {
+                    logger.info("Document '{}' was written before the interruption, skipping", docTitle);
+                    continue;
+                }
+                if (duplicates.isDuplicate(doc)) {
+                    continue;
+                }
                 logger.info("Parsed root: {} with {} descendants", docTitle,
                         Iterables.size(doc.descendants()));
+                checkpoint.begin(doc.getUri());
                 store.writeAndChunkDocument(doc);
+                checkpoint.complete(doc.getUri());
+                listener.onEvent(IngestionEvent.of(IngestionEvent.Type.DOCUMENT_WRITTEN, dir + " -> " + docTitle));
             } catch (Throwable t) {
                 logger.error("Failed to write document '{}' from directory {}: {}",
                         docTitle, dir, t.getMessage(), t);
-                failedDocuments.add(IngestionFailure.fromException(
-                        dir + " -> " + docTitle, t));
+                checkpoint.fail(doc.getUri());
+                var failure = IngestionFailure.fromException(dir + " -> " + docTitle, t);
+                failedDocuments.add(failure);
+                listener.onEvent(IngestionEvent.failed(IngestionEvent.Type.DOCUMENT_FAILED, failure));
+            }
+        }
+        return documents;
+    }
+
+    /**
+     * Parse every file of a directory. A whole-tree parse happens inside the reader, beyond
+     * the per-document parsing limits, so with limits on the files are parsed one at a time
+     * instead. They are then keyed by file URI, as streaming and incremental ingestion key
+     * them, and what a whole-tree parse stored for a file is removed.
+     */
+    private List<NavigableDocument> parseDirectory(
+            String dir, List<IngestionFailure> failedDocuments, IngestionListener listener,
+            IngestionCheckpoint checkpoint) throws IOException {
+        if (!guideProperties.getIngestion().getParsing().getEnabled()) {
+            return hierarchicalContentReader.parseFromDirectory(FileTools.readOnly(dir), directoryParsingConfig)
+                    .getContentRoots().stream()
+                    .map(root -> (NavigableDocument) root)
+                    .toList();
+        }
+        var documents = new ArrayList<NavigableDocument>();
+        for (var file : new DirectoryScanner(directoryParsingConfig).scan(Path.of(dir))) {
+            try {
+                documents.add(hierarchicalContentReader.parseFile(file.toFile(), file.toUri().toString()));
+            } catch (Throwable t) {
+                logger.error("Failed to parse {} from directory {}: {}", file, dir, t.getMessage());
+                checkpoint.fail(file.toUri().toString());
+                var failure = IngestionFailure.fromException(dir + " -> " + file.getFileName(), t);
+                failedDocuments.add(failure);
+                listener.onEvent(IngestionEvent.failed(IngestionEvent.Type.DOCUMENT_FAILED, failure));
+                continue;
+            }
+            for (var uri : IncrementalDirectoryIngester.wholeTreeUris(file)) {
+                if (store.existsRootWithUri(uri)) {
+                    store.deleteRootAndDescendants(uri);
+                    logger.info("Replacing {} with its file URI document", uri);
+                }
+            }
+        }
+        return documents;
+    }
+
+    /**
+     * Ingest a directory without parsing the whole tree first: files are parsed, written and
+     * released one at a time, with a bounded number of documents in flight, so peak memory
+     * does not grow with the size of the repository. Documents are keyed by file URI.
+     *
+     * @param dir             absolute path
+     * @param failedDocuments collector for per-document failures (mutated)
+     * @return the number of documents written
+     */
+    public int ingestDirectoryStreaming(String dir, List<IngestionFailure> failedDocuments) throws IOException {
+        return ingestDirectoryStreaming(dir, failedDocuments, IngestionListener.NONE);
+    }
+
+    /**
+     * As {@link #ingestDirectoryStreaming(String, List)}, reporting each document to {@code listener}.
+     */
+    public int ingestDirectoryStreaming(
+            String dir, List<IngestionFailure> failedDocuments, IngestionListener listener) throws IOException {
+        return ingestDirectoryStreaming(
+                dir, failedDocuments, listener, IngestionCheckpoint.disabled(), NearDuplicateDetector.disabled());
+    }
+
+    private int ingestDirectoryStreaming(
+            String dir, List<IngestionFailure> failedDocuments, IngestionListener listener,
+            IngestionCheckpoint checkpoint, NearDuplicateDetector duplicates) throws IOException {
+        var root = Path.of(dir);
+        var files = new DirectoryScanner(directoryParsingConfig).scan(root);
+        logger.info("Streaming {} files from {}", files.size(), dir);
+        var report = ingestionPipeline(checkpoint, duplicates).ingestFiles(root, files, documentProgress(listener));
+        failedDocuments.addAll(report.failures());
+        return report.completed().size();
+    }
+
+    /**
+     * Write a directory's documents through the {@link BulkDocumentWriter} a batch at a time.
+     * A batch is journalled as a unit and fails as a unit: every document in it is reported.
+     */
+    private void writeInBulk(
+            String dir, List<NavigableDocument> parsed, List<IngestionFailure> failedDocuments,
+            IngestionListener listener, IngestionCheckpoint checkpoint, NearDuplicateDetector duplicates) {
+        var documents = parsed.stream()
+                .filter(doc -> !checkpoint.isCompleted(doc.getUri()))
+                .filter(doc -> !duplicates.isDuplicate(doc))
+                .toList();
+        var batches = Lists.partition(documents, guideProperties.getBulkWrite().getDocumentsPerBatch());
+        for (var batch : batches) {
+            batch.forEach(doc -> checkpoint.begin(doc.getUri()));
+            try {
+                bulkDocumentWriter.write(batch);
+                invalidateDocsCache();
+                for (var doc : batch) {
+                    checkpoint.complete(doc.getUri());
+                    listener.onEvent(IngestionEvent.of(
+                            IngestionEvent.Type.DOCUMENT_WRITTEN, dir + " -> " + doc.getTitle()));
+                }
+            } catch (Throwable t) {
+                logger.error("Failed to write batch of {} documents from directory {}: {}",
+                        batch.size(), dir, t.getMessage(), t);
+                for (var doc : batch) {
+                    checkpoint.fail(doc.getUri());
+                    var failure = IngestionFailure.fromException(dir + " -> " + doc.getTitle(), t);
+                    failedDocuments.add(failure);
+                    listener.onEvent(IngestionEvent.failed(IngestionEvent.Type.DOCUMENT_FAILED, failure));
+                }
             }
         }
-        return directoryParsingResult;
+    }
+
+    /**
+     * Ingest a directory against its content-hash manifest, touching only files that
+     * were added, changed or removed since the previous run.
+     *
+     * @param dir             absolute path
+     * @param failedDocuments collector for per-document failures (mutated)
+     * @return counts of skipped, updated and deleted documents
+     */
+    public DocumentChanges ingestDirectoryIncrementally(String dir, List<IngestionFailure> failedDocuments)
+            throws IOException {
+        return ingestDirectoryIncrementally(dir, failedDocuments, IngestionListener.NONE);
+    }
+
+    /**
+     * As {@link #ingestDirectoryIncrementally(String, List)}, reporting each added, updated
+     * or failed document to {@code listener}.
+     */
+    public DocumentChanges ingestDirectoryIncrementally(
+            String dir, List<IngestionFailure> failedDocuments, IngestionListener listener) throws IOException {
+        return ingestDirectoryIncrementally(
+                dir, failedDocuments, listener, IngestionCheckpoint.disabled(), NearDuplicateDetector.disabled());
+    }
+
+    private DocumentChanges ingestDirectoryIncrementally(
+            String dir, List<IngestionFailure> failedDocuments, IngestionListener listener,
+            IngestionCheckpoint checkpoint, NearDuplicateDetector duplicates) throws IOException {
+        return new IncrementalDirectoryIngester(
+                store, hierarchicalContentReader, stateDirectory(), directoryParsingConfig)
+                .ingest(dir, failedDocuments, listener, checkpoint, duplicates);
     }
 
     /**
@@ -124,58 +330,365 @@ public class DataManager {
      * @param url the URL to ingest
      */
     public void ingestPage(String url) {
-        var root = contentRefreshPolicy.ingestUriIfNeeded(store, hierarchicalContentReader, url);
-        if (root != null) {
-            logger.info("Ingested page: {} with {} descendants",
-                    root.getTitle(),
-                    Iterables.size(root.descendants())
-            );
-        } else {
+        ingestPage(url, NearDuplicateDetector.disabled(), IngestionCheckpoint.disabled());
+    }
+
+    /**
+     * The refresh policy's read-and-write, split so the parsed page can be checked for
+     * near-duplicates, and journalled as begun, only once it is about to be written: a page
+     * whose fetch or parse fails leaves what the store holds for it alone.
+     */
+    private void ingestPage(String url, NearDuplicateDetector duplicates, IngestionCheckpoint checkpoint) {
+        if (notModifiedSinceIngested(store, contentRefreshPolicy, httpFetchCache, url)) {
+            logger.info("Page at {} not modified since last ingested, skipping", url);
+            return;
+        }
+        if (!contentRefreshPolicy.shouldReread(store, url)) {
             logger.info("Page at {} was already ingested, skipping", url);
+            return;
+        }
+        var document = hierarchicalContentReader.parseUrl(url);
+        var refresher = snapshotRefresher();
+        if (refresher == null && !contentRefreshPolicy.shouldRefreshDocument(store, document)) {
+            return;
+        }
+        if (duplicates.isDuplicate(document)) {
+            return;
+        }
+        checkpoint.begin(url);
+        if (refresher != null) {
+            var outcome = refresher.write(document);
+            if (outcome != SnapshotRefresher.Outcome.UNCHANGED) {
+                // Sections may have been replaced without going through the store
+                invalidateDocsCache();
+            }
+            logger.info("Ingested page at {}: {}", url, outcome);
+            return;
+        }
+        if (store.existsRootWithUri(document.getUri())) {
+            store.deleteRootAndDescendants(document.getUri());
+        }
+        store.writeAndChunkDocument(document);
+        logger.info("Ingested page: {} with {} descendants",
+                document.getTitle(), Iterables.size(document.descendants()));
+    }
+
+    /**
+     * Whether a page due a re-read can be skipped because the server answers a conditional
+     * GET with 304, so neither the download nor the parse is needed. Only pages cached from a
+     * plain HTTP fetch are probed, not those a route such as Medium's RSS renders. A 200 is
+     * kept by the cache, and the fetch that follows uses it instead of downloading again.
+     */
+    static boolean notModifiedSinceIngested(
+            ChunkingContentElementRepository store,
+            ContentRefreshPolicy refreshPolicy,
+            @Nullable HttpFetchCache httpFetchCache,
+            String url) {
+        return httpFetchCache != null
+                && refreshPolicy.shouldReread(store, url)
+                && store.existsRootWithUri(url)
+                && httpFetchCache.isUnchanged(URI.create(url));
+    }
+
+    private void ingestUrlsConcurrently(
+            List<String> loadedUrls,
+            List<IngestionFailure> failedUrls,
+            Map<String, Duration> urlTimings,
+            IngestionListener listener,
+            IngestionCheckpoint checkpoint,
+            NearDuplicateDetector duplicates) {
+        var ingestion = guideProperties.getIngestion();
+        var urlIngester = new ConcurrentUrlIngester(
+                ingestion.getUrlConcurrency(), ingestion.getPerHostConcurrency());
+        var outcomes = urlIngester.ingestAll(guideProperties.getUrls(), url -> {
+            if (checkpoint.isCompleted(url)) {
+                logger.info("URL {} was loaded before the interruption, skipping", url);
+                listener.onEvent(IngestionEvent.of(IngestionEvent.Type.URL_LOADED, url));
+                return;
+            }
+            logger.info("⏳ Loading URL: {}...", url);
+            try {
+                ingestPage(url, duplicates, checkpoint);
+                checkpoint.complete(url);
+            } catch (RuntimeException | Error e) {
+                checkpoint.fail(url);
+                listener.onEvent(IngestionEvent.failed(IngestionEvent.Type.URL_FAILED,
+                        IngestionFailure.fromException(url, e)));
+                throw e;
+            }
+            listener.onEvent(IngestionEvent.of(IngestionEvent.Type.URL_LOADED, url));
+        });
+        for (var outcome : outcomes) {
+            var url = outcome.url();
+            urlTimings.put(url, outcome.elapsed());
+            if (outcome.succeeded()) {
+                logger.info("✅ Loaded URL: {} in {}ms", url, outcome.elapsed().toMillis());
+                loadedUrls.add(url);
+            } else {
+                var t = outcome.failure();
+                logger.error("❌ Failure loading URL {}: {}", url, t.getMessage(), t);
+                failedUrls.add(IngestionFailure.fromException(url, t));
+            }
         }
     }
 
+    private void ingestUrlsThroughPipeline(
+            List<String> loadedUrls, List<IngestionFailure> failedUrls, IngestionListener listener,
+            IngestionCheckpoint checkpoint, NearDuplicateDetector duplicates) {
+        var remaining = guideProperties.getUrls().stream()
+                .filter(url -> !checkpoint.isCompleted(url))
+                .toList();
+        var report = ingestionPipeline(checkpoint, duplicates).ingestUrls(remaining, new StagedPipeline.ItemListener() {
+            @Override
+            public void completed(String source) {
+                listener.onEvent(IngestionEvent.of(IngestionEvent.Type.URL_LOADED, source));
+            }
+
+            @Override
+            public void dropped(String source) {
+                listener.onEvent(IngestionEvent.of(IngestionEvent.Type.URL_LOADED, source));
+            }
+
+            @Override
+            public void failed(IngestionFailure failure) {
+                listener.onEvent(IngestionEvent.failed(IngestionEvent.Type.URL_FAILED, failure));
+            }
+        });
+        // URLs the pipeline dropped were already ingested and not due a refresh, so they count as loaded
+        var failedSources = report.failures().stream()
+                .map(IngestionFailure::source)
+                .collect(Collectors.toSet());
+        guideProperties.getUrls().stream()
+                .filter(url -> !failedSources.contains(url))
+                .forEach(loadedUrls::add);
+        failedUrls.addAll(report.failures());
+    }
+
+    private static StagedPipeline.ItemListener documentProgress(IngestionListener listener) {
+        return new StagedPipeline.ItemListener() {
+            @Override
+            public void completed(String source) {
+                listener.onEvent(IngestionEvent.of(IngestionEvent.Type.DOCUMENT_WRITTEN, source));
+            }
+
+            @Override
+            public void failed(IngestionFailure failure) {
+                listener.onEvent(IngestionEvent.failed(IngestionEvent.Type.DOCUMENT_FAILED, failure));
+            }
+        };
+    }
+
+    private boolean pipelineEnabled() {
+        return guideProperties.getIngestion().getPipeline().getEnabled();
+    }
+
+    /**
+     * Whether directories are written as whole parsed trees by the bulk writer. The pipeline
+     * also gets the writer, for its embed stage, so its presence alone doesn't decide this.
+     */
+    private boolean bulkWriteEnabled() {
+        return bulkDocumentWriter != null && guideProperties.getBulkWrite().getEnabled();
+    }
+
+    /**
+     * Whether directories are parsed file by file through the pipeline rather than as a whole
+     * tree. The pipeline implies it unless bulk writes are on, which write parsed trees:
+     * handing them an already-parsed tree would leave nothing for the parse stage to overlap with.
+     */
+    private boolean streamDirectories() {
+        return guideProperties.getIngestion().getStreamingDirectories()
+                || (pipelineEnabled() && !bulkWriteEnabled());
+    }
+
+    private IngestionPipeline ingestionPipeline(IngestionCheckpoint checkpoint, NearDuplicateDetector duplicates) {
+        var ingestion = guideProperties.getIngestion();
+        return new IngestionPipeline(store, hierarchicalContentReader, contentFetcher, httpFetchCache,
+                snapshotRefresher(), bulkDocumentWriter, contentRefreshPolicy, checkpoint, duplicates,
+                ingestion.getPipeline(), ingestion.getPerHostConcurrency());
+    }
+
+    private Path stateDirectory() {
+        return Path.of(guideProperties.resolvePath(guideProperties.getIngestion().getStateDirectory()));
+    }
+
+    @Nullable
+    private SnapshotRefresher snapshotRefresher() {
+        var ingestion = guideProperties.getIngestion();
+        if (!ingestion.getIncrementalRefresh()) {
+            return null;
+        }
+        return new SnapshotRefresher(store, stateDirectory(), sectionReplacer);
+    }
+
     /**
      * Load all referenced URLs and directories from configuration.
      * Each item is ingested independently -- a single failure never prevents
-     * the remaining items from being processed.
+     * the remaining items from being processed. URLs are ingested concurrently
+     * when {@code guide.ingestion.url-concurrency} is greater than 1, or through the
+     * staged {@link IngestionPipeline} when {@code guide.ingestion.pipeline.enabled} is set.
      *
      * @return structured result with loaded/failed URLs and directories (with reasons)
      */
     public IngestionResult loadReferences() {
+        return loadReferences(IngestionListener.NONE);
+    }
+
+    /**
+     * As {@link #loadReferences()}, reporting per-URL, per-directory and per-document
+     * progress to {@code listener} as it happens.
+     */
+    public IngestionResult loadReferences(IngestionListener listener) {
+        return loadReferences(listener, false);
+    }
+
+    /**
+     * As {@link #loadReferences()}, but continue from where an interrupted run stopped:
+     * URLs and documents it completed are skipped, and any it left half written are
+     * deleted and ingested again.
+     */
+    public IngestionResult resumeLoadingReferences() {
+        return loadReferences(IngestionListener.NONE, true);
+    }
+
+    private IngestionResult loadReferences(IngestionListener listener, boolean resume) {
+        IngestionCheckpoint checkpoint;
+        try {
+            checkpoint = IngestionCheckpoint.open(stateDirectory(), resume);
+        } catch (IOException e) {
+            logger.warn("Cannot record ingestion checkpoints: {}", e.getMessage());
+            checkpoint = IngestionCheckpoint.disabled();
+        }
+        try {
+            removePartiallyWritten(checkpoint);
+            var result = loadReferences(listener, checkpoint, duplicateDetector());
+            checkpoint.finish();
+            refreshVersionPartitions();
+            invalidateDocsCache();
+            return result;
+        } finally {
+            checkpoint.close();
+        }
+    }
+
+    /**
+     * Load the store from a snapshot written by {@link #exportSnapshot}, in place of
+     * {@link #loadReferences()}. The file is resolved like the projects path.
+     */
+    public RagStoreSnapshot.Summary importSnapshot(String file) throws IOException {
+        var summary = snapshots().importFrom(Path.of(guideProperties.resolvePath(file)));
+        refreshVersionPartitions();
+        invalidateDocsCache();
+        return summary;
+    }
+
+    /**
+     * Write the whole store, embeddings included, to a snapshot another node can import.
+     */
+    public RagStoreSnapshot.Summary exportSnapshot(String file) throws IOException {
+        return snapshots().exportTo(Path.of(guideProperties.resolvePath(file)));
+    }
+
+    private RagStoreSnapshot snapshots() {
+        if (ragStoreSnapshot == null) {
+            throw new IllegalStateException("Store snapshots are only available for the Neo4j store");
+        }
+        return ragStoreSnapshot;
+    }
+
+    private void removePartiallyWritten(IngestionCheckpoint checkpoint) {
+        for (var uri : List.copyOf(checkpoint.interrupted())) {
+            try {
+                store.deleteRootAndDescendants(uri);
+                checkpoint.removed(uri);
+                logger.info("Removed partially written document {}", uri);
+            } catch (Throwable t) {
+                logger.warn("Could not remove partially written document {}: {}", uri, t.getMessage());
+            }
+        }
+    }
+
+    /**
+     * Bring version partitions up to date with the chunks just written. A failure here leaves
+     * new chunks unsearchable until the next run but doesn't fail the ingestion.
+     */
+    private void refreshVersionPartitions() {
+        if (versionPartitions == null) {
+            return;
+        }
+        try {
+            versionPartitions.refresh();
+        } catch (Throwable t) {
+            logger.error("Could not refresh version partitions: {}", t.getMessage(), t);
+        }
+    }
+
+    /**
+     * Drop cached docs searches after writes that bypass the store, or that change what
+     * searches see without writing, such as refreshing version partitions.
+     */
+    private void invalidateDocsCache() {
+        if (docsQueryCache != null) {
+            docsQueryCache.invalidate();
+        }
+    }
+
+    private NearDuplicateDetector duplicateDetector() {
+        var dedup = guideProperties.getIngestion().getDedup();
+        if (!dedup.getEnabled()) {
+            return NearDuplicateDetector.disabled();
+        }
+        var baseUrl = guideProperties.getContent().getVersioned().getBaseUrl();
+        // Each docs version is a partition of its own, so one version's pages never hide the next's
+        return new NearDuplicateDetector(
+                dedup.getSectionSimilarity(), dedup.getMinWords(), dedup.getDocumentShare(),
+                uri -> VersionChunkTransformer.versionOf(uri, baseUrl));
+    }
+
+    private IngestionResult loadReferences(
+            IngestionListener listener, IngestionCheckpoint checkpoint, NearDuplicateDetector duplicates) {
         var start = Instant.now();
         var loadedUrls = new ArrayList<String>();
         var failedUrls = new ArrayList<IngestionFailure>();
         var ingestedDirs = new ArrayList<String>();
         var failedDirs = new ArrayList<IngestionFailure>();
         var failedDocuments = new ArrayList<IngestionFailure>();
+        var urlTimings = new LinkedHashMap<String, Duration>();
+        var documentChanges = DocumentChanges.none();
 
-        for (var url : guideProperties.getUrls()) {
-            try {
-                logger.info("⏳ Loading URL: {}...", url);
-                ingestPage(url);
-                logger.info("✅ Loaded URL: {}", url);
-                loadedUrls.add(url);
-            } catch (Throwable t) {
-                logger.error("❌ Failure loading URL {}: {}", url, t.getMessage(), t);
-                failedUrls.add(IngestionFailure.fromException(url, t));
-            }
+        if (pipelineEnabled()) {
+            ingestUrlsThroughPipeline(loadedUrls, failedUrls, listener, checkpoint, duplicates);
+        } else {
+            ingestUrlsConcurrently(loadedUrls, failedUrls, urlTimings, listener, checkpoint, duplicates);
         }
-        logger.info("Loaded {}/{} URLs successfully ({} failed)",
-                loadedUrls.size(), guideProperties.getUrls().size(), failedUrls.size());
+        var urlPhase = Duration.between(start, Instant.now());
+        logger.info("Loaded {}/{} URLs successfully ({} failed) in {}ms",
+                loadedUrls.size(), guideProperties.getUrls().size(), failedUrls.size(), urlPhase.toMillis());
 
+        var directoryStart = Instant.now();
         List<String> dirs = guideProperties.getDirectories();
         if (dirs != null && !dirs.isEmpty()) {
             for (String dir : dirs) {
                 try {
                     String absolutePath = guideProperties.resolvePath(dir);
                     logger.info("⏳ Ingesting directory: {}...", absolutePath);
-                    ingestDirectory(absolutePath, failedDocuments);
+                    listener.onEvent(IngestionEvent.of(IngestionEvent.Type.DIRECTORY_STARTED, absolutePath));
+                    if (guideProperties.getIngestion().getIncremental()) {
+                        documentChanges = documentChanges.plus(
+                                ingestDirectoryIncrementally(
+                                        absolutePath, failedDocuments, listener, checkpoint, duplicates));
+                    } else if (streamDirectories()) {
+                        ingestDirectoryStreaming(absolutePath, failedDocuments, listener, checkpoint, duplicates);
+                    } else {
+                        ingestDirectory(absolutePath, failedDocuments, listener, checkpoint, duplicates);
+                    }
                     logger.info("✅ Ingested directory: {}", absolutePath);
                     ingestedDirs.add(absolutePath);
+                    listener.onEvent(IngestionEvent.of(IngestionEvent.Type.DIRECTORY_INGESTED, absolutePath));
                 } catch (Throwable t) {
                     logger.error("❌ Failure ingesting directory {}: {}", dir, t.getMessage(), t);
-                    failedDirs.add(IngestionFailure.fromException(dir, t));
+                    var failure = IngestionFailure.fromException(dir, t);
+                    failedDirs.add(failure);
+                    listener.onEvent(IngestionEvent.failed(IngestionEvent.Type.DIRECTORY_FAILED, failure));
                 }
             }
             logger.info("Ingested {}/{} directories ({} dir failures, {} document failures)",
@@ -183,9 +696,11 @@ public class DataManager {
         } else {
             logger.info("No directories configured for ingestion (guide.directories empty or not set)");
         }
+        var directoryPhase = Duration.between(directoryStart, Instant.now());
 
         return new IngestionResult(loadedUrls, failedUrls, ingestedDirs, failedDirs,
-                failedDocuments, Duration.between(start, Instant.now()));
+                failedDocuments, Duration.between(start, Instant.now()),
+                new IngestionTimings(urlPhase, directoryPhase, urlTimings), documentChanges, duplicates.skipped());
     }
 
 }
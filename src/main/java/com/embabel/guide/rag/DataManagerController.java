@@ -2,12 +2,19 @@ package com.embabel.guide.rag;
 
 import com.embabel.guide.stats.GuideStats;
 import com.embabel.guide.stats.GuideStatsService;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
 import org.springframework.security.core.Authentication;
 import org.springframework.security.core.context.SecurityContextHolder;
 import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.PathVariable;
 import org.springframework.web.bind.annotation.PostMapping;
 import org.springframework.web.bind.annotation.RequestMapping;
 import org.springframework.web.bind.annotation.RestController;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
+
+import java.net.URI;
 
 /**
  * Web endpoints for ingestion and content management
@@ -18,10 +25,15 @@ public class DataManagerController {
 
     private final DataManager dataManager;
     private final GuideStatsService guideStatsService;
+    private final IngestionJobService ingestionJobService;
 
-    public DataManagerController(DataManager dataManager, GuideStatsService guideStatsService) {
+    public DataManagerController(
+            DataManager dataManager,
+            GuideStatsService guideStatsService,
+            IngestionJobService ingestionJobService) {
         this.dataManager = dataManager;
         this.guideStatsService = guideStatsService;
+        this.ingestionJobService = ingestionJobService;
     }
 
     /**
@@ -43,8 +55,40 @@ public class DataManagerController {
         return null;
     }
 
+    /**
+     * Synchronous ingestion; holds the request thread until done. Prefer {@link #startIngestionJob()}.
+     * Conflict if an ingestion job is already running.
+     */
     @PostMapping("/load-references")
-    public IngestionResult loadReferences() {
-        return dataManager.loadReferences();
+    public ResponseEntity<IngestionResult> loadReferences() {
+        return ingestionJobService.runNow(dataManager::loadReferences)
+                .map(ResponseEntity::ok)
+                .orElseGet(() -> ResponseEntity.status(HttpStatus.CONFLICT).build());
+    }
+
+    /**
+     * Start ingestion in the background, or return the job already running.
+     * Poll the job at the returned location, or follow {@code /events} for progress.
+     */
+    @PostMapping("/ingestion-jobs")
+    public ResponseEntity<IngestionJob> startIngestionJob() {
+        var job = ingestionJobService.start();
+        return ResponseEntity.accepted()
+                .location(URI.create("/api/v1/data/ingestion-jobs/" + job.id()))
+                .body(job);
+    }
+
+    @GetMapping("/ingestion-jobs/{id}")
+    public ResponseEntity<IngestionJob> getIngestionJob(@PathVariable String id) {
+        return ResponseEntity.of(ingestionJobService.find(id));
+    }
+
+    /**
+     * Server-sent events: {@code progress} per URL, directory and document, then {@code completed}
+     * with the final job including its {@link IngestionResult}.
+     */
+    @GetMapping(path = "/ingestion-jobs/{id}/events", produces = MediaType.TEXT_EVENT_STREAM_VALUE)
+    public ResponseEntity<SseEmitter> ingestionJobEvents(@PathVariable String id) {
+        return ResponseEntity.of(ingestionJobService.subscribe(id));
     }
 }
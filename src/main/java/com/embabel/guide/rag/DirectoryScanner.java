@@ -0,0 +1,78 @@
+package com.embabel.guide.rag;
+
+import com.embabel.agent.rag.ingestion.DirectoryParsingConfig;
+
+import java.io.IOException;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * Lists the files under a directory that ingestion should consider, by the extension,
+ * excluded-directory and size rules of the {@link DirectoryParsingConfig} a whole-tree parse
+ * of the same directory is given. The rules are read from the config, not copied, so both
+ * ways of ingesting a directory always select the same files.
+ * Only paths are collected, never content, so this is cheap even for large repositories.
+ */
+class DirectoryScanner {
+
+    private final DirectoryParsingConfig config;
+
+    DirectoryScanner(DirectoryParsingConfig config) {
+        this.config = config;
+    }
+
+    /**
+     * @return matching regular files, sorted by path so runs are deterministic
+     */
+    List<Path> scan(Path root) throws IOException {
+        var files = new ArrayList<Path>();
+        Files.walkFileTree(root, new SimpleFileVisitor<>() {
+            @Override
+            public FileVisitResult preVisitDirectory(Path dir, BasicFileAttributes attrs) {
+                if (!dir.equals(root) && config.getExcludedDirectories().contains(dir.getFileName().toString())) {
+                    return FileVisitResult.SKIP_SUBTREE;
+                }
+                return FileVisitResult.CONTINUE;
+            }
+
+            @Override
+            public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) {
+                if (attrs.isRegularFile() && attrs.size() <= config.getMaxFileSize() && hasIncludedExtension(file)) {
+                    files.add(file);
+                }
+                return FileVisitResult.CONTINUE;
+            }
+
+            @Override
+            public FileVisitResult visitFileFailed(Path file, IOException e) {
+                // Unreadable entries are skipped, as directory parsing does
+                return FileVisitResult.CONTINUE;
+            }
+        });
+        files.sort(Comparator.naturalOrder());
+        return files;
+    }
+
+    private boolean hasIncludedExtension(Path file) {
+        var name = file.getFileName().toString();
+        int dot = name.lastIndexOf('.');
+        if (dot < 0) {
+            return false;
+        }
+        var extension = normalizeExtension(name.substring(dot + 1));
+        return config.getIncludedExtensions().stream()
+                .anyMatch(included -> normalizeExtension(included).equals(extension));
+    }
+
+    private static String normalizeExtension(String extension) {
+        var e = extension.toLowerCase(Locale.ROOT);
+        return e.startsWith(".") ? e.substring(1) : e;
+    }
+}
@@ -0,0 +1,31 @@
+package com.embabel.guide.rag;
+
+/**
+ * Document-level change counts from incremental directory ingestion.
+ *
+ * @param skipped    files whose content was unchanged since the last run, so were not re-ingested
+ * @param updated    files that were new or changed and were (re-)ingested
+ * @param deleted    files that disappeared, whose documents and chunks were removed from the store
+ * @param duplicates files that were new or changed but not written, as they near-duplicate
+ *                   documents already in the store
+ */
+public record DocumentChanges(
+        int skipped,
+        int updated,
+        int deleted,
+        int duplicates
+) {
+
+    public static DocumentChanges none() {
+        return new DocumentChanges(0, 0, 0, 0);
+    }
+
+    public DocumentChanges plus(DocumentChanges other) {
+        return new DocumentChanges(skipped + other.skipped, updated + other.updated, deleted + other.deleted,
+                duplicates + other.duplicates);
+    }
+
+    public boolean isEmpty() {
+        return skipped == 0 && updated == 0 && deleted == 0 && duplicates == 0;
+    }
+}
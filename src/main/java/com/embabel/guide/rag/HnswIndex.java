@@ -0,0 +1,706 @@
+package com.embabel.guide.rag;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.SplittableRandom;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.IntPredicate;
+import java.util.function.Predicate;
+
+/**
+ * Hierarchical Navigable Small World graph for approximate cosine-similarity search.
+ * <p>
+ * Vectors are normalized on insert and kept in one flat {@code float[]}, {@code dimensions}
+ * floats per node, so the index holds no per-vector objects and dot products walk contiguous
+ * memory. Each node has up to {@code m} neighbours per upper level and {@code 2m} on level 0.
+ * <p>
+ * A quantized index also keeps each vector as int8 codes with one scale per vector, and builds
+ * and searches the graph on those: integer dot products are about twice as fast as float ones
+ * and touch a quarter of the memory. The {@code ef} candidates a search finds are then rescored
+ * with the full-precision vectors, which stay for that purpose, so results and scores are exact
+ * for the candidates and only the traversal is approximate.
+ * <p>
+ * Removal marks a node deleted: it still routes searches but is never returned, and adding
+ * the same id again creates a fresh node. Once deleted nodes outnumber live ones, and there
+ * are at least {@value #COMPACT_MIN_DELETED} of them, the graph is rebuilt from the live
+ * nodes, so a store that keeps replacing documents doesn't grow without bound. Filtered
+ * searches skip rejected nodes in the results but not in the traversal, and fall back to an
+ * exact scan when the graph yields too few.
+ * <p>
+ * Safe for concurrent searches; writes are serialized.
+ */
+final class HnswIndex {
+
+    private static final int MAGIC = 0x484E5357; // "HNSW"
+    private static final int FORMAT = 2;
+    static final int COMPACT_MIN_DELETED = 1024;
+
+    record Match(String id, double score) {
+    }
+
+    /**
+     * Binary heap of candidates packed as longs: the distance's float bits above the node
+     * number. Distances are clamped at zero, so ordering the longs orders by distance.
+     */
+    private static final class Heap {
+        private final boolean farthestFirst;
+        private long[] items = new long[64];
+        private int size;
+
+        Heap(boolean farthestFirst) {
+            this.farthestFirst = farthestFirst;
+        }
+
+        static long pack(int node, float distance) {
+            return ((long) Float.floatToIntBits(Math.max(0f, distance)) << 32) | node;
+        }
+
+        static int node(long candidate) {
+            return (int) candidate;
+        }
+
+        static float distance(long candidate) {
+            return Float.intBitsToFloat((int) (candidate >>> 32));
+        }
+
+        int size() {
+            return size;
+        }
+
+        long peek() {
+            return items[0];
+        }
+
+        private boolean above(long a, long b) {
+            return farthestFirst ? a > b : a < b;
+        }
+
+        void add(long candidate) {
+            if (size == items.length) {
+                items = Arrays.copyOf(items, size * 2);
+            }
+            int i = size++;
+            while (i > 0 && above(candidate, items[(i - 1) / 2])) {
+                items[i] = items[(i - 1) / 2];
+                i = (i - 1) / 2;
+            }
+            items[i] = candidate;
+        }
+
+        long poll() {
+            long top = items[0];
+            long last = items[--size];
+            int i = 0;
+            while (2 * i + 1 < size) {
+                int child = 2 * i + 1;
+                if (child + 1 < size && above(items[child + 1], items[child])) {
+                    child++;
+                }
+                if (!above(items[child], last)) {
+                    break;
+                }
+                items[i] = items[child];
+                i = child;
+            }
+            items[i] = last;
+            return top;
+        }
+
+        /**
+         * The candidates, nearest first.
+         */
+        long[] sorted() {
+            var sorted = Arrays.copyOf(items, size);
+            Arrays.sort(sorted);
+            return sorted;
+        }
+    }
+
+    private final int dimensions;
+    private final int m;
+    private final int efConstruction;
+    private final boolean quantized;
+    private final double levelMultiplier;
+    private final SplittableRandom random = new SplittableRandom(42);
+    private final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+
+    private float[] vectors;
+    private byte[] codes;
+    private float[] scales;
+    private String[] ids;
+    private int[][][] neighbours; // node -> level -> [count, n1, n2, ...]
+    private boolean[] deleted;
+    private final Map<String, Integer> nodes = new HashMap<>();
+    private int size;
+    private int entryPoint = -1;
+    private int topLevel = -1;
+
+    /**
+     * @param dimensions     vector length
+     * @param m              neighbours per node on upper levels; level 0 keeps twice as many
+     * @param efConstruction candidates considered when linking a new node
+     */
+    HnswIndex(int dimensions, int m, int efConstruction) {
+        this(dimensions, m, efConstruction, false);
+    }
+
+    /**
+     * @param quantized whether to build and search the graph on int8 codes, rescoring with floats
+     */
+    HnswIndex(int dimensions, int m, int efConstruction, boolean quantized) {
+        if (dimensions <= 0 || m < 2 || efConstruction < m) {
+            throw new IllegalArgumentException(
+                    "Need dimensions > 0, m >= 2 and efConstruction >= m, got %d, %d, %d"
+                            .formatted(dimensions, m, efConstruction));
+        }
+        this.dimensions = dimensions;
+        this.m = m;
+        this.efConstruction = efConstruction;
+        this.quantized = quantized;
+        this.levelMultiplier = 1 / Math.log(m);
+        allocate(1024);
+    }
+
+    int dimensions() {
+        return dimensions;
+    }
+
+    boolean quantized() {
+        return quantized;
+    }
+
+    /**
+     * Number of searchable vectors.
+     */
+    int size() {
+        lock.readLock().lock();
+        try {
+            return nodes.size();
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    boolean contains(String id) {
+        lock.readLock().lock();
+        try {
+            return nodes.containsKey(id);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Add or replace the vector for {@code id}.
+     */
+    void add(String id, float[] vector) {
+        if (vector.length != dimensions) {
+            throw new IllegalArgumentException(
+                    "Expected %d dimensions, got %d".formatted(dimensions, vector.length));
+        }
+        lock.writeLock().lock();
+        try {
+            if (markDeleted(id)) {
+                compactIfMostlyDeleted();
+            }
+            insert(id, normalized(vector));
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Stop returning {@code id} from searches.
+     *
+     * @return whether it was in the index
+     */
+    boolean remove(String id) {
+        lock.writeLock().lock();
+        try {
+            if (!markDeleted(id)) {
+                return false;
+            }
+            compactIfMostlyDeleted();
+            return true;
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Rebuild the graph from its live nodes, dropping every deleted one.
+     */
+    void compact() {
+        lock.writeLock().lock();
+        try {
+            rebuild();
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Nodes in the graph, deleted ones included.
+     */
+    int graphSize() {
+        lock.readLock().lock();
+        try {
+            return size;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    private void insert(String id, float[] normalized) {
+        if (size == ids.length) {
+            allocate(ids.length * 2);
+        }
+        int node = size++;
+        ids[node] = id;
+        System.arraycopy(normalized, 0, vectors, node * dimensions, dimensions);
+        if (quantized) {
+            quantize(node);
+        }
+        int level = (int) (-Math.log(1 - random.nextDouble()) * levelMultiplier);
+        neighbours[node] = new int[level + 1][];
+        for (int l = 0; l <= level; l++) {
+            neighbours[node][l] = new int[maxNeighbours(l) + 1];
+        }
+        nodes.put(id, node);
+        link(node, level);
+    }
+
+    private void compactIfMostlyDeleted() {
+        int deletedNodes = size - nodes.size();
+        if (deletedNodes >= COMPACT_MIN_DELETED && deletedNodes > nodes.size()) {
+            rebuild();
+        }
+    }
+
+    private void rebuild() {
+        int liveNodes = nodes.size();
+        var liveIds = new String[liveNodes];
+        var liveVectors = new float[liveNodes * dimensions];
+        int live = 0;
+        for (int node = 0; node < size; node++) {
+            if (!deleted[node]) {
+                liveIds[live] = ids[node];
+                System.arraycopy(vectors, node * dimensions, liveVectors, live * dimensions, dimensions);
+                live++;
+            }
+        }
+        vectors = null;
+        codes = null;
+        scales = null;
+        ids = null;
+        neighbours = null;
+        deleted = null;
+        allocate(Math.max(1024, liveNodes));
+        nodes.clear();
+        size = 0;
+        entryPoint = -1;
+        topLevel = -1;
+        for (int i = 0; i < liveNodes; i++) {
+            // Stored vectors are already normalized
+            insert(liveIds[i], Arrays.copyOfRange(liveVectors, i * dimensions, (i + 1) * dimensions));
+        }
+    }
+
+    /**
+     * The {@code k} vectors most similar to {@code query} whose ids {@code filter} accepts,
+     * most similar first.
+     *
+     * @param ef candidates tracked on level 0; higher is slower and more accurate
+     */
+    List<Match> search(float[] query, int k, int ef, Predicate<String> filter) {
+        if (query.length != dimensions) {
+            throw new IllegalArgumentException(
+                    "Expected %d dimensions, got %d".formatted(dimensions, query.length));
+        }
+        lock.readLock().lock();
+        try {
+            if (entryPoint < 0 || k <= 0) {
+                return List.of();
+            }
+            var q = query(normalized(query));
+            int ep = entryPoint;
+            for (int l = topLevel; l > 0; l--) {
+                ep = greedy(q, ep, l);
+            }
+            var found = searchLayer(q, ep, Math.max(ef, k), 0, node -> accepts(node, filter));
+            if (found.length < k && found.length < nodes.size()) {
+                found = exact(q.values, k, node -> accepts(node, filter));
+            } else if (quantized) {
+                found = rescore(q.values, found);
+            }
+            var matches = new ArrayList<Match>(Math.min(k, found.length));
+            for (int i = 0; i < found.length && i < k; i++) {
+                matches.add(new Match(ids[Heap.node(found[i])], 1 - Heap.distance(found[i])));
+            }
+            return matches;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    private boolean accepts(int node, Predicate<String> filter) {
+        return !deleted[node] && filter.test(ids[node]);
+    }
+
+    private boolean markDeleted(String id) {
+        var node = nodes.remove(id);
+        if (node == null) {
+            return false;
+        }
+        deleted[node] = true;
+        return true;
+    }
+
+    private void link(int node, int level) {
+        if (entryPoint < 0) {
+            entryPoint = node;
+            topLevel = level;
+            return;
+        }
+        var q = query(Arrays.copyOfRange(vectors, node * dimensions, (node + 1) * dimensions));
+        int ep = entryPoint;
+        for (int l = topLevel; l > level; l--) {
+            ep = greedy(q, ep, l);
+        }
+        for (int l = Math.min(level, topLevel); l >= 0; l--) {
+            var candidates = searchLayer(q, ep, efConstruction, l, n -> true);
+            for (int neighbour : selectNeighbours(candidates, maxNeighbours(l))) {
+                connect(node, neighbour, l);
+                connect(neighbour, node, l);
+            }
+            ep = Heap.node(candidates[0]);
+        }
+        if (level > topLevel) {
+            topLevel = level;
+            entryPoint = node;
+        }
+    }
+
+    /**
+     * Keep candidates, nearest first, that are closer to the node than to any neighbour already
+     * kept, so links spread in different directions rather than bunching in one cluster.
+     */
+    private int[] selectNeighbours(long[] candidates, int max) {
+        var selected = new int[Math.min(max, candidates.length)];
+        int count = 0;
+        for (int c = 0; c < candidates.length && count < selected.length; c++) {
+            int node = Heap.node(candidates[c]);
+            float distance = Heap.distance(candidates[c]);
+            boolean diverse = true;
+            for (int i = 0; i < count; i++) {
+                if (distance(node, selected[i]) < distance) {
+                    diverse = false;
+                    break;
+                }
+            }
+            if (diverse) {
+                selected[count++] = node;
+            }
+        }
+        return Arrays.copyOf(selected, count);
+    }
+
+    private void connect(int from, int to, int level) {
+        var list = neighbours[from][level];
+        int count = list[0];
+        for (int i = 1; i <= count; i++) {
+            if (list[i] == to) {
+                return;
+            }
+        }
+        if (count < list.length - 1) {
+            list[count + 1] = to;
+            list[0] = count + 1;
+            return;
+        }
+        // Full: re-select among the current neighbours plus the new one. Plain "keep the
+        // nearest" would drop the long links that join clusters and strand searches in one
+        var candidates = new long[count + 1];
+        for (int i = 1; i <= count; i++) {
+            candidates[i - 1] = Heap.pack(list[i], distance(from, list[i]));
+        }
+        candidates[count] = Heap.pack(to, distance(from, to));
+        Arrays.sort(candidates);
+        var kept = selectNeighbours(candidates, count);
+        System.arraycopy(kept, 0, list, 1, kept.length);
+        list[0] = kept.length;
+    }
+
+    private int greedy(Query q, int ep, int level) {
+        float best = distance(q, ep);
+        boolean improved = true;
+        while (improved) {
+            improved = false;
+            var list = neighbours[ep][level];
+            for (int i = 1; i <= list[0]; i++) {
+                float d = distance(q, list[i]);
+                if (d < best) {
+                    best = d;
+                    ep = list[i];
+                    improved = true;
+                }
+            }
+        }
+        return ep;
+    }
+
+    /**
+     * Best-first search of one level from {@code ep}, returning up to {@code ef} candidates
+     * nearest first. Every reachable node is traversed, but only those {@code include} accepts
+     * are kept as results.
+     */
+    private long[] searchLayer(Query q, int ep, int ef, int level, IntPredicate include) {
+        var visited = new boolean[size];
+        var toVisit = new Heap(false);
+        var results = new Heap(true);
+        long start = Heap.pack(ep, distance(q, ep));
+        visited[ep] = true;
+        toVisit.add(start);
+        if (include.test(ep)) {
+            results.add(start);
+        }
+        while (toVisit.size() > 0) {
+            long current = toVisit.poll();
+            if (results.size() >= ef && Heap.distance(current) > Heap.distance(results.peek())) {
+                break;
+            }
+            var list = neighbours[Heap.node(current)][level];
+            for (int i = 1; i <= list[0]; i++) {
+                int next = list[i];
+                if (visited[next]) {
+                    continue;
+                }
+                visited[next] = true;
+                float d = distance(q, next);
+                if (results.size() < ef || d < Heap.distance(results.peek())) {
+                    long candidate = Heap.pack(next, d);
+                    toVisit.add(candidate);
+                    if (include.test(next)) {
+                        results.add(candidate);
+                        if (results.size() > ef) {
+                            results.poll();
+                        }
+                    }
+                }
+            }
+        }
+        return results.sorted();
+    }
+
+    private long[] exact(float[] q, int k, IntPredicate include) {
+        var results = new Heap(true);
+        for (int node = 0; node < size; node++) {
+            if (include.test(node)) {
+                results.add(Heap.pack(node, 1 - dot(q, 0, vectors, node * dimensions)));
+                if (results.size() > k) {
+                    results.poll();
+                }
+            }
+        }
+        return results.sorted();
+    }
+
+    /**
+     * Replace approximate distances with exact ones, nearest first.
+     */
+    private long[] rescore(float[] q, long[] candidates) {
+        var rescored = new long[candidates.length];
+        for (int i = 0; i < candidates.length; i++) {
+            int node = Heap.node(candidates[i]);
+            rescored[i] = Heap.pack(node, 1 - dot(q, 0, vectors, node * dimensions));
+        }
+        Arrays.sort(rescored);
+        return rescored;
+    }
+
+    /**
+     * A normalized query vector and, for a quantized index, its codes.
+     */
+    private record Query(float[] values, byte[] codes, float scale) {
+    }
+
+    private Query query(float[] normalized) {
+        if (!quantized) {
+            return new Query(normalized, null, 0);
+        }
+        var codes = new byte[dimensions];
+        return new Query(normalized, codes, quantize(normalized, 0, codes, 0));
+    }
+
+    private float distance(Query q, int node) {
+        return quantized
+                ? 1 - q.scale() * scales[node] * dot(q.codes(), 0, codes, node * dimensions)
+                : 1 - dot(q.values(), 0, vectors, node * dimensions);
+    }
+
+    private float distance(int a, int b) {
+        return quantized
+                ? 1 - scales[a] * scales[b] * dot(codes, a * dimensions, codes, b * dimensions)
+                : 1 - dot(vectors, a * dimensions, vectors, b * dimensions);
+    }
+
+    private void quantize(int node) {
+        scales[node] = quantize(vectors, node * dimensions, codes, node * dimensions);
+    }
+
+    /**
+     * Scale one vector so its largest component maps to 127 and round to bytes.
+     *
+     * @return the scale that turns the codes back into the vector
+     */
+    private float quantize(float[] vector, int offset, byte[] codes, int codesOffset) {
+        float max = 0;
+        for (int i = 0; i < dimensions; i++) {
+            max = Math.max(max, Math.abs(vector[offset + i]));
+        }
+        if (max == 0) {
+            return 0;
+        }
+        float scale = max / 127;
+        for (int i = 0; i < dimensions; i++) {
+            codes[codesOffset + i] = (byte) Math.round(vector[offset + i] / scale);
+        }
+        return scale;
+    }
+
+    // Integer accumulation, unlike float, lets the JIT vectorize this loop
+    private int dot(byte[] x, int offsetX, byte[] y, int offsetY) {
+        int dot = 0;
+        for (int i = 0; i < dimensions; i++) {
+            dot += x[offsetX + i] * y[offsetY + i];
+        }
+        return dot;
+    }
+
+    private float dot(float[] x, int offsetX, float[] y, int offsetY) {
+        float dot = 0;
+        for (int i = 0; i < dimensions; i++) {
+            dot += x[offsetX + i] * y[offsetY + i];
+        }
+        return dot;
+    }
+
+    private int maxNeighbours(int level) {
+        return level == 0 ? 2 * m : m;
+    }
+
+    private float[] normalized(float[] vector) {
+        double norm = 0;
+        for (float v : vector) {
+            norm += v * v;
+        }
+        norm = Math.sqrt(norm);
+        var result = new float[vector.length];
+        if (norm == 0) {
+            return result;
+        }
+        for (int i = 0; i < vector.length; i++) {
+            result[i] = (float) (vector[i] / norm);
+        }
+        return result;
+    }
+
+    private void allocate(int capacity) {
+        vectors = vectors == null ? new float[capacity * dimensions] : Arrays.copyOf(vectors, capacity * dimensions);
+        ids = ids == null ? new String[capacity] : Arrays.copyOf(ids, capacity);
+        neighbours = neighbours == null ? new int[capacity][][] : Arrays.copyOf(neighbours, capacity);
+        deleted = deleted == null ? new boolean[capacity] : Arrays.copyOf(deleted, capacity);
+        if (quantized) {
+            codes = codes == null ? new byte[capacity * dimensions] : Arrays.copyOf(codes, capacity * dimensions);
+            scales = scales == null ? new float[capacity] : Arrays.copyOf(scales, capacity);
+        }
+    }
+
+    /**
+     * Write the whole graph, so {@link #readFrom} restores it without re-linking any node.
+     * Deleted nodes are kept, as live nodes may route through them.
+     */
+    void writeTo(DataOutputStream out) throws IOException {
+        lock.readLock().lock();
+        try {
+            out.writeInt(MAGIC);
+            out.writeInt(FORMAT);
+            out.writeInt(dimensions);
+            out.writeInt(m);
+            out.writeInt(efConstruction);
+            out.writeBoolean(quantized);
+            out.writeInt(size);
+            out.writeInt(entryPoint);
+            out.writeInt(topLevel);
+            for (int node = 0; node < size; node++) {
+                out.writeUTF(ids[node]);
+                out.writeBoolean(deleted[node]);
+                out.writeInt(neighbours[node].length);
+                for (var list : neighbours[node]) {
+                    out.writeInt(list[0]);
+                    for (int i = 1; i <= list[0]; i++) {
+                        out.writeInt(list[i]);
+                    }
+                }
+            }
+            for (int i = 0; i < size * dimensions; i++) {
+                out.writeFloat(vectors[i]);
+            }
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    static HnswIndex readFrom(DataInputStream in) throws IOException {
+        if (in.readInt() != MAGIC) {
+            throw new IOException("Not an HNSW index snapshot");
+        }
+        int format = in.readInt();
+        if (format != 1 && format != FORMAT) {
+            throw new IOException("Unsupported HNSW snapshot format " + format);
+        }
+        int dimensions = in.readInt();
+        int m = in.readInt();
+        int efConstruction = in.readInt();
+        // Format 1 predates quantization
+        var index = new HnswIndex(dimensions, m, efConstruction, format > 1 && in.readBoolean());
+        int size = in.readInt();
+        index.allocate(Math.max(size, 1024));
+        index.size = size;
+        index.entryPoint = in.readInt();
+        index.topLevel = in.readInt();
+        for (int node = 0; node < size; node++) {
+            index.ids[node] = in.readUTF();
+            index.deleted[node] = in.readBoolean();
+            int levels = in.readInt();
+            index.neighbours[node] = new int[levels][];
+            for (int l = 0; l < levels; l++) {
+                var list = new int[index.maxNeighbours(l) + 1];
+                list[0] = in.readInt();
+                for (int i = 1; i <= list[0]; i++) {
+                    list[i] = in.readInt();
+                }
+                index.neighbours[node][l] = list;
+            }
+            if (!index.deleted[node]) {
+                index.nodes.put(index.ids[node], node);
+            }
+        }
+        for (int i = 0; i < size * index.dimensions; i++) {
+            index.vectors[i] = in.readFloat();
+        }
+        if (index.quantized) {
+            // Codes are derived from the vectors, so they aren't written
+            for (int node = 0; node < size; node++) {
+                index.quantize(node);
+            }
+        }
+        return index;
+    }
+}
@@ -0,0 +1,43 @@
+package com.embabel.guide.rag;
+
+import java.net.URI;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Semaphore;
+
+/**
+ * Caps how many requests may be in flight against any single host.
+ * Shared by the concurrent URL ingester and the fetch stage of the ingestion pipeline.
+ */
+class HostLimiter {
+
+    private final int perHost;
+    private final Map<String, Semaphore> permits = new ConcurrentHashMap<>();
+
+    HostLimiter(int perHost) {
+        this.perHost = Math.max(1, perHost);
+    }
+
+    /**
+     * Run the work while holding a permit for the URL's host, blocking until one is free.
+     */
+    <T> T call(String url, Callable<T> work) throws Exception {
+        var permit = permits.computeIfAbsent(hostOf(url), h -> new Semaphore(perHost));
+        permit.acquire();
+        try {
+            return work.call();
+        } finally {
+            permit.release();
+        }
+    }
+
+    static String hostOf(String url) {
+        try {
+            var host = URI.create(url).getHost();
+            return host != null ? host.toLowerCase() : "";
+        } catch (IllegalArgumentException e) {
+            return "";
+        }
+    }
+}
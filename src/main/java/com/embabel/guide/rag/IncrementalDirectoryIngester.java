@@ -0,0 +1,205 @@
+package com.embabel.guide.rag;
+
+import com.embabel.agent.rag.ingestion.DirectoryParsingConfig;
+import com.embabel.agent.rag.ingestion.HierarchicalContentReader;
+import com.embabel.agent.rag.store.ChunkingContentElementRepository;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.HashSet;
+import java.util.List;
+import java.util.stream.Stream;
+
+/**
+ * Ingests a directory against its {@link IngestionManifest}: unchanged files are skipped,
+ * new or changed files are (re-)written and files that have gone are deleted from the store.
+ * <p>
+ * Each file becomes a document whose URI is the file's {@code file:} URI, so a later run can
+ * delete exactly that document. A file only enters the manifest once its write succeeds;
+ * anything that failed is retried next run. The manifest is saved every
+ * {@value #SAVE_INTERVAL} changes as well as at the end, so an interrupted run loses little.
+ * <p>
+ * Until a run has been through every file of a directory, each file not yet in its manifest
+ * first has its document removed under the URIs a whole-tree parse may have used, so switching
+ * a directory ingested whole-tree to incremental mode replaces its documents rather than
+ * duplicating them.
+ */
+class IncrementalDirectoryIngester {
+
+    private static final Logger logger = LoggerFactory.getLogger(IncrementalDirectoryIngester.class);
+
+    static final int SAVE_INTERVAL = 50;
+
+    private final ChunkingContentElementRepository store;
+    private final HierarchicalContentReader reader;
+    private final Path stateDirectory;
+    private final DirectoryParsingConfig parsingConfig;
+
+    IncrementalDirectoryIngester(
+            ChunkingContentElementRepository store,
+            HierarchicalContentReader reader,
+            Path stateDirectory) {
+        this(store, reader, stateDirectory, new DirectoryParsingConfig());
+    }
+
+    IncrementalDirectoryIngester(
+            ChunkingContentElementRepository store,
+            HierarchicalContentReader reader,
+            Path stateDirectory,
+            DirectoryParsingConfig parsingConfig) {
+        this.store = store;
+        this.reader = reader;
+        this.stateDirectory = stateDirectory;
+        this.parsingConfig = parsingConfig;
+    }
+
+    /**
+     * @param dir             absolute path
+     * @param failedDocuments collector for per-document failures (mutated)
+     */
+    DocumentChanges ingest(String dir, List<IngestionFailure> failedDocuments) throws IOException {
+        return ingest(dir, failedDocuments, IngestionListener.NONE, IngestionCheckpoint.disabled());
+    }
+
+    DocumentChanges ingest(String dir, List<IngestionFailure> failedDocuments, IngestionListener listener,
+                           IngestionCheckpoint checkpoint) throws IOException {
+        return ingest(dir, failedDocuments, listener, checkpoint, NearDuplicateDetector.disabled());
+    }
+
+    /**
+     * @param listener   told about each document written or failed
+     * @param checkpoint journals each write; files an interrupted run already wrote are
+     *                   recorded in the manifest without being written again
+     * @param duplicates files that near-duplicate documents already written are recorded in the
+     *                   manifest but not written, so they are only reconsidered once they change;
+     *                   they are counted apart from unchanged files
+     */
+    DocumentChanges ingest(String dir, List<IngestionFailure> failedDocuments, IngestionListener listener,
+                           IngestionCheckpoint checkpoint, NearDuplicateDetector duplicates) throws IOException {
+        var root = Path.of(dir);
+        var manifest = IngestionManifest.load(stateDirectory, dir);
+        var files = new DirectoryScanner(parsingConfig).scan(root);
+        int skipped = 0;
+        int updated = 0;
+        int deleted = 0;
+        int duplicated = 0;
+
+        var seen = new HashSet<String>();
+        try {
+            for (var file : files) {
+                var relativePath = root.relativize(file).toString();
+                seen.add(relativePath);
+                var previous = manifest.get(relativePath);
+                var replacing = false;
+                try {
+                    var size = Files.size(file);
+                    var lastModified = Files.getLastModifiedTime(file).toMillis();
+                    if (previous != null && previous.size() == size && previous.lastModified() == lastModified) {
+                        skipped++;
+                        continue;
+                    }
+                    var hash = IngestionManifest.sha256(file);
+                    if (previous != null && previous.contentHash().equals(hash)) {
+                        // Touched but not changed: remember the new mtime so we don't hash it again
+                        manifest.put(relativePath, new IngestionManifest.Entry(previous.uri(), size, lastModified, hash));
+                        skipped++;
+                        continue;
+                    }
+                    var uri = file.toUri().toString();
+                    if (checkpoint.isCompleted(uri)) {
+                        // Written by the interrupted run, whose manifest was never saved
+                        manifest.put(relativePath, new IngestionManifest.Entry(uri, size, lastModified, hash));
+                        skipped++;
+                        continue;
+                    }
+                    // Parse before deleting so a file that no longer parses keeps its previous content
+                    var document = reader.parseFile(file.toFile(), uri);
+                    if (previous == null && !manifest.isMigrated()) {
+                        removeWholeTreeDocument(file);
+                    }
+                    if (duplicates.isDuplicate(document)) {
+                        if (previous != null) {
+                            // The file changed into a copy of another document: drop its old version
+                            store.deleteRootAndDescendants(previous.uri());
+                        }
+                        manifest.put(relativePath, new IngestionManifest.Entry(uri, size, lastModified, hash));
+                        duplicated++;
+                        continue;
+                    }
+                    checkpoint.begin(uri);
+                    if (previous != null) {
+                        replacing = true;
+                        store.deleteRootAndDescendants(previous.uri());
+                    }
+                    store.writeAndChunkDocument(document);
+                    checkpoint.complete(uri);
+                    manifest.put(relativePath, new IngestionManifest.Entry(uri, size, lastModified, hash));
+                    logger.info("{} {}", previous == null ? "Added" : "Updated", relativePath);
+                    listener.onEvent(IngestionEvent.of(IngestionEvent.Type.DOCUMENT_WRITTEN, dir + " -> " + relativePath));
+                    updated++;
+                    manifest.saveEvery(SAVE_INTERVAL);
+                } catch (Throwable t) {
+                    logger.error("Failed to ingest '{}' from directory {}: {}", relativePath, dir, t.getMessage(), t);
+                    checkpoint.fail(file.toUri().toString());
+                    if (replacing) {
+                        // The old document is gone; forget the file so the next run writes it from scratch
+                        manifest.remove(relativePath);
+                    }
+                    var failure = IngestionFailure.fromException(dir + " -> " + relativePath, t);
+                    failedDocuments.add(failure);
+                    listener.onEvent(IngestionEvent.failed(IngestionEvent.Type.DOCUMENT_FAILED, failure));
+                }
+            }
+
+            for (var relativePath : List.copyOf(manifest.paths())) {
+                if (seen.contains(relativePath)) {
+                    continue;
+                }
+                var entry = manifest.get(relativePath);
+                try {
+                    store.deleteRootAndDescendants(entry.uri());
+                    manifest.remove(relativePath);
+                    logger.info("Deleted {}", relativePath);
+                    deleted++;
+                } catch (Throwable t) {
+                    logger.error("Failed to delete '{}' from directory {}: {}", relativePath, dir, t.getMessage(), t);
+                    failedDocuments.add(IngestionFailure.fromException(dir + " -> " + relativePath, t));
+                }
+            }
+            manifest.markMigrated();
+        } finally {
+            manifest.save();
+        }
+        var changes = new DocumentChanges(skipped, updated, deleted, duplicated);
+        logger.info("Incremental ingest of {}: {} unchanged, {} added/updated, {} deleted, {} near-duplicates",
+                dir, skipped, updated, deleted, duplicated);
+        return changes;
+    }
+
+    /**
+     * Remove what a whole-tree parse of the directory stored for this file, if anything.
+     */
+    private void removeWholeTreeDocument(Path file) {
+        for (var uri : wholeTreeUris(file)) {
+            if (store.existsRootWithUri(uri)) {
+                store.deleteRootAndDescendants(uri);
+                logger.info("Replacing {} with its file URI document", uri);
+            }
+        }
+    }
+
+    /**
+     * URIs other than its {@code file:///} URI that a whole-tree parse may have keyed a file by:
+     * its absolute path, or the {@code file:/} form {@link java.io.File#toURI()} produces.
+     */
+    static List<String> wholeTreeUris(Path file) {
+        var uri = file.toUri().toString();
+        return Stream.of(file.toAbsolutePath().toString(), file.toFile().toURI().toString())
+                .filter(candidate -> !candidate.equals(uri))
+                .distinct()
+                .toList();
+    }
+}
@@ -0,0 +1,281 @@
+package com.embabel.guide.rag;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.channels.OverlappingFileLockException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.Set;
+
+/**
+ * Append-only journal of an ingestion run, so a run that dies part way can be resumed.
+ * <p>
+ * Right before a URL or document is written to the store its key (the document URI) is
+ * journalled as begun, and afterwards as completed; each line is forced to disk. An item whose
+ * fetch or parse fails never reaches the store, so it is journalled as failed instead. A run
+ * that finishes with every item written deletes the journal, so finding one means the previous
+ * run was interrupted, or finished with items that failed:
+ * <ul>
+ *     <li>keys begun but never completed may have been half written, so the caller deletes
+ *     them from the store before ingesting them again, and records each removal;</li>
+ *     <li>failed keys are retried, but whatever the store holds for them is left alone, as a
+ *     failed fetch says nothing about the stored document;</li>
+ *     <li>on resume, completed keys are skipped, since their documents are already in the store,
+ *     so only what failed or was cut short is redone. Otherwise the run starts from scratch
+ *     as before.</li>
+ * </ul>
+ * The journal is rewritten with just this state when a run opens it, so it doesn't grow
+ * from run to run, and a half-written key stays in it only until it has been removed.
+ * One run journals at a time: an open checkpoint holds an exclusive lock on
+ * {@value #LOCK_FILE} in the state directory until it is closed.
+ */
+final class IngestionCheckpoint implements AutoCloseable {
+
+    private static final Logger logger = LoggerFactory.getLogger(IngestionCheckpoint.class);
+
+    static final String JOURNAL_FILE = "checkpoint.log";
+    static final String LOCK_FILE = "checkpoint.lock";
+
+    private static final String BEGIN = "B\t";
+    private static final String COMPLETE = "C\t";
+    private static final String FAILED = "F\t";
+    private static final String REMOVED = "R\t";
+
+    // Records nothing: begin, complete and fail are no-ops, so its sets stay empty
+    private static final IngestionCheckpoint DISABLED = new IngestionCheckpoint(null, Set.of(), Set.of());
+
+    private final Path file;
+    private final Set<String> completed;
+    private final Set<String> interrupted;
+    // Keys that may be half written: begun and not completed, or interrupted and not yet removed
+    private final Set<String> pending = new HashSet<>();
+    // Keys whose fetch or parse failed in this run
+    private final Set<String> failed = new HashSet<>();
+    private FileChannel channel;
+    private FileLock lock;
+
+    private IngestionCheckpoint(Path file, Set<String> completed, Set<String> interrupted) {
+        this.file = file;
+        this.completed = completed;
+        this.interrupted = interrupted;
+    }
+
+    /**
+     * A checkpoint that records nothing, for one-off ingestion outside {@link DataManager#loadReferences()}.
+     */
+    static IngestionCheckpoint disabled() {
+        return DISABLED;
+    }
+
+    /**
+     * Start journalling a run.
+     *
+     * @param resume skip what the unfinished previous run, if any, completed
+     * @throws IOException if the journal can't be opened, or another run holds it
+     */
+    static IngestionCheckpoint open(Path stateDirectory, boolean resume) throws IOException {
+        Files.createDirectories(stateDirectory);
+        var lock = lock(stateDirectory.resolve(LOCK_FILE));
+        try {
+            return open(stateDirectory.resolve(JOURNAL_FILE), resume, lock);
+        } catch (IOException | RuntimeException e) {
+            lock.channel().close();
+            throw e;
+        }
+    }
+
+    private static FileLock lock(Path lockFile) throws IOException {
+        var channel = FileChannel.open(lockFile, StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+        FileLock lock;
+        try {
+            lock = channel.tryLock();
+        } catch (OverlappingFileLockException e) {
+            // Held by another run in this JVM
+            lock = null;
+        }
+        if (lock == null) {
+            channel.close();
+            throw new IOException("Another ingestion run holds " + lockFile);
+        }
+        return lock;
+    }
+
+    private static IngestionCheckpoint open(Path file, boolean resume, FileLock lock) throws IOException {
+        var completed = new HashSet<String>();
+        var interrupted = new LinkedHashSet<String>();
+        var failed = new HashSet<String>();
+        if (Files.exists(file)) {
+            for (var line : Files.readAllLines(file, StandardCharsets.UTF_8)) {
+                // A line torn by a crash names no real key, so at worst an item is redone
+                if (line.startsWith(BEGIN)) {
+                    interrupted.add(line.substring(BEGIN.length()));
+                } else if (line.startsWith(COMPLETE)) {
+                    var key = line.substring(COMPLETE.length());
+                    interrupted.remove(key);
+                    failed.remove(key);
+                    completed.add(key);
+                } else if (line.startsWith(FAILED)) {
+                    var key = line.substring(FAILED.length());
+                    failed.add(key);
+                } else if (line.startsWith(REMOVED)) {
+                    interrupted.remove(line.substring(REMOVED.length()));
+                }
+            }
+            logger.info("Previous ingestion did not complete: {} items done, {} failed, {} cut short{}",
+                    completed.size(), failed.size(), interrupted.size(), resume ? "; resuming" : "; starting over");
+            if (!resume) {
+                completed.clear();
+            }
+        }
+        var checkpoint = new IngestionCheckpoint(file, Collections.synchronizedSet(completed), interrupted);
+        checkpoint.lock = lock;
+        checkpoint.pending.addAll(interrupted);
+        checkpoint.channel = FileChannel.open(file,
+                StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING);
+        // Carry over only what the next run could still need
+        completed.forEach(key -> checkpoint.append(COMPLETE + key));
+        interrupted.forEach(key -> checkpoint.append(BEGIN + key));
+        return checkpoint;
+    }
+
+    boolean isCompleted(String key) {
+        return completed.contains(key);
+    }
+
+    /**
+     * Keys the previous run began writing but never completed; their documents may be
+     * partially written. Keys that only failed to fetch or parse are not among them.
+     */
+    Set<String> interrupted() {
+        return Collections.unmodifiableSet(interrupted);
+    }
+
+    /**
+     * A partially written document from the previous run has been deleted from the store.
+     */
+    void removed(String key) {
+        if (file != null) {
+            append(REMOVED + key);
+            synchronized (this) {
+                pending.remove(key);
+            }
+        }
+    }
+
+    /**
+     * Call right before writing {@code key} to the store, not before fetching or parsing it.
+     */
+    void begin(String key) {
+        if (file != null) {
+            append(BEGIN + key);
+            synchronized (this) {
+                pending.add(key);
+            }
+        }
+    }
+
+    void complete(String key) {
+        if (file != null) {
+            append(COMPLETE + key);
+            completed.add(key);
+            synchronized (this) {
+                pending.remove(key);
+                failed.remove(key);
+            }
+        }
+    }
+
+    /**
+     * Ingesting {@code key} failed. If it failed before {@link #begin}, in its fetch or parse,
+     * it is journalled as failed: retried, but never deleted from the store. If its write had
+     * begun, it stays begun, as the write may have left it half stored.
+     */
+    void fail(String key) {
+        if (file == null) {
+            return;
+        }
+        synchronized (this) {
+            if (pending.contains(key)) {
+                return;
+            }
+            failed.add(key);
+        }
+        append(FAILED + key);
+    }
+
+    /**
+     * The run completed. The journal is deleted, as there is nothing left to resume, unless
+     * some item failed: then it is kept, so a resumed run retries only what failed.
+     */
+    synchronized void finish() {
+        if (channel == null) {
+            return;
+        }
+        if (!pending.isEmpty() || !failed.isEmpty()) {
+            logger.info("{} items failed and {} may be half written; kept ingestion checkpoint {} so a resumed run retries them",
+                    failed.size(), pending.size(), file);
+            close();
+            return;
+        }
+        closeJournal();
+        try {
+            Files.deleteIfExists(file);
+        } catch (IOException e) {
+            logger.warn("Could not delete ingestion checkpoint {}: {}", file, e.getMessage());
+        }
+        releaseLock();
+    }
+
+    /**
+     * Stop journalling but keep the journal, e.g. when the run was aborted.
+     */
+    @Override
+    public synchronized void close() {
+        if (channel == null) {
+            return;
+        }
+        closeJournal();
+        releaseLock();
+    }
+
+    private void closeJournal() {
+        try {
+            channel.close();
+        } catch (IOException e) {
+            logger.warn("Could not close ingestion checkpoint {}: {}", file, e.getMessage());
+        }
+        channel = null;
+    }
+
+    private void releaseLock() {
+        try {
+            // Closing the lock file's channel releases the lock
+            lock.channel().close();
+        } catch (IOException e) {
+            logger.warn("Could not release ingestion checkpoint lock: {}", e.getMessage());
+        }
+    }
+
+    private synchronized void append(String line) {
+        if (channel == null) {
+            return;
+        }
+        try {
+            channel.write(ByteBuffer.wrap((line + "\n").getBytes(StandardCharsets.UTF_8)));
+            channel.force(false);
+        } catch (IOException e) {
+            throw new UncheckedIOException("Could not write ingestion checkpoint " + file, e);
+        }
+    }
+}
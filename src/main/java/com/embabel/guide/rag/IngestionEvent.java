@@ -0,0 +1,39 @@
+package com.embabel.guide.rag;
+
+import org.springframework.lang.Nullable;
+
+import java.time.Instant;
+
+/**
+ * One step of ingestion progress, as streamed to clients following an {@link IngestionJob}.
+ *
+ * @param type      what happened
+ * @param source    the URL, directory, or "directory -> document" the event is about
+ * @param reason    why it failed; null unless {@code type} is a failure
+ * @param timestamp when it happened
+ */
+public record IngestionEvent(
+        Type type,
+        String source,
+        @Nullable String reason,
+        Instant timestamp
+) {
+
+    public enum Type {
+        URL_LOADED,
+        URL_FAILED,
+        DIRECTORY_STARTED,
+        DOCUMENT_WRITTEN,
+        DOCUMENT_FAILED,
+        DIRECTORY_INGESTED,
+        DIRECTORY_FAILED
+    }
+
+    public static IngestionEvent of(Type type, String source) {
+        return new IngestionEvent(type, source, null, Instant.now());
+    }
+
+    public static IngestionEvent failed(Type type, IngestionFailure failure) {
+        return new IngestionEvent(type, failure.source(), failure.reason(), Instant.now());
+    }
+}
@@ -0,0 +1,31 @@
+package com.embabel.guide.rag;
+
+import org.springframework.lang.Nullable;
+
+import java.time.Instant;
+
+/**
+ * State of a background ingestion started through {@link IngestionJobService}.
+ *
+ * @param id         job ID, used to poll the job and to follow its progress
+ * @param status     whether the job is still running
+ * @param startedAt  when the job started
+ * @param finishedAt when the job finished; null while running
+ * @param events     progress events emitted so far
+ * @param result     the ingestion result once the job has succeeded
+ * @param error      why the job failed as a whole; individual URL and document failures are in {@code result}
+ */
+public record IngestionJob(
+        String id,
+        Status status,
+        Instant startedAt,
+        @Nullable Instant finishedAt,
+        int events,
+        @Nullable IngestionResult result,
+        @Nullable String error
+) {
+
+    public enum Status {
+        RUNNING, SUCCEEDED, FAILED
+    }
+}
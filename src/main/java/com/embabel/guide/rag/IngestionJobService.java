@@ -0,0 +1,280 @@
+package com.embabel.guide.rag;
+
+import jakarta.annotation.PreDestroy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.stereotype.Service;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
+
+import java.io.IOException;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.UUID;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.function.Function;
+
+/**
+ * Runs {@link DataManager#loadReferences(IngestionListener)} in the background so that a
+ * long ingest doesn't hold a request thread for minutes.
+ * <p>
+ * One job runs at a time: starting a job while one is running returns the running job, and
+ * {@link #runNow(Function)}, for synchronous ingestion, declines to run.
+ * Progress events are kept with the job and replayed to anyone who subscribes late, so
+ * a client can start a job and then open its event stream without missing anything.
+ * The most recent {@value #RETAINED_JOBS} jobs remain retrievable after they finish.
+ */
+@Service
+public class IngestionJobService {
+
+    static final int RETAINED_JOBS = 20;
+    private static final Duration EMITTER_TIMEOUT = Duration.ofMinutes(30);
+
+    private final Logger logger = LoggerFactory.getLogger(IngestionJobService.class);
+
+    private final DataManager dataManager;
+    private final ExecutorService executor = Executors.newSingleThreadExecutor(
+            Thread.ofPlatform().name("ingestion-job-", 0).daemon(true).factory());
+
+    // Insertion-ordered so the oldest finished jobs are dropped first
+    private final Map<String, TrackedJob> jobs = new LinkedHashMap<>();
+    private TrackedJob running;
+
+    public IngestionJobService(DataManager dataManager) {
+        this.dataManager = dataManager;
+    }
+
+    /**
+     * Start an ingestion job, or return the one already running.
+     */
+    public synchronized IngestionJob start() {
+        if (running != null) {
+            return running.snapshot();
+        }
+        var job = track();
+        executor.execute(() -> {
+            try {
+                run(job, dataManager::loadReferences);
+            } catch (RuntimeException | Error e) {
+                // Already recorded on the job
+            }
+        });
+        logger.info("Started ingestion job {}", job.id);
+        return job.snapshot();
+    }
+
+    /**
+     * Run ingestion on the calling thread as a job of its own, for callers that wait for the
+     * result, so it never overlaps a background job.
+     *
+     * @return empty, having run nothing, if a job is already running
+     */
+    public Optional<IngestionResult> runNow(Function<IngestionListener, IngestionResult> ingestion) {
+        TrackedJob job;
+        synchronized (this) {
+            if (running != null) {
+                logger.info("Not running ingestion: job {} is already running", running.id);
+                return Optional.empty();
+            }
+            job = track();
+        }
+        logger.info("Running ingestion job {} on the calling thread", job.id);
+        return Optional.of(run(job, ingestion));
+    }
+
+    public synchronized Optional<IngestionJob> find(String id) {
+        return Optional.ofNullable(jobs.get(id)).map(TrackedJob::snapshot);
+    }
+
+    /**
+     * Stream a job's progress as server-sent events: every {@link IngestionEvent} so far and as it
+     * happens ({@code progress}), then the final {@link IngestionJob} ({@code completed}).
+     */
+    public Optional<SseEmitter> subscribe(String id) {
+        TrackedJob job;
+        synchronized (this) {
+            job = jobs.get(id);
+        }
+        return Optional.ofNullable(job).map(TrackedJob::subscribe);
+    }
+
+    @PreDestroy
+    void shutdown() {
+        executor.shutdownNow();
+    }
+
+    private TrackedJob track() {
+        var job = new TrackedJob(UUID.randomUUID().toString());
+        jobs.put(job.id, job);
+        running = job;
+        evictFinishedJobs();
+        return job;
+    }
+
+    /**
+     * @throws RuntimeException or Error, once the job is recorded as failed, if ingestion fails
+     */
+    private IngestionResult run(TrackedJob job, Function<IngestionListener, IngestionResult> ingestion) {
+        IngestionResult result = null;
+        String error = null;
+        try {
+            result = ingestion.apply(job::publish);
+            logger.info("Ingestion job {} finished in {}ms", job.id, result.elapsed().toMillis());
+            return result;
+        } catch (RuntimeException | Error e) {
+            logger.error("Ingestion job {} failed: {}", job.id, e.getMessage(), e);
+            error = IngestionFailure.fromException(job.id, e).reason();
+            throw e;
+        } finally {
+            // Finish under the service lock so a job seen as finished never blocks the next start
+            synchronized (this) {
+                job.finish(error == null ? IngestionJob.Status.SUCCEEDED : IngestionJob.Status.FAILED, result, error);
+                running = null;
+            }
+            job.notifySubscribers();
+        }
+    }
+
+    private void evictFinishedJobs() {
+        var it = jobs.values().iterator();
+        while (jobs.size() > RETAINED_JOBS && it.hasNext()) {
+            if (it.next() != running) {
+                it.remove();
+            }
+        }
+    }
+
+    /**
+     * A job's state and its event stream subscribers. State changes under the job's lock, while
+     * events are sent outside it, each subscriber in turn under its own lock, so a slow client
+     * holds up neither the job nor readers of its state.
+     */
+    private static final class TrackedJob {
+
+        final String id;
+        final Instant startedAt = Instant.now();
+        private final List<IngestionEvent> events = new ArrayList<>();
+        private final List<Subscriber> subscribers = new ArrayList<>();
+        private IngestionJob.Status status = IngestionJob.Status.RUNNING;
+        private Instant finishedAt;
+        private IngestionResult result;
+        private String error;
+
+        TrackedJob(String id) {
+            this.id = id;
+        }
+
+        synchronized IngestionJob snapshot() {
+            return new IngestionJob(id, status, startedAt, finishedAt, events.size(), result, error);
+        }
+
+        void publish(IngestionEvent event) {
+            List<Subscriber> current;
+            synchronized (this) {
+                events.add(event);
+                current = List.copyOf(subscribers);
+            }
+            current.forEach(this::deliver);
+        }
+
+        /**
+         * Record the outcome. Subscribers hear of it from {@link #notifySubscribers()}.
+         */
+        synchronized void finish(IngestionJob.Status status, IngestionResult result, String error) {
+            this.status = status;
+            this.result = result;
+            this.error = error;
+            this.finishedAt = Instant.now();
+        }
+
+        void notifySubscribers() {
+            List<Subscriber> finished;
+            synchronized (this) {
+                finished = List.copyOf(subscribers);
+                subscribers.clear();
+            }
+            finished.forEach(this::deliver);
+        }
+
+        SseEmitter subscribe() {
+            var subscriber = new Subscriber(new SseEmitter(EMITTER_TIMEOUT.toMillis()));
+            synchronized (this) {
+                if (status == IngestionJob.Status.RUNNING) {
+                    subscriber.emitter.onCompletion(() -> unsubscribe(subscriber));
+                    subscriber.emitter.onTimeout(() -> unsubscribe(subscriber));
+                    subscribers.add(subscriber);
+                }
+            }
+            deliver(subscriber);
+            return subscriber.emitter;
+        }
+
+        private synchronized void unsubscribe(Subscriber subscriber) {
+            subscribers.remove(subscriber);
+        }
+
+        /**
+         * Send a subscriber the events it hasn't had yet and, once the job has finished, the
+         * final job. Whichever thread gets here first sends, so events go out in order, once.
+         */
+        private void deliver(Subscriber subscriber) {
+            synchronized (subscriber) {
+                while (!subscriber.done) {
+                    IngestionEvent event = null;
+                    IngestionJob finished = null;
+                    synchronized (this) {
+                        if (subscriber.sent < events.size()) {
+                            event = events.get(subscriber.sent);
+                        } else if (status != IngestionJob.Status.RUNNING) {
+                            finished = snapshot();
+                        } else {
+                            return;
+                        }
+                    }
+                    if (event != null) {
+                        if (send(subscriber.emitter, "progress", event)) {
+                            subscriber.sent++;
+                        } else {
+                            subscriber.done = true;
+                            unsubscribe(subscriber);
+                        }
+                    } else {
+                        subscriber.done = true;
+                        if (send(subscriber.emitter, "completed", finished)) {
+                            subscriber.emitter.complete();
+                        }
+                    }
+                }
+            }
+        }
+
+        /**
+         * @return false if the client has gone away
+         */
+        private static boolean send(SseEmitter emitter, String name, Object data) {
+            try {
+                emitter.send(SseEmitter.event().name(name).data(data));
+                return true;
+            } catch (IOException | IllegalStateException e) {
+                emitter.completeWithError(e);
+                return false;
+            }
+        }
+    }
+
+    private static final class Subscriber {
+
+        final SseEmitter emitter;
+        int sent;
+        boolean done;
+
+        Subscriber(SseEmitter emitter) {
+            this.emitter = emitter;
+        }
+    }
+}
@@ -0,0 +1,14 @@
+package com.embabel.guide.rag;
+
+/**
+ * Receives {@link IngestionEvent}s while {@link DataManager#loadReferences(IngestionListener)} runs.
+ * May be called from several ingestion threads at once.
+ */
+@FunctionalInterface
+public interface IngestionListener {
+
+    IngestionListener NONE = event -> {
+    };
+
+    void onEvent(IngestionEvent event);
+}
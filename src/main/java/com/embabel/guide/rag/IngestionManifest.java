@@ -0,0 +1,146 @@
+package com.embabel.guide.rag;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Collection;
+import java.util.HexFormat;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * What was ingested from one directory on the previous run: one entry per file with its
+ * size, modification time and content hash. Stored as a small JSON file next to other
+ * local ingestion state, so it survives restarts without touching the graph.
+ * <p>
+ * Size and mtime are a cheap first check; the hash is only computed when they differ,
+ * and a matching hash (e.g. after a fresh {@code git clone}) still counts as unchanged.
+ */
+class IngestionManifest {
+
+    private static final ObjectMapper objectMapper = new ObjectMapper();
+
+    /**
+     * @param uri the document URI the file was written under, used to delete it later
+     */
+    record Entry(String uri, long size, long lastModified, String contentHash) {
+    }
+
+    /**
+     * @param migrated whether a run has been through every file, clearing out what whole-tree
+     *                 ingestion stored for them; absent, so false, in manifests from before this
+     */
+    private record Stored(String directory, Map<String, Entry> files, boolean migrated) {
+    }
+
+    private final Path file;
+    private final String directory;
+    private final Map<String, Entry> entries;
+    private boolean migrated;
+    private int unsaved;
+
+    private IngestionManifest(Path file, String directory, Map<String, Entry> entries, boolean migrated) {
+        this.file = file;
+        this.directory = directory;
+        this.entries = entries;
+        this.migrated = migrated;
+    }
+
+    /**
+     * Load the manifest for a directory, or start an empty one if none exists.
+     *
+     * @param stateDirectory root of local ingestion state
+     * @param directory      absolute path of the ingested directory
+     */
+    static IngestionManifest load(Path stateDirectory, String directory) throws IOException {
+        var file = stateDirectory.resolve("manifests").resolve(sha256(directory) + ".json");
+        if (!Files.exists(file)) {
+            return new IngestionManifest(file, directory, new TreeMap<>(), false);
+        }
+        var stored = objectMapper.readValue(file.toFile(), Stored.class);
+        return new IngestionManifest(file, directory, new TreeMap<>(stored.files()), stored.migrated());
+    }
+
+    /**
+     * Whether documents a whole-tree ingestion of the directory may have left behind have been
+     * cleared out. Until then, files not yet in the manifest may have a copy under another URI.
+     */
+    boolean isMigrated() {
+        return migrated;
+    }
+
+    void markMigrated() {
+        migrated = true;
+        unsaved++;
+    }
+
+    Entry get(String relativePath) {
+        return entries.get(relativePath);
+    }
+
+    void put(String relativePath, Entry entry) {
+        entries.put(relativePath, entry);
+        unsaved++;
+    }
+
+    Entry remove(String relativePath) {
+        unsaved++;
+        return entries.remove(relativePath);
+    }
+
+    Collection<String> paths() {
+        return entries.keySet();
+    }
+
+    /**
+     * Write atomically so a crash mid-save never leaves a truncated manifest.
+     */
+    void save() throws IOException {
+        Files.createDirectories(file.getParent());
+        var tmp = file.resolveSibling(file.getFileName() + ".tmp");
+        objectMapper.writerWithDefaultPrettyPrinter().writeValue(tmp.toFile(), new Stored(directory, entries, migrated));
+        Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        unsaved = 0;
+    }
+
+    /**
+     * Save once {@code changes} entries have changed since the last save, so a run that dies
+     * part way through keeps most of what it recorded without rewriting the file per entry.
+     */
+    void saveEvery(int changes) throws IOException {
+        if (unsaved >= changes) {
+            save();
+        }
+    }
+
+    static String sha256(Path path) throws IOException {
+        var digest = newDigest();
+        try (InputStream in = Files.newInputStream(path)) {
+            var buffer = new byte[64 * 1024];
+            int read;
+            while ((read = in.read(buffer)) > 0) {
+                digest.update(buffer, 0, read);
+            }
+        }
+        return HexFormat.of().formatHex(digest.digest());
+    }
+
+    static String sha256(String text) {
+        return HexFormat.of().formatHex(newDigest().digest(text.getBytes(StandardCharsets.UTF_8)));
+    }
+
+    private static MessageDigest newDigest() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 unavailable", e);
+        }
+    }
+}
@@ -0,0 +1,266 @@
+package com.embabel.guide.rag;
+
+import com.embabel.agent.rag.ingestion.ContentFetcher;
+import com.embabel.agent.rag.ingestion.ContentRefreshPolicy;
+import com.embabel.agent.rag.ingestion.HierarchicalContentReader;
+import com.embabel.agent.rag.model.NavigableDocument;
+import com.embabel.agent.rag.store.ChunkingContentElementRepository;
+import com.embabel.guide.PipelineConfig;
+import org.springframework.lang.Nullable;
+
+import java.net.URI;
+import java.nio.file.Path;
+import java.util.List;
+
+/**
+ * Ingestion as a fetch → parse → embed → persist pipeline (see {@link StagedPipeline}).
+ * <p>
+ * Fetching and the store write wait on the network; Tika parsing and ONNX embedding burn CPU.
+ * Running them as separate stages lets page N+1 download while page N is parsed, page N-1 is
+ * embedded and page N-2 is written, so wall time tends towards the slowest stage rather than the sum.
+ * <p>
+ * The embed stage chunks and embeds through the {@link BulkDocumentWriter}, leaving persist only
+ * the store write. Without one (the in-memory store) there is no embed stage, and chunking and
+ * embedding happen inside {@link ChunkingContentElementRepository#writeAndChunkDocument} in persist.
+ */
+class IngestionPipeline {
+
+    /**
+     * Raw bytes of a fetched page and the content type the server gave them, handed from the
+     * fetch stage to the parse stage.
+     */
+    record FetchedPage(String url, byte[] body, @Nullable String contentType) {
+    }
+
+    /**
+     * A document handed from the embed stage to the persist stage, with its chunks and their
+     * embeddings; {@code embedded} is null when there is nothing to write up front: the
+     * interrupted run already wrote the document, or the snapshot refresher embeds the sections
+     * that changed itself.
+     */
+    record Prepared(NavigableDocument document, @Nullable BulkDocumentWriter.Embedded embedded) {
+    }
+
+    private final ChunkingContentElementRepository store;
+    private final HierarchicalContentReader reader;
+    private final ContentFetcher fetcher;
+    @Nullable
+    private final HttpFetchCache httpFetchCache;
+    @Nullable
+    private final SnapshotRefresher snapshotRefresher;
+    @Nullable
+    private final BulkDocumentWriter bulkDocumentWriter;
+    private final ContentRefreshPolicy refreshPolicy;
+    private final IngestionCheckpoint checkpoint;
+    private final NearDuplicateDetector duplicates;
+    private final PipelineConfig config;
+    private final HostLimiter hostLimiter;
+
+    IngestionPipeline(
+            ChunkingContentElementRepository store,
+            HierarchicalContentReader reader,
+            ContentFetcher fetcher,
+            @Nullable HttpFetchCache httpFetchCache,
+            @Nullable SnapshotRefresher snapshotRefresher,
+            @Nullable BulkDocumentWriter bulkDocumentWriter,
+            ContentRefreshPolicy refreshPolicy,
+            IngestionCheckpoint checkpoint,
+            NearDuplicateDetector duplicates,
+            PipelineConfig config,
+            int perHostConcurrency) {
+        this.store = store;
+        this.reader = reader;
+        this.fetcher = fetcher;
+        this.httpFetchCache = httpFetchCache;
+        this.snapshotRefresher = snapshotRefresher;
+        this.bulkDocumentWriter = bulkDocumentWriter;
+        this.refreshPolicy = refreshPolicy;
+        this.checkpoint = checkpoint;
+        this.duplicates = duplicates;
+        this.config = config;
+        this.hostLimiter = new HostLimiter(perHostConcurrency);
+    }
+
+    /**
+     * Ingest URLs, honouring the refresh policy: pages already in the store are dropped
+     * at the fetch stage unless the policy asks for a re-read, and re-read pages the server
+     * reports as not modified are dropped before they reach the parser.
+     */
+    StagedPipeline.Report ingestUrls(List<String> urls, StagedPipeline.ItemListener listener) {
+        var inputs = urls.stream()
+                .map(url -> new StagedPipeline.Input<>(url, url))
+                .toList();
+        var parsed = StagedPipeline.<String>named("ingest-urls")
+                .then("fetch", config.getFetchParallelism(), config.getQueueCapacity(), this::fetch)
+                .then("parse", config.getParseParallelism(), config.getQueueCapacity(), this::parse);
+        if (bulkDocumentWriter == null) {
+            return parsed
+                    .then("persist", config.getPersistParallelism(), config.getQueueCapacity(), this::persistIfRefreshed)
+                    .run(inputs, listener);
+        }
+        return parsed
+                .then("embed", config.getEmbedParallelism(), config.getQueueCapacity(), this::embedIfRefreshed)
+                .then("persist", config.getPersistParallelism(), config.getQueueCapacity(), this::persistPrepared)
+                .run(inputs, listener);
+    }
+
+    /**
+     * Parse and persist the files of a directory one at a time. Only paths are queued up front;
+     * the documents held in memory at once are bounded by the stages' parallelism and queue
+     * capacity, so a large tree costs no more heap than a small one.
+     * Each document's URI is its file's {@code file:} URI.
+     */
+    StagedPipeline.Report ingestFiles(Path root, List<Path> files, StagedPipeline.ItemListener listener) {
+        var inputs = files.stream()
+                .map(file -> new StagedPipeline.Input<>(root + " -> " + root.relativize(file), file))
+                .toList();
+        var parsed = StagedPipeline.<Path>named("ingest-files")
+                .then("parse", config.getParseParallelism(), config.getQueueCapacity(), this::parseFile);
+        if (bulkDocumentWriter == null) {
+            return parsed
+                    .then("persist", config.getPersistParallelism(), config.getQueueCapacity(), this::persist)
+                    .run(inputs, listener);
+        }
+        return parsed
+                .then("embed", config.getEmbedParallelism(), config.getQueueCapacity(), this::embed)
+                .then("persist", config.getPersistParallelism(), config.getQueueCapacity(), this::persistEmbedded)
+                .run(inputs, listener);
+    }
+
+    private FetchedPage fetch(String url) throws Exception {
+        try {
+            if (!refreshPolicy.shouldReread(store, url)) {
+                return null;
+            }
+            return hostLimiter.call(url, () -> {
+                if (DataManager.notModifiedSinceIngested(store, refreshPolicy, httpFetchCache, url)) {
+                    return null;
+                }
+                var result = fetcher.fetch(URI.create(url));
+                return new FetchedPage(url, FetchResults.bodyBytes(result), FetchResults.contentTypeOrNull(result));
+            });
+        } catch (Exception | Error e) {
+            checkpoint.fail(url);
+            throw e;
+        }
+    }
+
+    private NavigableDocument parse(FetchedPage page) {
+        try {
+            return FetchResults.parseFetched(reader, page.url(), page.body(), page.contentType());
+        } catch (RuntimeException | Error e) {
+            checkpoint.fail(page.url());
+            throw e;
+        }
+    }
+
+    private NavigableDocument parseFile(Path file) {
+        var uri = file.toUri().toString();
+        if (checkpoint.isCompleted(uri)) {
+            // Written by the interrupted run: skip the parse as well as the write
+            return null;
+        }
+        try {
+            return reader.parseFile(file.toFile(), uri);
+        } catch (RuntimeException | Error e) {
+            checkpoint.fail(uri);
+            throw e;
+        }
+    }
+
+    private NavigableDocument persistIfRefreshed(NavigableDocument document) {
+        if (!refreshPolicy.shouldRefreshDocument(store, document)) {
+            return null;
+        }
+        if (snapshotRefresher != null) {
+            if (duplicates.isDuplicate(document)) {
+                return null;
+            }
+            checkpoint.begin(document.getUri());
+            var outcome = snapshotRefresher.write(document);
+            checkpoint.complete(document.getUri());
+            return outcome == SnapshotRefresher.Outcome.UNCHANGED ? null : document;
+        }
+        return persist(document);
+    }
+
+    /**
+     * Write a document in place of any stored version, journalling it so an interrupted run can
+     * resume; documents the interrupted run already wrote pass straight through and
+     * near-duplicates are dropped.
+     */
+    private NavigableDocument persist(NavigableDocument document) {
+        if (checkpoint.isCompleted(document.getUri())) {
+            return document;
+        }
+        if (duplicates.isDuplicate(document)) {
+            return null;
+        }
+        checkpoint.begin(document.getUri());
+        if (store.existsRootWithUri(document.getUri())) {
+            store.deleteRootAndDescendants(document.getUri());
+        }
+        store.writeAndChunkDocument(document);
+        checkpoint.complete(document.getUri());
+        return document;
+    }
+
+    private Prepared embedIfRefreshed(NavigableDocument document) {
+        if (!refreshPolicy.shouldRefreshDocument(store, document)) {
+            return null;
+        }
+        if (snapshotRefresher != null) {
+            // Only the sections that changed are re-embedded, by the refresher at write time
+            return duplicates.isDuplicate(document) ? null : new Prepared(document, null);
+        }
+        return embed(document);
+    }
+
+    /**
+     * Chunk and embed a document ahead of its store write. Documents the interrupted run
+     * already wrote pass through unembedded and near-duplicates are dropped.
+     */
+    private Prepared embed(NavigableDocument document) {
+        if (checkpoint.isCompleted(document.getUri())) {
+            return new Prepared(document, null);
+        }
+        if (duplicates.isDuplicate(document)) {
+            return null;
+        }
+        try {
+            return new Prepared(document, bulkDocumentWriter.embed(List.of(document)));
+        } catch (RuntimeException | Error e) {
+            checkpoint.fail(document.getUri());
+            throw e;
+        }
+    }
+
+    private NavigableDocument persistPrepared(Prepared prepared) {
+        if (snapshotRefresher == null) {
+            return persistEmbedded(prepared);
+        }
+        var document = prepared.document();
+        checkpoint.begin(document.getUri());
+        var outcome = snapshotRefresher.write(document);
+        checkpoint.complete(document.getUri());
+        return outcome == SnapshotRefresher.Outcome.UNCHANGED ? null : document;
+    }
+
+    /**
+     * Write an embedded document in place of any stored version, journalling it as
+     * {@link #persist} does.
+     */
+    private NavigableDocument persistEmbedded(Prepared prepared) {
+        var document = prepared.document();
+        if (prepared.embedded() == null) {
+            return document;
+        }
+        checkpoint.begin(document.getUri());
+        if (store.existsRootWithUri(document.getUri())) {
+            store.deleteRootAndDescendants(document.getUri());
+        }
+        bulkDocumentWriter.write(prepared.embedded());
+        checkpoint.complete(document.getUri());
+        return document;
+    }
+}
@@ -15,9 +15,38 @@ public record IngestionResult(
         List<IngestionFailure> failedDirectories,
         /** Per-document failures that occurred inside otherwise-successful directories. */
         List<IngestionFailure> failedDocuments,
-        Duration elapsed
+        Duration elapsed,
+        IngestionTimings timings,
+        /** Skipped/updated/deleted document counts when directories are ingested incrementally. */
+        DocumentChanges documentChanges,
+        /** Documents not written because they near-duplicate documents already ingested. */
+        List<SkippedDuplicate> skippedDuplicates
 ) {
 
+    public IngestionResult(
+            List<String> loadedUrls,
+            List<IngestionFailure> failedUrls,
+            List<String> ingestedDirectories,
+            List<IngestionFailure> failedDirectories,
+            List<IngestionFailure> failedDocuments,
+            Duration elapsed,
+            IngestionTimings timings,
+            DocumentChanges documentChanges) {
+        this(loadedUrls, failedUrls, ingestedDirectories, failedDirectories, failedDocuments,
+                elapsed, timings, documentChanges, List.of());
+    }
+
+    public IngestionResult(
+            List<String> loadedUrls,
+            List<IngestionFailure> failedUrls,
+            List<String> ingestedDirectories,
+            List<IngestionFailure> failedDirectories,
+            List<IngestionFailure> failedDocuments,
+            Duration elapsed) {
+        this(loadedUrls, failedUrls, ingestedDirectories, failedDirectories, failedDocuments,
+                elapsed, IngestionTimings.none(), DocumentChanges.none(), List.of());
+    }
+
     public int totalUrls() {
         return loadedUrls.size() + failedUrls.size();
     }
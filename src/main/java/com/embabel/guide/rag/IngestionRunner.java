@@ -3,16 +3,29 @@ package com.embabel.guide.rag;
 import com.embabel.agent.rag.store.ContentElementRepositoryInfo;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.boot.ApplicationArguments;
 import org.springframework.boot.ApplicationRunner;
 import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
 import org.springframework.stereotype.Component;
 
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.List;
+import java.util.Optional;
+
 /**
  * Runs ingestion on startup when {@code guide.reload-content-on-startup} is true.
  * Prints a structured summary to stdout so the shell script (or human) can see
  * exactly what was loaded without parsing log files.
+ * <p>
+ * With {@code guide.ingestion.resume=true} (or the {@code --resume} argument) it continues
+ * an interrupted run from its last checkpoint instead of starting over.
+ * <p>
+ * With {@code guide.store-snapshot.import-file} (or {@code --import-snapshot=<file>}) it loads
+ * a store snapshot instead of ingesting, and with {@code guide.store-snapshot.export-file}
+ * (or {@code --export-snapshot=<file>}) it writes one afterwards.
  */
 @Component
 @ConditionalOnProperty(name = "guide.reload-content-on-startup", havingValue = "true")
@@ -20,23 +33,75 @@ public class IngestionRunner implements ApplicationRunner {
 
     private static final Logger logger = LoggerFactory.getLogger(IngestionRunner.class);
 
+    private static final int SLOWEST_URLS_SHOWN = 5;
+
     private final DataManager dataManager;
+    private final IngestionJobService ingestionJobService;
 
     @Value("${server.port:8080}")
     private int serverPort;
 
-    public IngestionRunner(DataManager dataManager) {
+    @Value("${guide.ingestion.resume:false}")
+    private boolean resume;
+
+    @Value("${guide.store-snapshot.import-file:}")
+    private String importFile;
+
+    @Value("${guide.store-snapshot.export-file:}")
+    private String exportFile;
+
+    @Autowired
+    public IngestionRunner(DataManager dataManager, IngestionJobService ingestionJobService) {
         this.dataManager = dataManager;
+        this.ingestionJobService = ingestionJobService;
+    }
+
+    IngestionRunner(DataManager dataManager) {
+        this(dataManager, new IngestionJobService(dataManager));
     }
 
     @Override
     public void run(ApplicationArguments args) {
-        logger.info("IngestionRunner: starting ingestion (reload-content-on-startup=true)");
+        var importFile = snapshotFile(args, "import-snapshot", this.importFile);
+        var exportFile = snapshotFile(args, "export-snapshot", this.exportFile);
+        try {
+            if (importFile != null) {
+                logger.info("IngestionRunner: importing store snapshot {} instead of ingesting", importFile);
+                printSnapshotSummary("SNAPSHOT IMPORTED", importFile, dataManager.importSnapshot(importFile));
+            } else {
+                ingest(args);
+            }
+            if (exportFile != null) {
+                logger.info("IngestionRunner: exporting store snapshot to {}", exportFile);
+                printSnapshotSummary("SNAPSHOT EXPORTED", exportFile, dataManager.exportSnapshot(exportFile));
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
 
-        var result = dataManager.loadReferences();
+    private static String snapshotFile(ApplicationArguments args, String option, String configured) {
+        List<String> values = args.getOptionValues(option);
+        var file = values == null || values.isEmpty() ? configured : values.get(0);
+        return file == null || file.isBlank() ? null : file;
+    }
+
+    private void ingest(ApplicationArguments args) {
+        Optional<IngestionResult> result;
+        if (resume || args.containsOption("resume")) {
+            logger.info("IngestionRunner: resuming ingestion from last checkpoint");
+            result = ingestionJobService.runNow(listener -> dataManager.resumeLoadingReferences());
+        } else {
+            logger.info("IngestionRunner: starting ingestion (reload-content-on-startup=true)");
+            result = ingestionJobService.runNow(listener -> dataManager.loadReferences());
+        }
+        if (result.isEmpty()) {
+            logger.warn("IngestionRunner: an ingestion job is already running; skipping startup ingestion");
+            return;
+        }
 
         var stats = dataManager.getStats();
-        printSummary(result, stats);
+        printSummary(result.get(), stats);
     }
 
     private void printSummary(IngestionResult result, ContentElementRepositoryInfo stats) {
@@ -47,7 +112,13 @@ public class IngestionRunner implements ApplicationRunner {
         sb.append("╚══════════════════════════════════════════════════╝\n");
         sb.append("\n");
 
-        sb.append("  Time: ").append(formatDuration(result.elapsed())).append("\n\n");
+        sb.append("  Time: ").append(formatDuration(result.elapsed()));
+        var timings = result.timings();
+        if (result.totalUrls() > 0 || result.totalDirectories() > 0) {
+            sb.append(" (URLs ").append(formatDuration(timings.urlPhase()))
+                    .append(", directories ").append(formatDuration(timings.directoryPhase())).append(")");
+        }
+        sb.append("\n\n");
 
         sb.append("  ── URLs (").append(result.loadedUrls().size()).append("/")
                 .append(result.totalUrls()).append(" loaded) ──\n");
@@ -61,6 +132,12 @@ public class IngestionRunner implements ApplicationRunner {
                     sb.append("      ✗ ").append(f.source()).append("\n")
                       .append("        reason: ").append(f.reason()).append("\n"));
         }
+        if (timings.perUrl().size() > 1) {
+            sb.append("    Slowest:\n");
+            timings.slowestUrls(SLOWEST_URLS_SHOWN).forEach(e ->
+                    sb.append("      ").append(formatDuration(e.getValue())).append("  ")
+                      .append(e.getKey()).append("\n"));
+        }
         sb.append("\n");
 
         if (result.totalDirectories() > 0) {
@@ -76,10 +153,26 @@ public class IngestionRunner implements ApplicationRunner {
                         sb.append("      ✗ ").append(f.source()).append("\n")
                           .append("        reason: ").append(f.reason()).append("\n"));
             }
+            var changes = result.documentChanges();
+            if (!changes.isEmpty()) {
+                sb.append("    Documents: ").append(changes.updated()).append(" added/updated, ")
+                        .append(changes.skipped()).append(" unchanged, ")
+                        .append(changes.duplicates()).append(" near-duplicates, ")
+                        .append(changes.deleted()).append(" deleted\n");
+            }
         } else {
             sb.append("  ── Directories: none configured ──\n");
         }
 
+        if (!result.skippedDuplicates().isEmpty()) {
+            sb.append("\n  ── Near-Duplicates Skipped (").append(result.skippedDuplicates().size()).append(") ──\n");
+            result.skippedDuplicates().forEach(d ->
+                    sb.append("      ≈ ").append(d.uri()).append("\n")
+                      .append("        duplicates: ").append(d.duplicateOf())
+                      .append(" (").append(d.duplicateSections()).append("/").append(d.sections())
+                      .append(" sections)\n"));
+        }
+
         if (!result.failedDocuments().isEmpty()) {
             sb.append("\n  ── Document Failures (").append(result.failedDocuments().size()).append(") ──\n");
             result.failedDocuments().forEach(f ->
@@ -103,6 +196,20 @@ public class IngestionRunner implements ApplicationRunner {
         logger.info("Ingestion summary printed to stdout");
     }
 
+    private void printSnapshotSummary(String title, String file, RagStoreSnapshot.Summary summary) {
+        var stats = dataManager.getStats();
+        var sb = new StringBuilder();
+        sb.append("\n");
+        sb.append("  ── ").append(title).append(" ──\n");
+        sb.append("    File:      ").append(file).append(" (").append(summary.getBytes() / 1024).append(" KB)\n");
+        sb.append("    Elements:  ").append(summary.getNodes())
+                .append(" (").append(summary.getEmbeddings()).append(" embedded)\n");
+        sb.append("    Time:      ").append(summary.getElapsed().toMillis()).append("ms\n");
+        sb.append("    Store:     ").append(stats.getDocumentCount()).append(" documents, ")
+                .append(stats.getChunkCount()).append(" chunks\n");
+        System.out.println(sb);
+    }
+
     private static String formatDuration(java.time.Duration d) {
         long totalSec = d.getSeconds();
         if (totalSec < 60) {
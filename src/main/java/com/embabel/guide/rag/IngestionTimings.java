@@ -0,0 +1,44 @@
+package com.embabel.guide.rag;
+
+import java.time.Duration;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Wall-clock timings for an ingestion run, so operators can see which phase
+ * (and which URL) dominates without turning on debug logging.
+ *
+ * @param urlPhase       time spent ingesting all configured URLs
+ * @param directoryPhase time spent ingesting all configured directories
+ * @param perUrl         time spent on each URL, successful or not, in configuration order
+ */
+public record IngestionTimings(
+        Duration urlPhase,
+        Duration directoryPhase,
+        Map<String, Duration> perUrl
+) {
+
+    public static IngestionTimings none() {
+        return new IngestionTimings(Duration.ZERO, Duration.ZERO, Collections.emptyMap());
+    }
+
+    /**
+     * Sum of the per-URL timings. When URLs are ingested concurrently this exceeds
+     * {@link #urlPhase()}; the ratio is the effective parallelism achieved.
+     */
+    public Duration totalUrlTime() {
+        return perUrl.values().stream().reduce(Duration.ZERO, Duration::plus);
+    }
+
+    /**
+     * The slowest URLs, longest first.
+     */
+    public List<Map.Entry<String, Duration>> slowestUrls(int limit) {
+        return perUrl.entrySet().stream()
+                .sorted(Map.Entry.<String, Duration>comparingByValue(Comparator.reverseOrder()))
+                .limit(limit)
+                .toList();
+    }
+}
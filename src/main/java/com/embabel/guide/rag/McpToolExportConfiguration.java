@@ -1,14 +1,15 @@
 package com.embabel.guide.rag;
 
-import com.embabel.agent.filter.PropertyFilter;
 import com.embabel.agent.mcpserver.McpToolExport;
 import com.embabel.agent.rag.graph.DrivineStore;
 import com.embabel.agent.rag.tools.ToolishRag;
 import com.embabel.guide.GuideProperties;
+import org.springframework.ai.tool.ToolCallbackProvider;
+import org.springframework.ai.tool.method.MethodToolCallbackProvider;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnExpression;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
-
-import java.util.List;
+import org.springframework.context.annotation.Profile;
 
 /**
  * Export MCP tools
@@ -16,7 +17,13 @@ import java.util.List;
 @Configuration
 class McpToolExportConfiguration {
 
+    // Neither version partitions nor graph docs search, so ToolishRag over the store serves docs
+    private static final String PLAIN_DOCS_SEARCH =
+            "!${guide.version-partitions.enabled:false} and !(" + RagConfiguration.GRAPH_DOCS_SEARCH + ")";
+
     @Bean
+    @ConditionalOnExpression(PLAIN_DOCS_SEARCH)
+    @Profile("!" + RagConfiguration.IN_MEMORY_PROFILE)
     McpToolExport documentationRagTools(
             DrivineStore drivineStore,
             GuideProperties properties
@@ -26,12 +33,8 @@ class McpToolExportConfiguration {
                 "Embabel docs",
                 drivineStore
         );
-        var activeVersion = properties.getContent().getActiveVersion();
-        if (activeVersion != null) {
-            var versionFilter = new PropertyFilter.In(
-                    "version",
-                    List.of(activeVersion, VersionChunkTransformer.SUPPLEMENTARY)
-            );
+        var versionFilter = VersionChunkTransformer.activeVersionFilter(properties.getContent());
+        if (versionFilter != null) {
             toolishRag = toolishRag.withMetadataFilter(versionFilter);
         }
         return McpToolExport.fromLlmReference(
@@ -40,6 +43,41 @@ class McpToolExportConfiguration {
         );
     }
 
+    /**
+     * Documentation search over per-version partitions or the graph docs search, in place of
+     * {@link #documentationRagTools}.
+     */
+    @Bean
+    @ConditionalOnExpression("!(" + PLAIN_DOCS_SEARCH + ")")
+    @Profile("!" + RagConfiguration.IN_MEMORY_PROFILE)
+    ToolCallbackProvider graphDocumentationTools(
+            DocsSearch docsSearch,
+            GuideProperties properties
+    ) {
+        return docsSearchTools(docsSearch, properties);
+    }
+
+    /**
+     * Documentation search over the in-memory store, which has no ToolishRag.
+     */
+    @Bean
+    @Profile(RagConfiguration.IN_MEMORY_PROFILE)
+    ToolCallbackProvider inMemoryDocumentationTools(
+            DocsSearch docsSearch,
+            GuideProperties properties
+    ) {
+        return docsSearchTools(docsSearch, properties);
+    }
+
+    private static ToolCallbackProvider docsSearchTools(DocsSearch docsSearch, GuideProperties properties) {
+        return MethodToolCallbackProvider.builder()
+                .toolObjects(new DocsSearchTools(
+                        docsSearch,
+                        properties.getDocsTopK()
+                ))
+                .build();
+    }
+
     @Bean
     McpToolExport referenceTools(
             DataManager dataManager,
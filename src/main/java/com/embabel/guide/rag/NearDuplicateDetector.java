@@ -0,0 +1,211 @@
+package com.embabel.guide.rag;
+
+import com.embabel.agent.rag.model.LeafSection;
+import com.embabel.agent.rag.model.NavigableDocument;
+import com.google.common.hash.Hashing;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.function.Function;
+import java.util.stream.Collectors;
+
+/**
+ * Spots documents that are near-copies of ones already written in this run, such as a Medium
+ * post syndicated elsewhere or the same README in several cloned repositories, so they are
+ * not chunked, embedded and stored a second time.
+ * <p>
+ * Each leaf section long enough to be distinctive gets a MinHash signature over its word
+ * trigrams; the share of matching signature slots estimates the Jaccard similarity of two
+ * sections' trigram sets. Signatures are indexed in {@value #BANDS} bands of
+ * {@value #ROWS} slots, so only sections sharing a whole band are compared: pairs at 0.8
+ * similarity almost always meet, unrelated pairs almost never do.
+ * <p>
+ * The store writes documents whole, so the decision is per document: one is skipped when at
+ * least {@code documentShare} of its distinctive sections duplicate sections of other documents.
+ * Documents are only compared within a partition, such as a docs version: the guide for one
+ * version near-duplicates the guide for the next, and both must be kept.
+ */
+final class NearDuplicateDetector {
+
+    private static final Logger logger = LoggerFactory.getLogger(NearDuplicateDetector.class);
+
+    private static final int BANDS = 16;
+    private static final int ROWS = 4;
+    private static final int SLOTS = BANDS * ROWS;
+    private static final int SHINGLE_WORDS = 3;
+    private static final long[] SALTS = new long[SLOTS];
+
+    static {
+        for (int i = 0; i < SLOTS; i++) {
+            SALTS[i] = mix((i + 1) * 0x9E3779B97F4A7C15L);
+        }
+    }
+
+    private static final NearDuplicateDetector DISABLED = new NearDuplicateDetector(1.0, Integer.MAX_VALUE, 2.0);
+
+    private record Indexed(long[] signature, String uri, String partition) {
+    }
+
+    private final double sectionSimilarity;
+    private final int minWords;
+    private final double documentShare;
+    private final Function<String, String> partitionOf;
+    private final Map<Long, List<Indexed>> bands = new HashMap<>();
+    private final List<SkippedDuplicate> skipped = new ArrayList<>();
+
+    /**
+     * @param sectionSimilarity estimated Jaccard similarity of word trigrams at which two sections are duplicates
+     * @param minWords          sections with fewer words are too generic to judge and are ignored
+     * @param documentShare     share of a document's sections that must be duplicates to skip it
+     * @param partitionOf       a document URI's partition; documents are only compared within one
+     */
+    NearDuplicateDetector(
+            double sectionSimilarity, int minWords, double documentShare, Function<String, String> partitionOf) {
+        this.sectionSimilarity = sectionSimilarity;
+        this.minWords = minWords;
+        this.documentShare = documentShare;
+        this.partitionOf = partitionOf;
+    }
+
+    /**
+     * A detector comparing all documents with each other.
+     */
+    NearDuplicateDetector(double sectionSimilarity, int minWords, double documentShare) {
+        this(sectionSimilarity, minWords, documentShare, uri -> "");
+    }
+
+    /**
+     * A detector that never finds a duplicate, for one-off ingestion outside a full run.
+     */
+    static NearDuplicateDetector disabled() {
+        return DISABLED;
+    }
+
+    /**
+     * Decide whether {@code document} near-duplicates documents seen before. If so it is
+     * recorded as skipped; otherwise its sections are remembered for later documents.
+     */
+    synchronized boolean isDuplicate(NavigableDocument document) {
+        if (this == DISABLED) {
+            return false;
+        }
+        var signatures = new ArrayList<long[]>();
+        for (var element : document.descendants()) {
+            if (element instanceof LeafSection leaf) {
+                var words = words(leaf.getContent());
+                if (words.length >= minWords) {
+                    signatures.add(signature(words));
+                }
+            }
+        }
+        if (signatures.isEmpty()) {
+            return false;
+        }
+        var partition = partitionOf.apply(document.getUri());
+        var matches = new ArrayList<String>();
+        for (var signature : signatures) {
+            var match = find(signature, document.getUri(), partition);
+            if (match != null) {
+                matches.add(match);
+            }
+        }
+        if (matches.size() >= documentShare * signatures.size()) {
+            var original = matches.stream()
+                    .collect(Collectors.groupingBy(Function.identity(), Collectors.counting()))
+                    .entrySet().stream()
+                    .max(Map.Entry.comparingByValue())
+                    .orElseThrow()
+                    .getKey();
+            skipped.add(new SkippedDuplicate(document.getUri(), original, matches.size(), signatures.size()));
+            logger.info("Skipping {}: {}/{} sections duplicate {}",
+                    document.getUri(), matches.size(), signatures.size(), original);
+            return true;
+        }
+        signatures.forEach(signature -> index(signature, document.getUri(), partition));
+        return false;
+    }
+
+    synchronized List<SkippedDuplicate> skipped() {
+        return List.copyOf(skipped);
+    }
+
+    private String find(long[] signature, String uri, String partition) {
+        for (int band = 0; band < BANDS; band++) {
+            for (var candidate : bands.getOrDefault(bandKey(signature, band), List.of())) {
+                if (candidate.partition().equals(partition)
+                        && !candidate.uri().equals(uri)
+                        && similarity(candidate.signature(), signature) >= sectionSimilarity) {
+                    return candidate.uri();
+                }
+            }
+        }
+        return null;
+    }
+
+    private void index(long[] signature, String uri, String partition) {
+        var entry = new Indexed(signature, uri, partition);
+        for (int band = 0; band < BANDS; band++) {
+            bands.computeIfAbsent(bandKey(signature, band), k -> new ArrayList<>()).add(entry);
+        }
+    }
+
+    private static long bandKey(long[] signature, int band) {
+        long key = band;
+        for (int row = band * ROWS; row < (band + 1) * ROWS; row++) {
+            key = key * 0x9E3779B97F4A7C15L + signature[row];
+        }
+        return key;
+    }
+
+    static double similarity(long[] a, long[] b) {
+        int equal = 0;
+        for (int i = 0; i < SLOTS; i++) {
+            if (a[i] == b[i]) {
+                equal++;
+            }
+        }
+        return (double) equal / SLOTS;
+    }
+
+    static String[] words(String text) {
+        var words = text.toLowerCase(Locale.ROOT).split("[^\\p{L}\\p{N}]+");
+        return Arrays.stream(words).filter(w -> !w.isEmpty()).toArray(String[]::new);
+    }
+
+    /**
+     * MinHash signature: for each slot, the smallest salted hash of any word trigram. Two
+     * sections agree in a slot with probability equal to the Jaccard similarity of their trigrams.
+     */
+    static long[] signature(String[] words) {
+        var signature = new long[SLOTS];
+        Arrays.fill(signature, Long.MAX_VALUE);
+        int shingles = Math.max(1, words.length - SHINGLE_WORDS + 1);
+        for (int i = 0; i < shingles; i++) {
+            var shingle = String.join(" ", Arrays.copyOfRange(words, i, Math.min(words.length, i + SHINGLE_WORDS)));
+            long hash = Hashing.murmur3_128().hashString(shingle, StandardCharsets.UTF_8).asLong();
+            for (int slot = 0; slot < SLOTS; slot++) {
+                signature[slot] = Math.min(signature[slot], mix(hash ^ SALTS[slot]));
+            }
+        }
+        return signature;
+    }
+
+    /**
+     * MurmurHash3's 64-bit finalizer, to derive independent-looking hashes from one.
+     */
+    private static long mix(long k) {
+        k ^= k >>> 33;
+        k *= 0xff51afd7ed558ccdL;
+        k ^= k >>> 33;
+        k *= 0xc4ceb9fe1a85ec53L;
+        k ^= k >>> 33;
+        return k;
+    }
+}
@@ -26,6 +26,7 @@ import com.embabel.agent.rag.ingestion.RssContentFetcher;
 import com.embabel.agent.rag.ingestion.TikaHierarchicalContentReader;
 import kotlin.Pair;
 
+import java.nio.file.Path;
 import java.util.ArrayList;
 import com.embabel.agent.rag.graph.DrivineCypherSearch;
 import com.embabel.agent.rag.graph.DrivineStore;
@@ -35,12 +36,17 @@ import com.embabel.common.ai.model.EmbeddingService;
 import com.embabel.guide.GuideProperties;
 import org.drivine.connection.DataSourceMap;
 import org.drivine.manager.PersistenceManager;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.springframework.beans.factory.ObjectProvider;
 import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnExpression;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
 import org.springframework.boot.context.properties.EnableConfigurationProperties;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
 import org.springframework.context.annotation.DependsOn;
 import org.springframework.context.annotation.Primary;
+import org.springframework.context.annotation.Profile;
 import org.springframework.transaction.PlatformTransactionManager;
 
 /**
@@ -56,13 +62,36 @@ import org.springframework.transaction.PlatformTransactionManager;
 @DependsOn("onnxEmbeddingInitializer")
 class RagConfiguration {
 
+    /**
+     * Profile that keeps RAG content in an in-process store instead of Neo4j.
+     */
+    public static final String IN_MEMORY_PROFILE = "in-memory-rag";
+
+    /**
+     * Whether docs search over the graph goes through {@link #graphDocsSearch} rather than
+     * version partitions alone or the library's ToolishRag.
+     */
+    static final String GRAPH_DOCS_SEARCH =
+            "${guide.hybrid-search.enabled:false} or ${guide.rerank.enabled:false} or ${guide.docs-cache.enabled:false}";
+
+    private static final String MEDIUM_ROUTE = "https://medium.com/**";
+    private static final String DEFAULT_ROUTE = "default";
+
     @Bean
     ChunkTransformer chunkTransformer(GuideProperties guideProperties) {
         return new VersionChunkTransformer(guideProperties);
     }
 
+    /**
+     * Fetcher used both by the content reader and directly by the ingestion pipeline's fetch stage.
+     * When the fetch cache is enabled, each route's fetcher is wrapped in a {@link CachingContentFetcher}
+     * unless the route is listed in {@code guide.fetch-cache.excluded-routes}.
+     */
     @Bean
-    HierarchicalContentReader hierarchicalContentReader(GuideProperties guideProperties) {
+    ContentFetcher contentFetcher(GuideProperties guideProperties, ObjectProvider<HttpFetchCache> httpFetchCache) {
+        var cache = httpFetchCache.getIfAvailable();
+        var excluded = guideProperties.getFetchCache().getExcludedRoutes();
+
         // Medium's RSS feed only exposes ~10 most recent articles per author.
         // Try RSS first; on failure fall back to direct HTTP in case Medium
         // is currently lax (its bot-blocking tightens and relaxes over time).
@@ -73,28 +102,79 @@ class RagConfiguration {
         var mediumFetcher = new FallbackContentFetcher(mediumRss, http);
 
         var routes = new ArrayList<Pair<String, ContentFetcher>>();
-        routes.add(new Pair<>("https://medium.com/**", mediumFetcher));
+        routes.add(new Pair<>(MEDIUM_ROUTE, cached(mediumFetcher, false, cache, excluded.contains(MEDIUM_ROUTE))));
         for (FetchRoute route : guideProperties.getFetchRoutes()) {
-            routes.add(new Pair<>(route.getPattern(), route.buildFetcher()));
+            var pattern = route.getPattern();
+            routes.add(new Pair<>(pattern, cached(route.buildFetcher(), false, cache, excluded.contains(pattern))));
         }
-        return new TikaHierarchicalContentReader(new RoutingContentFetcher(http, routes));
+        return new RoutingContentFetcher(cached(http, true, cache, excluded.contains(DEFAULT_ROUTE)), routes);
+    }
+
+    private static ContentFetcher cached(
+            ContentFetcher fetcher, boolean plainHttp, HttpFetchCache cache, boolean excluded) {
+        return cache == null || excluded ? fetcher : new CachingContentFetcher(fetcher, cache, plainHttp);
+    }
+
+    @Bean
+    @ConditionalOnProperty(name = "guide.fetch-cache.enabled", havingValue = "true")
+    HttpFetchCache httpFetchCache(GuideProperties guideProperties) {
+        return new HttpFetchCache(Path.of(guideProperties.resolvePath(guideProperties.getFetchCache().getDirectory())));
+    }
+
+    @Bean
+    HierarchicalContentReader hierarchicalContentReader(ContentFetcher contentFetcher, GuideProperties guideProperties) {
+        var reader = new TikaHierarchicalContentReader(contentFetcher);
+        var parsing = guideProperties.getIngestion().getParsing();
+        if (!parsing.getEnabled()) {
+            return reader;
+        }
+        return new BudgetedContentReader(
+                reader, contentFetcher, parsing.getMaxDocumentBytes(), parsing.getTimeout(), parsing.getParallelism());
+    }
+
+    @Bean
+    @ConditionalOnProperty(name = "guide.embedding-cache.enabled", havingValue = "true")
+    EmbeddingCacheStore embeddingCacheStore(GuideProperties guideProperties) {
+        var config = guideProperties.getEmbeddingCache();
+        var directory = Path.of(guideProperties.resolvePath(config.getDirectory()));
+        return EmbeddingCacheStore.open(directory.resolve("embeddings.bin"), config.getMaxEntries());
+    }
+
+    @Bean
+    @ConditionalOnProperty(name = "guide.parallel-embedding.enabled", havingValue = "true")
+    OnnxSessionPool onnxSessionPool(GuideProperties guideProperties) {
+        var config = guideProperties.getParallelEmbedding();
+        return new OnnxSessionPool(
+                Path.of(guideProperties.resolvePath(config.getModelDirectory())),
+                config.getSessions(),
+                config.getIntraOpThreads(),
+                config.getInterOpThreads());
     }
 
     @Bean
     @Primary
+    @Profile("!" + IN_MEMORY_PROFILE)
     DrivineStore drivineStore(
             @Qualifier("neo") PersistenceManager persistenceManager,
             PlatformTransactionManager platformTransactionManager,
             EmbeddingService embeddingService,
+            ObjectProvider<OnnxSessionPool> onnxSessionPool,
+            ObjectProvider<EmbeddingCacheStore> embeddingCacheStore,
+            ObjectProvider<MeterRegistry> meterRegistry,
             ChunkTransformer chunkTransformer,
             GraphRagServiceProperties graphRagProperties,
             GuideProperties guideProperties,
             DataSourceMap dataSourceMap) {
-        var chunkerConfig = guideProperties.getChunkerConfig() != null
-                ? guideProperties.getChunkerConfig()
-                : new ContentChunker.Config();
+        var chunkerConfig = chunkerConfig(guideProperties);
         var databaseType = dataSourceMap.getDataSources().get("neo").getType();
         var dialect = RagDialect.Companion.forDatabaseType(databaseType);
+        embeddingService = parallel(embeddingService, onnxSessionPool.getIfAvailable(), guideProperties);
+        var cacheStore = embeddingCacheStore.getIfAvailable();
+        if (cacheStore != null) {
+            var cachingEmbeddingService = new CachingEmbeddingService(embeddingService, cacheStore);
+            meterRegistry.ifAvailable(cachingEmbeddingService::bindTo);
+            embeddingService = cachingEmbeddingService;
+        }
         return new DrivineStore(
                 persistenceManager,
                 graphRagProperties,
@@ -106,4 +186,311 @@ class RagConfiguration {
                 dialect
         );
     }
-}
\ No newline at end of file
+
+    /**
+     * Names in the graph store's schema that raw Cypher here depends on, read from the store.
+     */
+    @Bean
+    @Profile("!" + IN_MEMORY_PROFILE)
+    StoreSchema storeSchema(
+            @Qualifier("neo") PersistenceManager persistenceManager,
+            PlatformTransactionManager platformTransactionManager) {
+        return new StoreSchema(persistenceManager, platformTransactionManager);
+    }
+
+    /**
+     * Bulk writer for directory ingestion, and the embed stage of the ingestion pipeline. It
+     * chunks with the same configuration and embeds through the same cache as the store, so its
+     * output matches the per-document path.
+     */
+    @Bean
+    @ConditionalOnExpression("${guide.bulk-write.enabled:false} or ${guide.ingestion.pipeline.enabled:false}")
+    @Profile("!" + IN_MEMORY_PROFILE)
+    BulkDocumentWriter bulkDocumentWriter(
+            @Qualifier("neo") PersistenceManager persistenceManager,
+            PlatformTransactionManager platformTransactionManager,
+            StoreSchema storeSchema,
+            EmbeddingService embeddingService,
+            ObjectProvider<OnnxSessionPool> onnxSessionPool,
+            ObjectProvider<EmbeddingCacheStore> embeddingCacheStore,
+            ChunkTransformer chunkTransformer,
+            GuideProperties guideProperties) {
+        return new BulkDocumentWriter(
+                persistenceManager,
+                platformTransactionManager,
+                storeSchema,
+                writerEmbeddingService(embeddingService, onnxSessionPool, embeddingCacheStore, guideProperties),
+                chunkerConfig(guideProperties),
+                chunkTransformer,
+                guideProperties.getBulkWrite().getBatchSize()
+        );
+    }
+
+    /**
+     * Section-by-section updates of refreshed SNAPSHOT pages, chunked and embedded like the store.
+     */
+    @Bean
+    @ConditionalOnProperty(name = "guide.ingestion.incremental-refresh", havingValue = "true")
+    @Profile("!" + IN_MEMORY_PROFILE)
+    SectionReplacer sectionReplacer(
+            @Qualifier("neo") PersistenceManager persistenceManager,
+            PlatformTransactionManager platformTransactionManager,
+            StoreSchema storeSchema,
+            EmbeddingService embeddingService,
+            ObjectProvider<OnnxSessionPool> onnxSessionPool,
+            ObjectProvider<EmbeddingCacheStore> embeddingCacheStore,
+            ChunkTransformer chunkTransformer,
+            GuideProperties guideProperties) {
+        return new SectionReplacer(
+                persistenceManager,
+                platformTransactionManager,
+                storeSchema,
+                writerEmbeddingService(embeddingService, onnxSessionPool, embeddingCacheStore, guideProperties),
+                chunkerConfig(guideProperties),
+                chunkTransformer,
+                guideProperties.getBulkWrite().getBatchSize()
+        );
+    }
+
+    /**
+     * Embedding for writers that bypass the store, through the same pool and cache as the store.
+     */
+    private static EmbeddingService writerEmbeddingService(
+            EmbeddingService embeddingService,
+            ObjectProvider<OnnxSessionPool> onnxSessionPool,
+            ObjectProvider<EmbeddingCacheStore> embeddingCacheStore,
+            GuideProperties guideProperties) {
+        embeddingService = parallel(embeddingService, onnxSessionPool.getIfAvailable(), guideProperties);
+        var cacheStore = embeddingCacheStore.getIfAvailable();
+        if (cacheStore != null) {
+            // Metrics are bound once, by the store's caching service
+            embeddingService = new CachingEmbeddingService(embeddingService, cacheStore);
+        }
+        return embeddingService;
+    }
+
+    /**
+     * In-process store in place of {@link #drivineStore}. It chunks and embeds like the graph
+     * store, through the same cache, so retrieval measured against it reflects production.
+     */
+    @Bean
+    @Primary
+    @Profile(IN_MEMORY_PROFILE)
+    InMemoryContentElementRepository inMemoryContentElementRepository(
+            EmbeddingService embeddingService,
+            ObjectProvider<OnnxSessionPool> onnxSessionPool,
+            ObjectProvider<EmbeddingCacheStore> embeddingCacheStore,
+            ObjectProvider<DocsQueryCache> docsQueryCache,
+            ObjectProvider<MeterRegistry> meterRegistry,
+            ChunkTransformer chunkTransformer,
+            GuideProperties guideProperties) {
+        embeddingService = parallel(embeddingService, onnxSessionPool.getIfAvailable(), guideProperties);
+        var cacheStore = embeddingCacheStore.getIfAvailable();
+        if (cacheStore != null) {
+            var cachingEmbeddingService = new CachingEmbeddingService(embeddingService, cacheStore);
+            meterRegistry.ifAvailable(cachingEmbeddingService::bindTo);
+            embeddingService = cachingEmbeddingService;
+        }
+        var queryCache = docsQueryCache.getIfAvailable();
+        if (queryCache != null) {
+            embeddingService = queryCache.cached(embeddingService);
+        }
+        var config = guideProperties.getInMemoryStore();
+        var snapshotFile = config.getSnapshotFile().isBlank()
+                ? null
+                : Path.of(guideProperties.resolvePath(config.getSnapshotFile()));
+        return new InMemoryContentElementRepository(
+                embeddingService,
+                chunkerConfig(guideProperties),
+                chunkTransformer,
+                config.getM(),
+                config.getEfConstruction(),
+                config.getEfSearch(),
+                config.getQuantized(),
+                snapshotFile
+        );
+    }
+
+    /**
+     * Documentation search for chat and MCP when there is no {@link DrivineStore} to build
+     * a ToolishRag over.
+     */
+    @Bean
+    @Profile(IN_MEMORY_PROFILE)
+    DocsSearch inMemoryDocsSearch(
+            InMemoryContentElementRepository repository,
+            ObjectProvider<CrossEncoderReranker> reranker,
+            ObjectProvider<DocsQueryCache> docsQueryCache,
+            GuideProperties guideProperties) {
+        var filter = VersionChunkTransformer.activeVersionFilter(guideProperties.getContent());
+        DocsSearch docsSearch = (query, topK) -> repository.search(query, topK, filter);
+        var hybrid = guideProperties.getHybridSearch();
+        if (hybrid.getEnabled()) {
+            docsSearch = new HybridDocsSearch(
+                    docsSearch,
+                    (query, topK) -> repository.textSearch(query, topK, filter),
+                    hybrid.getCandidates(),
+                    hybrid.getRrfK()
+            );
+        }
+        return cached(reranked(docsSearch, reranker.getIfAvailable(), guideProperties), docsQueryCache);
+    }
+
+    @Bean
+    @ConditionalOnProperty(name = "guide.hybrid-search.enabled", havingValue = "true")
+    @Profile("!" + IN_MEMORY_PROFILE)
+    ChunkFullTextSearch chunkFullTextSearch(
+            @Qualifier("neo") PersistenceManager persistenceManager,
+            PlatformTransactionManager platformTransactionManager,
+            GuideProperties guideProperties) {
+        return new ChunkFullTextSearch(persistenceManager, platformTransactionManager, guideProperties.getContent());
+    }
+
+    /**
+     * Documentation search over the graph when hybrid search, reranking or the query cache is
+     * on. Vector search uses version partitions when they're enabled, and the store's chunk
+     * index otherwise.
+     */
+    @Bean
+    @Primary
+    @ConditionalOnExpression(GRAPH_DOCS_SEARCH)
+    @Profile("!" + IN_MEMORY_PROFILE)
+    DocsSearch graphDocsSearch(
+            ObjectProvider<ChunkFullTextSearch> chunkFullTextSearch,
+            ObjectProvider<VersionPartitions> versionPartitions,
+            ObjectProvider<CrossEncoderReranker> reranker,
+            ObjectProvider<DocsQueryCache> docsQueryCache,
+            @Qualifier("neo") PersistenceManager persistenceManager,
+            PlatformTransactionManager platformTransactionManager,
+            StoreSchema storeSchema,
+            EmbeddingService embeddingService,
+            GuideProperties guideProperties) {
+        var queryCache = docsQueryCache.getIfAvailable();
+        DocsSearch docsSearch = versionPartitions.getIfAvailable(() -> new ChunkVectorSearch(
+                persistenceManager,
+                platformTransactionManager,
+                storeSchema,
+                queryCache != null ? queryCache.cached(embeddingService) : embeddingService,
+                guideProperties.getContent(),
+                4
+        ));
+        var fullText = chunkFullTextSearch.getIfAvailable();
+        if (fullText != null) {
+            var hybrid = guideProperties.getHybridSearch();
+            docsSearch = new HybridDocsSearch(
+                    docsSearch,
+                    fullText::search,
+                    hybrid.getCandidates(),
+                    hybrid.getRrfK()
+            );
+        }
+        return cached(reranked(docsSearch, reranker.getIfAvailable(), guideProperties), docsQueryCache);
+    }
+
+    /**
+     * Opt-in cache of query embeddings and docs search results, emptied when content changes.
+     */
+    @Bean
+    @ConditionalOnProperty(name = "guide.docs-cache.enabled", havingValue = "true")
+    DocsQueryCache docsQueryCache(GuideProperties guideProperties, ObjectProvider<MeterRegistry> meterRegistry) {
+        var config = guideProperties.getDocsCache();
+        var activeVersion = guideProperties.getContent().getActiveVersion();
+        var cache = new DocsQueryCache(
+                config.getMaxEmbeddings(),
+                config.getMaxResults(),
+                activeVersion != null ? activeVersion : "");
+        meterRegistry.ifAvailable(cache::bindTo);
+        return cache;
+    }
+
+    private static DocsSearch cached(DocsSearch docsSearch, ObjectProvider<DocsQueryCache> docsQueryCache) {
+        var cache = docsQueryCache.getIfAvailable();
+        return cache != null ? cache.cached(docsSearch) : docsSearch;
+    }
+
+    /**
+     * Opt-in cross-encoder for reranking documentation search results.
+     */
+    @Bean
+    @ConditionalOnProperty(name = "guide.rerank.enabled", havingValue = "true")
+    CrossEncoderReranker crossEncoderReranker(GuideProperties guideProperties) {
+        var config = guideProperties.getRerank();
+        return new CrossEncoderReranker(
+                Path.of(guideProperties.resolvePath(config.getModelDirectory())),
+                config.getThreads(),
+                config.getBatchSize(),
+                config.getTimeoutMillis());
+    }
+
+    private static DocsSearch reranked(
+            DocsSearch docsSearch, CrossEncoderReranker reranker, GuideProperties guideProperties) {
+        if (reranker == null) {
+            return docsSearch;
+        }
+        return new RerankingDocsSearch(docsSearch, reranker::score, guideProperties.getRerank().getCandidates());
+    }
+
+    /**
+     * Opt-in per-version partitions for documentation search. Queries are embedded with the
+     * same model as the chunks, but not through the ingestion cache.
+     */
+    @Bean
+    @ConditionalOnProperty(name = "guide.version-partitions.enabled", havingValue = "true")
+    @Profile("!" + IN_MEMORY_PROFILE)
+    VersionPartitions versionPartitions(
+            @Qualifier("neo") PersistenceManager persistenceManager,
+            PlatformTransactionManager platformTransactionManager,
+            StoreSchema storeSchema,
+            EmbeddingService embeddingService,
+            ObjectProvider<DocsQueryCache> docsQueryCache,
+            GuideProperties guideProperties) {
+        var queryCache = docsQueryCache.getIfAvailable();
+        return new VersionPartitions(
+                persistenceManager,
+                platformTransactionManager,
+                storeSchema,
+                queryCache != null ? queryCache.cached(embeddingService) : embeddingService,
+                guideProperties.getContent()
+        );
+    }
+
+    /**
+     * Export and import of the graph store. The embedding service only names the model that
+     * wrote the snapshot; nothing is embedded.
+     */
+    @Bean
+    @Profile("!" + IN_MEMORY_PROFILE)
+    RagStoreSnapshot ragStoreSnapshot(
+            @Qualifier("neo") PersistenceManager persistenceManager,
+            PlatformTransactionManager platformTransactionManager,
+            StoreSchema storeSchema,
+            EmbeddingService embeddingService,
+            GuideProperties guideProperties) {
+        return new RagStoreSnapshot(
+                persistenceManager,
+                platformTransactionManager,
+                storeSchema,
+                embeddingService,
+                guideProperties.getStoreSnapshot().getBatchSize()
+        );
+    }
+
+    /**
+     * Embed through the session pool when there is one; the cache, if any, goes in front so
+     * only cache misses are sharded.
+     */
+    private static EmbeddingService parallel(
+            EmbeddingService embeddingService, OnnxSessionPool pool, GuideProperties guideProperties) {
+        if (pool == null) {
+            return embeddingService;
+        }
+        return new ParallelEmbeddingService(
+                embeddingService, pool::embed, guideProperties.getParallelEmbedding().getShardSize());
+    }
+
+    private static ContentChunker.Config chunkerConfig(GuideProperties guideProperties) {
+        return guideProperties.getChunkerConfig() != null
+                ? guideProperties.getChunkerConfig()
+                : new ContentChunker.Config();
+    }
+}
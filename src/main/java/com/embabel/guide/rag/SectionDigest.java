@@ -0,0 +1,135 @@
+package com.embabel.guide.rag;
+
+import com.embabel.agent.rag.model.LeafSection;
+import com.embabel.agent.rag.model.NavigableDocument;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.springframework.lang.Nullable;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Content hash of every leaf section of a document, in document order, as it was when the
+ * document was last written to the store. Kept as JSON under the ingestion state directory.
+ * <p>
+ * Sections are keyed by title plus occurrence (so two "Example" sections stay distinct),
+ * which makes the digest independent of the random IDs the parser assigns on each read.
+ *
+ * @param sections section key to SHA-256 of its title and content
+ * @param ids      section key to the ID of the section's node in the store; null in digests
+ *                 saved before IDs were recorded
+ */
+record SectionDigest(Map<String, String> sections, @Nullable Map<String, String> ids) {
+
+    private static final ObjectMapper objectMapper = new ObjectMapper();
+
+    /**
+     * Section-level differences between two digests.
+     */
+    record Diff(int unchanged, List<String> changed, List<String> added, List<String> removed) {
+
+        boolean isEmpty() {
+            return changed.isEmpty() && added.isEmpty() && removed.isEmpty();
+        }
+    }
+
+    /**
+     * Digest of a document as written, recording its sections' IDs as they will be stored.
+     */
+    static SectionDigest of(NavigableDocument document) {
+        var sections = new LinkedHashMap<String, String>();
+        var ids = new LinkedHashMap<String, String>();
+        leaves(document).forEach((key, leaf) -> {
+            sections.put(key, IngestionManifest.sha256(leaf.getTitle() + "\n" + leaf.getContent()));
+            ids.put(key, leaf.getId());
+        });
+        return new SectionDigest(sections, ids);
+    }
+
+    /**
+     * A document's leaf sections by key, in document order.
+     */
+    static Map<String, LeafSection> leaves(NavigableDocument document) {
+        var leaves = new LinkedHashMap<String, LeafSection>();
+        var occurrences = new HashMap<String, Integer>();
+        for (var element : document.descendants()) {
+            if (element instanceof LeafSection leaf) {
+                var title = leaf.getTitle();
+                int occurrence = occurrences.merge(title, 1, Integer::sum);
+                leaves.put(title + "#" + occurrence, leaf);
+            }
+        }
+        return leaves;
+    }
+
+    /**
+     * This digest with the stored section IDs of {@code stored}, for a document whose sections
+     * were updated in place rather than written afresh.
+     */
+    SectionDigest withIdsOf(SectionDigest stored) {
+        var kept = new LinkedHashMap<String, String>();
+        for (var key : sections.keySet()) {
+            kept.put(key, stored.ids.get(key));
+        }
+        return new SectionDigest(sections, kept);
+    }
+
+    Diff diff(SectionDigest previous) {
+        int unchanged = 0;
+        var changed = new ArrayList<String>();
+        var added = new ArrayList<String>();
+        for (var section : sections.entrySet()) {
+            var before = previous.sections.get(section.getKey());
+            if (before == null) {
+                added.add(section.getKey());
+            } else if (before.equals(section.getValue())) {
+                unchanged++;
+            } else {
+                changed.add(section.getKey());
+            }
+        }
+        var removed = previous.sections.keySet().stream()
+                .filter(key -> !sections.containsKey(key))
+                .toList();
+        return new Diff(unchanged, changed, added, removed);
+    }
+
+    /**
+     * @return the digest saved for this document URI, or null if there is none
+     */
+    static SectionDigest load(Path stateDirectory, String uri) {
+        var file = fileFor(stateDirectory, uri);
+        if (!Files.exists(file)) {
+            return null;
+        }
+        try {
+            return objectMapper.readValue(file.toFile(), SectionDigest.class);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    void save(Path stateDirectory, String uri) {
+        var file = fileFor(stateDirectory, uri);
+        try {
+            Files.createDirectories(file.getParent());
+            var tmp = file.resolveSibling(file.getFileName() + ".tmp");
+            objectMapper.writeValue(tmp.toFile(), this);
+            Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private static Path fileFor(Path stateDirectory, String uri) {
+        return stateDirectory.resolve("documents").resolve(IngestionManifest.sha256(uri) + ".json");
+    }
+}
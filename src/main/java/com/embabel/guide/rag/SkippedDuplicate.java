@@ -0,0 +1,17 @@
+package com.embabel.guide.rag;
+
+/**
+ * A document left out of the store because it near-duplicates one already ingested.
+ *
+ * @param uri                URI of the skipped document
+ * @param duplicateOf        URI of the document it mostly duplicates
+ * @param duplicateSections  sections matching sections of other documents
+ * @param sections           sections long enough to compare
+ */
+public record SkippedDuplicate(
+        String uri,
+        String duplicateOf,
+        int duplicateSections,
+        int sections
+) {
+}
@@ -0,0 +1,94 @@
+package com.embabel.guide.rag;
+
+import com.embabel.agent.rag.model.LeafSection;
+import com.embabel.agent.rag.model.NavigableDocument;
+import com.embabel.agent.rag.store.ChunkingContentElementRepository;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.lang.Nullable;
+
+import java.nio.file.Path;
+import java.util.LinkedHashMap;
+
+/**
+ * Writes re-read documents only where their content actually changed, judged by comparing the
+ * new section tree with the {@link SectionDigest} saved at the previous write.
+ * <p>
+ * A refreshed SNAPSHOT page is usually identical to what is stored; such a document is not
+ * touched at all, so its chunks keep their node IDs and nothing is re-embedded. When only the
+ * content of some sections changed, or sections were removed, the {@link SectionReplacer}
+ * replaces just those sections and their chunks. New sections, a digest saved without section
+ * IDs, or a store without a section replacer mean the document is replaced as a whole.
+ */
+class SnapshotRefresher {
+
+    private static final Logger logger = LoggerFactory.getLogger(SnapshotRefresher.class);
+
+    enum Outcome {
+        ADDED, UPDATED, UNCHANGED
+    }
+
+    private final ChunkingContentElementRepository store;
+    private final Path stateDirectory;
+    @Nullable
+    private final SectionReplacer sectionReplacer;
+
+    SnapshotRefresher(ChunkingContentElementRepository store, Path stateDirectory) {
+        this(store, stateDirectory, null);
+    }
+
+    SnapshotRefresher(ChunkingContentElementRepository store, Path stateDirectory,
+                      @Nullable SectionReplacer sectionReplacer) {
+        this.store = store;
+        this.stateDirectory = stateDirectory;
+        this.sectionReplacer = sectionReplacer;
+    }
+
+    Outcome write(NavigableDocument document) {
+        var uri = document.getUri();
+        var digest = SectionDigest.of(document);
+        var previous = SectionDigest.load(stateDirectory, uri);
+        var exists = store.existsRootWithUri(uri);
+
+        if (exists && previous != null) {
+            var diff = digest.diff(previous);
+            if (diff.isEmpty()) {
+                logger.info("{} unchanged ({} sections); keeping stored chunks", uri, diff.unchanged());
+                return Outcome.UNCHANGED;
+            }
+            logger.info("{} changed: {} sections unchanged, changed {}, added {}, removed {}",
+                    uri, diff.unchanged(), diff.changed(), diff.added(), diff.removed());
+            if (replaceSections(document, previous, diff)) {
+                digest.withIdsOf(previous).save(stateDirectory, uri);
+                return Outcome.UPDATED;
+            }
+        }
+        if (exists) {
+            store.deleteRootAndDescendants(uri);
+        }
+        store.writeAndChunkDocument(document);
+        // Saved only after a successful write, so a failed write is retried in full next time
+        digest.save(stateDirectory, uri);
+        return exists ? Outcome.UPDATED : Outcome.ADDED;
+    }
+
+    /**
+     * Update the changed and removed sections in place, if the difference allows it.
+     *
+     * @return whether the sections were updated; if not, nothing was written
+     */
+    private boolean replaceSections(NavigableDocument document, SectionDigest previous, SectionDigest.Diff diff) {
+        if (sectionReplacer == null || previous.ids() == null || !diff.added().isEmpty()) {
+            return false;
+        }
+        var leaves = SectionDigest.leaves(document);
+        var changed = new LinkedHashMap<String, LeafSection>();
+        for (var key : diff.changed()) {
+            changed.put(previous.ids().get(key), leaves.get(key));
+        }
+        var removed = diff.removed().stream()
+                .map(key -> previous.ids().get(key))
+                .toList();
+        return sectionReplacer.replace(document, changed, removed);
+    }
+}
@@ -0,0 +1,308 @@
+package com.embabel.guide.rag;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A chain of stages connected by bounded queues. Each stage has its own worker threads,
+ * so an I/O-bound stage (fetching, writing) and a CPU-bound stage (parsing, embedding)
+ * overlap instead of running back to back. When a downstream stage falls behind, its
+ * input queue fills and upstream workers block: that is the backpressure, and it also
+ * bounds how many items are in memory at once.
+ * <p>
+ * Every item carries a {@code source} label (URL, or directory and document title) so a
+ * failure at any stage is reported against what the operator configured. A stage may
+ * return {@code null} to drop an item without failing it, e.g. when a page is already
+ * ingested.
+ *
+ * @param <S> type of the items fed into the pipeline
+ * @param <T> type produced by the last stage added so far
+ */
+final class StagedPipeline<S, T> {
+
+    private static final Logger logger = LoggerFactory.getLogger(StagedPipeline.class);
+
+    /**
+     * Work performed by one stage on one item.
+     */
+    @FunctionalInterface
+    interface StageFunction<I, O> {
+        O apply(I input) throws Exception;
+    }
+
+    /**
+     * An item entering the pipeline, labelled with where it came from.
+     */
+    record Input<S>(String source, S value) {
+    }
+
+    /**
+     * Told about each item as soon as it leaves the pipeline, for progress reporting.
+     * Called from worker threads; exceptions it throws are logged and otherwise ignored.
+     */
+    interface ItemListener {
+
+        ItemListener NONE = new ItemListener() {
+        };
+
+        default void completed(String source) {
+        }
+
+        default void dropped(String source) {
+        }
+
+        default void failed(IngestionFailure failure) {
+        }
+    }
+
+    /**
+     * Per-stage counters. {@code busy} is summed across the stage's workers; the stage
+     * with the largest {@code busy / parallelism} is the bottleneck.
+     */
+    record StageStats(String name, int parallelism, int processed, int dropped, int failed, Duration busy) {
+    }
+
+    /**
+     * Outcome of running the pipeline to completion.
+     *
+     * @param completed sources that made it through every stage
+     * @param dropped   sources a stage deliberately dropped (e.g. already ingested)
+     * @param failures  sources that failed, with the failing stage in the reason
+     */
+    record Report(List<String> completed, List<String> dropped, List<IngestionFailure> failures,
+                  List<StageStats> stages, Duration elapsed) {
+
+        StageStats bottleneck() {
+            return stages.stream()
+                    .max((a, b) -> Long.compare(
+                            a.busy().toNanos() / a.parallelism(),
+                            b.busy().toNanos() / b.parallelism()))
+                    .orElse(null);
+        }
+    }
+
+    private record Stage(String name, int parallelism, int queueCapacity, StageFunction<Object, Object> work) {
+    }
+
+    private record Envelope(String source, Object value) {
+    }
+
+    // Sentinel telling a worker its upstream is exhausted
+    private static final Envelope END = new Envelope("", null);
+
+    private final String name;
+    private final List<Stage> stages;
+
+    private StagedPipeline(String name, List<Stage> stages) {
+        this.name = name;
+        this.stages = stages;
+    }
+
+    static <S> StagedPipeline<S, S> named(String name) {
+        return new StagedPipeline<>(name, List.of());
+    }
+
+    /**
+     * Add a stage.
+     *
+     * @param parallelism   worker threads for this stage
+     * @param queueCapacity capacity of the queue feeding this stage
+     */
+    @SuppressWarnings("unchecked")
+    <O> StagedPipeline<S, O> then(String stageName, int parallelism, int queueCapacity,
+                                  StageFunction<? super T, ? extends O> work) {
+        var next = new ArrayList<>(stages);
+        next.add(new Stage(stageName, Math.max(1, parallelism), Math.max(1, queueCapacity),
+                (StageFunction<Object, Object>) (StageFunction<?, ?>) work));
+        return new StagedPipeline<>(name, next);
+    }
+
+    /**
+     * Feed all inputs through every stage and wait for the pipeline to drain.
+     * The calling thread is the producer, so it blocks when the first queue is full.
+     */
+    Report run(Iterable<Input<S>> inputs) {
+        return run(inputs, ItemListener.NONE);
+    }
+
+    /**
+     * As {@link #run(Iterable)}, telling {@code listener} about each item as it finishes.
+     */
+    Report run(Iterable<Input<S>> inputs, ItemListener listener) {
+        if (stages.isEmpty()) {
+            throw new IllegalStateException("Pipeline " + name + " has no stages");
+        }
+        long start = System.nanoTime();
+        var completed = Collections.synchronizedList(new ArrayList<String>());
+        var dropped = Collections.synchronizedList(new ArrayList<String>());
+        var failures = new ConcurrentLinkedQueue<IngestionFailure>();
+
+        var queues = new ArrayList<BlockingQueue<Envelope>>();
+        for (var stage : stages) {
+            queues.add(new ArrayBlockingQueue<>(stage.queueCapacity()));
+        }
+        var counters = new LinkedHashMap<String, StageCounters>();
+        var allDone = new CountDownLatch(stages.stream().mapToInt(Stage::parallelism).sum());
+
+        for (int i = 0; i < stages.size(); i++) {
+            var stage = stages.get(i);
+            var in = queues.get(i);
+            var out = i + 1 < stages.size() ? queues.get(i + 1) : null;
+            var downstreamWorkers = out != null ? stages.get(i + 1).parallelism() : 0;
+            var stageCounters = new StageCounters(stage.parallelism());
+            counters.put(stage.name(), stageCounters);
+            for (int w = 0; w < stage.parallelism(); w++) {
+                Thread.ofPlatform()
+                        .name(name + "-" + stage.name() + "-" + w)
+                        .daemon(true)
+                        .start(() -> {
+                            try {
+                                work(stage, in, out, stageCounters, completed, dropped, failures, listener);
+                            } finally {
+                                // The last worker out tells every downstream worker to finish
+                                if (stageCounters.liveWorkers.decrementAndGet() == 0 && out != null) {
+                                    for (int d = 0; d < downstreamWorkers; d++) {
+                                        put(out, END);
+                                    }
+                                }
+                                allDone.countDown();
+                            }
+                        });
+            }
+        }
+
+        var first = queues.get(0);
+        try {
+            for (var input : inputs) {
+                put(first, new Envelope(input.source(), input.value()));
+            }
+        } finally {
+            for (int d = 0; d < stages.get(0).parallelism(); d++) {
+                put(first, END);
+            }
+        }
+        try {
+            allDone.await();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted waiting for pipeline " + name, e);
+        }
+
+        var stageStats = new ArrayList<StageStats>();
+        counters.forEach((stageName, c) -> stageStats.add(new StageStats(stageName, c.parallelism,
+                c.processed.get(), c.dropped.get(), c.failed.get(), Duration.ofNanos(c.busyNanos.get()))));
+        var report = new Report(List.copyOf(completed), List.copyOf(dropped), List.copyOf(failures),
+                stageStats, Duration.ofNanos(System.nanoTime() - start));
+        logReport(report);
+        return report;
+    }
+
+    private static void work(Stage stage, BlockingQueue<Envelope> in, BlockingQueue<Envelope> out,
+                             StageCounters counters, List<String> completed, List<String> dropped,
+                             ConcurrentLinkedQueue<IngestionFailure> failures, ItemListener listener) {
+        while (true) {
+            var envelope = take(in);
+            if (envelope == END) {
+                return;
+            }
+            long begin = System.nanoTime();
+            Object result;
+            try {
+                result = stage.work().apply(envelope.value());
+            } catch (Throwable t) {
+                counters.failed.incrementAndGet();
+                logger.error("❌ [{}] failed for {}: {}", stage.name(), envelope.source(), t.getMessage(), t);
+                var failure = IngestionFailure.fromException(envelope.source(), t);
+                var stageFailure = new IngestionFailure(failure.source(), stage.name() + ": " + failure.reason());
+                failures.add(stageFailure);
+                notify(listener, envelope.source(), () -> listener.failed(stageFailure));
+                continue;
+            } finally {
+                counters.busyNanos.addAndGet(System.nanoTime() - begin);
+            }
+            if (result == null) {
+                counters.dropped.incrementAndGet();
+                dropped.add(envelope.source());
+                notify(listener, envelope.source(), () -> listener.dropped(envelope.source()));
+                continue;
+            }
+            counters.processed.incrementAndGet();
+            if (out != null) {
+                put(out, new Envelope(envelope.source(), result));
+            } else {
+                completed.add(envelope.source());
+                notify(listener, envelope.source(), () -> listener.completed(envelope.source()));
+            }
+        }
+    }
+
+    /**
+     * Tell the listener about an item. A listener that throws must not take the worker with it:
+     * a stage with no live workers stops draining its queue, and upstream workers block forever.
+     */
+    private static void notify(ItemListener listener, String source, Runnable call) {
+        try {
+            call.run();
+        } catch (RuntimeException e) {
+            logger.warn("Item listener {} failed for {}: {}", listener, source, e.getMessage(), e);
+        }
+    }
+
+    private void logReport(Report report) {
+        logger.info("Pipeline {} finished in {}ms: {} completed, {} dropped, {} failed",
+                name, report.elapsed().toMillis(), report.completed().size(),
+                report.dropped().size(), report.failures().size());
+        for (var s : report.stages()) {
+            logger.info("  stage {} (x{}): processed={}, dropped={}, failed={}, busy={}ms",
+                    s.name(), s.parallelism(), s.processed(), s.dropped(), s.failed(), s.busy().toMillis());
+        }
+        var bottleneck = report.bottleneck();
+        if (bottleneck != null) {
+            logger.info("  bottleneck: {}", bottleneck.name());
+        }
+    }
+
+    private static void put(BlockingQueue<Envelope> queue, Envelope envelope) {
+        try {
+            queue.put(envelope);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while queueing " + envelope.source(), e);
+        }
+    }
+
+    private static Envelope take(BlockingQueue<Envelope> queue) {
+        try {
+            return queue.take();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return END;
+        }
+    }
+
+    private static final class StageCounters {
+        final int parallelism;
+        final AtomicInteger liveWorkers;
+        final AtomicInteger processed = new AtomicInteger();
+        final AtomicInteger dropped = new AtomicInteger();
+        final AtomicInteger failed = new AtomicInteger();
+        final AtomicLong busyNanos = new AtomicLong();
+
+        StageCounters(int parallelism) {
+            this.parallelism = parallelism;
+            this.liveWorkers = new AtomicInteger(parallelism);
+        }
+    }
+}
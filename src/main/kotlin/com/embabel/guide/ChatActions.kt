@@ -4,15 +4,16 @@ import com.embabel.agent.api.annotation.Action
 import com.embabel.agent.api.annotation.EmbabelComponent
 import com.embabel.agent.api.common.ActionContext
 import com.embabel.agent.api.common.PromptRunner
+import com.embabel.agent.api.common.streaming.StreamingPromptRunner
 import com.embabel.agent.api.identity.User
 import com.embabel.agent.rag.graph.DrivineStore
-import com.embabel.agent.filter.PropertyFilter
 import com.embabel.agent.rag.tools.ToolishRag
 import com.embabel.agent.rag.tools.TryHyDE
 import com.embabel.guide.rag.VersionChunkTransformer
 import com.embabel.chat.AssistantMessage
 import com.embabel.chat.Message
 import com.embabel.chat.ChatTrigger
+import com.embabel.chat.SystemMessage
 import com.embabel.chat.Conversation
 import com.embabel.chat.UserMessage
 import com.embabel.guide.chat.model.CategoryCheck
@@ -20,6 +21,7 @@ import com.embabel.guide.chat.model.MessageCategory
 import com.embabel.guide.chat.model.StatusMessage
 import com.embabel.guide.chat.service.ChatService
 import com.embabel.guide.chat.service.JesseService
+import com.embabel.guide.chat.service.ResponseStream
 import com.embabel.guide.command.CommandExecutor
 import com.embabel.guide.command.CommandResult
 import com.embabel.guide.command.CommandTools
@@ -29,9 +31,14 @@ import com.embabel.guide.domain.GuideUserRepository
 import com.embabel.guide.domain.GuideUserService
 import com.embabel.guide.domain.HasGuideUserData
 import com.embabel.guide.narrator.NarrationCache
+import com.embabel.guide.narrator.NarrationPipeline
 import com.embabel.guide.narrator.NarratorAgent
 import com.embabel.guide.rag.DataManager
+import com.embabel.guide.rag.DocsHit
+import com.embabel.guide.rag.DocsSearch
+import com.embabel.guide.rag.DocsSearchTools
 import com.embabel.guide.util.truncate
+import com.embabel.common.textio.template.TemplateRenderer
 import com.embabel.hub.PersonaService
 import com.embabel.hub.integrations.LlmKeyException
 import com.embabel.hub.integrations.SetupRequiredChatModel
@@ -39,6 +46,8 @@ import com.embabel.hub.integrations.LlmRole
 import com.embabel.hub.integrations.UserLlmResolver
 import com.embabel.guide.chat.model.LlmKeyError
 import org.slf4j.LoggerFactory
+import org.springframework.beans.factory.ObjectProvider
+import java.time.Duration
 import java.time.Instant
 import java.util.UUID
 import java.util.concurrent.ThreadLocalRandom
@@ -52,18 +61,35 @@ class ChatActions(
     private val guideUserRepository: GuideUserRepository,
     private val guideUserService: GuideUserService,
     private val guideUserCache: GuideUserCache,
-    private val drivineStore: DrivineStore,
+    private val drivineStore: ObjectProvider<DrivineStore>,
     private val guideProperties: GuideProperties,
     private val narrationCache: NarrationCache,
+    private val narrationPipeline: NarrationPipeline,
     private val narratorAgent: NarratorAgent,
     private val chatService: ChatService,
     private val personaService: PersonaService,
     private val commandExecutor: CommandExecutor,
     private val userLlmResolver: UserLlmResolver,
+    docsSearch: ObjectProvider<DocsSearch>,
+    speculator: ObjectProvider<Speculator>,
+    localClassifier: ObjectProvider<LocalMessageClassifier>,
+    templateRenderer: ObjectProvider<TemplateRenderer>,
 ) {
 
     private val logger = LoggerFactory.getLogger(ChatActions::class.java)
 
+    private val docsSearch: DocsSearch? = docsSearch.ifAvailable
+
+    private val docsSearchTools = docsSearch.ifAvailable?.let {
+        DocsSearchTools(it, guideProperties.docsTopK)
+    }
+
+    private val speculator: Speculator? = speculator.ifAvailable
+
+    private val localClassifier: LocalMessageClassifier? = localClassifier.ifAvailable
+
+    private val templateRenderer: TemplateRenderer? = templateRenderer.ifAvailable
+
     @Action(canRerun = true, trigger = UserMessage::class)
     fun respond(conversation: Conversation, context: ActionContext) {
         logger.info("[TRACE] ChatActions.respond: user={}, conversationId={}", context.user(), conversation.id)
@@ -95,13 +121,16 @@ class ChatActions(
 
             val templateModel = buildTemplateModel(guideUser, snapshot)
 
-            // Pass 1: Classify message category (nano)
+            // Pass 1: Classify message category (nano), starting the informational path alongside
             var category = MessageCategory.INFORMATIONAL
             var quickResponse: String? = null
+            var speculation: Speculator.Speculation<List<DocsHit>>? = null
             if (snapshot.size > 1) {
+                val userContent = (snapshot.last() as? UserMessage)?.content ?: ""
+                speculation = speculate(userContent)
                 try {
-                    val userContent = (snapshot.last() as? UserMessage)?.content ?: ""
-                    val check = classifyMessage(userContent, snapshot, context, guideUser, templateModel)
+                    val check = classifyLocally(userContent)
+                        ?: classifyMessage(userContent, snapshot, context, guideUser, templateModel)
                     category = check.category
                     quickResponse = check.response
                     logger.info("[CLASSIFY RESULT] input='{}' category={}",
@@ -109,6 +138,9 @@ class ChatActions(
                 } catch (e: Exception) {
                     logger.error("[CLASSIFY] Classification FAILED, falling back to full pipeline: {}", e.message, e)
                 }
+                if (category != MessageCategory.INFORMATIONAL) {
+                    speculation?.discard()
+                }
             }
 
             when (category) {
@@ -141,6 +173,8 @@ class ChatActions(
                                     .respondWithSystemPrompt(conversation, templateModel)
                                     .content
                             )
+                            // Supersedes the summary's narration if that is still running, so it
+                            // can't land on this message
                             computeAndCacheNarration(ragMessage, conversation, guideUser, context)
                             sendResponse(ragMessage, conversation, context)
                         }
@@ -156,8 +190,10 @@ class ChatActions(
                 }
             }
 
-            val assistantMessage = buildRendering(context, guideUser)
-                .respondWithSystemPrompt(conversation, templateModel)
+            val informationalModel = withPrefetchedDocs(templateModel, speculation?.await())
+            val assistantMessage = streamResponse(conversation, context, guideUser, informationalModel)
+                ?: buildRendering(context, guideUser)
+                    .respondWithSystemPrompt(conversation, informationalModel)
             logger.info("[TRACE] LLM response: '{}'",
                 assistantMessage.content.truncate(100))
             computeAndCacheNarration(assistantMessage, conversation, guideUser, context)
@@ -216,32 +252,81 @@ class ChatActions(
         else -> throw RuntimeException("Unknown user type: $user")
     }
 
-    private fun buildRendering(context: ActionContext, guideUser: GuideUser): PromptRunner.Rendering {
-        return userLlmResolver.resolve(context, guideUser.id, LlmRole.CHAT)
+    private fun buildRendering(context: ActionContext, guideUser: GuideUser): PromptRunner.Rendering =
+        buildRunner(context, guideUser).rendering("guide_system")
+
+    private fun buildRunner(context: ActionContext, guideUser: GuideUser): PromptRunner {
+        val runner = userLlmResolver.resolve(context, guideUser.id, LlmRole.CHAT)
             .withId("chat_response")
             .withReferences(dataManager.referencesForUser(context.user()))
             .withToolGroups(guideProperties.toolGroups)
-            .withReference(
+        // Version partitions, hybrid search, reranking and the in-memory store scope to the active version themselves
+        val withDocs = if (docsSearchTools != null) {
+            runner.withToolObject(docsSearchTools)
+        } else {
+            runner.withReference(
                 ToolishRag(
                     "docs",
                     "Embabel docs",
-                    drivineStore,
+                    drivineStore.getObject(),
                 ).let { rag ->
-                    val filter = versionFilter()
+                    val filter = VersionChunkTransformer.activeVersionFilter(guideProperties.content)
                     if (filter != null) rag.withMetadataFilter(filter) else rag
                 }.withHint(TryHyDE.usingConversationContext())
             )
-            .rendering("guide_system")
+        }
+        return withDocs
     }
 
-    private fun versionFilter(): PropertyFilter? {
-        val version = guideProperties.content.activeVersion ?: return null
-        return PropertyFilter.In(
-            "version",
-            listOf(version, VersionChunkTransformer.SUPPLEMENTARY),
-        )
+    /**
+     * The informational response, streamed to the user's web client as it is generated, or null
+     * if streaming is off, the user isn't on the web, or their model can't stream.
+     */
+    private fun streamResponse(
+        conversation: Conversation,
+        context: ActionContext,
+        guideUser: GuideUser,
+        templateModel: Map<String, Any>,
+    ): AssistantMessage? {
+        val config = guideProperties.streaming
+        val webUserId = guideUser.webUser?.id
+        val renderer = templateRenderer
+        if (!config.enabled || webUserId == null || renderer == null) return null
+        val runner = buildRunner(context, guideUser)
+        if (runner !is StreamingPromptRunner || !runner.supportsStreaming()) return null
+        val systemPrompt = renderer.renderLoadedTemplate("guide_system", templateModel)
+        val deltas = runner.stream()
+            .withMessages(listOf(SystemMessage(systemPrompt)) + conversation.messages)
+            .generateStream()
+        val text = ResponseStream(
+            chatService,
+            webUserId,
+            conversation.id,
+            JesseService.JESSE_USER_ID,
+            Duration.ofMillis(config.flushMillis),
+            config.maxDeltas,
+            Duration.ofSeconds(config.timeoutSeconds),
+        ).collect(deltas)
+        return AssistantMessage(text)
     }
 
+    /**
+     * Docs for the user's message, retrieved while the classifier runs. Only retrieval runs on
+     * the [Speculator]'s threads; anything using the turn's [ActionContext] stays on this one.
+     */
+    private fun speculate(userContent: String): Speculator.Speculation<List<DocsHit>>? {
+        val speculator = speculator ?: return null
+        val search = docsSearch
+        if (search == null || userContent.isBlank()) return null
+        return speculator.start("retrieval") {
+            search.search(userContent, guideProperties.docsTopK)
+        }
+    }
+
+    private fun withPrefetchedDocs(templateModel: Map<String, Any>, docs: List<DocsHit>?): Map<String, Any> =
+        if (docs.isNullOrEmpty()) templateModel
+        else templateModel + ("prefetchedDocs" to DocsSearchTools.format(docs))
+
     private fun buildTemplateModel(guideUser: GuideUser, messages: List<Message>): MutableMap<String, Any> {
         val persona = guideUser.persona.id
         logger.info("[PERSONA] user={} persona={}", guideUser.core.id, persona)
@@ -271,6 +356,10 @@ class ChatActions(
         )
     }
 
+    /**
+     * Narrate the message and cache the narration for delivery, or with async narration, start
+     * narrating it in the background. Call just before sending the message.
+     */
     private fun computeAndCacheNarration(
         assistantMessage: AssistantMessage,
         conversation: Conversation,
@@ -278,7 +367,10 @@ class ChatActions(
         context: ActionContext,
     ) {
         val conversationId = conversation.id
-        logger.info("[NARRATION] Starting narration for conversation {}, content length={}", conversationId, assistantMessage.content.length)
+        if (guideProperties.narration.async) {
+            narrationPipeline.start(conversationId) { narrate(assistantMessage, conversationId, guideUser, context) }
+            return
+        }
         val webUserId = guideUser.webUser?.id
         if (webUserId != null) {
             chatService.sendStatusToUser(webUserId, StatusMessage(
@@ -289,14 +381,8 @@ class ChatActions(
             ))
         }
         try {
-            val personaId = guideUser.persona.id
-            val personaPrompt = guideUser.core.customPrompt
-                ?: personaService.findPrompt(personaId)
-            val narration = narratorAgent.narrate(assistantMessage.content, personaPrompt, context, guideUser.id)
-            logger.info("[NARRATION] Narration complete for conversation {}: {} chars", conversationId, narration.text.length)
-            narrationCache.put(conversationId, narration.text)
-        } catch (e: Exception) {
-            logger.error("[NARRATION] Narration failed for conversation {}: {}", conversationId, e.message, e)
+            narrate(assistantMessage, conversationId, guideUser, context)
+                ?.let { narrationCache.put(conversationId, it) }
         } finally {
             // Clear the "Narrating..." status. The ADDED event listener also tries to clear,
             // but its clear depends on fromUserId being non-null (which fails for the trigger
@@ -312,6 +398,26 @@ class ChatActions(
         }
     }
 
+    private fun narrate(
+        assistantMessage: AssistantMessage,
+        conversationId: String,
+        guideUser: GuideUser,
+        context: ActionContext,
+    ): String? {
+        logger.info("[NARRATION] Starting narration for conversation {}, content length={}", conversationId, assistantMessage.content.length)
+        return try {
+            val personaId = guideUser.persona.id
+            val personaPrompt = guideUser.core.customPrompt
+                ?: personaService.findPrompt(personaId)
+            val narration = narratorAgent.narrate(assistantMessage.content, personaPrompt, context, guideUser.id)
+            logger.info("[NARRATION] Narration complete for conversation {}: {} chars", conversationId, narration.text.length)
+            narration.text
+        } catch (e: Exception) {
+            logger.error("[NARRATION] Narration failed for conversation {}: {}", conversationId, e.message, e)
+            null
+        }
+    }
+
     private fun sendResponse(assistantMessage: AssistantMessage, conversation: Conversation, context: ActionContext) {
         conversation.addMessage(assistantMessage)
         context.sendMessage(assistantMessage)
@@ -375,6 +481,23 @@ class ChatActions(
         }
     }
 
+    /**
+     * Pass 1, fast path: decide the category from labelled examples without an LLM call.
+     * Small talk still goes to the LLM, which writes the quick reply.
+     */
+    private fun classifyLocally(userMessage: String): CategoryCheck? {
+        val decision = try {
+            localClassifier?.classify(userMessage)
+        } catch (e: Exception) {
+            logger.warn("[CLASSIFY] Local classification failed, asking the LLM: {}", e.message)
+            null
+        } ?: return null
+        if (decision.category == MessageCategory.CONVERSATIONAL) return null
+        logger.info("[CLASSIFY] local category={} confidence={}",
+            decision.category, "%.2f".format(decision.confidence))
+        return CategoryCheck(decision.category)
+    }
+
     /**
      * Pass 1: Classify the latest user message into CONVERSATIONAL, COMMAND, or INFORMATIONAL using nano.
      * If conversational, includes a quick response to avoid the full RAG pipeline.
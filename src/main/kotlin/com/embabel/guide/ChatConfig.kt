@@ -5,8 +5,14 @@ import com.embabel.chat.Chatbot
 import com.embabel.chat.ConversationFactoryProvider
 import com.embabel.chat.ConversationStoreType
 import com.embabel.chat.agent.AgentProcessChatbot
+import com.embabel.common.ai.model.EmbeddingService
+import com.embabel.guide.rag.DocsQueryCache
+import io.micrometer.core.instrument.MeterRegistry
+import org.springframework.beans.factory.ObjectProvider
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty
 import org.springframework.context.annotation.Bean
 import org.springframework.context.annotation.Configuration
+import org.springframework.core.io.ResourceLoader
 
 /**
  * Create a chatbot backed by all actions on the AgentPlatform
@@ -21,4 +27,37 @@ class ChatConfig {
         val factory = conversationFactoryProvider.getFactory(ConversationStoreType.STORED)
         return AgentProcessChatbot.utilityFromPlatform(agentPlatform, factory)
     }
+
+    @Bean
+    @ConditionalOnProperty(name = ["guide.speculation.enabled"], havingValue = "true")
+    fun speculator(guideProperties: GuideProperties, meterRegistry: ObjectProvider<MeterRegistry>): Speculator =
+        Speculator(guideProperties.speculation.threads).also { speculator ->
+            meterRegistry.ifAvailable { speculator.bindTo(it) }
+        }
+
+    /**
+     * Shares the docs query cache's embeddings, if there is one, so a docs search for the same
+     * message doesn't embed it again.
+     */
+    @Bean
+    @ConditionalOnProperty(name = ["guide.local-classifier.enabled"], havingValue = "true")
+    fun localMessageClassifier(
+        guideProperties: GuideProperties,
+        embeddingService: EmbeddingService,
+        docsQueryCache: ObjectProvider<DocsQueryCache>,
+        meterRegistry: ObjectProvider<MeterRegistry>,
+        resourceLoader: ResourceLoader,
+    ): LocalMessageClassifier {
+        val config = guideProperties.localClassifier
+        val examples = LocalMessageClassifier.loadExamples(resourceLoader.getResource(config.examples).inputStream)
+        return LocalMessageClassifier(
+            docsQueryCache.ifAvailable?.cached(embeddingService) ?: embeddingService,
+            examples,
+            config.neighbours,
+            config.minConfidence,
+            config.minSimilarity,
+        ).also { classifier ->
+            meterRegistry.ifAvailable { classifier.bindTo(it) }
+        }
+    }
 }
@@ -10,6 +10,7 @@ import org.springframework.boot.context.properties.NestedConfigurationProperty
 import org.springframework.boot.context.properties.bind.DefaultValue
 import org.springframework.validation.annotation.Validated
 import java.nio.file.Path
+import java.time.Duration
 
 /**
  * Versioned content source configuration.
@@ -34,6 +35,320 @@ data class ContentConfig(
     val activeVersion: String? get() = versioned.versions.firstOrNull()
 }
 
+/**
+ * Staged ingestion pipeline: fetch → parse → embed → persist, with bounded queues between stages.
+ * Embed chunks and embeds through the bulk writer; persist is the store write alone. Without a
+ * graph store (the in-memory profile) there is no embed stage and persist does all three.
+ *
+ * @param enabled            route URL and directory ingestion through the pipeline; directories are then
+ *                           parsed file by file, as with streaming directories, so parsing overlaps writing
+ * @param fetchParallelism   concurrent fetches (I/O bound; still subject to the per-host cap)
+ * @param parseParallelism   concurrent Tika parses (CPU bound)
+ * @param embedParallelism   concurrent chunk/embed calls (CPU bound, or bound by the embedding service)
+ * @param persistParallelism concurrent store writes
+ * @param queueCapacity      capacity of each inter-stage queue; bounds documents held in memory
+ */
+data class PipelineConfig(
+    val enabled: Boolean = false,
+    val fetchParallelism: Int = 8,
+    val parseParallelism: Int = 2,
+    val embedParallelism: Int = 2,
+    val persistParallelism: Int = 2,
+    val queueCapacity: Int = 16,
+)
+
+/**
+ * Limits on parsing a single document, so one huge PDF or pathological page can't pin a core
+ * for minutes or exhaust the heap. A document over a limit is recorded as a failed document.
+ *
+ * @param enabled          enforce the limits
+ * @param maxDocumentBytes largest file or fetched page that is parsed at all
+ * @param timeout          longest a single parse may run
+ * @param parallelism      parses running at once
+ */
+data class ParsingConfig(
+    val enabled: Boolean = false,
+    val maxDocumentBytes: Long = 50L * 1024 * 1024,
+    val timeout: Duration = Duration.ofMinutes(2),
+    val parallelism: Int = 4,
+)
+
+/**
+ * Near-duplicate detection across the documents of an ingestion run, so syndicated posts and
+ * copied READMEs are stored once. Sections are compared by MinHash over word trigrams.
+ *
+ * @param enabled           skip documents that near-duplicate documents already written in the run
+ * @param sectionSimilarity estimated Jaccard similarity at which two sections count as duplicates
+ * @param minWords          sections shorter than this are too generic to compare and are ignored
+ * @param documentShare     share of a document's compared sections that must be duplicates to skip it
+ */
+data class DedupConfig(
+    val enabled: Boolean = false,
+    val sectionSimilarity: Double = 0.8,
+    val minWords: Int = 30,
+    val documentShare: Double = 0.8,
+)
+
+/**
+ * Ingestion tuning.
+ *
+ * @param urlConcurrency     maximum number of URLs ingested at once across all hosts; 1 keeps ingestion sequential
+ * @param perHostConcurrency maximum number of URLs ingested at once from any single host, so a long list of
+ *                           Medium posts doesn't look like a crawler and trip its bot-blocking
+ * @param pipeline           staged pipeline settings; when enabled it replaces the per-URL loop
+ * @param incremental        track a content-hash manifest per directory so unchanged files are skipped,
+ *                           changed files re-ingested and removed files deleted from the store
+ * @param incrementalRefresh compare a re-read page's sections with those last written and leave the stored
+ *                           document alone when nothing changed, instead of always rewriting it; on Neo4j,
+ *                           sections that were edited or removed are replaced on their own
+ * @param streamingDirectories parse and write directory files one at a time instead of parsing the whole tree
+ *                           first; documents in flight are bounded by the pipeline's parse and persist
+ *                           parallelism plus its queue capacity, whatever the repository size
+ * @param parsing            per-document parsing limits
+ * @param dedup              near-duplicate document detection
+ * @param stateDirectory     where ingestion keeps local state such as manifests; resolved like projectsPath
+ */
+data class IngestionConfig(
+    val urlConcurrency: Int = 1,
+    val perHostConcurrency: Int = 2,
+    @NestedConfigurationProperty val pipeline: PipelineConfig = PipelineConfig(),
+    val incremental: Boolean = false,
+    val incrementalRefresh: Boolean = false,
+    val streamingDirectories: Boolean = false,
+    @NestedConfigurationProperty val parsing: ParsingConfig = ParsingConfig(),
+    @NestedConfigurationProperty val dedup: DedupConfig = DedupConfig(),
+    val stateDirectory: String = "~/.embabel/guide",
+)
+
+/**
+ * Local cache of computed embeddings, so re-ingesting unchanged chunks costs no model calls.
+ *
+ * @param enabled    wrap the embedding service used by the RAG store with the cache
+ * @param directory  directory for the cache file; resolved like projectsPath
+ * @param maxEntries vectors kept before least recently used entries are evicted
+ */
+data class EmbeddingCacheConfig(
+    val enabled: Boolean = false,
+    val directory: String = "~/.embabel/guide/embeddings",
+    val maxEntries: Int = 100_000,
+)
+
+/**
+ * Conditional-GET cache for fetched pages, so pages the server reports as unchanged
+ * (HTTP 304) are neither downloaded nor parsed again.
+ *
+ * @param enabled        put the cache in front of every fetch route not listed in [excludedRoutes]
+ * @param directory      where bodies and their ETag/Last-Modified validators are kept; resolved like projectsPath
+ * @param excludedRoutes route patterns to fetch uncached: a `fetchRoutes` pattern, `https://medium.com/**`
+ *                       for the built-in Medium route, or `default` for plain HTTP
+ */
+data class FetchCacheConfig(
+    val enabled: Boolean = false,
+    val directory: String = "~/.embabel/guide/http",
+    val excludedRoutes: List<String> = emptyList(),
+)
+
+/**
+ * Opt-in bulk store writes for directory ingestion.
+ *
+ * @param enabled           write directory documents through [com.embabel.guide.rag.BulkDocumentWriter]
+ *                          instead of one `writeAndChunkDocument` call per document
+ * @param batchSize         rows per `UNWIND` statement
+ * @param documentsPerBatch documents chunked, embedded and written together, in one transaction,
+ *                          so a failed batch writes nothing
+ */
+data class BulkWriteConfig(
+    val enabled: Boolean = false,
+    val batchSize: Int = 500,
+    val documentsPerBatch: Int = 50,
+)
+
+/**
+ * Parallel embedding for ingestion: a pool of ONNX sessions over the local embedding model,
+ * with each large embedding call split into shards that run on the sessions concurrently.
+ * Sessions × intra-op threads should roughly match the cores available to ingestion.
+ *
+ * @param enabled        embed through the session pool instead of the single-session service
+ * @param modelDirectory directory holding the model's `model.onnx` and `tokenizer.json`; resolved like
+ *                       projectsPath. Must be the same model as `embabel.models.default-embedding-model`
+ * @param sessions       ONNX sessions in the pool, i.e. shards embedded at once
+ * @param intraOpThreads threads each session uses within an operator
+ * @param interOpThreads threads each session uses to run independent operators
+ * @param shardSize      texts per session call
+ */
+data class ParallelEmbeddingConfig(
+    val enabled: Boolean = false,
+    val modelDirectory: String = "~/.embabel/models/all-MiniLM-L6-v2",
+    val sessions: Int = 4,
+    val intraOpThreads: Int = 4,
+    val interOpThreads: Int = 1,
+    val shardSize: Int = 32,
+)
+
+/**
+ * Version-partitioned documentation search: chunks of each version get their own label and
+ * vector index, and searches cover only the active version and supplementary content.
+ *
+ * @param enabled search the partitions instead of filtering a search over all versions
+ * @param topK    passages returned when the caller doesn't say
+ */
+data class VersionPartitionConfig(
+    val enabled: Boolean = false,
+    val topK: Int = 8,
+)
+
+/**
+ * Hybrid documentation search: full-text (BM25) and vector search over chunks, merged by
+ * reciprocal rank fusion, so queries quoting exact API names find the passages that use them.
+ *
+ * @param enabled    search docs with both and fuse the results
+ * @param candidates passages taken from each search before fusing
+ * @param rrfK       rank offset in `1 / (rrfK + rank)`; higher flattens the advantage of top ranks
+ */
+data class HybridSearchConfig(
+    val enabled: Boolean = false,
+    val candidates: Int = 30,
+    val rrfK: Int = 60,
+)
+
+/**
+ * Reranking of documentation search results with a local cross-encoder: more passages are
+ * retrieved than the LLM sees, and only those the cross-encoder ranks highest are returned.
+ *
+ * @param enabled        rerank docs search results
+ * @param modelDirectory directory holding the cross-encoder's `model.onnx` and `tokenizer.json`;
+ *                       resolved like projectsPath
+ * @param candidates     passages retrieved for reranking
+ * @param topK           passages returned when the caller doesn't say
+ * @param threads        dedicated threads scoring batches
+ * @param batchSize      query-passage pairs per model run
+ * @param timeoutMillis  how long to wait for scores before keeping retrieval order
+ */
+data class RerankConfig(
+    val enabled: Boolean = false,
+    val modelDirectory: String = "~/.embabel/models/ms-marco-MiniLM-L-6-v2",
+    val candidates: Int = 24,
+    val topK: Int = 4,
+    val threads: Int = 2,
+    val batchSize: Int = 8,
+    val timeoutMillis: Long = 2000,
+)
+
+/**
+ * Cache of docs search query embeddings and results, emptied of results whenever content is
+ * written or deleted.
+ *
+ * @param enabled       cache docs searches
+ * @param maxEmbeddings query embeddings kept, least recently used dropped first
+ * @param maxResults    search results kept, least recently used dropped first
+ */
+data class DocsCacheConfig(
+    val enabled: Boolean = false,
+    val maxEmbeddings: Int = 10_000,
+    val maxResults: Int = 2_000,
+)
+
+/**
+ * Speculative execution of the informational path while the classifier decides a turn's
+ * category, so informational turns don't wait for classification before retrieval starts.
+ * The work is discarded on conversational and command turns. Time saved and wasted are logged
+ * and published as `guide.speculation.*` meters.
+ *
+ * Only retrieval is speculated: the chat LLM call needs the turn's ActionContext, which belongs
+ * to the agent thread while the classifier uses it.
+ *
+ * @param enabled retrieve docs for the user's message during classification and give them to
+ *                the chat LLM up front; needs a docs search, as with version partitions, hybrid
+ *                search, reranking or the docs cache
+ * @param threads threads running speculative work, shared by all turns
+ */
+data class SpeculationConfig(
+    val enabled: Boolean = false,
+    val threads: Int = 4,
+)
+
+/**
+ * Classifier in front of the classifier LLM that decides a message's category from labelled
+ * example messages embedded with the local embedding model. Messages it isn't sure about, and
+ * small talk, whose reply the classifier LLM writes, still go to the LLM.
+ *
+ * @param enabled       decide confident messages locally
+ * @param examples      YAML resource of example messages keyed by category
+ * @param neighbours    nearest examples voting on a message's category
+ * @param minConfidence share of the similarity-weighted vote the winning category needs
+ * @param minSimilarity similarity to the nearest example below which the message is left to the LLM
+ */
+data class LocalClassifierConfig(
+    val enabled: Boolean = false,
+    val examples: String = "classpath:classifier-examples.yml",
+    val neighbours: Int = 5,
+    val minConfidence: Double = 0.8,
+    val minSimilarity: Double = 0.75,
+)
+
+/**
+ * Streaming of informational responses to the web client on `/user/queue/stream` while the LLM
+ * generates them. The complete response is still persisted and delivered on `/user/queue/messages`.
+ * Users whose model can't stream get the whole response at once, as before.
+ *
+ * @param enabled        stream responses to web users
+ * @param flushMillis    longest generated text waits before being sent
+ * @param maxDeltas      token deltas sent together at most
+ * @param timeoutSeconds longest a streamed response may take to complete
+ */
+data class StreamingConfig(
+    val enabled: Boolean = false,
+    val flushMillis: Long = 50,
+    val maxDeltas: Int = 32,
+    val timeoutSeconds: Long = 120,
+)
+
+/**
+ * Narration of assistant messages for text-to-speech.
+ *
+ * @param async   send each message at once and narrate it in the background; the narration
+ *                follows on `/user/queue/narration` if the message has been delivered by then
+ * @param threads threads computing background narration, shared by all conversations
+ */
+data class NarrationConfig(
+    val async: Boolean = false,
+    val threads: Int = 4,
+)
+
+/**
+ * In-process RAG store used in place of Neo4j under the `in-memory-rag` profile, for local
+ * runs, CI and retrieval benchmarks.
+ *
+ * @param snapshotFile   file the store is loaded from at startup and written to on shutdown;
+ *                       resolved like projectsPath. Blank to keep nothing between runs
+ * @param m              HNSW neighbours per node; level 0 keeps twice as many
+ * @param efConstruction HNSW candidates considered when linking a new chunk
+ * @param efSearch       HNSW candidates tracked per search; higher is slower and more accurate
+ * @param quantized      build and search the graph on int8 codes, rescoring the `efSearch`
+ *                       candidates with the full-precision vectors; takes effect on a fresh store
+ */
+data class InMemoryStoreConfig(
+    val snapshotFile: String = "~/.embabel/guide/rag-snapshot.bin",
+    val m: Int = 16,
+    val efConstruction: Int = 200,
+    val efSearch: Int = 64,
+    val quantized: Boolean = false,
+)
+
+/**
+ * Binary snapshots of the RAG store, for bootstrapping a node without re-ingesting.
+ * Paths are resolved like `projectsPath`; blank disables the step.
+ *
+ * @param importFile snapshot to import at startup instead of ingesting, when ingestion runs
+ * @param exportFile where to write a snapshot after ingestion
+ * @param batchSize  elements per read or write transaction
+ */
+data class StoreSnapshotConfig(
+    val importFile: String = "",
+    val exportFile: String = "",
+    val batchSize: Int = 1000,
+)
+
 /**
  * Configuration properties for the Guide application.
  *
@@ -46,6 +361,21 @@ data class ContentConfig(
  * @param content                content source configuration (versioned docs + supplementary)
  * @param directories            optional list of local directory paths to ingest (full tree); resolved like projectsPath
  * @param toolGroups             toolGroups, such as "web", that are allowed
+ * @param ingestion              ingestion concurrency and tuning
+ * @param embeddingCache         on-disk embedding cache in front of the embedding model
+ * @param fetchCache             conditional-GET cache in front of the fetch routes
+ * @param bulkWrite              batched UNWIND writes for directory ingestion
+ * @param parallelEmbedding      pooled ONNX sessions for embedding across cores
+ * @param versionPartitions      per-version vector indexes for documentation search
+ * @param inMemoryStore          in-process HNSW store for the `in-memory-rag` profile
+ * @param storeSnapshot          binary export and import of the RAG store
+ * @param hybridSearch           full-text plus vector documentation search
+ * @param rerank                 cross-encoder reranking of documentation search results
+ * @param docsCache              cache of docs search embeddings and results
+ * @param speculation            informational work started while the classifier runs
+ * @param localClassifier        embedding-based classification ahead of the classifier LLM
+ * @param streaming              token streaming of responses to the web client
+ * @param narration              when and where narration is computed
  */
 @Validated
 @ConfigurationProperties(prefix = "guide")
@@ -66,8 +396,26 @@ data class GuideProperties(
     val directories: List<String>?,
     val toolGroups: Set<String>,
     val fetchRoutes: List<FetchRoute> = emptyList(),
+    @NestedConfigurationProperty val ingestion: IngestionConfig = IngestionConfig(),
+    @NestedConfigurationProperty val embeddingCache: EmbeddingCacheConfig = EmbeddingCacheConfig(),
+    @NestedConfigurationProperty val fetchCache: FetchCacheConfig = FetchCacheConfig(),
+    @NestedConfigurationProperty val bulkWrite: BulkWriteConfig = BulkWriteConfig(),
+    @NestedConfigurationProperty val parallelEmbedding: ParallelEmbeddingConfig = ParallelEmbeddingConfig(),
+    @NestedConfigurationProperty val versionPartitions: VersionPartitionConfig = VersionPartitionConfig(),
+    @NestedConfigurationProperty val inMemoryStore: InMemoryStoreConfig = InMemoryStoreConfig(),
+    @NestedConfigurationProperty val storeSnapshot: StoreSnapshotConfig = StoreSnapshotConfig(),
+    @NestedConfigurationProperty val hybridSearch: HybridSearchConfig = HybridSearchConfig(),
+    @NestedConfigurationProperty val rerank: RerankConfig = RerankConfig(),
+    @NestedConfigurationProperty val docsCache: DocsCacheConfig = DocsCacheConfig(),
+    @NestedConfigurationProperty val speculation: SpeculationConfig = SpeculationConfig(),
+    @NestedConfigurationProperty val localClassifier: LocalClassifierConfig = LocalClassifierConfig(),
+    @NestedConfigurationProperty val streaming: StreamingConfig = StreamingConfig(),
+    @NestedConfigurationProperty val narration: NarrationConfig = NarrationConfig(),
 ) {
 
+    /** Passages the docs search tool returns when the LLM doesn't say. */
+    val docsTopK: Int get() = if (rerank.enabled) rerank.topK else versionPartitions.topK
+
     /** All URLs to ingest (versioned + supplementary). */
     val urls: List<String> get() = content.allUrls()
 
@@ -0,0 +1,119 @@
+package com.embabel.guide
+
+import com.embabel.common.ai.model.EmbeddingService
+import com.embabel.guide.chat.model.MessageCategory
+import io.micrometer.core.instrument.FunctionCounter
+import io.micrometer.core.instrument.MeterRegistry
+import org.slf4j.LoggerFactory
+import org.yaml.snakeyaml.Yaml
+import java.io.InputStream
+import java.util.concurrent.atomic.AtomicLong
+import kotlin.math.sqrt
+
+/**
+ * Classifies a user message by its nearest labelled examples in embedding space, so most turns
+ * don't need a classifier LLM call.
+ *
+ * The [neighbours] examples most similar to the message vote for their category, weighted by
+ * similarity. The message is decided only when the nearest example is at least [minSimilarity]
+ * alike and the winning category holds at least [minConfidence] of the vote; otherwise
+ * [classify] returns null and the caller asks the LLM. Examples are embedded once, up front,
+ * so a decision costs one embedding plus a scan of a few hundred dot products.
+ */
+class LocalMessageClassifier(
+    private val embeddingService: EmbeddingService,
+    examples: Map<MessageCategory, List<String>>,
+    private val neighbours: Int,
+    private val minConfidence: Double,
+    private val minSimilarity: Double,
+) {
+
+    private val logger = LoggerFactory.getLogger(LocalMessageClassifier::class.java)
+
+    private val labels: Array<MessageCategory>
+    private val vectors: Array<FloatArray>
+
+    private val decided = AtomicLong()
+    private val deferred = AtomicLong()
+
+    data class Decision(
+        val category: MessageCategory,
+        val confidence: Double,
+        val similarity: Double,
+    )
+
+    init {
+        require(neighbours > 0) { "neighbours must be positive" }
+        val flat = examples.flatMap { (category, texts) -> texts.map { category to it } }
+        require(flat.isNotEmpty()) { "No classifier examples" }
+        labels = flat.map { it.first }.toTypedArray()
+        vectors = embeddingService.embed(flat.map { it.second }).map { normalize(it) }.toTypedArray()
+        logger.info("Local classifier embedded {} examples with {}", flat.size, embeddingService.name)
+    }
+
+    /**
+     * The category of [message], or null if the examples don't settle it.
+     */
+    fun classify(message: String): Decision? {
+        if (message.isBlank()) return null
+        val start = System.nanoTime()
+        val decision = decide(normalize(embeddingService.embed(message)))
+        logger.debug(
+            "[CLASSIFY] local {} in {} µs for a {}-char message",
+            decision ?: "deferred", (System.nanoTime() - start) / 1000, message.length
+        )
+        (if (decision != null) decided else deferred).incrementAndGet()
+        return decision
+    }
+
+    private fun decide(query: FloatArray): Decision? {
+        val similarities = DoubleArray(vectors.size) { dot(query, vectors[it]) }
+        val nearest = similarities.indices.sortedByDescending { similarities[it] }.take(neighbours)
+        val best = similarities[nearest.first()]
+        if (best < minSimilarity) return null
+        val votes = nearest.groupBy { labels[it] }
+            .mapValues { (_, ids) -> ids.sumOf { maxOf(similarities[it], 0.0) } }
+        val (category, weight) = votes.maxBy { it.value }
+        val confidence = weight / votes.values.sum()
+        return if (confidence >= minConfidence) Decision(category, confidence, best) else null
+    }
+
+    /**
+     * Publish decided and deferred messages as `guide.classifier.local` counters.
+     */
+    fun bindTo(registry: MeterRegistry) {
+        for ((outcome, count) in listOf("decided" to decided, "deferred" to deferred)) {
+            FunctionCounter.builder("guide.classifier.local", count) { it.get().toDouble() }
+                .tag("outcome", outcome)
+                .description("Messages the local classifier decided, or left to the classifier LLM")
+                .register(registry)
+        }
+    }
+
+    companion object {
+
+        /**
+         * Examples keyed by category name, as in `classifier-examples.yml`.
+         */
+        @JvmStatic
+        fun loadExamples(input: InputStream): Map<MessageCategory, List<String>> {
+            val raw: Map<String, List<Any>> = input.use { Yaml().load(it) } ?: emptyMap()
+            return raw.entries.associate { (name, texts) ->
+                MessageCategory.valueOf(name) to texts.map { it.toString() }
+            }
+        }
+
+        private fun normalize(v: FloatArray): FloatArray {
+            var sum = 0.0
+            for (x in v) sum += x * x
+            val norm = sqrt(sum).toFloat()
+            return if (norm == 0f) v else FloatArray(v.size) { v[it] / norm }
+        }
+
+        private fun dot(a: FloatArray, b: FloatArray): Double {
+            var sum = 0.0
+            for (i in a.indices) sum += a[i] * b[i]
+            return sum
+        }
+    }
+}
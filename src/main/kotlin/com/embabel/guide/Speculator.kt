@@ -0,0 +1,175 @@
+package com.embabel.guide
+
+import io.micrometer.core.instrument.FunctionTimer
+import io.micrometer.core.instrument.MeterRegistry
+import org.slf4j.LoggerFactory
+import java.util.concurrent.ConcurrentHashMap
+import java.util.concurrent.ExecutionException
+import java.util.concurrent.ExecutorService
+import java.util.concurrent.Executors
+import java.util.concurrent.Future
+import java.util.concurrent.TimeUnit
+import java.util.concurrent.atomic.AtomicInteger
+import java.util.concurrent.atomic.AtomicLong
+
+/**
+ * Runs work an informational turn will need while the classifier is still deciding whether the
+ * turn is informational, and accounts for what that bought.
+ *
+ * Each [Speculation] is either [used][Speculation.await], saving the time it overlapped the
+ * classifier, or [discarded][Speculation.discard], wasting the time it had run. Totals are kept
+ * per kind of work, logged as they change and, once bound to a registry, published as
+ * `guide.speculation.saved` and `guide.speculation.wasted` timers tagged by kind.
+ */
+class Speculator(
+    threads: Int,
+    private val ticker: () -> Long = System::nanoTime,
+) : AutoCloseable {
+
+    private val logger = LoggerFactory.getLogger(Speculator::class.java)
+
+    private val executor: ExecutorService
+    private val tallies = ConcurrentHashMap<String, Tally>()
+    private var registry: MeterRegistry? = null
+
+    init {
+        require(threads > 0) { "threads must be positive" }
+        val count = AtomicInteger()
+        executor = Executors.newFixedThreadPool(threads) { task ->
+            Thread(task, "speculate-${count.incrementAndGet()}").apply { isDaemon = true }
+        }
+    }
+
+    /**
+     * Totals for one kind of work.
+     */
+    data class Stats(
+        val used: Long,
+        val discarded: Long,
+        val savedMillis: Long,
+        val wastedMillis: Long,
+    )
+
+    fun stats(kind: String): Stats = tally(kind).let {
+        Stats(
+            it.used.get(),
+            it.discarded.get(),
+            TimeUnit.NANOSECONDS.toMillis(it.savedNanos.get()),
+            TimeUnit.NANOSECONDS.toMillis(it.wastedNanos.get()),
+        )
+    }
+
+    /**
+     * Start [work] now, before it is known to be needed.
+     */
+    fun <T> start(kind: String, work: () -> T): Speculation<T> {
+        val started = ticker()
+        val finished = AtomicLong()
+        val future = executor.submit<T> {
+            try {
+                work()
+            } finally {
+                finished.set(ticker())
+            }
+        }
+        return Speculation(tally(kind), kind, future, started, finished)
+    }
+
+    inner class Speculation<T> internal constructor(
+        private val tally: Tally,
+        private val kind: String,
+        private val future: Future<T>,
+        private val started: Long,
+        private val finished: AtomicLong,
+    ) {
+
+        /**
+         * The result, waiting for it if need be, or null if the work failed and must be redone.
+         * Call as soon as the work is known to be needed: the time saved is how long the work
+         * overlapped the wait for that decision.
+         */
+        fun await(): T? {
+            val decided = ticker()
+            return try {
+                future.get().also {
+                    val saved = minOf(decided, finished.get()) - started
+                    tally.used.incrementAndGet()
+                    tally.savedNanos.addAndGet(saved)
+                    report("used, saved", saved)
+                }
+            } catch (e: ExecutionException) {
+                logger.warn("[SPECULATE] {} failed, redoing it: {}", kind, e.cause?.message)
+                waste(finished.get() - started)
+                null
+            }
+        }
+
+        /**
+         * The work isn't needed: cancel it if still running.
+         */
+        fun discard() {
+            val now = ticker()
+            future.cancel(true)
+            val end = finished.get().takeIf { it != 0L }?.let { minOf(now, it) } ?: now
+            waste(end - started)
+        }
+
+        private fun waste(nanos: Long) {
+            tally.discarded.incrementAndGet()
+            tally.wastedNanos.addAndGet(nanos)
+            report("discarded, wasted", nanos)
+        }
+
+        private fun report(what: String, nanos: Long) {
+            val totals = stats(kind)
+            logger.info(
+                "[SPECULATE] {} {} {} ms; totals: saved {} ms over {} turns, wasted {} ms over {}",
+                kind, what, TimeUnit.NANOSECONDS.toMillis(nanos),
+                totals.savedMillis, totals.used, totals.wastedMillis, totals.discarded,
+            )
+        }
+    }
+
+    /**
+     * Publish saved and wasted time per kind of work as `guide.speculation.*` timers.
+     */
+    @Synchronized
+    fun bindTo(registry: MeterRegistry) {
+        this.registry = registry
+        tallies.forEach { (kind, tally) -> register(registry, kind, tally) }
+    }
+
+    @Synchronized
+    private fun tally(kind: String): Tally =
+        tallies.getOrPut(kind) {
+            Tally().also { tally -> registry?.let { register(it, kind, tally) } }
+        }
+
+    private fun register(registry: MeterRegistry, kind: String, tally: Tally) {
+        FunctionTimer.builder(
+            "guide.speculation.saved", tally,
+            { it.used.get().toDouble() }, { it.savedNanos.get().toDouble() }, TimeUnit.NANOSECONDS,
+        )
+            .tag("kind", kind)
+            .description("Latency taken off turns by work started during classification")
+            .register(registry)
+        FunctionTimer.builder(
+            "guide.speculation.wasted", tally,
+            { it.discarded.get().toDouble() }, { it.wastedNanos.get().toDouble() }, TimeUnit.NANOSECONDS,
+        )
+            .tag("kind", kind)
+            .description("Time spent on speculative work that was discarded")
+            .register(registry)
+    }
+
+    internal class Tally {
+        val used = AtomicLong()
+        val discarded = AtomicLong()
+        val savedNanos = AtomicLong()
+        val wastedNanos = AtomicLong()
+    }
+
+    override fun close() {
+        executor.shutdownNow()
+    }
+}
@@ -1,5 +1,6 @@
 package com.embabel.guide.chat.event
 
+import com.embabel.chat.Role
 import com.embabel.chat.event.MessageEvent
 import com.embabel.chat.store.repository.ChatSessionRepository
 import com.embabel.guide.chat.model.DeliveredMessage
@@ -9,6 +10,7 @@ import com.embabel.guide.chat.service.ChatService
 import com.embabel.guide.chat.service.MessageDeliveryService
 import com.embabel.guide.domain.GuideUserRepository
 import com.embabel.guide.narrator.NarrationCache
+import com.embabel.guide.narrator.NarrationPipeline
 import com.embabel.chat.store.util.UUIDv7
 import org.slf4j.LoggerFactory
 import org.springframework.context.event.EventListener
@@ -20,6 +22,9 @@ import org.springframework.stereotype.Component
  * This decouples message persistence from WebSocket delivery:
  * - ADDED: Message was added to conversation — deliver with retry until acknowledged
  * - PERSISTED: Message was saved to DB — persist narration alongside it
+ *
+ * Narration still being computed when an event arrives is sent and saved by [NarrationPipeline]
+ * once ready.
  * - PERSISTENCE_FAILED: Log error for monitoring
  */
 @Component
@@ -62,13 +67,19 @@ class MessageEventListener(
         logger.debug("Delivering message to webUser {} (guideUser {}) for session {}",
             webUserId, toGuideUserId, event.conversationId)
 
-        // Include narration from cache if available (computed by ChatActions)
-        val narration = narrationCache.consumeForDelivery(event.conversationId)
+        // Include narration from cache if available (computed by ChatActions); if it is still
+        // being computed, it follows keyed by this message's ID
+        val messageId = UUIDv7.generateString()
+        val narration = if (message.role == Role.ASSISTANT) {
+            narrationCache.consumeForDelivery(event.conversationId, messageId, webUserId)
+        } else {
+            null
+        }
         logger.info("[NARRATION] ADDED event for session {}, role={}, narration={}",
             event.conversationId, message.role, if (narration != null) "${narration.length} chars" else "NULL")
 
         val delivered = DeliveredMessage(
-            id = UUIDv7.generateString(),
+            id = messageId,
             sessionId = event.conversationId,
             role = message.role.name.lowercase(),
             body = message.content,
@@ -134,6 +145,6 @@ class MessageEventListener(
             event.error
         )
         // Clean up any cached narration for this conversation
-        narrationCache.consumeForPersistence(event.conversationId)
+        narrationCache.discard(event.conversationId)
     }
 }
@@ -0,0 +1,11 @@
+package com.embabel.guide.chat.model
+
+/**
+ * Narration for a message already delivered without it, identified by the [messageId] it
+ * was delivered with.
+ */
+data class NarrationFrame(
+    val messageId: String,
+    val sessionId: String,
+    val narration: String,
+)
@@ -0,0 +1,15 @@
+package com.embabel.guide.chat.model
+
+/**
+ * Part of an assistant response sent while it is still being generated. Frames of one response
+ * share a [streamId] and arrive in [seq] order; the last has [done] set and no text. The complete
+ * response is then delivered as usual on `/user/queue/messages`, replacing the streamed text.
+ */
+data class StreamFrame(
+    val streamId: String,
+    val sessionId: String,
+    val fromUserId: String,
+    val seq: Int,
+    val delta: String,
+    val done: Boolean = false,
+)
@@ -95,6 +95,7 @@ class SecurityConfig(
                     "/api/hub/refresh",
                     "/api/hub/feedback",
                     "/api/v1/data/load-references",
+                    "/api/v1/data/ingestion-jobs",
                     "/api/hub/integrations/keys/validate",
                     "/api/hub/oauth/*/callback",
                 ).permitAll()
@@ -104,6 +105,8 @@ class SecurityConfig(
                     "/api/hub/personas",
                     "/api/hub/sessions",
                     "/api/v1/data/stats",
+                    "/api/v1/data/ingestion-jobs/*",
+                    "/api/v1/data/ingestion-jobs/*/events",
                     "/api/v1/deepgram/models",
                     "/api/hub/oauth/*/authorize",
                     "/api/hub/email/verify",
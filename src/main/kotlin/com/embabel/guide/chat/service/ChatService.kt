@@ -3,8 +3,10 @@ package com.embabel.guide.chat.service
 import com.embabel.guide.chat.model.CommandRequest
 import com.embabel.guide.chat.model.DeliveredMessage
 import com.embabel.guide.chat.model.LlmKeyError
+import com.embabel.guide.chat.model.NarrationFrame
 import com.embabel.guide.chat.model.SessionEvent
 import com.embabel.guide.chat.model.StatusMessage
+import com.embabel.guide.chat.model.StreamFrame
 import org.slf4j.LoggerFactory
 import org.springframework.messaging.simp.SimpMessagingTemplate
 import org.springframework.stereotype.Service
@@ -32,6 +34,18 @@ class ChatService(private val messaging: SimpMessagingTemplate) {
         messaging.convertAndSendToUser(toUserId, "/queue/status", status)
     }
 
+    fun sendStreamToUser(toUserId: String, frame: StreamFrame) {
+        logger.trace("[session={}] Sending stream frame {} to user {} via /queue/stream: {} chars",
+            frame.sessionId, frame.seq, toUserId, frame.delta.length)
+        messaging.convertAndSendToUser(toUserId, "/queue/stream", frame)
+    }
+
+    fun sendNarrationToUser(toUserId: String, frame: NarrationFrame) {
+        logger.info("[session={}] Sending narration for message {} to user {} via /queue/narration: {} chars",
+            frame.sessionId, frame.messageId, toUserId, frame.narration.length)
+        messaging.convertAndSendToUser(toUserId, "/queue/narration", frame)
+    }
+
     fun sendCommandToUser(toUserId: String, command: CommandRequest) {
         logger.info("Sending command {} to user {} via /queue/commands", command.type, toUserId)
         messaging.convertAndSendToUser(toUserId, "/queue/commands", command)
@@ -7,9 +7,10 @@ import com.embabel.chat.Chatbot
 import com.embabel.chat.ChatTrigger
 import com.embabel.chat.UserMessage
 import com.embabel.guide.domain.GuideUserRepository
+import kotlinx.coroutines.CompletableDeferred
 import kotlinx.coroutines.Dispatchers
-import kotlinx.coroutines.delay
 import kotlinx.coroutines.withContext
+import kotlinx.coroutines.withTimeoutOrNull
 import org.slf4j.LoggerFactory
 import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty
 import org.springframework.stereotype.Service
@@ -41,8 +42,7 @@ class GuideRagServiceAdapter(
     private val threadSessions = ConcurrentHashMap<String, SessionContext>()
 
     companion object {
-        private const val RESPONSE_TIMEOUT_MS = 120000 // 2 minutes
-        private const val POLL_INTERVAL_MS = 500L
+        private const val RESPONSE_TIMEOUT_MS = 120000L // 2 minutes
         private const val DEFAULT_ERROR_MESSAGE =
             "I received your message but had trouble generating a response. Please try again."
     }
@@ -77,10 +77,10 @@ class GuideRagServiceAdapter(
         logger.info("[TRACE] sendMessage called: thread={}, user={}, message='{}'", threadId, fromUserId, message.take(100))
 
         val responseBuilder = StringBuilder()
-        var isComplete = false
+        val completion = CompletableDeferred<Unit>()
 
         // Create output channel for this specific message
-        val messageOutputChannel = createOutputChannel(responseBuilder, onEvent) { isComplete = true }
+        val messageOutputChannel = createOutputChannel(responseBuilder, onEvent) { completion.complete(Unit) }
 
         try {
             val guideUser = guideUserRepository.findWebUserById(fromUserId)
@@ -104,7 +104,7 @@ class GuideRagServiceAdapter(
             logger.info("[TRACE] Calling onUserMessage: thread={}, message='{}'", threadId, message.take(100))
             sessionContext.session.onUserMessage(UserMessage(message))
 
-            waitForResponse { isComplete }
+            waitForResponse(completion)
 
             responseBuilder.toString().ifBlank { DEFAULT_ERROR_MESSAGE }
         } catch (e: Exception) {
@@ -123,9 +123,9 @@ class GuideRagServiceAdapter(
         logger.info("Processing trigger for thread: {}", threadId)
 
         val responseBuilder = StringBuilder()
-        var isComplete = false
+        val completion = CompletableDeferred<Unit>()
 
-        val messageOutputChannel = createOutputChannel(responseBuilder, onEvent) { isComplete = true }
+        val messageOutputChannel = createOutputChannel(responseBuilder, onEvent) { completion.complete(Unit) }
 
         try {
             val user = trigger.onBehalfOf.firstOrNull()
@@ -144,7 +144,7 @@ class GuideRagServiceAdapter(
             // Trigger — prompt is NOT stored in conversation
             sessionContext.session.onTrigger(trigger)
 
-            waitForResponse { isComplete }
+            waitForResponse(completion)
 
             responseBuilder.toString().ifBlank { DEFAULT_ERROR_MESSAGE }
         } catch (e: Exception) {
@@ -194,13 +194,13 @@ class GuideRagServiceAdapter(
     }
 
     /**
-     * Waits for the chatbot response with a timeout.
+     * Waits for the output channel to receive the chatbot response, for up to the timeout.
+     * Completion publishes the response text to the waiting coroutine; if cancelled, the wait
+     * ends immediately. On timeout, whatever was received is used.
      */
-    private suspend fun waitForResponse(isComplete: () -> Boolean) {
-        var waited = 0
-        while (!isComplete() && waited < RESPONSE_TIMEOUT_MS) {
-            delay(POLL_INTERVAL_MS)
-            waited += POLL_INTERVAL_MS.toInt()
+    private suspend fun waitForResponse(completion: CompletableDeferred<Unit>) {
+        if (withTimeoutOrNull(RESPONSE_TIMEOUT_MS) { completion.await() } == null) {
+            logger.warn("No chatbot response within {} ms", RESPONSE_TIMEOUT_MS)
         }
     }
 
@@ -0,0 +1,57 @@
+package com.embabel.guide.chat.service
+
+import com.embabel.guide.chat.model.StreamFrame
+import org.slf4j.LoggerFactory
+import reactor.core.publisher.Flux
+import java.time.Duration
+import java.util.UUID
+
+/**
+ * Forwards an assistant response to a user on `/user/queue/stream` while it is generated, and
+ * collects the complete text to persist and deliver as the final message.
+ *
+ * Token deltas are coalesced into one frame per [flushInterval], or per [maxDeltas] deltas if
+ * sooner, so a fast model doesn't send a WebSocket frame per token. A closing frame is always
+ * sent, even if generation fails, so the client can stop rendering the partial response.
+ */
+class ResponseStream(
+    private val chatService: ChatService,
+    private val toUserId: String,
+    private val sessionId: String,
+    private val fromUserId: String,
+    private val flushInterval: Duration,
+    private val maxDeltas: Int,
+    private val timeout: Duration,
+) {
+
+    private val logger = LoggerFactory.getLogger(ResponseStream::class.java)
+
+    val streamId: String = UUID.randomUUID().toString()
+
+    /**
+     * Send [deltas] as they arrive and return them joined, once the response is complete.
+     */
+    fun collect(deltas: Flux<String>): String {
+        val text = StringBuilder()
+        var seq = 0
+        val start = System.nanoTime()
+        try {
+            deltas.bufferTimeout(maxDeltas, flushInterval)
+                .doOnNext { batch ->
+                    val delta = batch.joinToString("")
+                    if (seq == 0) {
+                        logger.info("[STREAM] session={} first tokens after {} ms",
+                            sessionId, Duration.ofNanos(System.nanoTime() - start).toMillis())
+                    }
+                    text.append(delta)
+                    chatService.sendStreamToUser(toUserId, StreamFrame(streamId, sessionId, fromUserId, seq++, delta))
+                }
+                .blockLast(timeout)
+        } finally {
+            chatService.sendStreamToUser(toUserId, StreamFrame(streamId, sessionId, fromUserId, seq, "", done = true))
+        }
+        logger.info("[STREAM] session={} streamed {} chars in {} frames over {} ms",
+            sessionId, text.length, seq, Duration.ofNanos(System.nanoTime() - start).toMillis())
+        return text.toString()
+    }
+}
@@ -8,41 +8,127 @@ import java.util.concurrent.ConcurrentHashMap
  * Lightweight cache bridging narration production (ChatActions) and consumption
  * (MessageEventListener for both WebSocket delivery and DB persistence).
  *
- * Lifecycle for a single message:
- * 1. ChatActions computes narration → [put]
- * 2. ADDED event handler reads narration for WebSocket delivery → [consumeForDelivery] (peek)
- * 3. PERSISTED event handler reads narration for DB update → [consumeForPersistence] (remove)
+ * Holds the narration of the latest assistant message per conversation. Narration may be ready
+ * before the message is sent, or computed in the background and finish at any point relative
+ * to the ADDED and PERSISTED events:
+ * 1. ChatActions stores narration → [put], or announces it is on the way → [expect]
+ * 2. ADDED event handler takes narration for WebSocket delivery if ready, otherwise records
+ *    the delivered message ID so narration can follow it → [consumeForDelivery]
+ * 3. PERSISTED event handler takes narration for DB update if ready, otherwise records that
+ *    the message is saved → [consumeForPersistence]
+ * 4. Background narration finishes → [complete], which says whether it must still be sent
+ *    and saved, as those events have already passed
+ *
+ * [expect] returns the entry it creates, and [complete] only records narration in that entry
+ * while it is still the conversation's current one. Narration for a message that a later one
+ * has superseded, such as a command summary followed by its RAG answer, is dropped rather than
+ * attached to the later message. The entry is dropped once narration is ready and the message
+ * persisted.
  */
 @Component
 class NarrationCache {
 
     private val logger = LoggerFactory.getLogger(NarrationCache::class.java)
-    private val cache = ConcurrentHashMap<String, String>()
+    private val cache = ConcurrentHashMap<String, Entry>()
+
+    /**
+     * Narration state for one message, returned by [expect] to identify it to [complete].
+     */
+    class Entry internal constructor(
+        internal var narration: String? = null,
+        internal var messageId: String? = null,
+        internal var webUserId: String? = null,
+        internal var persisted: Boolean = false,
+    )
+
+    /**
+     * What finished background narration still needs: a follow-up frame for the message
+     * already delivered as [messageId] to [webUserId], if any, and saving if [persist].
+     */
+    data class FollowUp(
+        val messageId: String?,
+        val webUserId: String?,
+        val persist: Boolean,
+    )
 
     /**
      * Store narration for a conversation. Called from the agent thread in ChatActions.
      */
     fun put(conversationId: String, narration: String) {
         logger.info("[NARRATION] Cache PUT conversationId={}, length={}, cacheSize={}", conversationId, narration.length, cache.size + 1)
-        cache[conversationId] = narration
+        cache[conversationId] = Entry(narration = narration)
     }
 
     /**
-     * Read narration without removing it (needed for DB persistence later).
+     * Note that narration for the next message in a conversation is being computed in the
+     * background, replacing any earlier entry.
+     *
+     * @return the new entry, to pass to [complete]
+     */
+    fun expect(conversationId: String): Entry {
+        logger.info("[NARRATION] Cache EXPECT conversationId={}", conversationId)
+        return Entry().also { cache[conversationId] = it }
+    }
+
+    /**
+     * Narration to deliver with the message, or null. If narration is still being computed,
+     * remembers [messageId] and [webUserId] so it can follow the message.
      * Called from the ADDED event handler.
      */
-    fun consumeForDelivery(conversationId: String): String? {
-        val result = cache[conversationId]
+    fun consumeForDelivery(conversationId: String, messageId: String, webUserId: String): String? {
+        var result: String? = null
+        cache.computeIfPresent(conversationId) { _, entry ->
+            result = entry.narration
+            if (result == null) {
+                entry.messageId = messageId
+                entry.webUserId = webUserId
+            }
+            entry
+        }
         logger.info("[NARRATION] Cache CONSUME_DELIVERY conversationId={}, found={}", conversationId, result != null)
         return result
     }
 
     /**
-     * Read and remove narration. Called from the PERSISTED event handler.
+     * Narration to save with the persisted message, or null. If narration is still being
+     * computed, remembers that the message is saved so [complete] can save it.
+     * Called from the PERSISTED event handler.
      */
     fun consumeForPersistence(conversationId: String): String? {
-        val result = cache.remove(conversationId)
+        var result: String? = null
+        cache.computeIfPresent(conversationId) { _, entry ->
+            result = entry.narration
+            if (result == null) {
+                entry.persisted = true
+                entry
+            } else {
+                null
+            }
+        }
         logger.info("[NARRATION] Cache CONSUME_PERSIST conversationId={}, found={}", conversationId, result != null)
         return result
     }
+
+    /**
+     * Record background narration in [expected], or null if it failed, and return what it
+     * still needs. Null if [expected] has been replaced or discarded.
+     */
+    fun complete(conversationId: String, expected: Entry, narration: String?): FollowUp? {
+        var followUp: FollowUp? = null
+        cache.computeIfPresent(conversationId) { _, entry ->
+            if (entry !== expected || entry.narration != null) return@computeIfPresent entry
+            followUp = FollowUp(entry.messageId, entry.webUserId, entry.persisted)
+            entry.narration = narration
+            if (narration == null || entry.persisted) null else entry
+        }
+        logger.info("[NARRATION] Cache COMPLETE conversationId={}, followUp={}", conversationId, followUp)
+        return followUp
+    }
+
+    /**
+     * Drop narration for a conversation, as its message won't be saved.
+     */
+    fun discard(conversationId: String) {
+        cache.remove(conversationId)
+    }
 }
@@ -0,0 +1,76 @@
+package com.embabel.guide.narrator
+
+import com.embabel.chat.store.repository.ChatSessionRepository
+import com.embabel.guide.GuideProperties
+import com.embabel.guide.chat.model.NarrationFrame
+import com.embabel.guide.chat.service.ChatService
+import org.slf4j.LoggerFactory
+import org.springframework.beans.factory.DisposableBean
+import org.springframework.stereotype.Component
+import java.util.concurrent.ExecutorService
+import java.util.concurrent.Executors
+import java.util.concurrent.atomic.AtomicInteger
+
+/**
+ * Computes narration in the background so the text response is sent without waiting for it.
+ *
+ * Whichever of the message events has passed by the time narration is ready, this makes up for:
+ * narration for a message already delivered follows it on `/user/queue/narration`, keyed by
+ * the delivered message ID, and narration for a message already saved is saved here.
+ * Otherwise the event handlers pick it up from the [NarrationCache] as usual.
+ */
+@Component
+class NarrationPipeline(
+    private val narrationCache: NarrationCache,
+    private val chatService: ChatService,
+    private val chatSessionRepository: ChatSessionRepository,
+    guideProperties: GuideProperties,
+) : DisposableBean {
+
+    private val logger = LoggerFactory.getLogger(NarrationPipeline::class.java)
+
+    private val executor: ExecutorService = AtomicInteger().let { count ->
+        Executors.newFixedThreadPool(guideProperties.narration.threads) { task ->
+            Thread(task, "narrate-${count.incrementAndGet()}").apply { isDaemon = true }
+        }
+    }
+
+    /**
+     * Start narrating the next message in a conversation. Call before sending the message.
+     * If the conversation's next message starts narrating first, this narration is dropped.
+     *
+     * @param narrate computes the narration, or returns null if there is none
+     */
+    fun start(conversationId: String, narrate: () -> String?) {
+        val entry = narrationCache.expect(conversationId)
+        executor.execute {
+            val narration = try {
+                narrate()
+            } catch (e: Exception) {
+                logger.error("[NARRATION] Background narration failed for conversation {}: {}", conversationId, e.message, e)
+                null
+            }
+            complete(conversationId, entry, narration)
+        }
+    }
+
+    private fun complete(conversationId: String, entry: NarrationCache.Entry, narration: String?) {
+        val followUp = narrationCache.complete(conversationId, entry, narration) ?: return
+        if (narration == null) return
+        if (followUp.messageId != null && followUp.webUserId != null) {
+            chatService.sendNarrationToUser(followUp.webUserId, NarrationFrame(followUp.messageId, conversationId, narration))
+        }
+        if (followUp.persist) {
+            try {
+                chatSessionRepository.updateMessageNarration(conversationId, narration)
+                logger.debug("Persisted narration for session {}", conversationId)
+            } catch (e: Exception) {
+                logger.error("Failed to persist narration for session {}: {}", conversationId, e.message, e)
+            }
+        }
+    }
+
+    override fun destroy() {
+        executor.shutdownNow()
+    }
+}
@@ -0,0 +1,149 @@
+package com.embabel.guide.rag
+
+import com.embabel.agent.rag.ingestion.ContentFetcher
+import com.embabel.agent.rag.ingestion.HierarchicalContentReader
+import com.embabel.agent.rag.model.NavigableDocument
+import org.slf4j.LoggerFactory
+import java.io.ByteArrayInputStream
+import java.io.File
+import java.io.InputStream
+import java.net.URI
+import java.time.Duration
+import java.util.concurrent.ExecutionException
+import java.util.concurrent.Executors
+import java.util.concurrent.Semaphore
+import java.util.concurrent.TimeUnit
+import java.util.concurrent.TimeoutException
+import java.util.concurrent.atomic.AtomicInteger
+
+/**
+ * Thrown when a document is over the size limit or its parse runs over the time limit.
+ * Callers record it as an [IngestionFailure] like any other failed document.
+ */
+class ParseBudgetExceededException(message: String) : RuntimeException(message)
+
+/**
+ * [HierarchicalContentReader] decorator that keeps one pathological document from stalling or
+ * starving ingestion: documents over [maxDocumentBytes] are rejected before Tika sees them, and
+ * every parse runs on a worker thread with a [timeout], at most [parallelism] at once. Pages
+ * are fetched with [fetcher], the delegate's fetcher, so their size is checked before parsing.
+ *
+ * A parse that times out is interrupted and the caller gets a [ParseBudgetExceededException]
+ * straight away. Tika doesn't always stop when interrupted, so its thread is abandoned rather
+ * than waited for, and the number still running is logged so a leak shows up. Up to
+ * [parallelism] abandoned parses give their slot back; beyond that a runaway parse keeps its
+ * slot until its thread ends, so runaway threads can't pile up without bound. A parse that
+ * finds no free slot within [timeout] fails the same way.
+ *
+ * Only single-document calls are budgeted. Parsing a whole directory happens inside the
+ * delegate, so with limits on [DataManager] parses a directory file by file instead.
+ */
+class BudgetedContentReader(
+    private val delegate: HierarchicalContentReader,
+    private val fetcher: ContentFetcher,
+    private val maxDocumentBytes: Long,
+    private val timeout: Duration,
+    private val parallelism: Int,
+) : HierarchicalContentReader by delegate, AutoCloseable {
+
+    private val logger = LoggerFactory.getLogger(BudgetedContentReader::class.java)
+
+    private val permits = Semaphore(parallelism)
+    private val abandoned = AtomicInteger()
+    private val executor = Executors.newThreadPerTaskExecutor(
+        Thread.ofPlatform().name("parse-", 0).daemon(true).factory()
+    )
+
+    override fun parseFile(file: File, url: String?): NavigableDocument {
+        checkSize(file.length(), url ?: file.path)
+        return budgeted(url ?: file.path) { delegate.parseFile(file, url) }
+    }
+
+    override fun parseContent(inputStream: InputStream, uri: String): NavigableDocument {
+        val bytes = readWithinLimit(inputStream, uri)
+        return budgeted(uri) { delegate.parseContent(ByteArrayInputStream(bytes), uri) }
+    }
+
+    override fun parseContent(inputStream: InputStream, uri: String, contentType: String?): NavigableDocument {
+        val bytes = readWithinLimit(inputStream, uri)
+        return budgeted(uri) { delegate.parseContent(ByteArrayInputStream(bytes), uri, contentType) }
+    }
+
+    override fun parseUrl(url: String): NavigableDocument {
+        val fetched = fetcher.fetch(URI.create(url))
+        val body = fetched.bodyBytes()
+        checkSize(body.size.toLong(), url)
+        return budgeted(url) { delegate.parseFetched(url, body, fetched.contentTypeOrNull()) }
+    }
+
+    /**
+     * Buffer up to the limit so an oversized stream is rejected without being parsed.
+     */
+    private fun readWithinLimit(inputStream: InputStream, source: String): ByteArray {
+        val bytes = inputStream.readNBytes(Math.toIntExact(minOf(maxDocumentBytes + 1, Int.MAX_VALUE.toLong() - 8)))
+        checkSize(bytes.size.toLong(), source)
+        return bytes
+    }
+
+    private fun checkSize(bytes: Long, source: String) {
+        if (bytes > maxDocumentBytes) {
+            throw ParseBudgetExceededException(
+                "Document is ${bytes / 1024} KB, over the ${maxDocumentBytes / 1024} KB parsing limit"
+            ).also { logger.warn("Not parsing {}: {}", source, it.message) }
+        }
+    }
+
+    private fun budgeted(source: String, parse: () -> NavigableDocument): NavigableDocument {
+        if (!permits.tryAcquire(timeout.toMillis(), TimeUnit.MILLISECONDS)) {
+            logger.warn("No parse slot for {} within {}; {} abandoned parses still running",
+                source, describe(timeout), abandoned.get())
+            throw ParseBudgetExceededException("No parse slot free within ${describe(timeout)}")
+        }
+        // Guarded by permits: whether the slot was given back, the parse began, and it is counted as abandoned
+        var released = false
+        var started = false
+        var counted = false
+        val future = executor.submit<NavigableDocument> {
+            synchronized(permits) { started = true }
+            try {
+                parse()
+            } finally {
+                synchronized(permits) {
+                    if (!released) permits.release()
+                    released = true
+                    if (counted) abandoned.decrementAndGet()
+                    counted = false
+                }
+            }
+        }
+        try {
+            return future.get(timeout.toMillis(), TimeUnit.MILLISECONDS)
+        } catch (e: TimeoutException) {
+            future.cancel(true)
+            synchronized(permits) {
+                // A parse cancelled before it began never runs its finally, so it always gives
+                // its slot back here; a runaway one does while under the abandoned cap
+                if (!released && (!started || abandoned.get() < parallelism)) {
+                    permits.release()
+                    released = true
+                    if (started) {
+                        counted = true
+                        abandoned.incrementAndGet()
+                    }
+                }
+            }
+            logger.warn("Parsing {} took longer than {}; {} abandoned parses still running",
+                source, describe(timeout), abandoned.get())
+            throw ParseBudgetExceededException("Parsing timed out after ${describe(timeout)}")
+        } catch (e: ExecutionException) {
+            throw e.cause ?: e
+        }
+    }
+
+    private fun describe(duration: Duration) =
+        if (duration.toMillis() % 1000 == 0L) "${duration.toSeconds()}s" else "${duration.toMillis()}ms"
+
+    override fun close() {
+        executor.shutdownNow()
+    }
+}
@@ -0,0 +1,114 @@
+package com.embabel.guide.rag
+
+import com.embabel.agent.rag.ingestion.ChunkTransformer
+import com.embabel.agent.rag.ingestion.ContentChunker
+import com.embabel.agent.rag.model.Chunk
+import com.embabel.agent.rag.model.ContentElement
+import com.embabel.agent.rag.model.HierarchicalContentElement
+import com.embabel.agent.rag.model.NavigableDocument
+import com.embabel.common.ai.model.EmbeddingService
+import org.drivine.manager.PersistenceManager
+import org.slf4j.LoggerFactory
+import org.springframework.transaction.PlatformTransactionManager
+import kotlin.time.measureTimedValue
+
+/**
+ * Writes many documents at once: all their content elements and chunks go to Neo4j through an
+ * [UnwindWriter], in statements of up to `batchSize` rows, instead of
+ * the handful of statements per element that `writeAndChunkDocument` issues per document.
+ * Embedding is batched across documents too, and can run apart from the write: [embed], then
+ * [write] what it returns.
+ *
+ * Nodes and properties come from the library's own element model ([ContentElement.labels],
+ * [ContentElement.propertiesToPersist]), so the graph matches what the per-document path
+ * writes. The embedding property and parent relationship the library doesn't expose come from
+ * the [StoreSchema].
+ */
+class BulkDocumentWriter(
+    persistenceManager: PersistenceManager,
+    transactionManager: PlatformTransactionManager,
+    private val schema: StoreSchema,
+    private val embeddingService: EmbeddingService,
+    chunkerConfig: ContentChunker.Config,
+    chunkTransformer: ChunkTransformer,
+    batchSize: Int,
+) {
+
+    private val logger = LoggerFactory.getLogger(BulkDocumentWriter::class.java)
+
+    private val unwindWriter = UnwindWriter(persistenceManager, transactionManager, schema, batchSize)
+    private val chunker = ContentChunker(chunkerConfig, chunkTransformer)
+
+    /**
+     * Documents chunked and embedded by [embed], ready for [write]: everything but the store
+     * write, so an ingestion pipeline can embed one batch while writing another.
+     */
+    class Embedded internal constructor(
+        val documents: List<NavigableDocument>,
+        internal val nodes: List<UnwindWriter.NodeRow>,
+        internal val parents: List<UnwindWriter.ParentRow>,
+        internal val chunkCount: Int,
+        internal val embedMillis: Long,
+    )
+
+    /**
+     * Chunk, embed and write [documents] in one transaction. Returns only once everything is
+     * committed; if writing fails, none of [documents] is.
+     */
+    fun write(documents: List<NavigableDocument>) {
+        if (documents.isEmpty()) return
+        write(embed(documents))
+    }
+
+    /**
+     * Chunk and embed [documents] without touching the store.
+     */
+    fun embed(documents: List<NavigableDocument>): Embedded {
+        val nodes = mutableListOf<UnwindWriter.NodeRow>()
+        val parents = mutableListOf<UnwindWriter.ParentRow>()
+        val chunks = mutableListOf<Chunk>()
+        for (document in documents) {
+            for (element in listOf(document) + document.descendants()) {
+                nodes += nodeRow(element)
+                parentRow(element)?.let { parents += it }
+            }
+            chunks += chunker.chunk(document)
+        }
+
+        val (embeddings, embedTime) = measureTimedValue { embeddingService.embed(chunks.map { it.text }) }
+        val embedding = schema.embeddingProperty()
+        chunks.forEachIndexed { i, chunk ->
+            nodes += nodeRow(chunk, mapOf(embedding to embeddings[i]))
+            parentRow(chunk)?.let { parents += it }
+        }
+        return Embedded(documents, nodes, parents, chunks.size, embedTime.inWholeMilliseconds)
+    }
+
+    /**
+     * Write what [embed] produced in one transaction. Returns only once everything is
+     * committed; if writing fails, none of its documents is.
+     */
+    fun write(embedded: Embedded) {
+        if (embedded.documents.isEmpty()) return
+        val (statements, writeTime) = measureTimedValue { unwindWriter.write(embedded.nodes, embedded.parents) }
+        logger.info(
+            "Bulk wrote {} documents: {} nodes, {} chunks, {} relationships in {} statements " +
+                "(embedding {}ms, writing {}ms)",
+            embedded.documents.size, embedded.nodes.size, embedded.chunkCount, embedded.parents.size, statements,
+            embedded.embedMillis, writeTime.inWholeMilliseconds,
+        )
+    }
+
+    private fun nodeRow(element: ContentElement, extra: Map<String, Any?> = emptyMap()) = UnwindWriter.NodeRow(
+        labels = element.labels().sorted(),
+        id = element.id,
+        properties = element.propertiesToPersist() + extra,
+    )
+
+    private fun parentRow(element: ContentElement): UnwindWriter.ParentRow? =
+        (element as? HierarchicalContentElement)?.parentId?.let { UnwindWriter.ParentRow(element.id, it) }
+
+    companion object {
+        const val BASE_LABEL = "ContentElement"
+    }
+}
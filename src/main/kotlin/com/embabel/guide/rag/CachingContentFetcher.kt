@@ -0,0 +1,68 @@
+package com.embabel.guide.rag
+
+import com.embabel.agent.rag.ingestion.ContentFetcher
+import com.embabel.agent.rag.ingestion.FetchResult
+import org.slf4j.LoggerFactory
+import java.net.URI
+
+/**
+ * [ContentFetcher] decorator that keeps what [delegate] fetched in an [HttpFetchCache] and
+ * revalidates it with a conditional GET on later fetches. A 304 returns the cached body
+ * without calling [delegate] at all.
+ *
+ * The conditional request always goes straight to the URI, whatever [delegate] does to
+ * obtain content (an RSS feed, a fallback chain). When the server reports a change:
+ * - if [delegate] is itself a plain HTTP fetcher ([responseIsContent]), the 200 body is the
+ *   content and is used directly;
+ * - otherwise [delegate] is asked for the new content.
+ *
+ * A page ingestion has just probed with [HttpFetchCache.isUnchanged] and found changed is
+ * served from the body the probe stored, without another request.
+ *
+ * Non-HTTP URIs and anything the cache cannot revalidate go to [delegate] unchanged.
+ */
+class CachingContentFetcher(
+    private val delegate: ContentFetcher,
+    private val cache: HttpFetchCache,
+    private val responseIsContent: Boolean,
+) : ContentFetcher by delegate {
+
+    private val logger = LoggerFactory.getLogger(CachingContentFetcher::class.java)
+
+    override fun fetch(uri: URI): FetchResult {
+        if (uri.scheme != "http" && uri.scheme != "https") {
+            return delegate.fetch(uri)
+        }
+        if (responseIsContent) {
+            cache.takeRefreshed(uri)?.let { probed ->
+                logger.debug("{} changed when probed; using the probe's body", uri)
+                return fetchResultOf(probed.body, probed.contentType)
+            }
+        }
+        var validators: HttpFetchCache.Validators? = null
+        val cached = cache.entry(uri)
+        if (cached != null && !cached.validators.isEmpty) {
+            when (val revalidation = cache.revalidate(uri, cached.validators)) {
+                is HttpFetchCache.Revalidation.NotModified -> {
+                    logger.debug("{} not modified; using cached body", uri)
+                    return fetchResultOf(cached.body, cached.contentType)
+                }
+
+                is HttpFetchCache.Revalidation.Modified -> {
+                    if (responseIsContent) {
+                        cache.store(uri, revalidation.body, revalidation.contentType, revalidation.validators)
+                        return fetchResultOf(revalidation.body, revalidation.contentType)
+                    }
+                    validators = revalidation.validators
+                }
+
+                is HttpFetchCache.Revalidation.Unavailable -> {}
+            }
+        }
+        val result = delegate.fetch(uri)
+        cache.store(
+            uri, result.bodyBytes(), result.contentTypeOrNull(), validators ?: cache.head(uri), responseIsContent,
+        )
+        return result
+    }
+}
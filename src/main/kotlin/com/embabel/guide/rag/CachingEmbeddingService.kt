@@ -0,0 +1,88 @@
+package com.embabel.guide.rag
+
+import com.embabel.common.ai.model.EmbeddingService
+import io.micrometer.core.instrument.FunctionCounter
+import io.micrometer.core.instrument.Gauge
+import io.micrometer.core.instrument.MeterRegistry
+import org.slf4j.LoggerFactory
+import java.security.MessageDigest
+import java.util.concurrent.atomic.AtomicLong
+
+/**
+ * [EmbeddingService] decorator that remembers every vector it has computed in an
+ * [EmbeddingCacheStore], keyed by SHA-256 of (model name, normalized text).
+ *
+ * Re-ingesting a refreshed `-SNAPSHOT` page re-chunks the whole document, but most chunks
+ * come out identical, so they are served from the cache and only the chunks whose text
+ * actually changed reach the model. Normalization collapses whitespace only, so a reflowed
+ * paragraph still hits.
+ */
+class CachingEmbeddingService(
+    private val delegate: EmbeddingService,
+    private val cache: EmbeddingCacheStore,
+) : EmbeddingService by delegate {
+
+    private val logger = LoggerFactory.getLogger(CachingEmbeddingService::class.java)
+
+    private val hits = AtomicLong()
+    private val misses = AtomicLong()
+
+    data class Stats(val hits: Long, val misses: Long, val size: Int, val evictions: Long) {
+        val hitRate: Double get() = if (hits + misses == 0L) 0.0 else hits.toDouble() / (hits + misses)
+    }
+
+    fun stats(): Stats = Stats(hits.get(), misses.get(), cache.size, cache.evictions)
+
+    override fun embed(text: String): FloatArray = embed(listOf(text)).first()
+
+    override fun embed(texts: List<String>): List<FloatArray> {
+        val keys = texts.map { keyFor(it) }
+        val results = arrayOfNulls<FloatArray>(texts.size)
+        val missing = mutableListOf<Int>()
+        keys.forEachIndexed { i, key ->
+            val cached = cache.get(key)
+            if (cached != null) results[i] = cached else missing += i
+        }
+        hits.addAndGet((texts.size - missing.size).toLong())
+        misses.addAndGet(missing.size.toLong())
+
+        if (missing.isNotEmpty()) {
+            val computed = delegate.embed(missing.map { texts[it] })
+            missing.forEachIndexed { j, i ->
+                results[i] = computed[j]
+                cache.put(keys[i], computed[j])
+            }
+        }
+        logger.debug("Embedded {} texts: {} from cache, {} computed", texts.size, texts.size - missing.size, missing.size)
+        return results.map { it!! }
+    }
+
+    /**
+     * Publish hit/miss counters and the cache size as `guide.embedding.cache.*` meters.
+     */
+    fun bindTo(registry: MeterRegistry) {
+        FunctionCounter.builder("guide.embedding.cache.hits", hits) { it.get().toDouble() }
+            .description("Embeddings served from the local cache")
+            .register(registry)
+        FunctionCounter.builder("guide.embedding.cache.misses", misses) { it.get().toDouble() }
+            .description("Embeddings computed by the model")
+            .register(registry)
+        Gauge.builder("guide.embedding.cache.size", cache) { it.size.toDouble() }
+            .description("Vectors held in the local embedding cache")
+            .register(registry)
+    }
+
+    private fun keyFor(text: String): ByteArray {
+        val digest = MessageDigest.getInstance("SHA-256")
+        digest.update(delegate.name.toByteArray())
+        digest.update(0)
+        digest.update(normalize(text).toByteArray())
+        return digest.digest()
+    }
+
+    companion object {
+        private val WHITESPACE = Regex("\\s+")
+
+        fun normalize(text: String): String = text.trim().replace(WHITESPACE, " ")
+    }
+}
@@ -0,0 +1,152 @@
+package com.embabel.guide.rag
+
+import com.embabel.guide.ContentConfig
+import org.drivine.manager.PersistenceManager
+import org.drivine.query.QuerySpecification
+import org.drivine.query.transform
+import org.slf4j.LoggerFactory
+import org.springframework.boot.context.event.ApplicationReadyEvent
+import org.springframework.context.event.EventListener
+import org.springframework.transaction.PlatformTransactionManager
+import org.springframework.transaction.support.TransactionTemplate
+
+/**
+ * BM25 search over chunk text through a Neo4j full-text index, scoped like the docs reference
+ * to the active version and supplementary content.
+ *
+ * Uses an existing full-text index over `Chunk.text` if the store created one, and otherwise
+ * creates [INDEX_NAME] at startup. Neo4j keeps the index up to date as chunks are written.
+ * The query is escaped, so API names with dots, `@` or parentheses are matched as written.
+ */
+class ChunkFullTextSearch(
+    private val persistenceManager: PersistenceManager,
+    transactionManager: PlatformTransactionManager,
+    private val content: ContentConfig,
+) {
+
+    private val logger = LoggerFactory.getLogger(ChunkFullTextSearch::class.java)
+
+    private val transactionTemplate = TransactionTemplate(transactionManager)
+
+    @Volatile
+    private var indexName: String? = null
+
+    /**
+     * Find or create the full-text index.
+     */
+    fun provision() {
+        indexName = findIndex(persistenceManager, transactionTemplate, "FULLTEXT", "text") ?: run {
+            transactionTemplate.executeWithoutResult {
+                persistenceManager.execute(
+                    QuerySpecification.withStatement(
+                        """
+                        CREATE FULLTEXT INDEX `$INDEX_NAME` IF NOT EXISTS
+                        FOR (c:${VersionPartitions.CHUNK_LABEL}) ON EACH [c.text]
+                        """.trimIndent()
+                    )
+                )
+            }
+            INDEX_NAME
+        }
+        logger.info("Full-text search over chunks uses index {}", indexName)
+    }
+
+    @EventListener(ApplicationReadyEvent::class)
+    fun provisionOnStartup() {
+        try {
+            provision()
+        } catch (e: Exception) {
+            logger.error("Could not provision chunk full-text index: {}", e.message, e)
+        }
+    }
+
+    /**
+     * The [topK] chunks scoring highest for [query] by BM25.
+     */
+    fun search(query: String, topK: Int): List<DocsHit> {
+        val index = indexName ?: return emptyList()
+        val versions = content.activeVersion?.let { listOf(it, VersionChunkTransformer.SUPPLEMENTARY) }
+        return try {
+            transactionTemplate.execute {
+                persistenceManager.query(
+                    QuerySpecification
+                        .withStatement(
+                            """
+                            CALL db.index.fulltext.queryNodes(${'$'}index, ${'$'}query)
+                            YIELD node, score
+                            WHERE node:${VersionPartitions.CHUNK_LABEL}
+                              AND (${'$'}versions IS NULL OR node.version IN ${'$'}versions)
+                            // Single-map projection: .transform<T>() maps one map/scalar per row, not multiple columns.
+                            RETURN {
+                                id: node.id,
+                                text: node.text,
+                                version: coalesce(node.version, ${'$'}supplementary),
+                                score: score
+                            } AS hit
+                            LIMIT ${'$'}topK
+                            """.trimIndent()
+                        )
+                        .bind(
+                            mapOf(
+                                "index" to index,
+                                "query" to escape(query),
+                                "versions" to versions,
+                                "supplementary" to VersionChunkTransformer.SUPPLEMENTARY,
+                                "topK" to topK,
+                            )
+                        )
+                        .transform<DocsHit>()
+                )
+            } ?: emptyList()
+        } catch (e: Exception) {
+            logger.warn("Full-text search for '{}' failed: {}", query, e.message)
+            emptyList()
+        }
+    }
+
+    companion object {
+        const val INDEX_NAME = "chunk_text"
+
+        private val LUCENE_SPECIAL = Regex("""[+\-!(){}\[\]^"~*?:\\/&|]""")
+
+        /**
+         * Escape Lucene query syntax, so the query is read as plain terms.
+         */
+        @JvmStatic
+        fun escape(query: String): String = query.replace(LUCENE_SPECIAL) { "\\" + it.value }
+
+        /**
+         * Name of an existing index of [type] over [property] of chunks, or of all content
+         * elements, preferring one over chunks alone.
+         */
+        internal fun findIndex(
+            persistenceManager: PersistenceManager,
+            transactionTemplate: TransactionTemplate,
+            type: String,
+            property: String,
+        ): String? =
+            transactionTemplate.execute {
+                persistenceManager.query(
+                    QuerySpecification
+                        .withStatement(
+                            """
+                            SHOW INDEXES YIELD name, type, labelsOrTypes, properties, state
+                            WHERE type = ${'$'}type AND state = 'ONLINE' AND ${'$'}property IN properties
+                              AND any(label IN labelsOrTypes WHERE label IN ${'$'}labels)
+                            RETURN name
+                            ORDER BY CASE WHEN ${'$'}chunk IN labelsOrTypes THEN 0 ELSE 1 END, name
+                            """.trimIndent()
+                        )
+                        .bind(
+                            mapOf(
+                                "type" to type,
+                                "property" to property,
+                                "labels" to listOf(VersionPartitions.CHUNK_LABEL, BulkDocumentWriter.BASE_LABEL),
+                                "chunk" to VersionPartitions.CHUNK_LABEL,
+                            )
+                        )
+                        .transform<String>()
+                ).firstOrNull()
+            }
+    }
+}
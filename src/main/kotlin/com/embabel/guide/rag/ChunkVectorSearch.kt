@@ -0,0 +1,89 @@
+package com.embabel.guide.rag
+
+import com.embabel.common.ai.model.EmbeddingService
+import com.embabel.guide.ContentConfig
+import org.drivine.manager.PersistenceManager
+import org.drivine.query.QuerySpecification
+import org.drivine.query.transform
+import org.slf4j.LoggerFactory
+import org.springframework.transaction.PlatformTransactionManager
+import org.springframework.transaction.support.TransactionTemplate
+
+/**
+ * Vector search over the store's own chunk embedding index, scoped to the active version and
+ * supplementary content, for hybrid search when there are no [VersionPartitions].
+ *
+ * The index is the one the store created over chunk embeddings, found through the [StoreSchema]
+ * on first use. Since the version filter applies after the index lookup, [oversample] times as
+ * many neighbours are fetched as are returned.
+ */
+class ChunkVectorSearch(
+    private val persistenceManager: PersistenceManager,
+    transactionManager: PlatformTransactionManager,
+    private val schema: StoreSchema,
+    private val embeddingService: EmbeddingService,
+    private val content: ContentConfig,
+    private val oversample: Int = 4,
+) : DocsSearch {
+
+    private val logger = LoggerFactory.getLogger(ChunkVectorSearch::class.java)
+
+    private val transactionTemplate = TransactionTemplate(transactionManager)
+
+    override fun search(query: String, topK: Int): List<DocsHit> {
+        val index = index() ?: return emptyList()
+        val versions = content.activeVersion?.let { listOf(it, VersionChunkTransformer.SUPPLEMENTARY) }
+        val embedding = embeddingService.embed(query)
+        return try {
+            transactionTemplate.execute {
+                persistenceManager.query(
+                    QuerySpecification
+                        .withStatement(
+                            """
+                            CALL db.index.vector.queryNodes(${'$'}index, ${'$'}neighbours, ${'$'}embedding)
+                            YIELD node, score
+                            WHERE node:${VersionPartitions.CHUNK_LABEL}
+                              AND (${'$'}versions IS NULL OR node.version IN ${'$'}versions)
+                            // Single-map projection: .transform<T>() maps one map/scalar per row, not multiple columns.
+                            RETURN {
+                                id: node.id,
+                                text: node.text,
+                                version: coalesce(node.version, ${'$'}supplementary),
+                                score: score
+                            } AS hit
+                            LIMIT ${'$'}topK
+                            """.trimIndent()
+                        )
+                        .bind(
+                            mapOf(
+                                "index" to index,
+                                "neighbours" to topK * (if (versions == null) 1 else oversample),
+                                "embedding" to embedding,
+                                "versions" to versions,
+                                "supplementary" to VersionChunkTransformer.SUPPLEMENTARY,
+                                "topK" to topK,
+                            )
+                        )
+                        .transform<DocsHit>()
+                )
+            } ?: emptyList()
+        } catch (e: Exception) {
+            logger.warn("Vector search for '{}' failed: {}", query, e.message)
+            emptyList()
+        }
+    }
+
+    private fun index(): String? {
+        val found = try {
+            schema.vectorIndex()?.name
+        } catch (e: Exception) {
+            logger.warn("Cannot look up the chunk vector index: {}", e.message)
+            null
+        }
+        if (found == null) {
+            // Typically nothing has been ingested yet; look again next time
+            logger.warn("No vector index over chunk embeddings yet")
+        }
+        return found
+    }
+}
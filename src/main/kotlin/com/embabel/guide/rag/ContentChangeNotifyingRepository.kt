@@ -0,0 +1,29 @@
+package com.embabel.guide.rag
+
+import com.embabel.agent.rag.model.NavigableDocument
+import com.embabel.agent.rag.store.ChunkingContentElementRepository
+import com.embabel.agent.rag.store.DocumentDeletionResult
+
+/**
+ * Runs [onChange] after every document written to or deleted from [delegate], so caches of
+ * search results can't outlive the content they were computed from.
+ */
+class ContentChangeNotifyingRepository(
+    private val delegate: ChunkingContentElementRepository,
+    private val onChange: Runnable,
+) : ChunkingContentElementRepository by delegate {
+
+    override fun writeAndChunkDocument(root: NavigableDocument): List<String> =
+        try {
+            delegate.writeAndChunkDocument(root)
+        } finally {
+            onChange.run()
+        }
+
+    override fun deleteRootAndDescendants(uri: String): DocumentDeletionResult? =
+        try {
+            delegate.deleteRootAndDescendants(uri)
+        } finally {
+            onChange.run()
+        }
+}
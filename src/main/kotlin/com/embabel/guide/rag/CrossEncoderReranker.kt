@@ -0,0 +1,105 @@
+package com.embabel.guide.rag
+
+import ai.djl.huggingface.tokenizers.HuggingFaceTokenizer
+import ai.djl.util.PairList
+import ai.onnxruntime.OnnxTensor
+import ai.onnxruntime.OrtEnvironment
+import ai.onnxruntime.OrtSession
+import org.slf4j.LoggerFactory
+import java.nio.file.Path
+import java.util.concurrent.ExecutorService
+import java.util.concurrent.Executors
+import java.util.concurrent.TimeUnit
+import java.util.concurrent.atomic.AtomicInteger
+
+/**
+ * Scores how well passages answer a query with a local cross-encoder, such as
+ * `ms-marco-MiniLM-L-6-v2` exported to ONNX: unlike an embedding model it reads the query and
+ * passage together, so its ranking is sharper, but it must run once per pair.
+ *
+ * Pairs are scored in batches of [batchSize] on a pool of [threads] dedicated threads sharing
+ * one session, so reranking neither competes with the request threads nor waits behind
+ * embedding work. The model directory holds `model.onnx` and `tokenizer.json`.
+ */
+class CrossEncoderReranker(
+    modelDirectory: Path,
+    threads: Int,
+    private val batchSize: Int,
+    private val timeoutMillis: Long,
+) : AutoCloseable {
+
+    private val logger = LoggerFactory.getLogger(CrossEncoderReranker::class.java)
+
+    private val environment = OrtEnvironment.getEnvironment()
+    private val tokenizer = HuggingFaceTokenizer.newInstance(
+        modelDirectory.resolve("tokenizer.json"),
+        mapOf("padding" to "true", "truncation" to "true", "maxLength" to MAX_TOKENS.toString()),
+    )
+    private val session: OrtSession
+    private val executor: ExecutorService
+
+    init {
+        require(threads > 0) { "threads must be positive" }
+        require(batchSize > 0) { "batchSize must be positive" }
+        val options = OrtSession.SessionOptions().apply {
+            // Parallelism comes from the pool; each batch runs on its own thread
+            setIntraOpNumThreads(1)
+            setInterOpNumThreads(1)
+            setOptimizationLevel(OrtSession.SessionOptions.OptLevel.ALL_OPT)
+        }
+        session = environment.createSession(modelDirectory.resolve("model.onnx").toString(), options)
+        val count = AtomicInteger()
+        executor = Executors.newFixedThreadPool(threads) { task ->
+            Thread(task, "rerank-${count.incrementAndGet()}").apply { isDaemon = true }
+        }
+        logger.info("Opened cross-encoder {} on {} threads", modelDirectory, threads)
+    }
+
+    /**
+     * Relevance of each of [passages] to [query], in the same order; higher is more relevant.
+     */
+    fun score(query: String, passages: List<String>): FloatArray {
+        if (passages.isEmpty()) return FloatArray(0)
+        val batches = passages.chunked(batchSize).map { batch ->
+            executor.submit<FloatArray> { run(query, batch) }
+        }
+        return batches.map { it.get(timeoutMillis, TimeUnit.MILLISECONDS) }
+            .fold(FloatArray(0)) { scores, batch -> scores + batch }
+    }
+
+    private fun run(query: String, passages: List<String>): FloatArray {
+        val pairs = PairList<String, String>(passages.size)
+        passages.forEach { pairs.add(query, it) }
+        val encodings = tokenizer.batchEncode(pairs)
+        val ids = encodings.map { it.ids }.toTypedArray()
+        val mask = encodings.map { it.attentionMask }.toTypedArray()
+        val types = encodings.map { it.typeIds }.toTypedArray()
+        OnnxTensor.createTensor(environment, ids).use { idTensor ->
+            OnnxTensor.createTensor(environment, mask).use { maskTensor ->
+                OnnxTensor.createTensor(environment, types).use { typeTensor ->
+                    val inputs = buildMap {
+                        put("input_ids", idTensor)
+                        put("attention_mask", maskTensor)
+                        if ("token_type_ids" in session.inputNames) put("token_type_ids", typeTensor)
+                    }
+                    session.run(inputs).use { result ->
+                        // One logit per pair
+                        @Suppress("UNCHECKED_CAST")
+                        val logits = result.get(0).value as Array<FloatArray>
+                        return FloatArray(logits.size) { logits[it][0] }
+                    }
+                }
+            }
+        }
+    }
+
+    override fun close() {
+        executor.shutdownNow()
+        session.close()
+        tokenizer.close()
+    }
+
+    companion object {
+        const val MAX_TOKENS = 512
+    }
+}
@@ -0,0 +1,164 @@
+package com.embabel.guide.rag
+
+import com.embabel.common.ai.model.EmbeddingService
+import io.micrometer.core.instrument.FunctionCounter
+import io.micrometer.core.instrument.Gauge
+import io.micrometer.core.instrument.MeterRegistry
+import java.util.concurrent.atomic.AtomicLong
+
+/**
+ * Two-level cache for documentation searches, since many users ask the same questions.
+ *
+ * - Embeddings: normalized query text to its embedding, so a repeated query skips the model.
+ * - Results: (normalized query, version scope, topK) to the passages found, so a repeated
+ *   search skips retrieval altogether.
+ *
+ * Normalization trims and collapses whitespace only; anything more could change what the
+ * model or full-text search sees. [invalidate] drops every result, and is called whenever
+ * content is written or deleted. A search that started before an invalidation doesn't cache
+ * its result. Embeddings depend only on the model, so they survive invalidation.
+ *
+ * Both levels are LRU-bounded.
+ */
+class DocsQueryCache(
+    maxEmbeddings: Int,
+    maxResults: Int,
+    private val versionScope: String,
+) {
+
+    private val embeddings = Lru<String, FloatArray>(maxEmbeddings)
+    private val results = Lru<String, List<DocsHit>>(maxResults)
+
+    @Volatile
+    private var generation = 0L
+
+    private val embeddingHits = AtomicLong()
+    private val embeddingMisses = AtomicLong()
+    private val resultHits = AtomicLong()
+    private val resultMisses = AtomicLong()
+    private val invalidations = AtomicLong()
+
+    data class Stats(
+        val embeddingHits: Long,
+        val embeddingMisses: Long,
+        val resultHits: Long,
+        val resultMisses: Long,
+        val invalidations: Long,
+    ) {
+        val embeddingHitRate: Double get() = rate(embeddingHits, embeddingMisses)
+        val resultHitRate: Double get() = rate(resultHits, resultMisses)
+
+        private fun rate(hits: Long, misses: Long) =
+            if (hits + misses == 0L) 0.0 else hits.toDouble() / (hits + misses)
+    }
+
+    fun stats(): Stats = Stats(
+        embeddingHits.get(), embeddingMisses.get(), resultHits.get(), resultMisses.get(), invalidations.get()
+    )
+
+    fun embedding(query: String, compute: (String) -> FloatArray): FloatArray {
+        val key = normalize(query)
+        embeddings.get(key)?.let {
+            embeddingHits.incrementAndGet()
+            return it
+        }
+        embeddingMisses.incrementAndGet()
+        return compute(query).also { embeddings.put(key, it) }
+    }
+
+    fun results(query: String, topK: Int, compute: () -> List<DocsHit>): List<DocsHit> {
+        val key = "$versionScope\u0000$topK\u0000${normalize(query)}"
+        val before = generation
+        results.get(key)?.let {
+            resultHits.incrementAndGet()
+            return it
+        }
+        resultMisses.incrementAndGet()
+        val found = compute()
+        synchronized(results) {
+            if (generation == before) results.put(key, found)
+        }
+        return found
+    }
+
+    /**
+     * Forget every search result, as content has changed.
+     */
+    fun invalidate() {
+        synchronized(results) {
+            generation++
+            results.clear()
+        }
+        invalidations.incrementAndGet()
+    }
+
+    /**
+     * [docsSearch] with its results cached.
+     */
+    fun cached(docsSearch: DocsSearch): DocsSearch =
+        DocsSearch { query, topK -> results(query, topK) { docsSearch.search(query, topK) } }
+
+    /**
+     * [embeddingService] with single-text embeddings, as for queries, cached. Batches, as in
+     * ingestion, go straight to the delegate.
+     */
+    fun cached(embeddingService: EmbeddingService): EmbeddingService =
+        object : EmbeddingService by embeddingService {
+            override fun embed(text: String): FloatArray = embedding(text) { embeddingService.embed(it) }
+        }
+
+    /**
+     * Publish hit and miss counters per level, and sizes, as `guide.docs.cache.*` meters.
+     */
+    fun bindTo(registry: MeterRegistry) {
+        for ((level, hits, misses) in listOf(
+            Triple("embedding", embeddingHits, embeddingMisses),
+            Triple("results", resultHits, resultMisses),
+        )) {
+            FunctionCounter.builder("guide.docs.cache.hits", hits) { it.get().toDouble() }
+                .tag("level", level)
+                .description("Docs searches served from the cache")
+                .register(registry)
+            FunctionCounter.builder("guide.docs.cache.misses", misses) { it.get().toDouble() }
+                .tag("level", level)
+                .description("Docs searches the cache could not serve")
+                .register(registry)
+        }
+        FunctionCounter.builder("guide.docs.cache.invalidations", invalidations) { it.get().toDouble() }
+            .description("Times cached results were dropped because content changed")
+            .register(registry)
+        Gauge.builder("guide.docs.cache.size", embeddings) { it.size().toDouble() }
+            .tag("level", "embedding")
+            .register(registry)
+        Gauge.builder("guide.docs.cache.size", results) { it.size().toDouble() }
+            .tag("level", "results")
+            .register(registry)
+    }
+
+    private class Lru<K, V>(private val maxEntries: Int) {
+        private val map = object : LinkedHashMap<K, V>(16, 0.75f, true) {
+            override fun removeEldestEntry(eldest: MutableMap.MutableEntry<K, V>) = size > maxEntries
+        }
+
+        @Synchronized
+        fun get(key: K): V? = map[key]
+
+        @Synchronized
+        fun put(key: K, value: V) {
+            map[key] = value
+        }
+
+        @Synchronized
+        fun clear() = map.clear()
+
+        @Synchronized
+        fun size() = map.size
+    }
+
+    companion object {
+        private val WHITESPACE = Regex("\\s+")
+
+        @JvmStatic
+        fun normalize(query: String): String = query.trim().replace(WHITESPACE, " ")
+    }
+}
@@ -0,0 +1,28 @@
+package com.embabel.guide.rag
+
+/**
+ * A documentation passage found by a [DocsSearch].
+ *
+ * @param version the chunk's `version` property, or [VersionChunkTransformer.SUPPLEMENTARY]
+ * @param score   relevance to the query: cosine similarity for vector search, BM25 for
+ *                full-text search, the fused score for [HybridDocsSearch], the cross-encoder's
+ *                for [RerankingDocsSearch]
+ */
+data class DocsHit(
+    val id: String,
+    val text: String,
+    val version: String,
+    val score: Double,
+)
+
+/**
+ * Documentation search scoped to the active version and supplementary content, for searches
+ * the library's ToolishRag can't do. Exposed to the LLM through [DocsSearchTools].
+ */
+fun interface DocsSearch {
+
+    /**
+     * The [topK] passages most relevant to [query], most relevant first.
+     */
+    fun search(query: String, topK: Int): List<DocsHit>
+}
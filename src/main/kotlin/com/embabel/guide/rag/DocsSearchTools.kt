@@ -0,0 +1,43 @@
+package com.embabel.guide.rag
+
+import org.springframework.ai.tool.annotation.Tool
+import org.springframework.ai.tool.annotation.ToolParam
+
+/**
+ * Tool over a [DocsSearch], registered via withToolObject() in place of the version-filtered
+ * docs reference when version partitions, hybrid search, reranking or the in-memory store are in use.
+ */
+class DocsSearchTools(
+    private val docsSearch: DocsSearch,
+    private val defaultTopK: Int,
+) {
+
+    @Tool(
+        description = "Search the Embabel documentation for the current version, plus supplementary " +
+            "material such as blog posts, for passages relevant to a question. " +
+            "Phrase the query as a hypothetical answer for best results, " +
+            "quoting exact API names such as annotations or class names when you know them."
+    )
+    fun searchDocs(
+        @ToolParam(description = "What to search for") query: String,
+        @ToolParam(description = "Maximum number of passages to return", required = false) topK: Int?,
+    ): String {
+        val hits = docsSearch.search(query, topK?.takeIf { it > 0 } ?: defaultTopK)
+        if (hits.isEmpty()) {
+            return "No documentation found for '$query'"
+        }
+        return format(hits)
+    }
+
+    companion object {
+
+        /**
+         * Passages as the LLM sees them: each headed by its version and score.
+         */
+        @JvmStatic
+        fun format(hits: List<DocsHit>): String =
+            hits.joinToString("\n\n") { hit ->
+                "[${hit.version}, score %.2f]\n%s".format(hit.score, hit.text)
+            }
+    }
+}
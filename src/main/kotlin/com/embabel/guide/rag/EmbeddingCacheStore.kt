@@ -0,0 +1,211 @@
+package com.embabel.guide.rag
+
+import org.slf4j.LoggerFactory
+import java.io.Closeable
+import java.nio.ByteBuffer
+import java.nio.MappedByteBuffer
+import java.nio.channels.FileChannel
+import java.nio.file.Files
+import java.nio.file.Path
+import java.nio.file.StandardOpenOption
+
+/**
+ * Fixed-capacity on-disk store of embedding vectors, memory-mapped so lookups are plain
+ * memory reads and the OS page cache does the caching.
+ *
+ * Layout: a 16-byte header (magic, version, dimensions, capacity) followed by [capacity]
+ * slots of `32-byte key + dimensions float32`. A zeroed key marks an empty slot. The index
+ * of key → slot is rebuilt by scanning slots on open, so there is no second file to keep
+ * consistent. When full, the least recently used entries' slots are reused.
+ *
+ * The key is what makes a slot valid, so it is published last: [put] clears the slot's key
+ * and writes the vector, and the key is written only once the vector has been flushed to
+ * disk. Flushing is batched: keys wait until [FLUSH_BATCH] vectors are pending, or [flush] or
+ * [close] is called, and one sync then covers them all. A crash at any point leaves each slot
+ * either empty or holding a complete vector, never a key in front of a torn or stale one; at
+ * worst the last batch is lost and embedded again.
+ *
+ * A reused slot must not keep its old key on disk once the new vector is written, so when the
+ * store is full the least recently used entries are evicted a batch at a time: their keys are
+ * cleared and synced together, and their slots reused from then on.
+ *
+ * The file is created on the first [put], taking its dimensions from that vector, so the
+ * store never needs to know the model up front. Callers include the model name in the key.
+ */
+class EmbeddingCacheStore private constructor(
+    private val file: Path,
+    private val capacity: Int,
+) : Closeable {
+
+    private val logger = LoggerFactory.getLogger(EmbeddingCacheStore::class.java)
+
+    private var channel: FileChannel? = null
+    private var buffer: MappedByteBuffer? = null
+    private var dimensions = 0
+
+    // Access-ordered: iteration starts at the least recently used key
+    private val index = LinkedHashMap<Key, Int>(16, 0.75f, true)
+    private val freeSlots = ArrayDeque<Int>()
+
+    // Slot → key written to memory but not yet published, awaiting the next flush
+    private val unpublished = LinkedHashMap<Int, ByteArray>()
+
+    /** Number of vectors currently cached. */
+    @get:Synchronized
+    val size: Int get() = index.size
+
+    /** Evictions since open. */
+    @Volatile
+    var evictions: Long = 0
+        private set
+
+    @Synchronized
+    fun get(key: ByteArray): FloatArray? {
+        val slot = index[Key(key)] ?: return null
+        val buf = buffer ?: return null
+        val vector = FloatArray(dimensions)
+        buf.asFloatBufferAt(vectorOffset(slot), dimensions).get(vector)
+        return vector
+    }
+
+    @Synchronized
+    fun put(key: ByteArray, vector: FloatArray) {
+        require(key.size == KEY_BYTES) { "Key must be $KEY_BYTES bytes" }
+        val buf = buffer ?: create(vector.size)
+        if (vector.size != dimensions) {
+            logger.warn("Not caching {}-dim vector in {}-dim cache {}", vector.size, dimensions, file)
+            return
+        }
+        val k = Key(key)
+        val slot = index[k] ?: nextSlot(buf).also { index[k] = it }
+        buf.put(slotOffset(slot), EMPTY_KEY)
+        buf.asFloatBufferAt(vectorOffset(slot), dimensions).put(vector)
+        unpublished[slot] = key.copyOf()
+        if (unpublished.size >= FLUSH_BATCH) {
+            flush()
+        }
+    }
+
+    /**
+     * Sync pending vectors to disk and publish their keys, so they survive a restart.
+     */
+    @Synchronized
+    fun flush() {
+        val buf = buffer ?: return
+        if (unpublished.isEmpty()) return
+        buf.force()
+        unpublished.forEach { (slot, key) -> buf.put(slotOffset(slot), key) }
+        unpublished.clear()
+    }
+
+    @Synchronized
+    override fun close() {
+        flush()
+        buffer?.force()
+        channel?.close()
+        buffer = null
+        channel = null
+    }
+
+    private fun nextSlot(buf: MappedByteBuffer): Int {
+        if (freeSlots.isEmpty()) {
+            evict(buf, (capacity / 64).coerceIn(1, FLUSH_BATCH))
+        }
+        return freeSlots.removeFirst()
+    }
+
+    private fun evict(buf: MappedByteBuffer, count: Int) {
+        val eldest = index.entries.iterator()
+        repeat(minOf(count, index.size)) {
+            val slot = eldest.next().value
+            eldest.remove()
+            unpublished.remove(slot)
+            buf.put(slotOffset(slot), EMPTY_KEY)
+            freeSlots.addLast(slot)
+            evictions++
+        }
+        buf.force()
+    }
+
+    private fun create(dims: Int): MappedByteBuffer {
+        dimensions = dims
+        val buf = map()
+        buf.putInt(0, MAGIC).putInt(4, VERSION).putInt(8, dims).putInt(12, capacity)
+        freeSlots.clear()
+        (0 until capacity).forEach { freeSlots.addLast(it) }
+        logger.info("Created embedding cache {} ({} x {} dims)", file, capacity, dims)
+        return buf
+    }
+
+    private fun openExisting() {
+        FileChannel.open(file, StandardOpenOption.READ).use { ch ->
+            val header = ByteBuffer.allocate(HEADER_BYTES)
+            ch.read(header, 0)
+            if (header.getInt(0) != MAGIC || header.getInt(4) != VERSION || header.getInt(12) != capacity) {
+                logger.info("Embedding cache {} has a different format or capacity; starting afresh", file)
+                Files.delete(file)
+                return
+            }
+            dimensions = header.getInt(8)
+        }
+        val buf = map()
+        val key = ByteArray(KEY_BYTES)
+        for (slot in 0 until capacity) {
+            buf.get(slotOffset(slot), key)
+            if (key.any { it != 0.toByte() }) {
+                index[Key(key.copyOf())] = slot
+            } else {
+                freeSlots.addLast(slot)
+            }
+        }
+        logger.info("Opened embedding cache {} with {} cached vectors", file, index.size)
+    }
+
+    private fun map(): MappedByteBuffer {
+        val bytes = HEADER_BYTES.toLong() + capacity.toLong() * slotBytes()
+        check(bytes <= Int.MAX_VALUE) { "Embedding cache of $capacity x $dimensions dims exceeds 2GB; lower max-entries" }
+        Files.createDirectories(file.parent)
+        val ch = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE)
+        channel = ch
+        return ch.map(FileChannel.MapMode.READ_WRITE, 0, bytes).also { buffer = it }
+    }
+
+    private fun slotBytes(): Int = KEY_BYTES + dimensions * Float.SIZE_BYTES
+
+    private fun slotOffset(slot: Int): Int = HEADER_BYTES + slot * slotBytes()
+
+    private fun vectorOffset(slot: Int): Int = slotOffset(slot) + KEY_BYTES
+
+    private fun MappedByteBuffer.asFloatBufferAt(offset: Int, length: Int) =
+        slice(offset, length * Float.SIZE_BYTES).asFloatBuffer()
+
+    /** Byte-array key with value equality. */
+    private class Key(val bytes: ByteArray) {
+        override fun equals(other: Any?): Boolean = other is Key && bytes.contentEquals(other.bytes)
+        override fun hashCode(): Int = bytes.contentHashCode()
+    }
+
+    companion object {
+        const val KEY_BYTES = 32
+        const val FLUSH_BATCH = 256
+        private val EMPTY_KEY = ByteArray(KEY_BYTES)
+        private const val HEADER_BYTES = 16
+        private const val MAGIC = 0x454d4243 // "EMBC"
+        private const val VERSION = 1
+
+        /**
+         * Open the cache at [file], reusing its contents if it was written with the same capacity.
+         */
+        @JvmStatic
+        fun open(file: Path, capacity: Int): EmbeddingCacheStore {
+            require(capacity > 0) { "capacity must be positive" }
+            val store = EmbeddingCacheStore(file, capacity)
+            synchronized(store) {
+                if (Files.exists(file)) {
+                    store.openExisting()
+                }
+            }
+            return store
+        }
+    }
+}
@@ -0,0 +1,26 @@
+@file:JvmName("FetchResults")
+
+package com.embabel.guide.rag
+
+import com.embabel.agent.rag.ingestion.FetchResult
+import com.embabel.agent.rag.ingestion.HierarchicalContentReader
+import com.embabel.agent.rag.model.NavigableDocument
+import java.io.ByteArrayInputStream
+
+/**
+ * Java-friendly access to a [FetchResult] body, for code that fetches and parses
+ * in separate steps (the ingestion pipeline) rather than through
+ * `HierarchicalContentReader.parseUrl`.
+ */
+fun FetchResult.bodyBytes(): ByteArray = content
+
+fun fetchResultOf(body: ByteArray, contentType: String?): FetchResult = FetchResult(body, contentType)
+
+fun FetchResult.contentTypeOrNull(): String? = contentType
+
+/**
+ * Parse a body fetched separately from the reader, passing on the content type the server
+ * sent, as `parseUrl` does, rather than leaving Tika to guess it from the bytes and URI.
+ */
+fun HierarchicalContentReader.parseFetched(uri: String, body: ByteArray, contentType: String?): NavigableDocument =
+    parseContent(ByteArrayInputStream(body), uri, contentType)
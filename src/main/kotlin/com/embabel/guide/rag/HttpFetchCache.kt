@@ -0,0 +1,234 @@
+package com.embabel.guide.rag
+
+import org.slf4j.LoggerFactory
+import java.io.IOException
+import java.net.URI
+import java.net.http.HttpClient
+import java.net.http.HttpRequest
+import java.net.http.HttpResponse
+import java.nio.file.Files
+import java.nio.file.Path
+import java.nio.file.StandardCopyOption
+import java.time.Duration
+import java.util.Properties
+import java.util.concurrent.ConcurrentHashMap
+import java.util.concurrent.atomic.AtomicLong
+
+/**
+ * On-disk store of fetched page bodies with the `ETag` and `Last-Modified` validators the
+ * server sent for them, plus the conditional requests that revalidate them.
+ *
+ * Each URI is stored as two files named by the SHA-256 of the URI: `.body` holds the raw
+ * bytes and `.meta` the validators and content type. The body is written first and both are
+ * moved into place atomically, so a crash leaves at worst a body with stale metadata, which
+ * simply revalidates as modified on the next run.
+ *
+ * Entries record whether their body is the HTTP response itself. Only those can be probed
+ * with [isUnchanged]: for content a route renders some other way, such as Medium posts read
+ * from an RSS feed, a 200 from the page URI says nothing useful and its body can't be kept.
+ */
+class HttpFetchCache @JvmOverloads constructor(
+    private val directory: Path,
+    private val httpClient: HttpClient = defaultClient(),
+    private val timeout: Duration = Duration.ofSeconds(30),
+) {
+
+    private val logger = LoggerFactory.getLogger(HttpFetchCache::class.java)
+
+    private val notModified = AtomicLong()
+    private val modified = AtomicLong()
+
+    // Entries a probe just refreshed from a 200, with when, so the fetch that follows uses them as is
+    private val refreshed = ConcurrentHashMap<URI, Long>()
+
+    data class Validators(val etag: String?, val lastModified: String?) {
+        val isEmpty: Boolean get() = etag == null && lastModified == null
+
+        companion object {
+            val NONE = Validators(null, null)
+        }
+    }
+
+    /**
+     * @param bodyIsResponse whether [body] is the HTTP response for the URI, rather than content
+     *                       a route obtained by other means
+     */
+    class Entry(val body: ByteArray, val contentType: String?, val validators: Validators, val bodyIsResponse: Boolean)
+
+    /**
+     * Outcome of a conditional request.
+     */
+    sealed interface Revalidation {
+        /** 304: the cached body is still current. */
+        data object NotModified : Revalidation
+
+        /** 200: the server sent a new body. */
+        class Modified(val body: ByteArray, val contentType: String?, val validators: Validators) : Revalidation
+
+        /** Any other status or a network error; the caller should fetch normally. */
+        data object Unavailable : Revalidation
+    }
+
+    data class Stats(val notModified: Long, val modified: Long)
+
+    fun stats(): Stats = Stats(notModified.get(), modified.get())
+
+    /**
+     * Validators stored for [uri], or null if it has never been cached. Cheap: the body is not read.
+     */
+    fun validators(uri: URI): Validators? = readMeta(uri)?.let {
+        Validators(it.getProperty(ETAG), it.getProperty(LAST_MODIFIED))
+    }
+
+    fun entry(uri: URI): Entry? {
+        val meta = readMeta(uri) ?: return null
+        val bodyFile = fileFor(uri, BODY)
+        if (!Files.exists(bodyFile)) return null
+        return Entry(
+            Files.readAllBytes(bodyFile),
+            meta.getProperty(CONTENT_TYPE),
+            Validators(meta.getProperty(ETAG), meta.getProperty(LAST_MODIFIED)),
+            meta.getProperty(BODY_IS_RESPONSE).toBoolean(),
+        )
+    }
+
+    @JvmOverloads
+    fun store(uri: URI, body: ByteArray, contentType: String?, validators: Validators, bodyIsResponse: Boolean = true) {
+        Files.createDirectories(directory)
+        writeAtomically(fileFor(uri, BODY)) { Files.write(it, body) }
+        val meta = Properties()
+        meta.setProperty(URI_KEY, uri.toString())
+        meta.setProperty(BODY_IS_RESPONSE, bodyIsResponse.toString())
+        contentType?.let { meta.setProperty(CONTENT_TYPE, it) }
+        validators.etag?.let { meta.setProperty(ETAG, it) }
+        validators.lastModified?.let { meta.setProperty(LAST_MODIFIED, it) }
+        writeAtomically(fileFor(uri, META)) { path ->
+            Files.newOutputStream(path).use { meta.store(it, null) }
+        }
+    }
+
+    /**
+     * Send a conditional GET carrying [validators].
+     */
+    fun revalidate(uri: URI, validators: Validators): Revalidation {
+        val request = request(uri, "GET").apply {
+            validators.etag?.let { header("If-None-Match", it) }
+            validators.lastModified?.let { header("If-Modified-Since", it) }
+        }.build()
+        val response = try {
+            httpClient.send(request, HttpResponse.BodyHandlers.ofByteArray())
+        } catch (e: IOException) {
+            logger.debug("Conditional GET of {} failed: {}", uri, e.message)
+            return Revalidation.Unavailable
+        }
+        return when (response.statusCode()) {
+            304 -> Revalidation.NotModified.also { notModified.incrementAndGet() }
+            200 -> Revalidation.Modified(
+                response.body(),
+                response.headers().firstValue("Content-Type").orElse(null),
+                validatorsOf(response),
+            ).also { modified.incrementAndGet() }
+
+            else -> {
+                logger.debug("Conditional GET of {} returned {}", uri, response.statusCode())
+                Revalidation.Unavailable
+            }
+        }
+    }
+
+    /**
+     * Ask the server for the current validators of [uri] without downloading the body, for
+     * content that was fetched by some other means (e.g. through an RSS feed).
+     */
+    fun head(uri: URI): Validators = try {
+        val response = httpClient.send(request(uri, "HEAD").build(), HttpResponse.BodyHandlers.discarding())
+        if (response.statusCode() == 200) validatorsOf(response) else Validators.NONE
+    } catch (e: IOException) {
+        logger.debug("HEAD {} failed: {}", uri, e.message)
+        Validators.NONE
+    }
+
+    /**
+     * True only if [uri] was cached from its HTTP response with validators and the server
+     * answers 304, i.e. whatever was ingested from it last time is still current and need not
+     * be parsed again.
+     *
+     * If the server answers 200 instead, the new body and validators are stored and the next
+     * [takeRefreshed] for [uri] returns them, so fetching the changed page doesn't download it
+     * a second time.
+     */
+    fun isUnchanged(uri: URI): Boolean {
+        val meta = readMeta(uri) ?: return false
+        if (!meta.getProperty(BODY_IS_RESPONSE).toBoolean()) return false
+        val validators = Validators(meta.getProperty(ETAG), meta.getProperty(LAST_MODIFIED))
+        if (validators.isEmpty) return false
+        return when (val revalidation = revalidate(uri, validators)) {
+            is Revalidation.NotModified -> true
+            is Revalidation.Modified -> {
+                store(uri, revalidation.body, revalidation.contentType, revalidation.validators)
+                refreshed[uri] = System.nanoTime()
+                false
+            }
+
+            is Revalidation.Unavailable -> false
+        }
+    }
+
+    /**
+     * The entry [isUnchanged] stored from a 200 moments ago, if any, for the fetch that follows
+     * the probe. Each probe's entry is handed out once, and not at all once [REFRESHED_FOR] has
+     * passed, after which the entry is revalidated as usual.
+     */
+    fun takeRefreshed(uri: URI): Entry? {
+        val at = refreshed.remove(uri) ?: return null
+        if (System.nanoTime() - at > REFRESHED_FOR.toNanos()) return null
+        return entry(uri)
+    }
+
+    private fun request(uri: URI, method: String): HttpRequest.Builder =
+        HttpRequest.newBuilder(uri)
+            .timeout(timeout)
+            .header("User-Agent", USER_AGENT)
+            .method(method, HttpRequest.BodyPublishers.noBody())
+
+    private fun validatorsOf(response: HttpResponse<*>) = Validators(
+        response.headers().firstValue("ETag").orElse(null),
+        response.headers().firstValue("Last-Modified").orElse(null),
+    )
+
+    private fun readMeta(uri: URI): Properties? {
+        val file = fileFor(uri, META)
+        if (!Files.exists(file)) return null
+        return Properties().apply { Files.newInputStream(file).use { load(it) } }
+    }
+
+    private fun fileFor(uri: URI, suffix: String): Path =
+        directory.resolve(IngestionManifest.sha256(uri.toString()) + suffix)
+
+    private fun writeAtomically(target: Path, write: (Path) -> Unit) {
+        val tmp = Files.createTempFile(directory, target.fileName.toString(), ".tmp")
+        try {
+            write(tmp)
+            Files.move(tmp, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE)
+        } finally {
+            Files.deleteIfExists(tmp)
+        }
+    }
+
+    companion object {
+        private const val BODY = ".body"
+        private const val META = ".meta"
+        private const val URI_KEY = "uri"
+        private const val CONTENT_TYPE = "content-type"
+        private const val ETAG = "etag"
+        private const val LAST_MODIFIED = "last-modified"
+        private const val BODY_IS_RESPONSE = "body-is-response"
+        private val REFRESHED_FOR: Duration = Duration.ofMinutes(5)
+        private const val USER_AGENT = "embabel-guide"
+
+        private fun defaultClient(): HttpClient = HttpClient.newBuilder()
+            .followRedirects(HttpClient.Redirect.NORMAL)
+            .connectTimeout(Duration.ofSeconds(10))
+            .build()
+    }
+}
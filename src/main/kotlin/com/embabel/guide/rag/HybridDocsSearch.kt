@@ -0,0 +1,46 @@
+package com.embabel.guide.rag
+
+/**
+ * Combines a vector search, which finds passages that mean the same as the query, with a
+ * full-text search, which finds passages quoting its exact terms, such as `@AchievesGoal` or
+ * `PromptRunner.Rendering`. Each search contributes its top [candidates]; passages are ranked by
+ * reciprocal rank fusion, `sum(1 / (rrfK + rank))` over the searches that found them, so neither
+ * search's scores need to be comparable with the other's.
+ *
+ * The hits carry their fused score.
+ */
+class HybridDocsSearch(
+    private val vectorSearch: DocsSearch,
+    private val textSearch: DocsSearch,
+    private val candidates: Int,
+    private val rrfK: Int,
+) : DocsSearch {
+
+    override fun search(query: String, topK: Int): List<DocsHit> {
+        val perSearch = maxOf(candidates, topK)
+        return fuse(listOf(vectorSearch.search(query, perSearch), textSearch.search(query, perSearch)), rrfK)
+            .take(topK)
+    }
+
+    companion object {
+
+        /**
+         * Rank the union of [rankings], each best first, by reciprocal rank fusion. A passage
+         * keeps the hit from the first ranking that has it.
+         */
+        @JvmStatic
+        fun fuse(rankings: List<List<DocsHit>>, rrfK: Int): List<DocsHit> {
+            val hits = LinkedHashMap<String, DocsHit>()
+            val scores = HashMap<String, Double>()
+            for (ranking in rankings) {
+                ranking.forEachIndexed { rank, hit ->
+                    hits.putIfAbsent(hit.id, hit)
+                    scores.merge(hit.id, 1.0 / (rrfK + rank + 1), Double::plus)
+                }
+            }
+            return hits.values
+                .map { it.copy(score = scores.getValue(it.id)) }
+                .sortedByDescending { it.score }
+        }
+    }
+}
@@ -0,0 +1,337 @@
+package com.embabel.guide.rag
+
+import com.embabel.agent.filter.PropertyFilter
+import com.embabel.agent.rag.graph.model.ContentElementRepositoryInfoImpl
+import com.embabel.agent.rag.ingestion.ChunkTransformer
+import com.embabel.agent.rag.ingestion.ContentChunker
+import com.embabel.agent.rag.ingestion.RetrievableEnhancer
+import com.embabel.agent.rag.model.Chunk
+import com.embabel.agent.rag.model.ContentElement
+import com.embabel.agent.rag.model.NavigableDocument
+import com.embabel.agent.rag.model.Retrievable
+import com.embabel.agent.rag.store.ChunkingContentElementRepository
+import com.embabel.agent.rag.store.ContentElementRepositoryInfo
+import com.embabel.agent.rag.store.DocumentDeletionResult
+import com.embabel.common.ai.model.EmbeddingService
+import com.fasterxml.jackson.module.kotlin.jacksonObjectMapper
+import com.fasterxml.jackson.module.kotlin.readValue
+import org.slf4j.LoggerFactory
+import java.io.BufferedInputStream
+import java.io.BufferedOutputStream
+import java.io.DataInputStream
+import java.io.DataOutputStream
+import java.nio.file.Files
+import java.nio.file.Path
+import java.nio.file.StandardCopyOption
+import java.util.concurrent.ConcurrentHashMap
+import kotlin.time.measureTimedValue
+
+/**
+ * In-process [ChunkingContentElementRepository] for local runs, CI and retrieval benchmarks,
+ * selected by the `in-memory-rag` profile instead of `DrivineStore` and Neo4j.
+ *
+ * Documents are chunked and embedded exactly as the graph store does, then each chunk's
+ * vector goes into an [HnswIndex], its text into a [Bm25Index] for [textSearch], and the chunk
+ * with its persisted properties into a map. Documents and their sections are kept by ID too,
+ * for the repository's lookups. Parent links are the elements' own `parentId`s, so there are
+ * no relationships to create, and no entities are ever linked to chunks.
+ * [search] takes a [PropertyFilter] over chunk properties, such as the `version` filter.
+ * With [quantized] the graph is searched on int8 codes and the candidates rescored exactly.
+ *
+ * With a [snapshotFile] the store loads it at startup, if it exists, and writes it on close,
+ * so a store built once is back in seconds without re-embedding anything. A snapshot holds
+ * chunks only, so documents loaded from one are found by URI and by their chunks, but
+ * [findContentRootByUri] returns null for them until they are written again.
+ *
+ * Chunking and embedding happen outside the store's lock, so documents written concurrently
+ * are embedded concurrently; only the index updates are serialized.
+ */
+class InMemoryContentElementRepository(
+    private val embeddingService: EmbeddingService,
+    chunkerConfig: ContentChunker.Config,
+    chunkTransformer: ChunkTransformer,
+    private val m: Int,
+    private val efConstruction: Int,
+    private val efSearch: Int,
+    private val quantized: Boolean,
+    private val snapshotFile: Path?,
+) : ChunkingContentElementRepository, AutoCloseable {
+
+    private val logger = LoggerFactory.getLogger(InMemoryContentElementRepository::class.java)
+
+    private val chunker = ContentChunker(chunkerConfig, chunkTransformer)
+    private val objectMapper = jacksonObjectMapper()
+
+    private class StoredChunk(
+        val chunk: Chunk,
+        val properties: Map<String, Any?>,
+    ) {
+        val id: String get() = chunk.id
+        val text: String get() = chunk.text
+    }
+
+    private val chunks = ConcurrentHashMap<String, StoredChunk>()
+    private val roots = ConcurrentHashMap<String, List<String>>()
+    private val documents = ConcurrentHashMap<String, NavigableDocument>()
+
+    // Documents, their sections and saved elements that aren't chunks
+    private val elements = ConcurrentHashMap<String, ContentElement>()
+
+    @Volatile
+    private var index: HnswIndex? = null
+
+    private val textIndex = Bm25Index()
+
+    init {
+        if (snapshotFile != null && Files.exists(snapshotFile)) {
+            val (_, loadTime) = measureTimedValue { load(snapshotFile) }
+            logger.info("Loaded {} documents, {} chunks from {} in {}ms",
+                roots.size, chunks.size, snapshotFile, loadTime.inWholeMilliseconds)
+            index?.takeIf { it.quantized() != quantized }?.let {
+                logger.warn("Snapshot index has quantized={}; delete {} to rebuild with quantized={}",
+                    it.quantized(), snapshotFile, quantized)
+            }
+        }
+    }
+
+    override val name: String = "in-memory"
+
+    override val enhancers: List<RetrievableEnhancer> = emptyList()
+
+    override fun provision() {
+        // Nothing to create
+    }
+
+    override fun info(): ContentElementRepositoryInfo {
+        val chunkCount = chunks.size
+        val documentCount = roots.size
+        return ContentElementRepositoryInfoImpl(
+            chunkCount,
+            documentCount,
+            chunkCount + documentCount,
+            index != null,
+            snapshotFile != null,
+        )
+    }
+
+    override fun count(): Int = chunks.size + roots.size
+
+    override fun existsRootWithUri(uri: String): Boolean = roots.containsKey(uri)
+
+    override fun writeAndChunkDocument(root: NavigableDocument): List<String> {
+        val newChunks = chunker.chunk(root).toList()
+        val embeddings = embeddingService.embed(newChunks.map { it.text })
+        synchronized(this) {
+            deleteRootAndDescendants(root.uri)
+            if (newChunks.isNotEmpty()) {
+                val index = index ?: HnswIndex(embeddings[0].size, m, efConstruction, quantized).also { index = it }
+                newChunks.forEachIndexed { i, chunk -> addChunk(index, chunk, embeddings[i]) }
+            }
+            val ids = newChunks.map { it.id }
+            roots[root.uri] = ids
+            documents[root.uri] = root
+            elements[root.id] = root
+            root.descendants().forEach { elements[it.id] = it }
+            return ids
+        }
+    }
+
+    @Synchronized
+    override fun deleteRootAndDescendants(uri: String): DocumentDeletionResult? {
+        val ids = roots.remove(uri) ?: return null
+        ids.forEach { id ->
+            chunks.remove(id)
+            index?.remove(id)
+            textIndex.remove(id)
+        }
+        var sections = 0
+        documents.remove(uri)?.let { root ->
+            elements.remove(root.id)
+            root.descendants().forEach { if (elements.remove(it.id) != null) sections++ }
+        }
+        return DocumentDeletionResult(rootUri = uri, deletedCount = ids.size + sections + 1)
+    }
+
+    private fun addChunk(index: HnswIndex, chunk: Chunk, embedding: FloatArray) {
+        chunks[chunk.id] = StoredChunk(chunk, chunk.propertiesToPersist())
+        index.add(chunk.id, embedding)
+        textIndex.add(chunk.id, chunk.text)
+    }
+
+    override fun onNewRetrievables(retrievables: List<Retrievable>) {
+        // No enhancers to run
+    }
+
+    override fun commit() {
+        // Writes are visible as soon as they are made
+    }
+
+    override fun findContentRootByUri(uri: String): NavigableDocument? = documents[uri]
+
+    override fun findById(id: String): ContentElement? = chunks[id]?.chunk ?: elements[id]
+
+    override fun findAllChunksById(chunkIds: List<String>): Iterable<Chunk> =
+        chunkIds.mapNotNull { chunks[it]?.chunk }
+
+    override fun findChunksForEntity(entityId: String): List<Chunk> = emptyList()
+
+    /**
+     * Keep [element]; a chunk is embedded and becomes searchable.
+     */
+    override fun save(element: ContentElement): ContentElement {
+        if (element !is Chunk) {
+            elements[element.id] = element
+            return element
+        }
+        val embedding = embeddingService.embed(element.text)
+        synchronized(this) {
+            val index = index ?: HnswIndex(embedding.size, m, efConstruction, quantized).also { index = it }
+            addChunk(index, element, embedding)
+        }
+        return element
+    }
+
+    override fun createInternalRelationships(root: NavigableDocument) {
+        // Parents are found by parentId; there are no relationships to create
+    }
+
+    /**
+     * The [topK] chunks most similar to [query] whose properties match [filter].
+     */
+    fun search(query: String, topK: Int, filter: PropertyFilter?): List<DocsHit> {
+        val index = index ?: return emptyList()
+        val embedding = embeddingService.embed(query)
+        return index.search(embedding, topK, efSearch) { accepts(it, filter) }
+            .mapNotNull { hit(it.id(), it.score()) }
+    }
+
+    /**
+     * The [topK] chunks scoring highest for [query] by BM25 whose properties match [filter].
+     */
+    fun textSearch(query: String, topK: Int, filter: PropertyFilter?): List<DocsHit> =
+        textIndex.search(query, topK) { accepts(it, filter) }
+            .mapNotNull { hit(it.id(), it.score()) }
+
+    private fun accepts(id: String, filter: PropertyFilter?): Boolean =
+        filter == null || chunks[id]?.let { matches(filter, it.properties) } == true
+
+    private fun hit(id: String, score: Double): DocsHit? =
+        chunks[id]?.let { chunk ->
+            DocsHit(
+                chunk.id,
+                chunk.text,
+                chunk.properties["version"]?.toString() ?: VersionChunkTransformer.SUPPLEMENTARY,
+                score,
+            )
+        }
+
+    /**
+     * Write the store to [snapshotFile], replacing any earlier snapshot only once complete.
+     */
+    @Synchronized
+    fun snapshot() {
+        val file = snapshotFile ?: return
+        Files.createDirectories(file.toAbsolutePath().parent)
+        val temp = Files.createTempFile(file.toAbsolutePath().parent, file.fileName.toString(), ".tmp")
+        DataOutputStream(BufferedOutputStream(Files.newOutputStream(temp), BUFFER_SIZE)).use { out ->
+            out.writeInt(MAGIC)
+            out.writeInt(FORMAT)
+            out.writeInt(roots.size)
+            for ((uri, ids) in roots) {
+                out.writeUTF(uri)
+                out.writeInt(ids.size)
+                for (id in ids) {
+                    val stored = chunks.getValue(id)
+                    out.writeUTF(stored.id)
+                    writeString(out, stored.text)
+                    out.writeUTF(stored.chunk.parentId ?: "")
+                    writeString(out, objectMapper.writeValueAsString(stored.chunk.metadata))
+                    writeString(out, objectMapper.writeValueAsString(stored.properties))
+                }
+            }
+            val index = index
+            out.writeBoolean(index != null)
+            index?.writeTo(out)
+        }
+        Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE)
+        logger.info("Wrote {} documents, {} chunks to {}", roots.size, chunks.size, file)
+    }
+
+    private fun load(file: Path) {
+        DataInputStream(BufferedInputStream(Files.newInputStream(file), BUFFER_SIZE)).use { input ->
+            require(input.readInt() == MAGIC) { "$file is not an in-memory store snapshot" }
+            require(input.readInt() == FORMAT) { "$file is an older snapshot format; delete it to rebuild" }
+            repeat(input.readInt()) {
+                val uri = input.readUTF()
+                val ids = List(input.readInt()) {
+                    val id = input.readUTF()
+                    val text = readString(input)
+                    val parentId = input.readUTF()
+                    val metadata = objectMapper.readValue<Map<String, Any?>>(readString(input))
+                    val chunk = StoredChunk(
+                        Chunk(id = id, text = text, parentId = parentId, metadata = metadata),
+                        objectMapper.readValue<Map<String, Any?>>(readString(input)),
+                    )
+                    chunks[chunk.id] = chunk
+                    // The text index is cheap to rebuild, so it isn't part of the snapshot
+                    textIndex.add(chunk.id, chunk.text)
+                    chunk.id
+                }
+                roots[uri] = ids
+            }
+            if (input.readBoolean()) {
+                index = HnswIndex.readFrom(input)
+            }
+        }
+    }
+
+    override fun close() {
+        try {
+            snapshot()
+        } catch (e: Exception) {
+            logger.error("Could not write in-memory store snapshot to {}: {}", snapshotFile, e.message, e)
+        }
+    }
+
+    companion object {
+        private const val MAGIC = 0x47524147 // "GRAG"
+        private const val FORMAT = 2
+        private const val BUFFER_SIZE = 1 shl 20
+
+        // writeUTF is limited to 64 KB, which a chunk's text or properties can exceed
+        private fun writeString(out: DataOutputStream, value: String) {
+            val bytes = value.toByteArray(Charsets.UTF_8)
+            out.writeInt(bytes.size)
+            out.write(bytes)
+        }
+
+        private fun readString(input: DataInputStream): String =
+            String(input.readNBytes(input.readInt()), Charsets.UTF_8)
+
+        /**
+         * Evaluate [filter] against a chunk's properties, as the graph store does in Cypher:
+         * a comparison with a missing or non-numeric property doesn't match. The `when` covers
+         * every filter type without an `else`, so a new one fails the build rather than searches.
+         */
+        @JvmStatic
+        fun matches(filter: PropertyFilter, properties: Map<String, Any?>): Boolean = when (filter) {
+            is PropertyFilter.Eq -> properties[filter.key] == filter.value
+            is PropertyFilter.Ne -> properties[filter.key] != filter.value
+            is PropertyFilter.Gt -> compare(properties[filter.key], filter.value) { it > 0 }
+            is PropertyFilter.Gte -> compare(properties[filter.key], filter.value) { it >= 0 }
+            is PropertyFilter.Lt -> compare(properties[filter.key], filter.value) { it < 0 }
+            is PropertyFilter.Lte -> compare(properties[filter.key], filter.value) { it <= 0 }
+            is PropertyFilter.In -> properties[filter.key] in filter.values
+            is PropertyFilter.Nin -> properties[filter.key] !in filter.values
+            is PropertyFilter.Contains -> properties[filter.key]?.toString()?.contains(filter.value) == true
+            is PropertyFilter.StartsWith -> properties[filter.key]?.toString()?.startsWith(filter.value) == true
+            is PropertyFilter.EndsWith -> properties[filter.key]?.toString()?.endsWith(filter.value) == true
+            is PropertyFilter.And -> filter.filters.all { matches(it, properties) }
+            is PropertyFilter.Or -> filter.filters.any { matches(it, properties) }
+            is PropertyFilter.Not -> !matches(filter.filter, properties)
+        }
+
+        private inline fun compare(actual: Any?, expected: Number, test: (Int) -> Boolean): Boolean =
+            actual is Number && test(actual.toDouble().compareTo(expected.toDouble()))
+    }
+}
@@ -0,0 +1,116 @@
+package com.embabel.guide.rag
+
+import ai.djl.huggingface.tokenizers.HuggingFaceTokenizer
+import ai.onnxruntime.OnnxTensor
+import ai.onnxruntime.OrtEnvironment
+import ai.onnxruntime.OrtSession
+import org.slf4j.LoggerFactory
+import java.nio.file.Path
+import java.util.concurrent.ArrayBlockingQueue
+import kotlin.math.sqrt
+
+/**
+ * A fixed number of ONNX Runtime sessions over one sentence-transformers model, each able to
+ * embed a batch independently. A caller borrows an idle session for the length of one batch, so
+ * up to [size] batches run at once.
+ *
+ * Embeddings are the model's token states mean-pooled over the attention mask and L2-normalized,
+ * as sentence-transformers and the local embedding service compute them.
+ */
+class OnnxSessionPool(
+    modelDirectory: Path,
+    val size: Int,
+    intraOpThreads: Int,
+    interOpThreads: Int,
+) : AutoCloseable {
+
+    private val logger = LoggerFactory.getLogger(OnnxSessionPool::class.java)
+
+    private val environment = OrtEnvironment.getEnvironment()
+    private val tokenizer = HuggingFaceTokenizer.newInstance(
+        modelDirectory.resolve("tokenizer.json"),
+        mapOf("padding" to "true", "truncation" to "true", "maxLength" to MAX_TOKENS.toString()),
+    )
+    private val sessions: List<OrtSession>
+    private val idle: ArrayBlockingQueue<OrtSession>
+
+    init {
+        require(size > 0) { "size must be positive" }
+        val options = OrtSession.SessionOptions().apply {
+            setIntraOpNumThreads(intraOpThreads)
+            setInterOpNumThreads(interOpThreads)
+            setOptimizationLevel(OrtSession.SessionOptions.OptLevel.ALL_OPT)
+        }
+        val model = modelDirectory.resolve("model.onnx").toString()
+        sessions = List(size) { environment.createSession(model, options) }
+        idle = ArrayBlockingQueue(size, false, sessions)
+        logger.info(
+            "Opened {} ONNX sessions over {} ({} intra-op, {} inter-op threads each)",
+            size, modelDirectory, intraOpThreads, interOpThreads,
+        )
+    }
+
+    /**
+     * Embed [texts] on the next idle session, waiting for one if all are busy.
+     */
+    fun embed(texts: List<String>): List<FloatArray> {
+        if (texts.isEmpty()) return emptyList()
+        val session = idle.take()
+        try {
+            return run(session, texts)
+        } finally {
+            idle.put(session)
+        }
+    }
+
+    private fun run(session: OrtSession, texts: List<String>): List<FloatArray> {
+        val encodings = tokenizer.batchEncode(texts)
+        val ids = encodings.map { it.ids }.toTypedArray()
+        val mask = encodings.map { it.attentionMask }.toTypedArray()
+        val types = encodings.map { it.typeIds }.toTypedArray()
+        OnnxTensor.createTensor(environment, ids).use { idTensor ->
+            OnnxTensor.createTensor(environment, mask).use { maskTensor ->
+                OnnxTensor.createTensor(environment, types).use { typeTensor ->
+                    val inputs = buildMap {
+                        put("input_ids", idTensor)
+                        put("attention_mask", maskTensor)
+                        // Some exports of the model drop the token type input
+                        if ("token_type_ids" in session.inputNames) put("token_type_ids", typeTensor)
+                    }
+                    session.run(inputs).use { result ->
+                        @Suppress("UNCHECKED_CAST")
+                        val states = result.get(0).value as Array<Array<FloatArray>>
+                        return states.mapIndexed { i, tokens -> meanPool(tokens, mask[i]) }
+                    }
+                }
+            }
+        }
+    }
+
+    override fun close() {
+        sessions.forEach { it.close() }
+        tokenizer.close()
+    }
+
+    companion object {
+        const val MAX_TOKENS = 256
+
+        internal fun meanPool(tokens: Array<FloatArray>, mask: LongArray): FloatArray {
+            val pooled = FloatArray(tokens[0].size)
+            var count = 0
+            tokens.forEachIndexed { t, vector ->
+                if (mask[t] == 0L) return@forEachIndexed
+                count++
+                vector.forEachIndexed { d, value -> pooled[d] += value }
+            }
+            var norm = 0.0
+            for (d in pooled.indices) {
+                pooled[d] /= maxOf(count, 1)
+                norm += pooled[d] * pooled[d]
+            }
+            val scale = 1.0 / maxOf(sqrt(norm), 1e-12)
+            for (d in pooled.indices) pooled[d] = (pooled[d] * scale).toFloat()
+            return pooled
+        }
+    }
+}
@@ -0,0 +1,51 @@
+package com.embabel.guide.rag
+
+import com.embabel.common.ai.model.EmbeddingService
+import org.slf4j.LoggerFactory
+import java.util.concurrent.ExecutionException
+import java.util.concurrent.Executors
+
+/**
+ * [EmbeddingService] that splits each call into shards of [shardSize] texts and embeds them
+ * concurrently through [embedShard], typically [OnnxSessionPool.embed], which bounds how many
+ * run at once. The single-session service embeds one batch at a time on however many threads
+ * its one session uses; this keeps every core busy during ingestion.
+ *
+ * Model metadata comes from [delegate], which must be the same model [embedShard] runs so
+ * vectors from either are interchangeable, e.g. with those already in the store.
+ */
+class ParallelEmbeddingService(
+    private val delegate: EmbeddingService,
+    private val embedShard: (List<String>) -> List<FloatArray>,
+    private val shardSize: Int,
+) : EmbeddingService by delegate {
+
+    init {
+        require(shardSize > 0) { "shardSize must be positive" }
+    }
+
+    private val logger = LoggerFactory.getLogger(ParallelEmbeddingService::class.java)
+
+    override fun embed(text: String): FloatArray = embedShard(listOf(text)).first()
+
+    override fun embed(texts: List<String>): List<FloatArray> {
+        val shards = texts.chunked(shardSize)
+        if (shards.size <= 1) return embedShard(texts)
+        // Shards mostly wait for a session, so a virtual thread each is enough
+        Executors.newVirtualThreadPerTaskExecutor().use { executor ->
+            val futures = shards.map { shard -> executor.submit<List<FloatArray>> { embedShard(shard) } }
+            try {
+                return futures.flatMap { it.get() }
+            } catch (e: ExecutionException) {
+                futures.forEach { it.cancel(true) }
+                throw e.cause ?: e
+            } catch (e: InterruptedException) {
+                futures.forEach { it.cancel(true) }
+                Thread.currentThread().interrupt()
+                throw IllegalStateException("Interrupted while embedding", e)
+            } finally {
+                logger.debug("Embedded {} texts in {} shards", texts.size, shards.size)
+            }
+        }
+    }
+}
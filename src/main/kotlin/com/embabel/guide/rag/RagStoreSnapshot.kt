@@ -0,0 +1,387 @@
+package com.embabel.guide.rag
+
+import com.embabel.common.ai.model.EmbeddingService
+import com.embabel.guide.rag.BulkDocumentWriter.Companion.BASE_LABEL
+import org.drivine.manager.PersistenceManager
+import org.drivine.query.QuerySpecification
+import org.drivine.query.transform
+import org.slf4j.LoggerFactory
+import org.springframework.transaction.PlatformTransactionManager
+import org.springframework.transaction.support.TransactionTemplate
+import java.io.BufferedInputStream
+import java.io.BufferedOutputStream
+import java.io.DataInputStream
+import java.io.DataOutputStream
+import java.io.IOException
+import java.nio.file.Files
+import java.nio.file.Path
+import java.nio.file.StandardCopyOption
+import java.time.Duration
+import java.time.Instant
+import java.time.LocalDate
+import java.time.LocalDateTime
+import java.time.LocalTime
+import java.time.OffsetDateTime
+import java.time.OffsetTime
+import java.time.ZoneId
+import java.time.ZoneOffset
+import java.time.ZonedDateTime
+import java.time.temporal.Temporal
+
+/**
+ * Exports the whole RAG store to one binary file and imports it again, so a new node can be
+ * populated in seconds instead of fetching, parsing and embedding everything.
+ *
+ * The file holds every content element (documents, sections and chunks) with its labels,
+ * properties and parent, and each chunk's embedding as float32:
+ *
+ * ```
+ * header  magic, format, created-at millis, embedding model, dimensions
+ * node*   0x01, labels, id, properties (typed), parent id or "", embedding length, floats
+ * end     0x00, node count
+ * ```
+ *
+ * Embeddings are read from and written to the store's embedding property, whatever the
+ * [StoreSchema] finds it to be, so a snapshot moves between stores that name it differently.
+ * Embeddings are only meaningful to the model that made them, so import refuses a snapshot
+ * from a different model. Import merges on `id` through an [UnwindWriter]; it adds to the store
+ * rather than replacing it, and importing the same snapshot twice changes nothing.
+ */
+class RagStoreSnapshot(
+    private val persistenceManager: PersistenceManager,
+    transactionManager: PlatformTransactionManager,
+    private val schema: StoreSchema,
+    private val embeddingService: EmbeddingService,
+    private val batchSize: Int,
+) {
+
+    private val logger = LoggerFactory.getLogger(RagStoreSnapshot::class.java)
+
+    private val transactionTemplate = TransactionTemplate(transactionManager)
+    private val unwindWriter = UnwindWriter(persistenceManager, transactionManager, schema, batchSize)
+
+    data class ExportedNode(
+        val id: String,
+        val labels: List<String>,
+        val properties: Map<String, Any?>,
+        val parentId: String?,
+    )
+
+    /**
+     * What an export or import covered.
+     */
+    data class Summary(
+        val nodes: Long,
+        val embeddings: Long,
+        val bytes: Long,
+        val elapsed: Duration,
+    )
+
+    /**
+     * Write the store to [file], replacing any earlier snapshot only once complete.
+     *
+     * @throws IllegalArgumentException if a property has a type the snapshot can't hold; any
+     *   earlier snapshot is left in place
+     */
+    @Throws(IOException::class)
+    fun exportTo(file: Path): Summary {
+        val start = Instant.now()
+        val directory = file.toAbsolutePath().parent
+        Files.createDirectories(directory)
+        val temp = Files.createTempFile(directory, file.fileName.toString(), ".tmp")
+        var nodes = 0L
+        var embeddings = 0L
+        val embedding = schema.embeddingProperty()
+        val parentRelationship = schema.parentRelationship()
+        try {
+            DataOutputStream(BufferedOutputStream(Files.newOutputStream(temp), BUFFER_SIZE)).use { out ->
+                out.writeInt(MAGIC)
+                out.writeInt(FORMAT)
+                out.writeLong(start.toEpochMilli())
+                out.writeUTF(embeddingService.name)
+                out.writeInt(embeddingDimensions(embedding) ?: 0)
+                var after = ""
+                while (true) {
+                    val page = page(after, parentRelationship)
+                    for (node in page) {
+                        if (writeNode(out, node, embedding)) embeddings++
+                        nodes++
+                    }
+                    if (page.size < batchSize) break
+                    after = page.last().id
+                }
+                out.writeByte(END)
+                out.writeLong(nodes)
+            }
+        } catch (e: Exception) {
+            Files.deleteIfExists(temp)
+            throw e
+        }
+        Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE)
+        val summary = Summary(nodes, embeddings, Files.size(file), Duration.between(start, Instant.now()))
+        logger.info("Exported {} elements ({} embedded) to {}: {} KB in {}ms",
+            nodes, embeddings, file, summary.bytes / 1024, summary.elapsed.toMillis())
+        return summary
+    }
+
+    /**
+     * Merge the snapshot in [file] into the store.
+     *
+     * @throws IllegalStateException if the snapshot was embedded with another model
+     */
+    @Throws(IOException::class)
+    fun importFrom(file: Path): Summary {
+        val start = Instant.now()
+        var nodes = 0L
+        var embeddings = 0L
+        val parents = mutableListOf<UnwindWriter.ParentRow>()
+        val embeddingProperty = schema.embeddingProperty()
+        DataInputStream(BufferedInputStream(Files.newInputStream(file), BUFFER_SIZE)).use { input ->
+            if (input.readInt() != MAGIC) throw IOException("$file is not a RAG store snapshot")
+            val format = input.readInt()
+            // Format 2 added temporal values; a format 1 file simply has none
+            if (format !in 1..FORMAT) throw IOException("Unsupported RAG store snapshot format $format in $file")
+            val created = Instant.ofEpochMilli(input.readLong())
+            val model = input.readUTF()
+            val dimensions = input.readInt()
+            check(model == embeddingService.name) {
+                "Snapshot $file was embedded with $model, but this node embeds with ${embeddingService.name}"
+            }
+            logger.info("Importing {} from {} ({} dimensions)", file, created, dimensions)
+
+            val batch = mutableListOf<UnwindWriter.NodeRow>()
+            while (input.readByte() == NODE) {
+                val labels = List(input.readInt()) { input.readUTF() }
+                val id = input.readUTF()
+                val properties = HashMap<String, Any?>()
+                repeat(input.readInt()) { properties[input.readUTF()] = readValue(input) }
+                val parentId = input.readUTF()
+                val embedding = FloatArray(input.readInt()) { input.readFloat() }
+                if (embedding.isNotEmpty()) {
+                    properties[embeddingProperty] = embedding
+                    embeddings++
+                }
+                batch += UnwindWriter.NodeRow(labels, id, properties)
+                if (parentId.isNotEmpty()) parents += UnwindWriter.ParentRow(id, parentId)
+                nodes++
+                if (batch.size == batchSize) {
+                    unwindWriter.writeNodes(batch)
+                    batch.clear()
+                }
+            }
+            unwindWriter.writeNodes(batch)
+            val expected = input.readLong()
+            if (expected != nodes) throw IOException("Snapshot $file is truncated: read $nodes of $expected elements")
+        }
+        // Every node exists now, so each relationship finds both ends. A batch at a time, like
+        // the nodes, so a large snapshot isn't one huge transaction
+        parents.chunked(batchSize).forEach { unwindWriter.writeParents(it) }
+        val summary = Summary(nodes, embeddings, Files.size(file), Duration.between(start, Instant.now()))
+        logger.info("Imported {} elements ({} embedded) from {} in {}ms",
+            nodes, embeddings, file, summary.elapsed.toMillis())
+        return summary
+    }
+
+    private fun page(after: String, parentRelationship: String): List<ExportedNode> =
+        transactionTemplate.execute {
+            persistenceManager.query(
+                QuerySpecification
+                    .withStatement(
+                        """
+                        MATCH (n:$BASE_LABEL)
+                        WHERE n.id > ${'$'}after
+                        WITH n ORDER BY n.id LIMIT ${'$'}limit
+                        OPTIONAL MATCH (n)-[:${StoreSchema.quote(parentRelationship)}]->(p:$BASE_LABEL)
+                        WITH n, head(collect(p.id)) AS parentId
+                        // Single-map projection: .transform<T>() maps one map/scalar per row, not multiple columns.
+                        RETURN { id: n.id, labels: labels(n), properties: properties(n), parentId: parentId } AS node
+                        ORDER BY n.id
+                        """.trimIndent()
+                    )
+                    .bind(mapOf("after" to after, "limit" to batchSize))
+                    .transform<ExportedNode>()
+            )
+        } ?: emptyList()
+
+    private fun embeddingDimensions(embedding: String): Int? =
+        transactionTemplate.execute {
+            persistenceManager.query(
+                QuerySpecification
+                    .withStatement(
+                        """
+                        MATCH (n:$BASE_LABEL)
+                        WHERE n.${StoreSchema.quote(embedding)} IS NOT NULL
+                        RETURN size(n.${StoreSchema.quote(embedding)}) AS dimensions
+                        LIMIT 1
+                        """.trimIndent()
+                    )
+                    .transform<Long>()
+            ).firstOrNull()?.toInt()
+        }
+
+    /**
+     * @return whether the node carried an embedding
+     */
+    private fun writeNode(out: DataOutputStream, node: ExportedNode, embeddingProperty: String): Boolean {
+        out.writeByte(NODE.toInt())
+        out.writeInt(node.labels.size)
+        node.labels.forEach { out.writeUTF(it) }
+        out.writeUTF(node.id)
+        val properties = node.properties.filterKeys { it != embeddingProperty && it != "id" }
+        out.writeInt(properties.size)
+        properties.forEach { (key, value) ->
+            out.writeUTF(key)
+            try {
+                writeValue(out, value)
+            } catch (e: IllegalArgumentException) {
+                throw IllegalArgumentException("Property '$key' of ${node.id}: ${e.message}", e)
+            }
+        }
+        out.writeUTF(node.parentId ?: "")
+        val embedding = node.properties[embeddingProperty] as? List<*>
+        out.writeInt(embedding?.size ?: 0)
+        embedding?.forEach { out.writeFloat((it as Number).toFloat()) }
+        return embedding != null
+    }
+
+    companion object {
+        private const val MAGIC = 0x47525353 // "GRSS"
+        private const val FORMAT = 2
+        private const val BUFFER_SIZE = 1 shl 20
+
+        private const val END: Int = 0
+        private const val NODE: Byte = 1
+
+        private const val NULL: Int = 0
+        private const val STRING: Int = 1
+        private const val LONG: Int = 2
+        private const val DOUBLE: Int = 3
+        private const val BOOLEAN: Int = 4
+        private const val LIST: Int = 5
+        private const val TEMPORAL: Int = 6
+
+        // Kinds of TEMPORAL value, one per Neo4j temporal type, plus Instant
+        private const val DATE_TIME: Int = 1
+        private const val LOCAL_DATE_TIME: Int = 2
+        private const val DATE: Int = 3
+        private const val LOCAL_TIME: Int = 4
+        private const val TIME: Int = 5
+        private const val INSTANT: Int = 6
+
+        private const val MILLIS_PER_DAY = 86_400_000L
+        private const val NANOS_PER_MILLI = 1_000_000L
+
+        /**
+         * Write a property value with a type tag. Temporal values are written as their kind and
+         * epoch milliseconds (milliseconds of the day for times), with the zone or offset where
+         * they have one, so they come back as the same type; anything finer than a millisecond
+         * is dropped.
+         *
+         * @throws IllegalArgumentException for a value of any other type, rather than writing
+         *   something that would come back as a different type
+         */
+        @JvmStatic
+        fun writeValue(out: DataOutputStream, value: Any?) {
+            when (value) {
+                null -> out.writeByte(NULL)
+                is Boolean -> {
+                    out.writeByte(BOOLEAN)
+                    out.writeBoolean(value)
+                }
+                is Byte, is Short, is Int, is Long -> {
+                    out.writeByte(LONG)
+                    out.writeLong((value as Number).toLong())
+                }
+                is Float, is Double -> {
+                    out.writeByte(DOUBLE)
+                    out.writeDouble((value as Number).toDouble())
+                }
+                is Collection<*> -> {
+                    out.writeByte(LIST)
+                    out.writeInt(value.size)
+                    value.forEach { writeValue(out, it) }
+                }
+                is CharSequence, is Char -> {
+                    // writeUTF is limited to 64 KB, which a section's text can exceed
+                    val bytes = value.toString().toByteArray(Charsets.UTF_8)
+                    out.writeByte(STRING)
+                    out.writeInt(bytes.size)
+                    out.write(bytes)
+                }
+                is Temporal -> writeTemporal(out, value)
+                else -> throw IllegalArgumentException(
+                    "Cannot write a ${value.javaClass.name} property to a RAG store snapshot"
+                )
+            }
+        }
+
+        private fun writeTemporal(out: DataOutputStream, value: Temporal) {
+            out.writeByte(TEMPORAL)
+            when (value) {
+                is ZonedDateTime -> {
+                    out.writeByte(DATE_TIME)
+                    out.writeLong(value.toInstant().toEpochMilli())
+                    out.writeUTF(value.zone.id)
+                }
+                is OffsetDateTime -> {
+                    // Neo4j keeps a fixed offset as a zone, and returns it as a ZonedDateTime
+                    out.writeByte(DATE_TIME)
+                    out.writeLong(value.toInstant().toEpochMilli())
+                    out.writeUTF(value.offset.id)
+                }
+                is LocalDateTime -> {
+                    out.writeByte(LOCAL_DATE_TIME)
+                    out.writeLong(value.toInstant(ZoneOffset.UTC).toEpochMilli())
+                }
+                is LocalDate -> {
+                    out.writeByte(DATE)
+                    out.writeLong(value.toEpochDay() * MILLIS_PER_DAY)
+                }
+                is LocalTime -> {
+                    out.writeByte(LOCAL_TIME)
+                    out.writeLong(value.toNanoOfDay() / NANOS_PER_MILLI)
+                }
+                is OffsetTime -> {
+                    out.writeByte(TIME)
+                    out.writeLong(value.toLocalTime().toNanoOfDay() / NANOS_PER_MILLI)
+                    out.writeInt(value.offset.totalSeconds)
+                }
+                is Instant -> {
+                    out.writeByte(INSTANT)
+                    out.writeLong(value.toEpochMilli())
+                }
+                else -> throw IllegalArgumentException(
+                    "Cannot write a ${value.javaClass.name} property to a RAG store snapshot"
+                )
+            }
+        }
+
+        private fun readTemporal(input: DataInputStream): Temporal = when (val kind = input.readByte().toInt()) {
+            DATE_TIME -> {
+                val instant = Instant.ofEpochMilli(input.readLong())
+                ZonedDateTime.ofInstant(instant, ZoneId.of(input.readUTF()))
+            }
+            LOCAL_DATE_TIME -> LocalDateTime.ofInstant(Instant.ofEpochMilli(input.readLong()), ZoneOffset.UTC)
+            DATE -> LocalDate.ofEpochDay(Math.floorDiv(input.readLong(), MILLIS_PER_DAY))
+            LOCAL_TIME -> LocalTime.ofNanoOfDay(input.readLong() * NANOS_PER_MILLI)
+            TIME -> {
+                val time = LocalTime.ofNanoOfDay(input.readLong() * NANOS_PER_MILLI)
+                OffsetTime.of(time, ZoneOffset.ofTotalSeconds(input.readInt()))
+            }
+            INSTANT -> Instant.ofEpochMilli(input.readLong())
+            else -> throw IOException("Unknown temporal kind $kind in RAG store snapshot")
+        }
+
+        @JvmStatic
+        fun readValue(input: DataInputStream): Any? = when (val tag = input.readByte().toInt()) {
+            NULL -> null
+            BOOLEAN -> input.readBoolean()
+            LONG -> input.readLong()
+            DOUBLE -> input.readDouble()
+            LIST -> List(input.readInt()) { readValue(input) }
+            STRING -> String(input.readNBytes(input.readInt()), Charsets.UTF_8)
+            TEMPORAL -> readTemporal(input)
+            else -> throw IOException("Unknown property type $tag in RAG store snapshot")
+        }
+    }
+}
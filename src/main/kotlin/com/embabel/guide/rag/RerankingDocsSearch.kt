@@ -0,0 +1,34 @@
+package com.embabel.guide.rag
+
+import org.slf4j.LoggerFactory
+
+/**
+ * Fetches [candidates] passages from [delegate] and keeps the ones the [scorer] ranks highest,
+ * so the LLM reads a few passages that answer the question rather than many that resemble it.
+ *
+ * The hits carry the scorer's score. If scoring fails, the delegate's own top passages are
+ * returned instead.
+ */
+class RerankingDocsSearch(
+    private val delegate: DocsSearch,
+    private val scorer: (String, List<String>) -> FloatArray,
+    private val candidates: Int,
+) : DocsSearch {
+
+    private val logger = LoggerFactory.getLogger(RerankingDocsSearch::class.java)
+
+    override fun search(query: String, topK: Int): List<DocsHit> {
+        val hits = delegate.search(query, maxOf(candidates, topK))
+        if (hits.size <= 1) return hits
+        val scores = try {
+            scorer(query, hits.map { it.text })
+        } catch (e: Exception) {
+            logger.warn("Reranking failed, keeping retrieval order: {}", e.message)
+            return hits.take(topK)
+        }
+        return hits.indices
+            .sortedByDescending { scores[it] }
+            .take(topK)
+            .map { hits[it].copy(score = scores[it].toDouble()) }
+    }
+}
@@ -0,0 +1,110 @@
+package com.embabel.guide.rag
+
+import com.embabel.agent.rag.ingestion.ChunkTransformer
+import com.embabel.agent.rag.ingestion.ContentChunker
+import com.embabel.agent.rag.model.LeafSection
+import com.embabel.agent.rag.model.NavigableDocument
+import com.embabel.common.ai.model.EmbeddingService
+import com.embabel.guide.rag.BulkDocumentWriter.Companion.BASE_LABEL
+import com.embabel.guide.rag.VersionPartitions.Companion.CHUNK_LABEL
+import org.drivine.manager.PersistenceManager
+import org.drivine.query.QuerySpecification
+import org.slf4j.LoggerFactory
+import org.springframework.transaction.PlatformTransactionManager
+import org.springframework.transaction.support.TransactionTemplate
+
+/**
+ * Updates a stored document section by section, for [SnapshotRefresher]: sections whose
+ * content changed get new chunks, sections that are gone are deleted with their chunks, and
+ * every other section keeps its node and its chunks, IDs and embeddings included.
+ *
+ * A changed section keeps its stored node, and so its place in the document; only its
+ * properties are updated. Nodes and chunks are written as [UnwindWriter] rows built from the
+ * library's element model, as [BulkDocumentWriter] does, and the whole update is one
+ * transaction, so a failure leaves the stored document as it was.
+ */
+class SectionReplacer(
+    private val persistenceManager: PersistenceManager,
+    transactionManager: PlatformTransactionManager,
+    private val schema: StoreSchema,
+    private val embeddingService: EmbeddingService,
+    chunkerConfig: ContentChunker.Config,
+    chunkTransformer: ChunkTransformer,
+    batchSize: Int,
+) {
+
+    private val logger = LoggerFactory.getLogger(SectionReplacer::class.java)
+
+    private val transactionTemplate = TransactionTemplate(transactionManager)
+    private val unwindWriter = UnwindWriter(persistenceManager, transactionManager, schema, batchSize)
+    private val chunker = ContentChunker(chunkerConfig, chunkTransformer)
+
+    /**
+     * @param document the re-read document
+     * @param changed  stored section ID → the re-read section replacing its content
+     * @param removed  stored IDs of sections the re-read document no longer has
+     * @return false, having written nothing, if some chunk of [document] doesn't belong to a
+     *   single leaf section, so its chunks can't be divided by section
+     */
+    fun replace(document: NavigableDocument, changed: Map<String, LeafSection>, removed: Collection<String>): Boolean {
+        val chunks = chunker.chunk(document).toList()
+        val leafIds = document.descendants().filterIsInstance<LeafSection>().map { it.id }.toSet()
+        if (chunks.any { it.parentId !in leafIds }) {
+            logger.info("Chunks of {} span sections; it must be replaced whole", document.uri)
+            return false
+        }
+        val storedIdOf = changed.entries.associate { (storedId, section) -> section.id to storedId }
+        val changedChunks = chunks.filter { it.parentId in storedIdOf }
+        val embeddings = embeddingService.embed(changedChunks.map { it.text })
+        val embedding = schema.embeddingProperty()
+
+        val nodes = changed.map { (storedId, section) ->
+            // The stored node keeps its ID and parent; only what it says changes
+            UnwindWriter.NodeRow(
+                labels = section.labels().sorted(),
+                id = storedId,
+                properties = section.propertiesToPersist() - PARENT_ID + (ID to storedId),
+            )
+        } + changedChunks.mapIndexed { i, chunk ->
+            val parentId = storedIdOf.getValue(chunk.parentId!!)
+            UnwindWriter.NodeRow(
+                labels = chunk.labels().sorted(),
+                id = chunk.id,
+                properties = chunk.propertiesToPersist() + (PARENT_ID to parentId) + (embedding to embeddings[i]),
+            )
+        }
+        val parents = changedChunks.map { UnwindWriter.ParentRow(it.id, storedIdOf.getValue(it.parentId!!)) }
+
+        val deleteChunks = deleteChunks(schema.parentRelationship())
+        transactionTemplate.executeWithoutResult {
+            delete(deleteChunks, changed.keys + removed)
+            delete(DELETE_SECTIONS, removed)
+            unwindWriter.write(nodes, parents)
+        }
+        logger.info("Replaced {} sections of {} with {} chunks and deleted {}; kept the rest",
+            changed.size, document.uri, changedChunks.size, removed.size)
+        return true
+    }
+
+    private fun delete(cypher: String, sectionIds: Collection<String>) {
+        if (sectionIds.isEmpty()) return
+        persistenceManager.execute(QuerySpecification.withStatement(cypher).bind(mapOf("ids" to sectionIds.toList())))
+    }
+
+    companion object {
+        private const val ID = "id"
+        private const val PARENT_ID = "parentId"
+
+        private fun deleteChunks(parentRelationship: String) = """
+            UNWIND ${'$'}ids AS id
+            MATCH (c:$CHUNK_LABEL)-[:${StoreSchema.quote(parentRelationship)}]->(:$BASE_LABEL {id: id})
+            DETACH DELETE c
+            """.trimIndent()
+
+        private val DELETE_SECTIONS = """
+            UNWIND ${'$'}ids AS id
+            MATCH (s:$BASE_LABEL {id: id})
+            DETACH DELETE s
+            """.trimIndent()
+    }
+}
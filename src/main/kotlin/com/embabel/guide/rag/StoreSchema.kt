@@ -0,0 +1,105 @@
+package com.embabel.guide.rag
+
+import com.embabel.guide.rag.BulkDocumentWriter.Companion.BASE_LABEL
+import org.drivine.manager.PersistenceManager
+import org.drivine.query.QuerySpecification
+import org.drivine.query.transform
+import org.slf4j.LoggerFactory
+import org.springframework.transaction.PlatformTransactionManager
+import org.springframework.transaction.support.TransactionTemplate
+
+/**
+ * The parts of the graph store's schema that Cypher written here depends on but the library
+ * doesn't expose: the chunk property holding the embedding, and the relationship from a content
+ * element to its parent. Both are read from the store rather than assumed: the property from the
+ * vector index the store created over chunks, which [ChunkVectorSearch] queries, and the
+ * relationship from a stored element whose `parentId` names the node at its other end.
+ *
+ * What is found is kept. Until the store has an index or a child element (nothing provisioned or
+ * ingested yet) the library's current names, [DEFAULT_EMBEDDING] and [DEFAULT_PARENT_RELATIONSHIP],
+ * are used and the store is asked again next time.
+ */
+class StoreSchema(
+    private val persistenceManager: PersistenceManager,
+    transactionManager: PlatformTransactionManager,
+) {
+
+    private val logger = LoggerFactory.getLogger(StoreSchema::class.java)
+
+    private val transactionTemplate = TransactionTemplate(transactionManager)
+
+    /**
+     * The store's vector index over chunk embeddings and the property it indexes.
+     */
+    data class VectorIndex(val name: String, val property: String)
+
+    @Volatile
+    private var vectorIndex: VectorIndex? = null
+
+    @Volatile
+    private var parentRelationship: String? = null
+
+    /**
+     * The store's vector index over chunk embeddings, or null if it hasn't created one yet.
+     */
+    fun vectorIndex(): VectorIndex? {
+        vectorIndex?.let { return it }
+        val found = query<VectorIndex>(
+            """
+            SHOW INDEXES YIELD name, type, labelsOrTypes, properties, state
+            WHERE type = 'VECTOR' AND state = 'ONLINE' AND size(properties) = 1
+              AND any(label IN labelsOrTypes WHERE label IN ${'$'}labels)
+            // Single-map projection: .transform<T>() maps one map/scalar per row, not multiple columns.
+            RETURN { name: name, property: properties[0] } AS index
+            ORDER BY CASE WHEN ${'$'}chunk IN labelsOrTypes THEN 0 ELSE 1 END, name
+            """,
+            mapOf(
+                "labels" to listOf(VersionPartitions.CHUNK_LABEL, BASE_LABEL),
+                "chunk" to VersionPartitions.CHUNK_LABEL,
+            ),
+        ) ?: return null
+        logger.info("Chunk embeddings are in property '{}', indexed by {}", found.property, found.name)
+        vectorIndex = found
+        return found
+    }
+
+    /**
+     * Property holding a chunk's embedding.
+     */
+    fun embeddingProperty(): String = vectorIndex()?.property ?: DEFAULT_EMBEDDING
+
+    /**
+     * Type of the relationship from a content element to its parent.
+     */
+    fun parentRelationship(): String {
+        parentRelationship?.let { return it }
+        val found = query<String>(
+            """
+            MATCH (n:$BASE_LABEL)-[r]->(p:$BASE_LABEL)
+            WHERE n.parentId IS NOT NULL AND p.id = n.parentId
+            RETURN type(r)
+            LIMIT 1
+            """,
+            emptyMap(),
+        ) ?: return DEFAULT_PARENT_RELATIONSHIP
+        logger.info("Content elements link to their parents with {}", found)
+        parentRelationship = found
+        return found
+    }
+
+    private inline fun <reified T> query(cypher: String, parameters: Map<String, Any?>): T? =
+        transactionTemplate.execute {
+            persistenceManager.query(
+                QuerySpecification.withStatement(cypher.trimIndent()).bind(parameters).transform<T>()
+            ).firstOrNull()
+        }
+
+    companion object {
+        const val DEFAULT_EMBEDDING = "embedding"
+        const val DEFAULT_PARENT_RELATIONSHIP = "HAS_PARENT"
+
+        /** [name] as a Cypher identifier, for labels, relationship types and property keys. */
+        @JvmStatic
+        fun quote(name: String): String = "`" + name.replace("`", "``") + "`"
+    }
+}
@@ -0,0 +1,91 @@
+package com.embabel.guide.rag
+
+import com.embabel.guide.rag.BulkDocumentWriter.Companion.BASE_LABEL
+import org.drivine.manager.PersistenceManager
+import org.drivine.query.QuerySpecification
+import org.springframework.transaction.PlatformTransactionManager
+import org.springframework.transaction.support.TransactionTemplate
+
+/**
+ * Writes content element nodes and their parent relationships as `UNWIND` statements of up to
+ * [batchSize] rows. Each call runs all its statements in one transaction, joining the caller's
+ * if there is one, so a failure leaves none of them committed. Rows are merged on `id`, so
+ * writing the same rows again after an interruption is safe.
+ */
+class UnwindWriter(
+    private val persistenceManager: PersistenceManager,
+    transactionManager: PlatformTransactionManager,
+    private val schema: StoreSchema,
+    private val batchSize: Int,
+) {
+
+    init {
+        require(batchSize > 0) { "batchSize must be positive" }
+    }
+
+    private val transactionTemplate = TransactionTemplate(transactionManager)
+
+    data class NodeRow(val labels: List<String>, val id: String, val properties: Map<String, Any?>)
+
+    data class ParentRow(val id: String, val parentId: String)
+
+    /**
+     * Write [nodes], then the relationships in [parents] between them.
+     *
+     * @return the number of statements run
+     */
+    fun write(nodes: List<NodeRow>, parents: List<ParentRow>): Int {
+        val relationship = schema.parentRelationship()
+        // Parents are created with their labels before any relationship refers to them
+        return inTransaction { nodeStatements(nodes) + parentStatements(parents, relationship) }
+    }
+
+    /**
+     * @return the number of statements run
+     */
+    fun writeNodes(rows: List<NodeRow>): Int = inTransaction { nodeStatements(rows) }
+
+    /**
+     * Nodes at both ends must already exist.
+     *
+     * @return the number of statements run
+     */
+    fun writeParents(rows: List<ParentRow>): Int {
+        val relationship = schema.parentRelationship()
+        return inTransaction { parentStatements(rows, relationship) }
+    }
+
+    private fun nodeStatements(rows: List<NodeRow>): Int =
+        rows.groupBy { it.labels.sorted() }.entries.sumOf { (labels, rows) -> nodeStatements(labels, rows) }
+
+    private fun nodeStatements(labels: List<String>, rows: List<NodeRow>): Int {
+        // Labels can't be parameters, so there is one statement shape per label set
+        val setLabels = if (labels.isEmpty()) "" else ", n" + labels.joinToString("") { ":`${it.replace("`", "")}`" }
+        val cypher = """
+            UNWIND ${'$'}rows AS row
+            MERGE (n:$BASE_LABEL {id: row.id})
+            SET n += row.properties$setLabels
+            """.trimIndent()
+        val batches = rows.chunked(batchSize)
+        batches.forEach { batch -> execute(cypher, batch.map { mapOf("id" to it.id, "properties" to it.properties) }) }
+        return batches.size
+    }
+
+    private fun parentStatements(rows: List<ParentRow>, relationship: String): Int {
+        val cypher = """
+            UNWIND ${'$'}rows AS row
+            MATCH (child:$BASE_LABEL {id: row.id}), (parent:$BASE_LABEL {id: row.parentId})
+            MERGE (child)-[:${StoreSchema.quote(relationship)}]->(parent)
+            """.trimIndent()
+        val batches = rows.chunked(batchSize)
+        batches.forEach { batch -> execute(cypher, batch.map { mapOf("id" to it.id, "parentId" to it.parentId) }) }
+        return batches.size
+    }
+
+    private fun inTransaction(statements: () -> Int): Int =
+        transactionTemplate.execute { statements() }!!
+
+    private fun execute(cypher: String, rows: List<Map<String, Any?>>) {
+        persistenceManager.execute(QuerySpecification.withStatement(cypher).bind(mapOf("rows" to rows)))
+    }
+}
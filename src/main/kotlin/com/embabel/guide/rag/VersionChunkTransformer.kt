@@ -1,8 +1,10 @@
 package com.embabel.guide.rag
 
+import com.embabel.agent.filter.PropertyFilter
 import com.embabel.agent.rag.ingestion.AbstractChunkTransformer
 import com.embabel.agent.rag.ingestion.ChunkTransformationContext
 import com.embabel.agent.rag.model.Chunk
+import com.embabel.guide.ContentConfig
 import com.embabel.guide.GuideProperties
 
 /**
@@ -18,21 +20,33 @@ class VersionChunkTransformer(
 ) : AbstractChunkTransformer() {
 
     override fun additionalMetadata(chunk: Chunk, context: ChunkTransformationContext): Map<String, Any> {
-        val uri = context.document?.uri ?: return mapOf("version" to SUPPLEMENTARY)
-        val baseUrl = guideProperties.content.versioned.baseUrl
-
-        if (uri.startsWith(baseUrl)) {
-            val afterBase = uri.removePrefix(baseUrl).trimEnd('/')
-            val version = afterBase.split("/").firstOrNull()
-            if (!version.isNullOrBlank()) {
-                return mapOf("version" to version)
-            }
-        }
-
-        return mapOf("version" to SUPPLEMENTARY)
+        return mapOf("version" to versionOf(context.document?.uri, guideProperties.content.versioned.baseUrl))
     }
 
     companion object {
         const val SUPPLEMENTARY = "supplementary"
+
+        /**
+         * The docs version a document URI belongs to: the first path segment after [baseUrl],
+         * or [SUPPLEMENTARY] for anything else.
+         */
+        @JvmStatic
+        fun versionOf(uri: String?, baseUrl: String): String {
+            if (uri != null && uri.startsWith(baseUrl)) {
+                val version = uri.removePrefix(baseUrl).trimEnd('/').split("/").firstOrNull()
+                if (!version.isNullOrBlank()) return version
+            }
+            return SUPPLEMENTARY
+        }
+
+        /**
+         * Filter for chunks of the active version and supplementary content, or null when no
+         * version is configured.
+         */
+        @JvmStatic
+        fun activeVersionFilter(content: ContentConfig): PropertyFilter? {
+            val version = content.activeVersion ?: return null
+            return PropertyFilter.In("version", listOf(version, SUPPLEMENTARY))
+        }
     }
 }
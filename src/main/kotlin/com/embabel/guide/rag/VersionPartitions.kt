@@ -0,0 +1,164 @@
+package com.embabel.guide.rag
+
+import com.embabel.common.ai.model.EmbeddingService
+import com.embabel.guide.ContentConfig
+import org.drivine.manager.PersistenceManager
+import org.drivine.query.QuerySpecification
+import org.drivine.query.transform
+import org.slf4j.LoggerFactory
+import org.springframework.boot.context.event.ApplicationReadyEvent
+import org.springframework.context.event.EventListener
+import org.springframework.transaction.PlatformTransactionManager
+import org.springframework.transaction.support.TransactionTemplate
+
+/**
+ * Keeps versioned documentation chunks in one partition per version, so a search for the
+ * active version scores only that version's chunks and the supplementary material rather than
+ * every version's chunks followed by a `version` filter.
+ *
+ * A partition is a label on the chunks carrying that `version` property (stamped by
+ * [VersionChunkTransformer]) plus a vector index over that label alone. [refresh] labels chunks
+ * written since it last ran and creates missing indexes; it is idempotent and cheap when nothing
+ * changed, and runs at startup and after each ingestion. [search] queries the active version's
+ * and the supplementary partition's indexes and merges their hits by score.
+ *
+ * Chunks of versions dropped from `content.versioned.versions` keep their labels and indexes
+ * but are never searched.
+ */
+class VersionPartitions(
+    private val persistenceManager: PersistenceManager,
+    transactionManager: PlatformTransactionManager,
+    private val schema: StoreSchema,
+    private val embeddingService: EmbeddingService,
+    private val content: ContentConfig,
+) : DocsSearch {
+
+    private val logger = LoggerFactory.getLogger(VersionPartitions::class.java)
+
+    private val transactionTemplate = TransactionTemplate(transactionManager)
+
+    /**
+     * Versions whose partitions are searched: the active version, if any, and supplementary content.
+     */
+    fun searchedVersions(): List<String> =
+        listOfNotNull(content.activeVersion) + VersionChunkTransformer.SUPPLEMENTARY
+
+    /**
+     * Label unpartitioned chunks of every configured version and create any missing vector index.
+     */
+    fun refresh() {
+        val embedding = StoreSchema.quote(schema.embeddingProperty())
+        val dimensions = embeddingDimensions(embedding)
+        if (dimensions == null) {
+            logger.info("No embedded chunks yet; version partitions will be created after ingestion")
+            return
+        }
+        for (version in content.versioned.versions + VersionChunkTransformer.SUPPLEMENTARY) {
+            val label = label(version)
+            val labelled = transactionTemplate.execute {
+                persistenceManager.query(
+                    QuerySpecification
+                        .withStatement(
+                            """
+                            MATCH (c:$CHUNK_LABEL)
+                            WHERE c.version = ${'$'}version AND NOT c:`$label`
+                            SET c:`$label`
+                            RETURN count(c) AS labelled
+                            """.trimIndent()
+                        )
+                        .bind(mapOf("version" to version))
+                        .transform<Long>()
+                ).single()
+            }
+            // Index DDL can't share a transaction with writes, and its options can't be parameters
+            transactionTemplate.executeWithoutResult {
+                persistenceManager.execute(
+                    QuerySpecification.withStatement(
+                        """
+                        CREATE VECTOR INDEX `${indexName(version)}` IF NOT EXISTS
+                        FOR (c:`$label`) ON (c.$embedding)
+                        OPTIONS { indexConfig: {
+                            `vector.dimensions`: $dimensions,
+                            `vector.similarity_function`: 'cosine'
+                        } }
+                        """.trimIndent()
+                    )
+                )
+            }
+            logger.info("Version partition {}: labelled {} new chunks", version, labelled)
+        }
+    }
+
+    @EventListener(ApplicationReadyEvent::class)
+    fun refreshOnStartup() {
+        try {
+            refresh()
+        } catch (e: Exception) {
+            logger.error("Could not refresh version partitions: {}", e.message, e)
+        }
+    }
+
+    /**
+     * The [topK] chunks most similar to [query] across the searched partitions.
+     */
+    override fun search(query: String, topK: Int): List<DocsHit> {
+        val embedding = embeddingService.embed(query)
+        return searchedVersions()
+            .flatMap { version -> searchPartition(version, embedding, topK) }
+            .sortedByDescending { it.score }
+            .take(topK)
+    }
+
+    private fun searchPartition(version: String, embedding: FloatArray, topK: Int): List<DocsHit> =
+        try {
+            transactionTemplate.execute {
+                persistenceManager.query(
+                    QuerySpecification
+                        .withStatement(
+                            """
+                            CALL db.index.vector.queryNodes(${'$'}index, ${'$'}topK, ${'$'}embedding)
+                            YIELD node, score
+                            // Single-map projection: .transform<T>() maps one map/scalar per row, not multiple columns.
+                            RETURN { id: node.id, text: node.text, version: node.version, score: score } AS hit
+                            """.trimIndent()
+                        )
+                        .bind(mapOf("index" to indexName(version), "topK" to topK, "embedding" to embedding))
+                        .transform<DocsHit>()
+                )
+            } ?: emptyList()
+        } catch (e: Exception) {
+            // Typically the partition has no chunks yet, so its index hasn't been created
+            logger.warn("Cannot search version partition {}: {}", version, e.message)
+            emptyList()
+        }
+
+    private fun embeddingDimensions(embedding: String): Int? =
+        transactionTemplate.execute {
+            persistenceManager.query(
+                QuerySpecification
+                    .withStatement(
+                        """
+                        MATCH (c:$CHUNK_LABEL)
+                        WHERE c.$embedding IS NOT NULL
+                        RETURN size(c.$embedding) AS dimensions
+                        LIMIT 1
+                        """.trimIndent()
+                    )
+                    .transform<Long>()
+            ).firstOrNull()?.toInt()
+        }
+
+    companion object {
+        const val CHUNK_LABEL = "Chunk"
+
+        /** Label for a version's partition, e.g. `Version_0_3_1` for `0.3.1`. */
+        @JvmStatic
+        fun label(version: String): String = "Version_" + sanitize(version)
+
+        /** Vector index over a version's partition. */
+        @JvmStatic
+        fun indexName(version: String): String = "chunk_embedding_" + sanitize(version).lowercase()
+
+        private fun sanitize(version: String) = version.replace(Regex("[^A-Za-z0-9]"), "_")
+    }
+}
@@ -0,0 +1,108 @@
+package com.embabel.guide
+
+import com.embabel.common.ai.model.EmbeddingService
+import com.embabel.guide.chat.model.MessageCategory
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry
+import org.junit.jupiter.api.Assertions.*
+import org.junit.jupiter.api.Test
+import org.mockito.ArgumentMatchers.anyList
+import org.mockito.ArgumentMatchers.anyString
+import org.mockito.Mockito.*
+
+class LocalMessageClassifierTest {
+
+    /** Bag of words over a tiny vocabulary: messages sharing words are similar. */
+    private val vocabulary = listOf("thanks", "hello", "switch", "persona", "how", "agent", "goal", "example")
+
+    private fun bagOfWords(text: String): FloatArray {
+        val words = text.lowercase().split(Regex("\\W+"))
+        return FloatArray(vocabulary.size) { i -> words.count { it == vocabulary[i] }.toFloat() }
+    }
+
+    private val embeddingService = mock(EmbeddingService::class.java).also { service ->
+        `when`(service.embed(anyString())).thenAnswer { bagOfWords(it.getArgument(0)) }
+        `when`(service.embed(anyList<String>())).thenAnswer { invocation ->
+            invocation.getArgument<List<String>>(0).map { bagOfWords(it) }
+        }
+    }
+
+    private val examples = mapOf(
+        MessageCategory.CONVERSATIONAL to listOf("thanks", "thanks a lot", "hello"),
+        MessageCategory.COMMAND to listOf("switch persona", "switch to another persona", "persona please"),
+        MessageCategory.INFORMATIONAL to listOf("how does an agent work", "how do I define a goal", "goal example"),
+    )
+
+    private fun classifier(minConfidence: Double = 0.8, minSimilarity: Double = 0.75) =
+        LocalMessageClassifier(embeddingService, examples, 3, minConfidence, minSimilarity)
+
+    @Test
+    fun `close matches are decided locally`() {
+        val classifier = classifier()
+
+        assertEquals(MessageCategory.COMMAND, classifier.classify("please switch my persona")?.category)
+        assertEquals(MessageCategory.INFORMATIONAL, classifier.classify("how do agents reach a goal")?.category)
+        assertEquals(MessageCategory.CONVERSATIONAL, classifier.classify("thanks!")?.category)
+    }
+
+    @Test
+    fun `messages unlike any example are left to the LLM`() {
+        assertNull(classifier().classify("what is the weather like"))
+    }
+
+    @Test
+    fun `split votes are left to the LLM`() {
+        // Equally near command and informational examples
+        val decision = classifier(minConfidence = 0.9, minSimilarity = 0.0)
+            .classify("switch persona how agent goal example")
+
+        assertNull(decision)
+    }
+
+    @Test
+    fun `examples are embedded once, in one batch`() {
+        val classifier = classifier()
+        classifier.classify("how does a goal work")
+        classifier.classify("switch persona")
+
+        verify(embeddingService, times(1)).embed(anyList<String>())
+        verify(embeddingService, times(2)).embed(anyString())
+    }
+
+    @Test
+    fun `outcomes are counted`() {
+        val registry = SimpleMeterRegistry()
+        val classifier = classifier()
+        classifier.bindTo(registry)
+
+        classifier.classify("switch persona")
+        classifier.classify("what is the weather like")
+
+        assertEquals(1.0, registry.get("guide.classifier.local").tag("outcome", "decided").functionCounter().count())
+        assertEquals(1.0, registry.get("guide.classifier.local").tag("outcome", "deferred").functionCounter().count())
+    }
+
+    @Test
+    fun `examples load from YAML keyed by category`() {
+        val yaml = """
+            CONVERSATIONAL:
+              - thanks!
+            INFORMATIONAL:
+              - how do I define a goal?
+              - yes please
+        """.trimIndent()
+
+        val loaded = LocalMessageClassifier.loadExamples(yaml.byteInputStream())
+
+        assertEquals(listOf("thanks!"), loaded[MessageCategory.CONVERSATIONAL])
+        assertEquals(listOf("how do I define a goal?", "yes please"), loaded[MessageCategory.INFORMATIONAL])
+    }
+
+    @Test
+    fun `bundled examples cover every category`() {
+        val loaded = LocalMessageClassifier.loadExamples(
+            javaClass.getResourceAsStream("/classifier-examples.yml")!!
+        )
+
+        assertEquals(MessageCategory.entries.toSet(), loaded.keys)
+    }
+}
@@ -0,0 +1,117 @@
+package com.embabel.guide
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry
+import org.junit.jupiter.api.AfterEach
+import org.junit.jupiter.api.Assertions.*
+import org.junit.jupiter.api.Test
+import java.util.concurrent.CountDownLatch
+import java.util.concurrent.Semaphore
+import java.util.concurrent.TimeUnit
+import java.util.concurrent.atomic.AtomicBoolean
+import java.util.concurrent.atomic.AtomicLong
+
+class SpeculatorTest {
+
+    // Milliseconds, advanced by hand
+    private val clock = AtomicLong()
+
+    // Released whenever a speculative task reads the clock, as it does on finishing
+    private val finished = Semaphore(0)
+
+    private val speculator = Speculator(2) {
+        TimeUnit.MILLISECONDS.toNanos(clock.get()).also {
+            if (Thread.currentThread().name.startsWith("speculate-")) finished.release()
+        }
+    }
+
+    @AfterEach
+    fun close() = speculator.close()
+
+    @Test
+    fun `work finished before classification saves all its time`() {
+        val speculation = speculator.start("retrieval") {
+            clock.set(80)
+            "docs"
+        }
+        finished.acquire()
+        clock.set(300)
+
+        assertEquals("docs", speculation.await())
+        val stats = speculator.stats("retrieval")
+        assertEquals(1, stats.used)
+        assertEquals(80, stats.savedMillis)
+        assertEquals(0, stats.discarded)
+    }
+
+    @Test
+    fun `work outlasting classification saves the classification time`() {
+        val release = CountDownLatch(1)
+        val speculation = speculator.start("response") {
+            release.await()
+            clock.set(900)
+            "answer"
+        }
+        clock.set(250)
+        Thread {
+            Thread.sleep(50)
+            release.countDown()
+        }.start()
+
+        assertEquals("answer", speculation.await())
+        assertEquals(250, speculator.stats("response").savedMillis)
+    }
+
+    @Test
+    fun `discarded work is cancelled and counted as wasted`() {
+        val started = CountDownLatch(1)
+        val interrupted = AtomicBoolean()
+        val speculation = speculator.start("response") {
+            started.countDown()
+            try {
+                Thread.sleep(10_000)
+            } catch (e: InterruptedException) {
+                interrupted.set(true)
+            }
+        }
+        started.await()
+        clock.set(120)
+
+        speculation.discard()
+
+        val stats = speculator.stats("response")
+        assertEquals(0, stats.used)
+        assertEquals(1, stats.discarded)
+        assertEquals(120, stats.wastedMillis)
+        Thread.sleep(100)
+        assertTrue(interrupted.get())
+    }
+
+    @Test
+    fun `failed work returns null so the caller redoes it`() {
+        val speculation = speculator.start<String>("retrieval") {
+            clock.set(40)
+            throw IllegalStateException("index unavailable")
+        }
+
+        assertNull(speculation.await())
+        assertEquals(1, speculator.stats("retrieval").discarded)
+        assertEquals(40, speculator.stats("retrieval").wastedMillis)
+    }
+
+    @Test
+    fun `saved and wasted time are published per kind`() {
+        val registry = SimpleMeterRegistry()
+        speculator.bindTo(registry)
+
+        val retrieval = speculator.start("retrieval") { clock.set(60) }
+        finished.acquire()
+        clock.set(100)
+        retrieval.await()
+        speculator.start("response") { }.discard()
+
+        val saved = registry.get("guide.speculation.saved").tag("kind", "retrieval").functionTimer()
+        assertEquals(1.0, saved.count())
+        assertEquals(60.0, saved.totalTime(TimeUnit.MILLISECONDS))
+        assertEquals(1.0, registry.get("guide.speculation.wasted").tag("kind", "response").functionTimer().count())
+    }
+}
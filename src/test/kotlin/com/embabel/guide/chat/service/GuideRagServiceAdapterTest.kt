@@ -0,0 +1,102 @@
+package com.embabel.guide.chat.service
+
+import com.embabel.agent.api.channel.MessageOutputChannelEvent
+import com.embabel.agent.api.channel.OutputChannel
+import com.embabel.agent.api.channel.ProgressOutputChannelEvent
+import com.embabel.chat.AssistantMessage
+import com.embabel.chat.ChatSession
+import com.embabel.chat.Chatbot
+import com.embabel.chat.UserMessage
+import com.embabel.guide.domain.GuideUserRepository
+import com.embabel.guide.domain.GuideWebUser
+import kotlinx.coroutines.async
+import kotlinx.coroutines.delay
+import kotlinx.coroutines.runBlocking
+import kotlinx.coroutines.withTimeout
+import org.junit.jupiter.api.Assertions.*
+import org.junit.jupiter.api.Test
+import org.mockito.ArgumentMatchers.any
+import org.mockito.ArgumentMatchers.anyString
+import org.mockito.Mockito.*
+import java.util.Optional
+import java.util.concurrent.Executors
+import java.util.concurrent.TimeUnit
+import java.util.concurrent.atomic.AtomicReference
+import kotlin.system.measureTimeMillis
+
+/**
+ * Runs the adapter against a stub chatbot that answers on another thread after a fixed delay,
+ * as the agent platform does, to check the adapter returns as soon as the answer arrives.
+ */
+class GuideRagServiceAdapterTest {
+
+    private val responder = Executors.newSingleThreadScheduledExecutor()
+    private val channel = AtomicReference<OutputChannel>()
+
+    private val guideUserRepository = mock(GuideUserRepository::class.java).also {
+        `when`(it.findWebUserById(anyString())).thenReturn(Optional.of(mock(GuideWebUser::class.java)))
+    }
+
+    private fun chatbot(answerAfterMillis: Long?): Chatbot {
+        val session = mock(ChatSession::class.java)
+        doAnswer {
+            if (answerAfterMillis != null) {
+                responder.schedule({
+                    channel.get().send(ProgressOutputChannelEvent("process", "Generating answer"))
+                    channel.get().send(MessageOutputChannelEvent("process", AssistantMessage("Agents plan with GOAP.")))
+                }, answerAfterMillis, TimeUnit.MILLISECONDS)
+            }
+            null
+        }.`when`(session).onUserMessage(any(UserMessage::class.java) ?: UserMessage(""))
+        val chatbot = mock(Chatbot::class.java)
+        `when`(chatbot.createSession(any(), any(), any(), anyString())).thenAnswer { invocation ->
+            channel.set(invocation.getArgument(1))
+            session
+        }
+        return chatbot
+    }
+
+    @Test
+    fun `returns as soon as the response arrives`() = runBlocking {
+        val adapter = GuideRagServiceAdapter(chatbot(answerAfterMillis = 20), guideUserRepository)
+        val events = mutableListOf<String>()
+
+        var response = ""
+        val elapsed = measureTimeMillis {
+            response = adapter.sendMessage("thread-1", "How do agents plan?", "user-1") { events += it }
+        }
+
+        assertEquals("Agents plan with GOAP.", response)
+        assertEquals(listOf("Generating answer"), events)
+        // Polling every 500 ms made this at least 500 ms
+        assertTrue(elapsed < 250, "took $elapsed ms")
+    }
+
+    @Test
+    fun `consecutive turns on a session each return promptly`() = runBlocking {
+        val adapter = GuideRagServiceAdapter(chatbot(answerAfterMillis = 5), guideUserRepository)
+
+        val elapsed = measureTimeMillis {
+            repeat(10) {
+                adapter.sendMessage("thread-1", "Question $it", "user-1")
+            }
+        }
+
+        assertTrue(elapsed < 1_000, "10 turns took $elapsed ms")
+    }
+
+    @Test
+    fun `cancelling the caller stops the wait`() = runBlocking {
+        val adapter = GuideRagServiceAdapter(chatbot(answerAfterMillis = null), guideUserRepository)
+
+        val call = async { adapter.sendMessage("thread-1", "Never answered", "user-1") }
+        delay(50)
+        val elapsed = measureTimeMillis {
+            call.cancel()
+            withTimeout(1_000) { call.join() }
+        }
+
+        assertTrue(call.isCancelled)
+        assertTrue(elapsed < 250, "cancellation took $elapsed ms")
+    }
+}
@@ -0,0 +1,51 @@
+package com.embabel.guide.chat.service
+
+import com.embabel.guide.chat.model.StreamFrame
+import org.junit.jupiter.api.Assertions.*
+import org.junit.jupiter.api.Test
+import org.junit.jupiter.api.assertThrows
+import org.mockito.ArgumentCaptor
+import org.mockito.Mockito.*
+import org.springframework.messaging.simp.SimpMessagingTemplate
+import reactor.core.publisher.Flux
+import java.time.Duration
+
+class ResponseStreamTest {
+
+    private val messaging = mock(SimpMessagingTemplate::class.java)
+    private val chatService = ChatService(messaging)
+
+    private fun stream(maxDeltas: Int = 2) = ResponseStream(
+        chatService, "web-1", "session-1", JesseService.JESSE_USER_ID,
+        Duration.ofSeconds(1), maxDeltas, Duration.ofSeconds(5),
+    )
+
+    private fun sentFrames(): List<StreamFrame> {
+        val captor = ArgumentCaptor.forClass(Any::class.java)
+        verify(messaging, atLeastOnce()).convertAndSendToUser(eq("web-1"), eq("/queue/stream"), captor.capture())
+        return captor.allValues.map { it as StreamFrame }
+    }
+
+    @Test
+    fun `deltas are coalesced into frames and the whole text returned`() {
+        val stream = stream()
+
+        val text = stream.collect(Flux.just("Agents ", "plan ", "with ", "GOAP"))
+
+        assertEquals("Agents plan with GOAP", text)
+        val frames = sentFrames()
+        assertEquals(listOf("Agents plan ", "with GOAP", ""), frames.map { it.delta })
+        assertEquals(listOf(0, 1, 2), frames.map { it.seq })
+        assertEquals(listOf(false, false, true), frames.map { it.done })
+        assertTrue(frames.all { it.streamId == stream.streamId && it.sessionId == "session-1" })
+    }
+
+    @Test
+    fun `a failed generation still closes the stream`() {
+        val failing = Flux.concat(Flux.just("Partial"), Flux.error(IllegalStateException("provider went away")))
+
+        assertThrows<IllegalStateException> { stream().collect(failing) }
+
+        assertTrue(sentFrames().last().done)
+    }
+}
@@ -0,0 +1,81 @@
+package com.embabel.guide.narrator
+
+import org.junit.jupiter.api.Assertions.*
+import org.junit.jupiter.api.Test
+
+class NarrationCacheTest {
+
+    private val cache = NarrationCache()
+
+    @Test
+    fun `narration ready before sending is delivered and persisted with the message`() {
+        cache.put("c1", "Hello there")
+
+        assertEquals("Hello there", cache.consumeForDelivery("c1", "m1", "web-1"))
+        assertEquals("Hello there", cache.consumeForPersistence("c1"))
+        assertNull(cache.consumeForPersistence("c1"))
+    }
+
+    @Test
+    fun `background narration finishing before delivery goes out with the message`() {
+        val entry = cache.expect("c1")
+
+        assertEquals(NarrationCache.FollowUp(null, null, false), cache.complete("c1", entry, "Hello there"))
+        assertEquals("Hello there", cache.consumeForDelivery("c1", "m1", "web-1"))
+        assertEquals("Hello there", cache.consumeForPersistence("c1"))
+    }
+
+    @Test
+    fun `background narration finishing after delivery follows the delivered message`() {
+        val entry = cache.expect("c1")
+        assertNull(cache.consumeForDelivery("c1", "m1", "web-1"))
+
+        val followUp = cache.complete("c1", entry, "Hello there")
+
+        assertEquals(NarrationCache.FollowUp("m1", "web-1", false), followUp)
+        assertEquals("Hello there", cache.consumeForPersistence("c1"))
+    }
+
+    @Test
+    fun `background narration finishing after persistence is saved on completion`() {
+        val entry = cache.expect("c1")
+        assertNull(cache.consumeForDelivery("c1", "m1", "web-1"))
+        assertNull(cache.consumeForPersistence("c1"))
+
+        assertEquals(NarrationCache.FollowUp("m1", "web-1", true), cache.complete("c1", entry, "Hello there"))
+        // Nothing left behind
+        assertNull(cache.complete("c1", entry, "again"))
+    }
+
+    @Test
+    fun `failed narration leaves nothing to deliver`() {
+        val entry = cache.expect("c1")
+        cache.complete("c1", entry, null)
+
+        assertNull(cache.consumeForDelivery("c1", "m1", "web-1"))
+        assertNull(cache.consumeForPersistence("c1"))
+    }
+
+    @Test
+    fun `a newer message replaces pending narration`() {
+        val entry = cache.expect("c1")
+        assertNull(cache.consumeForDelivery("c1", "m1", "web-1"))
+        cache.put("c1", "Second answer")
+
+        assertNull(cache.complete("c1", entry, "First answer"))
+        assertEquals("Second answer", cache.consumeForDelivery("c1", "m2", "web-1"))
+    }
+
+    @Test
+    fun `narration for a superseded message doesn't land on the next one`() {
+        // A command summary, then its RAG answer, both narrated in the background
+        val summary = cache.expect("c1")
+        assertNull(cache.consumeForDelivery("c1", "m1", "web-1"))
+        val answer = cache.expect("c1")
+
+        assertNull(cache.complete("c1", summary, "Summary narration"))
+        assertNull(cache.consumeForDelivery("c1", "m2", "web-1"))
+        assertEquals(NarrationCache.FollowUp("m2", "web-1", false), cache.complete("c1", answer, "Answer narration"))
+        assertEquals("Answer narration", cache.consumeForPersistence("c1"))
+    }
+}
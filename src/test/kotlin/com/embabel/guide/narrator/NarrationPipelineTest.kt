@@ -0,0 +1,81 @@
+package com.embabel.guide.narrator
+
+import com.embabel.chat.store.repository.ChatSessionRepository
+import com.embabel.guide.GuideProperties
+import com.embabel.guide.NarrationConfig
+import com.embabel.guide.chat.model.NarrationFrame
+import com.embabel.guide.chat.service.ChatService
+import org.junit.jupiter.api.AfterEach
+import org.junit.jupiter.api.Assertions.assertEquals
+import org.junit.jupiter.api.Test
+import org.mockito.Mockito.*
+import org.springframework.messaging.simp.SimpMessagingTemplate
+import java.util.concurrent.CountDownLatch
+import java.util.concurrent.TimeUnit
+
+class NarrationPipelineTest {
+
+    private val messaging = mock(SimpMessagingTemplate::class.java)
+    private val chatSessionRepository = mock(ChatSessionRepository::class.java)
+    private val cache = NarrationCache()
+
+    private val pipeline = NarrationPipeline(
+        cache,
+        ChatService(messaging),
+        chatSessionRepository,
+        mock(GuideProperties::class.java).also { `when`(it.narration).thenReturn(NarrationConfig(async = true, threads = 1)) },
+    )
+
+    @AfterEach
+    fun close() = pipeline.destroy()
+
+    @Test
+    fun `narration finished after delivery and persistence follows the message and is saved`() {
+        val release = CountDownLatch(1)
+        pipeline.start("c1") {
+            release.await()
+            "Hello there"
+        }
+        // The text response is delivered and saved while narration is still running
+        cache.consumeForDelivery("c1", "m1", "web-1")
+        cache.consumeForPersistence("c1")
+
+        release.countDown()
+
+        verify(messaging, timeout(1_000))
+            .convertAndSendToUser("web-1", "/queue/narration", NarrationFrame("m1", "c1", "Hello there"))
+        verify(chatSessionRepository, timeout(1_000)).updateMessageNarration("c1", "Hello there")
+    }
+
+    @Test
+    fun `narration of a superseded message is dropped`() {
+        val release = CountDownLatch(1)
+        pipeline.start("c1") {
+            release.await()
+            "Summary narration"
+        }
+        cache.consumeForDelivery("c1", "m1", "web-1")
+        pipeline.start("c1") { "Answer narration" }
+        cache.consumeForDelivery("c1", "m2", "web-1")
+
+        release.countDown()
+
+        verify(messaging, timeout(1_000))
+            .convertAndSendToUser("web-1", "/queue/narration", NarrationFrame("m2", "c1", "Answer narration"))
+        verify(messaging, never())
+            .convertAndSendToUser("web-1", "/queue/narration", NarrationFrame("m1", "c1", "Summary narration"))
+        verify(messaging, never())
+            .convertAndSendToUser("web-1", "/queue/narration", NarrationFrame("m2", "c1", "Summary narration"))
+    }
+
+    @Test
+    fun `narration finished before delivery is left for the event handlers`() {
+        val done = CountDownLatch(1)
+        pipeline.start("c1") { "Hello there".also { done.countDown() } }
+        done.await(1, TimeUnit.SECONDS)
+        Thread.sleep(50)
+
+        verifyNoInteractions(messaging, chatSessionRepository)
+        assertEquals("Hello there", cache.consumeForDelivery("c1", "m1", "web-1"))
+    }
+}
@@ -0,0 +1,52 @@
+package com.embabel.guide.rag
+
+import org.junit.jupiter.api.Assertions.*
+import org.junit.jupiter.api.Test
+
+class Bm25IndexTest {
+
+    private fun index() = Bm25Index().apply {
+        add("goals", "Annotate the method with @AchievesGoal to mark the action that completes the agent's goal.")
+        add("rendering", "Call PromptRunner.Rendering to render a template with the runner's tools.")
+        add("runner", "A prompt runner sends prompts to the LLM. The runner is configured per action.")
+        add("planning", "The planner chooses actions whose preconditions hold until a goal is reached.")
+    }
+
+    @Test
+    fun `dotted names are indexed whole and by parts`() {
+        assertEquals(
+            listOf("call", "promptrunner.rendering", "promptrunner", "rendering"),
+            Bm25Index.terms("Call PromptRunner.Rendering"),
+        )
+    }
+
+    @Test
+    fun `exact API names rank the passages that use them first`() {
+        val index = index()
+
+        assertEquals("goals", index.search("@AchievesGoal", 3) { true }[0].id())
+        assertEquals("rendering", index.search("how do I use PromptRunner.Rendering", 3) { true }[0].id())
+    }
+
+    @Test
+    fun `passages without query terms are not returned`() {
+        assertEquals(listOf("planning"), index().search("preconditions", 10) { true }.map { it.id() })
+        assertTrue(index().search("kubernetes", 10) { true }.isEmpty())
+    }
+
+    @Test
+    fun `filter, removal and replacement`() {
+        val index = index()
+
+        assertTrue(index.search("runner", 10) { it != "runner" }.none { it.id() == "runner" })
+
+        assertTrue(index.remove("goals"))
+        assertFalse(index.remove("goals"))
+        assertTrue(index.search("AchievesGoal", 10) { true }.isEmpty())
+
+        index.add("planning", "Kubernetes deployment notes")
+        assertEquals(listOf("planning"), index.search("kubernetes", 10) { true }.map { it.id() })
+        assertTrue(index.search("preconditions", 10) { true }.isEmpty())
+        assertEquals(3, index.size())
+    }
+}
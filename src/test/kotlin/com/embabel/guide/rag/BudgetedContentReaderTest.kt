@@ -0,0 +1,134 @@
+package com.embabel.guide.rag
+
+import com.embabel.agent.rag.ingestion.ContentFetcher
+import com.embabel.agent.rag.ingestion.FetchResult
+import com.embabel.agent.rag.ingestion.HierarchicalContentReader
+import com.embabel.agent.rag.model.NavigableDocument
+import org.junit.jupiter.api.AfterEach
+import org.junit.jupiter.api.Assertions.*
+import org.junit.jupiter.api.Test
+import org.junit.jupiter.api.assertThrows
+import org.junit.jupiter.api.io.TempDir
+import org.mockito.ArgumentMatchers.any
+import org.mockito.ArgumentMatchers.anyString
+import org.mockito.ArgumentMatchers.eq
+import org.mockito.Mockito.*
+import java.io.ByteArrayInputStream
+import java.io.File
+import java.io.InputStream
+import java.net.URI
+import java.nio.file.Files
+import java.nio.file.Path
+import java.time.Duration
+import java.util.concurrent.CountDownLatch
+import java.util.concurrent.TimeUnit
+
+class BudgetedContentReaderTest {
+
+    @TempDir
+    lateinit var dir: Path
+
+    private val delegate = mock(HierarchicalContentReader::class.java)
+    private val fetcher = mock(ContentFetcher::class.java)
+    private val document = mock(NavigableDocument::class.java)
+
+    private val reader = BudgetedContentReader(delegate, fetcher, maxDocumentBytes = 100, Duration.ofMillis(200), 1)
+
+    /** Serve a small HTML page at [url] and return the stubbing of its parse. */
+    private fun page(url: String, bytes: Int = 10) = run {
+        `when`(fetcher.fetch(URI.create(url))).thenReturn(FetchResult(ByteArray(bytes), "text/html"))
+        `when`(delegate.parseContent(any(InputStream::class.java), eq(url), eq("text/html")))
+    }
+
+    /** Parses that ignore interruption, like a runaway Tika parse, until [release] counts down. */
+    private fun runaway(release: CountDownLatch): NavigableDocument {
+        while (true) {
+            try {
+                if (release.await(10, TimeUnit.SECONDS)) break
+            } catch (_: InterruptedException) {
+            }
+        }
+        return document
+    }
+
+    @AfterEach
+    fun close() {
+        reader.close()
+    }
+
+    @Test
+    fun `document within budget is parsed by the delegate`() {
+        val file = Files.writeString(dir.resolve("small.md"), "# Small").toFile()
+        `when`(delegate.parseFile(file, "file:small")).thenReturn(document)
+
+        assertSame(document, reader.parseFile(file, "file:small"))
+    }
+
+    @Test
+    fun `oversized file is rejected without parsing`() {
+        val file = Files.writeString(dir.resolve("big.md"), "x".repeat(1000)).toFile()
+
+        val e = assertThrows<ParseBudgetExceededException> { reader.parseFile(file, "file:big") }
+
+        assertTrue(e.message!!.contains("parsing limit"))
+        verify(delegate, never()).parseFile(any(File::class.java), anyString())
+    }
+
+    @Test
+    fun `oversized stream is rejected without parsing`() {
+        assertThrows<ParseBudgetExceededException> {
+            reader.parseContent(ByteArrayInputStream(ByteArray(1000)), "https://example.com/big")
+        }
+        verify(delegate, never()).parseContent(any(InputStream::class.java), anyString())
+    }
+
+    @Test
+    fun `oversized page is rejected without parsing`() {
+        page("https://example.com/big", bytes = 1000)
+
+        assertThrows<ParseBudgetExceededException> { reader.parseUrl("https://example.com/big") }
+        verify(delegate, never()).parseContent(any(InputStream::class.java), anyString(), anyString())
+        verify(delegate, never()).parseUrl(anyString())
+    }
+
+    @Test
+    fun `parse that runs over the time limit fails and frees its slot`() {
+        val stuck = CountDownLatch(1)
+        page("https://example.com/slow").thenAnswer { runaway(stuck) }
+        page("https://example.com/fast").thenReturn(document)
+
+        val e = assertThrows<ParseBudgetExceededException> { reader.parseUrl("https://example.com/slow") }
+        assertTrue(e.message!!.contains("timed out"))
+        assertEquals("Parsing timed out after 200ms", IngestionFailure.fromException("slow", e).reason())
+
+        // The only slot was given back, so the next document is parsed while the runaway continues
+        assertSame(document, reader.parseUrl("https://example.com/fast"))
+        stuck.countDown()
+    }
+
+    @Test
+    fun `abandoned parses beyond the parallelism keep their slot until they stop`() {
+        val stuck = CountDownLatch(1)
+        page("https://example.com/slow-1").thenAnswer { runaway(stuck) }
+        page("https://example.com/slow-2").thenAnswer { runaway(stuck) }
+        page("https://example.com/fast").thenReturn(document)
+
+        assertThrows<ParseBudgetExceededException> { reader.parseUrl("https://example.com/slow-1") }
+        assertThrows<ParseBudgetExceededException> { reader.parseUrl("https://example.com/slow-2") }
+
+        // The first runaway gave its slot back, the second didn't: nothing is free
+        val e = assertThrows<ParseBudgetExceededException> { reader.parseUrl("https://example.com/fast") }
+        assertTrue(e.message!!.contains("No parse slot"))
+
+        stuck.countDown()
+        assertSame(document, reader.parseUrl("https://example.com/fast"))
+    }
+
+    @Test
+    fun `parse failure is passed through`() {
+        page("https://example.com/broken").thenThrow(IllegalArgumentException("bad html"))
+
+        val e = assertThrows<IllegalArgumentException> { reader.parseUrl("https://example.com/broken") }
+        assertEquals("bad html", e.message)
+    }
+}
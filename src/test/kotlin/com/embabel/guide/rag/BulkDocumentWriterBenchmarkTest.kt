@@ -0,0 +1,120 @@
+package com.embabel.guide.rag
+
+import com.embabel.agent.rag.ingestion.DirectoryParsingConfig
+import com.embabel.agent.rag.ingestion.HierarchicalContentReader
+import com.embabel.agent.rag.model.NavigableDocument
+import com.embabel.agent.rag.store.ChunkingContentElementRepository
+import com.embabel.agent.tools.file.FileTools
+import com.embabel.guide.Neo4jPropertiesInitializer
+import org.drivine.manager.PersistenceManager
+import org.drivine.query.QuerySpecification
+import org.drivine.query.transform
+import org.junit.jupiter.api.Assertions.assertEquals
+import org.junit.jupiter.api.Assertions.assertTrue
+import org.junit.jupiter.api.Test
+import org.junit.jupiter.api.condition.EnabledIfSystemProperty
+import org.springframework.ai.mcp.client.common.autoconfigure.McpClientAutoConfiguration
+import org.springframework.beans.factory.annotation.Autowired
+import org.springframework.beans.factory.annotation.Qualifier
+import org.springframework.boot.autoconfigure.ImportAutoConfiguration
+import org.springframework.boot.test.context.SpringBootTest
+import org.springframework.test.context.ActiveProfiles
+import org.springframework.test.context.ContextConfiguration
+import org.springframework.test.context.TestPropertySource
+import java.nio.file.Path
+import kotlin.time.Duration
+import kotlin.time.measureTime
+
+/**
+ * Compares writing a directory one document at a time through the store with writing it
+ * through [BulkDocumentWriter], a batch per transaction, and checks both produce the same graph.
+ * The sample repository is only a smoke test; point `benchmark.corpus` at a docs checkout for
+ * numbers worth reading.
+ *
+ * Writes to the test database, deleting only the documents it wrote, so it only runs on request:
+ * `mvn test -Dtest=BulkDocumentWriterBenchmarkTest -Dbenchmark=true -Dbenchmark.corpus=<dir>`.
+ */
+@SpringBootTest
+@ActiveProfiles("test")
+@ContextConfiguration(initializers = [Neo4jPropertiesInitializer::class])
+@ImportAutoConfiguration(exclude = [McpClientAutoConfiguration::class])
+@TestPropertySource(properties = ["guide.bulk-write.enabled=true"])
+@EnabledIfSystemProperty(named = "benchmark", matches = "true")
+class BulkDocumentWriterBenchmarkTest {
+
+    @Autowired
+    private lateinit var store: ChunkingContentElementRepository
+
+    @Autowired
+    private lateinit var bulkDocumentWriter: BulkDocumentWriter
+
+    @Autowired
+    private lateinit var reader: HierarchicalContentReader
+
+    @Autowired
+    @Qualifier("neo")
+    private lateinit var persistenceManager: PersistenceManager
+
+    private val corpus = Path.of(System.getProperty("benchmark.corpus", "src/test/resources/sample-repo-for-ingestion"))
+    private val rounds = System.getProperty("benchmark.rounds", "5").toInt().coerceAtLeast(2)
+
+    private fun parse(): List<NavigableDocument> =
+        reader.parseFromDirectory(FileTools.readOnly(corpus.toAbsolutePath().toString()), DirectoryParsingConfig())
+            .contentRoots.map { it as NavigableDocument }
+
+    private fun delete(documents: List<NavigableDocument>) {
+        documents.forEach { store.deleteRootAndDescendants(it.uri) }
+    }
+
+    /** Node counts per label and relationship counts per type among content elements. */
+    private fun graphShape(): Map<String, Long> =
+        persistenceManager.query(
+            QuerySpecification.withStatement(
+                """
+                MATCH (n:ContentElement)
+                UNWIND labels(n) AS label
+                WITH label, count(*) AS count
+                RETURN 'node:' + label + '=' + toString(count) AS row
+                UNION ALL
+                MATCH (:ContentElement)-[r]->(:ContentElement)
+                WITH type(r) AS type, count(*) AS count
+                RETURN 'rel:' + type + '=' + toString(count) AS row
+                """.trimIndent()
+            ).transform<String>()
+        ).associate { it.substringBeforeLast('=') to it.substringAfterLast('=').toLong() }
+
+    /** What writing the corpus added to the graph, whatever else the database holds. */
+    private fun added(before: Map<String, Long>, after: Map<String, Long>): Map<String, Long> =
+        after.mapValues { (key, count) -> count - (before[key] ?: 0) }.filterValues { it != 0L }
+
+    private fun time(write: (List<NavigableDocument>) -> Unit): Pair<List<Duration>, Map<String, Long>> {
+        var shape = emptyMap<String, Long>()
+        val times = (1..rounds).map {
+            val documents = parse()
+            delete(documents)
+            val before = graphShape()
+            measureTime { write(documents) }.also {
+                shape = added(before, graphShape())
+                delete(documents)
+            }
+        }
+        return times to shape
+    }
+
+    @Test
+    fun `bulk writer matches the per-document path and is faster`() {
+        val (perDocument, expected) = time { documents -> documents.forEach { store.writeAndChunkDocument(it) } }
+        val (bulk, actual) = time { documents -> bulkDocumentWriter.write(documents) }
+
+        println("Corpus: $corpus")
+        println("Per-document writes: ${perDocument.map { it.inWholeMilliseconds }} ms")
+        println("Bulk writes:         ${bulk.map { it.inWholeMilliseconds }} ms")
+        assertTrue(expected.isNotEmpty(), "Corpus should produce content elements")
+        assertEquals(expected, actual, "Bulk writes should produce the same labels and relationships")
+        // The first round of each warms caches (including embeddings), so compare the rest
+        assertTrue(
+            bulk.drop(1).minOrNull()!! <= perDocument.drop(1).minOrNull()!!,
+            "Bulk writes should be no slower than per-document writes"
+        )
+    }
+}
@@ -0,0 +1,164 @@
+package com.embabel.guide.rag
+
+import com.embabel.agent.rag.ingestion.ContentFetcher
+import com.embabel.agent.rag.ingestion.FetchResult
+import com.sun.net.httpserver.HttpServer
+import org.junit.jupiter.api.AfterEach
+import org.junit.jupiter.api.Assertions.*
+import org.junit.jupiter.api.BeforeEach
+import org.junit.jupiter.api.Test
+import org.junit.jupiter.api.io.TempDir
+import java.net.InetSocketAddress
+import java.net.URI
+import java.nio.file.Path
+import java.util.concurrent.CopyOnWriteArrayList
+
+class CachingContentFetcherTest {
+
+    @TempDir
+    lateinit var dir: Path
+
+    private lateinit var server: HttpServer
+
+    @Volatile
+    private var body = "v1"
+
+    /** Method and If-None-Match of every request the stub received. */
+    private val requests = CopyOnWriteArrayList<String>()
+
+    /** Stub that serves [body] with an ETag derived from it and honours If-None-Match. */
+    @BeforeEach
+    fun startServer() {
+        server = HttpServer.create(InetSocketAddress("127.0.0.1", 0), 0)
+        server.createContext("/page") { exchange ->
+            val etag = "\"$body\""
+            val ifNoneMatch = exchange.requestHeaders.getFirst("If-None-Match")
+            requests += "${exchange.requestMethod} ${ifNoneMatch ?: "-"}"
+            exchange.responseHeaders.add("ETag", etag)
+            exchange.responseHeaders.add("Content-Type", "text/html")
+            when {
+                ifNoneMatch == etag -> exchange.sendResponseHeaders(304, -1)
+                exchange.requestMethod == "HEAD" -> exchange.sendResponseHeaders(200, -1)
+                else -> {
+                    val bytes = body.toByteArray()
+                    exchange.sendResponseHeaders(200, bytes.size.toLong())
+                    exchange.responseBody.use { it.write(bytes) }
+                }
+            }
+            exchange.close()
+        }
+        server.start()
+    }
+
+    @AfterEach
+    fun stopServer() {
+        server.stop(0)
+    }
+
+    private val uri get() = URI.create("http://127.0.0.1:${server.address.port}/page")
+
+    /** Stands in for a route fetcher such as RSS: counts calls and returns its own rendering. */
+    private class CountingFetcher(private val content: () -> String) : ContentFetcher {
+        var calls = 0
+
+        override fun fetch(uri: URI): FetchResult {
+            calls++
+            return fetchResultOf(content().toByteArray(), "text/html")
+        }
+    }
+
+    private fun text(result: FetchResult) = String(result.bodyBytes())
+
+    @Test
+    fun `304 returns the cached body without calling the delegate`() {
+        val delegate = CountingFetcher { "rendered $body" }
+        val fetcher = CachingContentFetcher(delegate, HttpFetchCache(dir), responseIsContent = false)
+
+        assertEquals("rendered v1", text(fetcher.fetch(uri)))
+        assertEquals("rendered v1", text(fetcher.fetch(uri)))
+
+        assertEquals(1, delegate.calls)
+        assertEquals(listOf("HEAD -", "GET \"v1\""), requests)
+    }
+
+    @Test
+    fun `changed content goes back to the delegate`() {
+        val delegate = CountingFetcher { "rendered $body" }
+        val fetcher = CachingContentFetcher(delegate, HttpFetchCache(dir), responseIsContent = false)
+
+        fetcher.fetch(uri)
+        body = "v2"
+        assertEquals("rendered v2", text(fetcher.fetch(uri)))
+        assertEquals(2, delegate.calls)
+
+        // The validators from the conditional GET were kept, so the next fetch is a 304
+        fetcher.fetch(uri)
+        assertEquals(2, delegate.calls)
+    }
+
+    @Test
+    fun `plain HTTP route uses the 200 body of the conditional GET`() {
+        val delegate = CountingFetcher { body }
+        val fetcher = CachingContentFetcher(delegate, HttpFetchCache(dir), responseIsContent = true)
+
+        fetcher.fetch(uri)
+        body = "v2"
+        assertEquals("v2", text(fetcher.fetch(uri)))
+        assertEquals(1, delegate.calls)
+    }
+
+    @Test
+    fun `cache survives restart`() {
+        CachingContentFetcher(CountingFetcher { body }, HttpFetchCache(dir), responseIsContent = true).fetch(uri)
+
+        val reopened = HttpFetchCache(dir)
+        assertTrue(reopened.isUnchanged(uri))
+        body = "v2"
+        assertFalse(reopened.isUnchanged(uri))
+        assertEquals(HttpFetchCache.Stats(notModified = 1, modified = 1), reopened.stats())
+    }
+
+    @Test
+    fun `uncached URI is never reported unchanged`() {
+        assertFalse(HttpFetchCache(dir).isUnchanged(uri))
+        assertTrue(requests.isEmpty())
+    }
+
+    @Test
+    fun `unreachable server falls back to the delegate`() {
+        val unreachable = URI.create("http://127.0.0.1:1/page")
+        val cache = HttpFetchCache(dir)
+        cache.store(unreachable, "stale".toByteArray(), "text/html", HttpFetchCache.Validators("\"v1\"", null))
+        val delegate = CountingFetcher { "offline copy" }
+
+        val result = CachingContentFetcher(delegate, cache, responseIsContent = false).fetch(unreachable)
+
+        assertEquals("offline copy", text(result))
+        assertEquals(1, delegate.calls)
+    }
+
+    @Test
+    fun `changed page found by a probe is not downloaded again`() {
+        val cache = HttpFetchCache(dir)
+        val fetcher = CachingContentFetcher(CountingFetcher { body }, cache, responseIsContent = true)
+        fetcher.fetch(uri)
+        requests.clear()
+
+        body = "v2"
+        assertFalse(cache.isUnchanged(uri))
+        assertEquals("v2", text(fetcher.fetch(uri)))
+
+        assertEquals(listOf("GET \"v1\""), requests)
+        assertEquals(HttpFetchCache.Stats(notModified = 0, modified = 1), cache.stats())
+    }
+
+    @Test
+    fun `pages a route renders some other way are not probed`() {
+        val cache = HttpFetchCache(dir)
+        CachingContentFetcher(CountingFetcher { "rendered $body" }, cache, responseIsContent = false).fetch(uri)
+        requests.clear()
+
+        assertFalse(cache.isUnchanged(uri))
+        assertTrue(requests.isEmpty())
+    }
+}
@@ -0,0 +1,92 @@
+package com.embabel.guide.rag
+
+import com.embabel.common.ai.model.SpringAiEmbeddingService
+import org.junit.jupiter.api.Assertions.*
+import org.junit.jupiter.api.Test
+import org.junit.jupiter.api.io.TempDir
+import org.springframework.ai.document.Document
+import org.springframework.ai.embedding.Embedding
+import org.springframework.ai.embedding.EmbeddingModel
+import org.springframework.ai.embedding.EmbeddingRequest
+import org.springframework.ai.embedding.EmbeddingResponse
+import java.nio.file.Path
+
+class CachingEmbeddingServiceTest {
+
+    @TempDir
+    lateinit var dir: Path
+
+    /** Deterministic embedding model that counts how many texts it was asked to embed. */
+    private class CountingEmbeddingModel : EmbeddingModel {
+        var embedded = 0
+
+        private fun vector(text: String) = floatArrayOf(text.length.toFloat(), text.hashCode().toFloat())
+
+        override fun embed(document: Document): FloatArray = vector(document.text ?: "").also { embedded++ }
+
+        override fun embed(texts: List<String>): MutableList<FloatArray> {
+            embedded += texts.size
+            return texts.map { vector(it) }.toMutableList()
+        }
+
+        override fun call(request: EmbeddingRequest): EmbeddingResponse {
+            embedded += request.instructions.size
+            return EmbeddingResponse(request.instructions.mapIndexed { i, t -> Embedding(vector(t), i) })
+        }
+
+        override fun dimensions(): Int = 2
+    }
+
+    private val model = CountingEmbeddingModel()
+
+    private fun service(store: EmbeddingCacheStore = EmbeddingCacheStore.open(dir.resolve("e.bin"), 100)) =
+        CachingEmbeddingService(
+            SpringAiEmbeddingService(name = "test", model = model, provider = "test"),
+            store,
+        )
+
+    @Test
+    fun `second embedding of the same text is a cache hit`() {
+        val service = service()
+
+        val first = service.embed(listOf("alpha", "beta"))
+        val second = service.embed(listOf("alpha", "beta", "gamma"))
+
+        assertEquals(3, model.embedded)
+        assertArrayEquals(first[0], second[0])
+        assertArrayEquals(first[1], second[1])
+        assertEquals(2, service.stats().hits)
+        assertEquals(3, service.stats().misses)
+    }
+
+    @Test
+    fun `whitespace differences still hit`() {
+        val service = service()
+
+        service.embed("a  reflowed\nparagraph")
+        service.embed(" a reflowed paragraph ")
+
+        assertEquals(1, model.embedded)
+        assertEquals(0.5, service.stats().hitRate)
+    }
+
+    @Test
+    fun `results keep input order when hits and misses interleave`() {
+        val service = service()
+        service.embed("b")
+
+        val result = service.embed(listOf("a", "b", "ccc"))
+
+        assertEquals(listOf(1f, 1f, 3f), result.map { it[0] })
+    }
+
+    @Test
+    fun `cache persists across instances`() {
+        EmbeddingCacheStore.open(dir.resolve("e.bin"), 100).use { service(it).embed("persisted") }
+        val before = model.embedded
+
+        EmbeddingCacheStore.open(dir.resolve("e.bin"), 100).use { service(it).embed("persisted") }
+
+        assertEquals(before, model.embedded)
+    }
+}
@@ -0,0 +1,66 @@
+package com.embabel.guide.rag
+
+import org.junit.jupiter.api.Assertions.*
+import org.junit.jupiter.api.Test
+import java.util.concurrent.ConcurrentHashMap
+import java.util.concurrent.atomic.AtomicInteger
+
+class ConcurrentUrlIngesterTest {
+
+    @Test
+    fun `outcomes preserve configuration order`() {
+        val urls = (1..20).map { "https://host${it % 3}.example.com/page$it" }
+
+        val outcomes = ConcurrentUrlIngester(8, 2).ingestAll(urls) { Thread.sleep(5) }
+
+        assertEquals(urls, outcomes.map { it.url() })
+        assertTrue(outcomes.all { it.succeeded() })
+    }
+
+    @Test
+    fun `failures are captured per URL without stopping the rest`() {
+        val urls = listOf("https://a.example.com/ok", "https://a.example.com/bad", "https://b.example.com/ok")
+
+        val outcomes = ConcurrentUrlIngester(4, 2).ingestAll(urls) { url ->
+            if (url.endsWith("bad")) throw IllegalStateException("boom")
+        }
+
+        assertEquals(listOf(true, false, true), outcomes.map { it.succeeded() })
+        assertEquals("boom", outcomes[1].failure().message)
+    }
+
+    @Test
+    fun `per-host concurrency cap is honoured`() {
+        val inFlight = ConcurrentHashMap<String, AtomicInteger>()
+        val peak = ConcurrentHashMap<String, Int>()
+        val urls = (1..12).map { "https://${if (it % 2 == 0) "medium.com" else "docs.embabel.com"}/p$it" }
+
+        ConcurrentUrlIngester(12, 2).ingestAll(urls) { url ->
+            val host = HostLimiter.hostOf(url)
+            val now = inFlight.computeIfAbsent(host) { AtomicInteger() }.incrementAndGet()
+            peak.merge(host, now, ::maxOf)
+            Thread.sleep(20)
+            inFlight.getValue(host).decrementAndGet()
+        }
+
+        assertTrue(peak.values.all { it <= 2 }, "Peak per-host concurrency was $peak")
+    }
+
+    @Test
+    fun `concurrency of one runs sequentially on the calling thread`() {
+        val caller = Thread.currentThread()
+        val threads = mutableListOf<Thread>()
+
+        ConcurrentUrlIngester(1, 1).ingestAll(listOf("https://a/1", "https://a/2")) {
+            threads.add(Thread.currentThread())
+        }
+
+        assertEquals(listOf(caller, caller), threads)
+    }
+
+    @Test
+    fun `hostOf tolerates malformed URLs`() {
+        assertEquals("medium.com", HostLimiter.hostOf("https://Medium.com/@springrod/x"))
+        assertEquals("", HostLimiter.hostOf("not a url"))
+    }
+}
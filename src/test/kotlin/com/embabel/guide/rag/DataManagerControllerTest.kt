@@ -5,14 +5,19 @@ import com.embabel.guide.stats.GuideStats
 import com.embabel.guide.stats.GuideStatsService
 import org.junit.jupiter.api.Assertions.assertEquals
 import org.junit.jupiter.api.Test
+import org.mockito.ArgumentMatchers.any
 import org.mockito.Mockito.*
+import org.springframework.http.HttpStatus
 import java.time.Duration
+import java.time.Instant
+import java.util.Optional
 
 class DataManagerControllerTest {
 
     private val dataManager = mock(DataManager::class.java)
     private val guideStatsService = mock(GuideStatsService::class.java)
-    private val controller = DataManagerController(dataManager, guideStatsService)
+    private val ingestionJobService = mock(IngestionJobService::class.java)
+    private val controller = DataManagerController(dataManager, guideStatsService, ingestionJobService)
 
     @Test
     fun `getStats delegates to guideStatsService for the current caller`() {
@@ -36,13 +41,48 @@ class DataManagerControllerTest {
             emptyList(),
             Duration.ofSeconds(60)
         )
-        `when`(dataManager.loadReferences()).thenReturn(ingestionResult)
+        `when`(dataManager.loadReferences(any())).thenReturn(ingestionResult)
+        `when`(ingestionJobService.runNow(any())).thenAnswer {
+            Optional.of(it.getArgument<java.util.function.Function<IngestionListener, IngestionResult>>(0).apply(IngestionListener { }))
+        }
 
-        val result = controller.loadReferences()
+        val response = controller.loadReferences()
 
+        assertEquals(HttpStatus.OK, response.statusCode)
+        val result = response.body!!
         assertEquals(ingestionResult, result)
         assertEquals(1, result.loadedUrls().size)
         assertEquals(1, result.ingestedDirectories().size)
-        verify(dataManager).loadReferences()
+        verify(dataManager).loadReferences(any())
+    }
+
+    @Test
+    fun `loadReferences is refused while an ingestion job runs`() {
+        `when`(ingestionJobService.runNow(any())).thenReturn(Optional.empty())
+
+        val response = controller.loadReferences()
+
+        assertEquals(HttpStatus.CONFLICT, response.statusCode)
+        verify(dataManager, never()).loadReferences(any())
+    }
+
+    @Test
+    fun `startIngestionJob returns 202 with the job location`() {
+        val job = IngestionJob("job-1", IngestionJob.Status.RUNNING, Instant.now(), null, 0, null, null)
+        `when`(ingestionJobService.start()).thenReturn(job)
+
+        val response = controller.startIngestionJob()
+
+        assertEquals(HttpStatus.ACCEPTED, response.statusCode)
+        assertEquals("/api/v1/data/ingestion-jobs/job-1", response.headers.location.toString())
+        assertEquals(job, response.body)
+        verify(dataManager, never()).loadReferences()
+    }
+
+    @Test
+    fun `getIngestionJob returns 404 for unknown job`() {
+        `when`(ingestionJobService.find("nope")).thenReturn(Optional.empty())
+
+        assertEquals(HttpStatus.NOT_FOUND, controller.getIngestionJob("nope").statusCode)
     }
 }
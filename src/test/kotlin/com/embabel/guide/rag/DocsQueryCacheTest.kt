@@ -0,0 +1,104 @@
+package com.embabel.guide.rag
+
+import com.embabel.agent.rag.model.NavigableDocument
+import com.embabel.agent.rag.store.ChunkingContentElementRepository
+import com.embabel.common.ai.model.EmbeddingService
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry
+import org.junit.jupiter.api.Assertions.*
+import org.junit.jupiter.api.Test
+import org.mockito.Mockito.*
+
+class DocsQueryCacheTest {
+
+    private val cache = DocsQueryCache(100, 100, "0.3.1")
+
+    private var searches = 0
+    private val docsSearch = DocsSearch { query, topK ->
+        searches++
+        List(topK) { DocsHit("$query-$it", "text", "0.3.1", 1.0 - it * 0.1) }
+    }
+
+    @Test
+    fun `repeated queries are served from the cache`() {
+        val cached = cache.cached(docsSearch)
+
+        val first = cached.search("How do I define a goal?", 3)
+        val second = cached.search("  How do I   define a goal? ", 3)
+
+        assertEquals(first, second)
+        assertEquals(1, searches)
+        assertEquals(0.5, cache.stats().resultHitRate)
+    }
+
+    @Test
+    fun `topK is part of the key`() {
+        val cached = cache.cached(docsSearch)
+
+        cached.search("goals", 3)
+        assertEquals(5, cached.search("goals", 5).size)
+        assertEquals(2, searches)
+    }
+
+    @Test
+    fun `invalidation drops results`() {
+        val cached = cache.cached(docsSearch)
+        cached.search("goals", 3)
+
+        cache.invalidate()
+        cached.search("goals", 3)
+
+        assertEquals(2, searches)
+        assertEquals(1, cache.stats().invalidations)
+    }
+
+    @Test
+    fun `result computed across an invalidation is not cached`() {
+        val racing = cache.cached(DocsSearch { query, topK ->
+            cache.invalidate() // content written while the search ran
+            docsSearch.search(query, topK)
+        })
+
+        racing.search("goals", 3)
+        racing.search("goals", 3)
+
+        assertEquals(2, searches)
+    }
+
+    @Test
+    fun `query embeddings are cached but batches are not`() {
+        val delegate = mock(EmbeddingService::class.java)
+        `when`(delegate.embed("goals")).thenReturn(floatArrayOf(1f, 0f))
+        `when`(delegate.embed(listOf("a", "b"))).thenReturn(listOf(floatArrayOf(1f), floatArrayOf(2f)))
+        val embeddingService = cache.cached(delegate)
+
+        embeddingService.embed("goals")
+        embeddingService.embed(" goals")
+        embeddingService.embed(listOf("a", "b"))
+        cache.invalidate()
+        embeddingService.embed("goals")
+
+        verify(delegate, times(1)).embed("goals")
+        verify(delegate).embed(listOf("a", "b"))
+        assertEquals(2, cache.stats().embeddingHits)
+    }
+
+    @Test
+    fun `writes through the store invalidate`() {
+        val store = ContentChangeNotifyingRepository(mock(ChunkingContentElementRepository::class.java), cache::invalidate)
+
+        store.writeAndChunkDocument(mock(NavigableDocument::class.java))
+        store.deleteRootAndDescendants("file:///docs/guide.md")
+
+        assertEquals(2, cache.stats().invalidations)
+    }
+
+    @Test
+    fun `hit rates are published as meters`() {
+        val registry = SimpleMeterRegistry()
+        cache.bindTo(registry)
+        cache.cached(docsSearch).let { it.search("goals", 1); it.search("goals", 1) }
+
+        assertEquals(1.0, registry.get("guide.docs.cache.hits").tag("level", "results").functionCounter().count())
+        assertEquals(1.0, registry.get("guide.docs.cache.misses").tag("level", "results").functionCounter().count())
+    }
+}
@@ -0,0 +1,85 @@
+package com.embabel.guide.rag
+
+import org.junit.jupiter.api.Assertions.*
+import org.junit.jupiter.api.Test
+import org.junit.jupiter.api.io.TempDir
+import java.nio.file.Path
+
+class EmbeddingCacheStoreTest {
+
+    @TempDir
+    lateinit var dir: Path
+
+    private fun key(n: Int) = ByteArray(EmbeddingCacheStore.KEY_BYTES) { (n + it + 1).toByte() }
+
+    @Test
+    fun `returns what was put`() {
+        EmbeddingCacheStore.open(dir.resolve("e.bin"), 10).use { store ->
+            store.put(key(1), floatArrayOf(0.1f, 0.2f, 0.3f))
+
+            assertArrayEquals(floatArrayOf(0.1f, 0.2f, 0.3f), store.get(key(1)))
+            assertNull(store.get(key(2)))
+        }
+    }
+
+    @Test
+    fun `contents survive reopening`() {
+        val file = dir.resolve("e.bin")
+        EmbeddingCacheStore.open(file, 10).use { it.put(key(1), floatArrayOf(1f, 2f)) }
+
+        EmbeddingCacheStore.open(file, 10).use { store ->
+            assertEquals(1, store.size)
+            assertArrayEquals(floatArrayOf(1f, 2f), store.get(key(1)))
+        }
+    }
+
+    @Test
+    fun `keys are published only when flushed`() {
+        val file = dir.resolve("e.bin")
+        EmbeddingCacheStore.open(file, 10).use { store ->
+            store.put(key(1), floatArrayOf(1f, 2f))
+            EmbeddingCacheStore.open(file, 10).use { assertEquals(0, it.size) }
+
+            store.flush()
+
+            EmbeddingCacheStore.open(file, 10).use { assertEquals(1, it.size) }
+        }
+    }
+
+    @Test
+    fun `evicts least recently used entry when full`() {
+        EmbeddingCacheStore.open(dir.resolve("e.bin"), 2).use { store ->
+            store.put(key(1), floatArrayOf(1f))
+            store.put(key(2), floatArrayOf(2f))
+            store.get(key(1))
+            store.put(key(3), floatArrayOf(3f))
+
+            assertEquals(2, store.size)
+            assertEquals(1, store.evictions)
+            assertNotNull(store.get(key(1)))
+            assertNull(store.get(key(2)))
+            assertArrayEquals(floatArrayOf(3f), store.get(key(3)))
+        }
+    }
+
+    @Test
+    fun `ignores vectors of a different dimension`() {
+        EmbeddingCacheStore.open(dir.resolve("e.bin"), 2).use { store ->
+            store.put(key(1), floatArrayOf(1f, 2f))
+            store.put(key(2), floatArrayOf(1f, 2f, 3f))
+
+            assertNull(store.get(key(2)))
+        }
+    }
+
+    @Test
+    fun `starts afresh when capacity changes`() {
+        val file = dir.resolve("e.bin")
+        EmbeddingCacheStore.open(file, 10).use { it.put(key(1), floatArrayOf(1f)) }
+
+        EmbeddingCacheStore.open(file, 20).use { store ->
+            assertEquals(0, store.size)
+            assertNull(store.get(key(1)))
+        }
+    }
+}
@@ -0,0 +1,187 @@
+package com.embabel.guide.rag
+
+import com.embabel.agent.filter.PropertyFilter
+import org.junit.jupiter.api.Assertions.*
+import org.junit.jupiter.api.Test
+import java.io.ByteArrayInputStream
+import java.io.ByteArrayOutputStream
+import java.io.DataInputStream
+import java.io.DataOutputStream
+import kotlin.random.Random
+
+class HnswIndexTest {
+
+    private val dimensions = 32
+    private val random = Random(7)
+
+    // Clustered, like embeddings of related passages
+    private val centres = List(20) { FloatArray(dimensions) { random.nextFloat() * 2 - 1 } }
+    private val vectors = List(2000) { i ->
+        val centre = centres[i % centres.size]
+        FloatArray(dimensions) { d -> centre[d] + (random.nextFloat() - 0.5f) * 0.6f }
+    }
+
+    private fun index() = HnswIndex(dimensions, 12, 100).also { index ->
+        vectors.forEachIndexed { i, vector -> index.add("chunk-$i", vector) }
+    }
+
+    private fun cosine(a: FloatArray, b: FloatArray): Double {
+        var dot = 0.0
+        var na = 0.0
+        var nb = 0.0
+        for (i in a.indices) {
+            dot += a[i] * b[i]
+            na += a[i] * a[i]
+            nb += b[i] * b[i]
+        }
+        return dot / Math.sqrt(na * nb)
+    }
+
+    private fun exact(query: FloatArray, k: Int, accept: (Int) -> Boolean = { true }) =
+        vectors.indices.filter(accept).sortedByDescending { cosine(query, vectors[it]) }.take(k).map { "chunk-$it" }
+
+    @Test
+    fun `approximate neighbours match exact search`() {
+        val index = index()
+        var found = 0
+        repeat(50) {
+            val query = vectors[random.nextInt(vectors.size)].map { it + (random.nextFloat() - 0.5f) * 0.2f }.toFloatArray()
+            val expected = exact(query, 10).toSet()
+            found += index.search(query, 10, 64) { true }.count { it.id() in expected }
+        }
+        val recall = found / 500.0
+        assertTrue(recall >= 0.95, "Recall@10 was $recall")
+    }
+
+    @Test
+    fun `quantized graph with rescoring matches exact search`() {
+        val index = HnswIndex(dimensions, 12, 100, true)
+        vectors.forEachIndexed { i, vector -> index.add("chunk-$i", vector) }
+        var found = 0
+        repeat(50) {
+            val query = vectors[random.nextInt(vectors.size)].map { it + (random.nextFloat() - 0.5f) * 0.2f }.toFloatArray()
+            val expected = exact(query, 10).toSet()
+            val hits = index.search(query, 10, 64) { true }
+            found += hits.count { it.id() in expected }
+            // Scores come from the full-precision vectors
+            hits.forEach { hit ->
+                assertEquals(cosine(query, vectors[hit.id().removePrefix("chunk-").toInt()]), hit.score(), 1e-5)
+            }
+        }
+        val recall = found / 500.0
+        assertTrue(recall >= 0.95, "Recall@10 was $recall")
+    }
+
+    @Test
+    fun `results are ordered by similarity`() {
+        val hits = index().search(vectors[42], 5, 64) { true }
+
+        assertEquals("chunk-42", hits[0].id())
+        assertEquals(1.0, hits[0].score(), 1e-5)
+        assertEquals(hits.sortedByDescending { it.score() }, hits)
+    }
+
+    @Test
+    fun `filter restricts results without losing them`() {
+        val index = index()
+        val even = { id: String -> id.removePrefix("chunk-").toInt() % 2 == 0 }
+
+        val hits = index.search(vectors[43], 10, 64, even)
+
+        assertEquals(10, hits.size)
+        assertTrue(hits.all { even(it.id()) })
+        val expected = exact(vectors[43], 10) { it % 2 == 0 }.toSet()
+        assertTrue(hits.count { it.id() in expected } >= 9)
+    }
+
+    @Test
+    fun `selective filter falls back to an exact scan`() {
+        val hits = index().search(vectors[0], 10, 64) { it == "chunk-1999" || it == "chunk-3" }
+
+        assertEquals(setOf("chunk-1999", "chunk-3"), hits.map { it.id() }.toSet())
+    }
+
+    @Test
+    fun `removed and replaced vectors`() {
+        val index = index()
+        assertTrue(index.remove("chunk-42"))
+        assertFalse(index.remove("chunk-42"))
+        assertNotEquals("chunk-42", index.search(vectors[42], 1, 64) { true }[0].id())
+        assertEquals(1999, index.size())
+
+        index.add("chunk-7", vectors[42])
+        assertEquals("chunk-7", index.search(vectors[42], 1, 64) { true }[0].id())
+        assertEquals(1999, index.size())
+    }
+
+    @Test
+    fun `graph is rebuilt once deleted nodes outnumber live ones`() {
+        val index = index()
+        (0 until 1100).forEach { assertTrue(index.remove("chunk-$it")) }
+
+        // Rebuilt at the 1024th removal, leaving the 76 removed since
+        assertEquals(900, index.size())
+        assertEquals(976, index.graphSize())
+        index.compact()
+        assertEquals(900, index.graphSize())
+
+        var found = 0
+        repeat(50) {
+            val query = vectors[1100 + random.nextInt(900)]
+            val expected = exact(query, 10) { it >= 1100 }.toSet()
+            val hits = index.search(query, 10, 64) { true }
+            assertTrue(hits.all { it.id().removePrefix("chunk-").toInt() >= 1100 })
+            found += hits.count { it.id() in expected }
+        }
+        val recall = found / 500.0
+        assertTrue(recall >= 0.95, "Recall@10 was $recall")
+    }
+
+    @Test
+    fun `snapshot restores the same graph`() {
+        val index = index()
+        index.remove("chunk-5")
+        val bytes = ByteArrayOutputStream().also { index.writeTo(DataOutputStream(it)) }.toByteArray()
+
+        val restored = HnswIndex.readFrom(DataInputStream(ByteArrayInputStream(bytes)))
+
+        assertEquals(index.size(), restored.size())
+        assertFalse(restored.contains("chunk-5"))
+        listOf(0, 17, 999).forEach { i ->
+            assertEquals(index.search(vectors[i], 10, 64) { true }, restored.search(vectors[i], 10, 64) { true })
+        }
+    }
+
+    @Test
+    fun `snapshot keeps quantization`() {
+        val index = HnswIndex(dimensions, 12, 100, true)
+        vectors.take(200).forEachIndexed { i, vector -> index.add("chunk-$i", vector) }
+        val bytes = ByteArrayOutputStream().also { index.writeTo(DataOutputStream(it)) }.toByteArray()
+
+        val restored = HnswIndex.readFrom(DataInputStream(ByteArrayInputStream(bytes)))
+
+        assertTrue(restored.quantized())
+        assertEquals(index.search(vectors[3], 10, 64) { true }, restored.search(vectors[3], 10, 64) { true })
+    }
+
+    @Test
+    fun `property filters evaluate like the graph store`() {
+        val chunk = mapOf("version" to "0.3.1", "source" to "docs")
+        val active = PropertyFilter.In("version", listOf("0.3.1", VersionChunkTransformer.SUPPLEMENTARY))
+
+        assertTrue(InMemoryContentElementRepository.matches(active, chunk))
+        assertFalse(InMemoryContentElementRepository.matches(active, mapOf("version" to "0.2.0")))
+        assertFalse(InMemoryContentElementRepository.matches(active, emptyMap()))
+    }
+
+    @Test
+    fun `comparison filters match only present values`() {
+        val chunk = mapOf("tokens" to 120, "source" to "docs/agent.md")
+
+        assertTrue(InMemoryContentElementRepository.matches(PropertyFilter.Gte("tokens", 120), chunk))
+        assertFalse(InMemoryContentElementRepository.matches(PropertyFilter.Lt("tokens", 100.5), chunk))
+        assertFalse(InMemoryContentElementRepository.matches(PropertyFilter.Gt("tokens", 0), emptyMap()))
+        assertTrue(InMemoryContentElementRepository.matches(PropertyFilter.StartsWith("source", "docs/"), chunk))
+        assertFalse(InMemoryContentElementRepository.matches(PropertyFilter.EndsWith("source", ".adoc"), chunk))
+    }
+}
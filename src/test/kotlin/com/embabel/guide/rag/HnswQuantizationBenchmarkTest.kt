@@ -0,0 +1,95 @@
+package com.embabel.guide.rag
+
+import org.junit.jupiter.api.Assertions.assertTrue
+import org.junit.jupiter.api.Assumptions.assumeTrue
+import org.junit.jupiter.api.Test
+import org.junit.jupiter.api.condition.EnabledIfSystemProperty
+import java.nio.file.Files
+import java.nio.file.Path
+import kotlin.random.Random
+import kotlin.streams.asSequence
+import kotlin.time.measureTime
+
+/**
+ * Recall@10 against exact search, and search latency, of the in-memory HNSW index with float
+ * vectors and with int8 codes plus full-precision rescoring. Paragraphs of a docs checkout are
+ * embedded with the local model; queries are the openings of sampled paragraphs. Only runs on
+ * request:
+ * `mvn test -Dtest=HnswQuantizationBenchmarkTest -Dbenchmark=true -Dbenchmark.corpus=<docs dir>`.
+ */
+@EnabledIfSystemProperty(named = "benchmark", matches = "true")
+class HnswQuantizationBenchmarkTest {
+
+    private val modelDirectory = Path.of(System.getProperty("user.home"), ".embabel", "models", "all-MiniLM-L6-v2")
+    private val corpus = Path.of(System.getProperty("benchmark.corpus", "."))
+    private val maxChunks = System.getProperty("benchmark.chunks", "20000").toInt()
+    private val queryCount = 200
+    private val k = 10
+
+    private fun paragraphs(): List<String> =
+        Files.walk(corpus).use { paths ->
+            paths.asSequence()
+                .filter { Files.isRegularFile(it) && it.toString().substringAfterLast('.') in setOf("md", "adoc", "txt") }
+                .filterNot { it.toString().contains("/target/") || it.toString().contains("/.git/") }
+                .flatMap { Files.readString(it).split(Regex("\\n\\s*\\n")).asSequence() }
+                .map { it.trim() }
+                .filter { it.length >= 80 }
+                .distinct()
+                .take(maxChunks)
+                .toList()
+        }
+
+    private fun cosine(a: FloatArray, b: FloatArray): Double {
+        var dot = 0.0
+        var na = 0.0
+        var nb = 0.0
+        for (i in a.indices) {
+            dot += a[i] * b[i]
+            na += a[i] * a[i]
+            nb += b[i] * b[i]
+        }
+        return dot / Math.sqrt(na * nb)
+    }
+
+    @Test
+    fun `recall and latency of float and quantized indexes`() {
+        assumeTrue(Files.exists(modelDirectory.resolve("model.onnx")), "Local embedding model not downloaded")
+        val texts = paragraphs()
+        assumeTrue(texts.size >= 1000, "Only ${texts.size} paragraphs under $corpus; point benchmark.corpus at a docs checkout")
+
+        val random = Random(11)
+        val (vectors, queries) = OnnxSessionPool(modelDirectory, 1, Runtime.getRuntime().availableProcessors(), 1).use { pool ->
+            pool.embed(texts) to pool.embed(List(queryCount) { texts[random.nextInt(texts.size)].take(60) })
+        }
+        val expected = queries.map { query ->
+            vectors.indices.sortedByDescending { cosine(query, vectors[it]) }.take(k).map { "chunk-$it" }.toSet()
+        }
+
+        println("${vectors.size} chunks, ${vectors[0].size} dimensions, $queryCount queries, recall@$k")
+        println("index     | build ms | ef  | recall | µs/query")
+        val recalls = mutableMapOf<Pair<Boolean, Int>, Double>()
+        for (quantized in listOf(false, true)) {
+            val index = HnswIndex(vectors[0].size, 16, 200, quantized)
+            val build = measureTime { vectors.forEachIndexed { i, vector -> index.add("chunk-$i", vector) } }
+            for (ef in listOf(32, 64, 128)) {
+                queries.forEach { index.search(it, k, ef) { true } } // warm up
+                var found = 0
+                val elapsed = measureTime {
+                    queries.forEachIndexed { q, query ->
+                        found += index.search(query, k, ef) { true }.count { it.id() in expected[q] }
+                    }
+                }
+                val recall = found.toDouble() / (queryCount * k)
+                recalls[quantized to ef] = recall
+                println("%-9s | %8d | %3d | %6.3f | %.0f".format(
+                    if (quantized) "int8" else "float", build.inWholeMilliseconds, ef, recall,
+                    elapsed.inWholeMicroseconds.toDouble() / queryCount))
+            }
+        }
+
+        for (ef in listOf(32, 64, 128)) {
+            assertTrue(recalls.getValue(true to ef) >= recalls.getValue(false to ef) - 0.02,
+                "int8 recall at ef=$ef fell more than 0.02 below float")
+        }
+    }
+}
@@ -0,0 +1,40 @@
+package com.embabel.guide.rag
+
+import org.junit.jupiter.api.Assertions.*
+import org.junit.jupiter.api.Test
+
+class HybridDocsSearchTest {
+
+    private fun hit(id: String, score: Double = 0.5) = DocsHit(id, "text of $id", "0.3.1", score)
+
+    @Test
+    fun `passages found by both searches rank first`() {
+        val vector = listOf(hit("a"), hit("b"), hit("c"))
+        val text = listOf(hit("d"), hit("c"), hit("e"))
+
+        val fused = HybridDocsSearch.fuse(listOf(vector, text), 60)
+
+        assertEquals("c", fused[0].id)
+        assertEquals(setOf("a", "b", "c", "d", "e"), fused.map { it.id }.toSet())
+        assertEquals(1.0 / 63 + 1.0 / 62, fused[0].score, 1e-12)
+    }
+
+    @Test
+    fun `equal ranks in different searches score the same`() {
+        val fused = HybridDocsSearch.fuse(listOf(listOf(hit("a", 0.9)), listOf(hit("b", 12.0))), 60)
+
+        assertEquals(fused[0].score, fused[1].score, 1e-12)
+    }
+
+    @Test
+    fun `exact API name found only by text search still surfaces`() {
+        val vector = DocsSearch { _, topK -> List(topK) { hit("similar-$it") } }
+        val text = DocsSearch { _, _ -> listOf(hit("achieves-goal")) }
+
+        val hits = HybridDocsSearch(vector, text, 30, 60).search("@AchievesGoal", 5)
+
+        assertEquals(5, hits.size)
+        assertTrue(hits.any { it.id == "achieves-goal" }, "Full-text hit should be in the top 5")
+        assertEquals("text of achieves-goal", hits.first { it.id == "achieves-goal" }.text)
+    }
+}
@@ -0,0 +1,177 @@
+package com.embabel.guide.rag
+
+import com.embabel.agent.rag.ingestion.HierarchicalContentReader
+import com.embabel.agent.rag.model.LeafSection
+import com.embabel.agent.rag.model.NavigableDocument
+import com.embabel.agent.rag.store.ChunkingContentElementRepository
+import org.junit.jupiter.api.Assertions.*
+import org.junit.jupiter.api.Test
+import org.junit.jupiter.api.io.TempDir
+import org.mockito.ArgumentMatchers.any
+import org.mockito.ArgumentMatchers.anyString
+import org.mockito.Mockito.*
+import java.io.File
+import java.nio.file.Files
+import java.nio.file.Path
+import java.nio.file.attribute.FileTime
+import java.time.Instant
+
+class IncrementalDirectoryIngesterTest {
+
+    @TempDir
+    lateinit var repo: Path
+
+    @TempDir
+    lateinit var state: Path
+
+    private val store = mock(ChunkingContentElementRepository::class.java)
+    private val reader = mock(HierarchicalContentReader::class.java, RETURNS_DEEP_STUBS)
+
+    private fun ingester() = IncrementalDirectoryIngester(store, reader, state)
+
+    private fun ingest(failures: MutableList<IngestionFailure> = mutableListOf()) =
+        ingester().ingest(repo.toString(), failures)
+
+    @Test
+    fun `first run ingests every file`() {
+        Files.writeString(repo.resolve("README.md"), "# Readme")
+        Files.writeString(repo.resolve("notes.txt"), "notes")
+
+        val changes = ingest()
+
+        assertEquals(DocumentChanges(0, 2, 0, 0), changes)
+        verify(store, times(2)).writeAndChunkDocument(any())
+    }
+
+    @Test
+    fun `second run skips unchanged files`() {
+        Files.writeString(repo.resolve("README.md"), "# Readme")
+        ingest()
+        clearInvocations(store)
+
+        val changes = ingest()
+
+        assertEquals(DocumentChanges(1, 0, 0, 0), changes)
+        verify(store, never()).writeAndChunkDocument(any())
+    }
+
+    @Test
+    fun `touched but identical file is skipped`() {
+        val readme = repo.resolve("README.md")
+        Files.writeString(readme, "# Readme")
+        ingest()
+        clearInvocations(store)
+        Files.setLastModifiedTime(readme, FileTime.from(Instant.now().plusSeconds(60)))
+
+        val changes = ingest()
+
+        assertEquals(DocumentChanges(1, 0, 0, 0), changes)
+        verify(store, never()).writeAndChunkDocument(any())
+    }
+
+    @Test
+    fun `changed files are replaced and removed files deleted`() {
+        val readme = repo.resolve("README.md")
+        val notes = repo.resolve("notes.txt")
+        Files.writeString(readme, "# Readme")
+        Files.writeString(notes, "notes")
+        ingest()
+        clearInvocations(store)
+
+        Files.writeString(readme, "# Readme, revised")
+        Files.setLastModifiedTime(readme, FileTime.from(Instant.now().plusSeconds(60)))
+        Files.delete(notes)
+        val changes = ingest()
+
+        assertEquals(DocumentChanges(0, 1, 1, 0), changes)
+        verify(store).deleteRootAndDescendants(readme.toUri().toString())
+        verify(store).deleteRootAndDescendants(notes.toUri().toString())
+        verify(store).writeAndChunkDocument(any())
+    }
+
+    @Test
+    fun `failed file is reported and retried next run`() {
+        Files.writeString(repo.resolve("README.md"), "# Readme")
+        `when`(store.writeAndChunkDocument(any())).thenThrow(IllegalStateException("neo4j down"))
+        val failures = mutableListOf<IngestionFailure>()
+
+        val first = ingest(failures)
+
+        assertEquals(DocumentChanges(0, 0, 0, 0), first)
+        assertEquals(1, failures.size)
+        assertTrue(failures[0].source().endsWith("README.md"))
+
+        reset(store)
+        val second = ingest()
+        assertEquals(DocumentChanges(0, 1, 0, 0), second)
+    }
+
+    @Test
+    fun `file written by an interrupted run is recorded without rewriting`() {
+        val readme = repo.resolve("README.md")
+        Files.writeString(readme, "# Readme")
+        IngestionCheckpoint.open(state, false).use { interrupted ->
+            interrupted.begin(readme.toUri().toString())
+            interrupted.complete(readme.toUri().toString())
+        }
+
+        val changes = IngestionCheckpoint.open(state, true).use { resumed ->
+            ingester().ingest(repo.toString(), mutableListOf(), IngestionListener.NONE, resumed)
+        }
+
+        assertEquals(DocumentChanges(1, 0, 0, 0), changes)
+        verify(store, never()).writeAndChunkDocument(any())
+        // ...and the manifest now knows it, so a normal run skips it too
+        assertEquals(DocumentChanges(1, 0, 0, 0), ingest())
+    }
+
+    @Test
+    fun `near-duplicate files are counted apart from unchanged ones`() {
+        val text = "Embabel agents are built from actions and goals. The planner examines the current " +
+            "blackboard and chooses the next action whose preconditions hold, repeating until a goal is met."
+        Files.writeString(repo.resolve("a.md"), "# A")
+        Files.writeString(repo.resolve("b.md"), "# B")
+        `when`(reader.parseFile(any(File::class.java), anyString())).thenAnswer { invocation ->
+            val section = mock(LeafSection::class.java).also { `when`(it.content).thenReturn(text) }
+            mock(NavigableDocument::class.java).also { doc ->
+                `when`(doc.uri).thenReturn(invocation.getArgument(1))
+                `when`(doc.descendants()).thenReturn(listOf(section))
+            }
+        }
+
+        val changes = ingester().ingest(repo.toString(), mutableListOf(), IngestionListener.NONE,
+            IngestionCheckpoint.disabled(), NearDuplicateDetector(0.8, 10, 0.8))
+
+        assertEquals(DocumentChanges(0, 1, 0, 1), changes)
+        verify(store, times(1)).writeAndChunkDocument(any())
+    }
+
+    @Test
+    fun `first incremental run replaces documents stored by whole-tree ingestion`() {
+        val readme = Files.writeString(repo.resolve("README.md"), "# Readme")
+        val wholeTreeUri = readme.toAbsolutePath().toString()
+        `when`(store.existsRootWithUri(wholeTreeUri)).thenReturn(true)
+
+        ingest()
+
+        val order = inOrder(store)
+        order.verify(store).deleteRootAndDescendants(wholeTreeUri)
+        order.verify(store).writeAndChunkDocument(any())
+
+        // Once every file has been through, later runs don't look for whole-tree documents
+        clearInvocations(store)
+        Files.writeString(repo.resolve("notes.txt"), "notes")
+        ingest()
+        verify(store, never()).existsRootWithUri(anyString())
+    }
+
+    @Test
+    fun `whole-tree URIs are the forms other than the file URI`() {
+        val file = repo.resolve("README.md")
+
+        val uris = IncrementalDirectoryIngester.wholeTreeUris(file)
+
+        assertTrue(file.toAbsolutePath().toString() in uris)
+        assertFalse(file.toUri().toString() in uris)
+    }
+}
@@ -0,0 +1,172 @@
+package com.embabel.guide.rag
+
+import org.junit.jupiter.api.Assertions.*
+import org.junit.jupiter.api.Test
+import org.junit.jupiter.api.io.TempDir
+import java.io.IOException
+import java.nio.file.Files
+import java.nio.file.Path
+import java.nio.file.StandardOpenOption
+
+class IngestionCheckpointTest {
+
+    @TempDir
+    lateinit var state: Path
+
+    /** Simulates a run that dies after completing "a" and while writing "b". */
+    private fun interruptedRun() {
+        val checkpoint = IngestionCheckpoint.open(state, false)
+        checkpoint.begin("a")
+        checkpoint.complete("a")
+        checkpoint.begin("b")
+        checkpoint.close()
+    }
+
+    @Test
+    fun `finished run leaves nothing to resume`() {
+        val checkpoint = IngestionCheckpoint.open(state, false)
+        checkpoint.begin("a")
+        checkpoint.complete("a")
+        checkpoint.finish()
+
+        assertFalse(Files.exists(state.resolve("checkpoint.log")))
+        val resumed = IngestionCheckpoint.open(state, true)
+        assertFalse(resumed.isCompleted("a"))
+        assertTrue(resumed.interrupted().isEmpty())
+    }
+
+    @Test
+    fun `resume skips completed items and reports interrupted ones`() {
+        interruptedRun()
+
+        val resumed = IngestionCheckpoint.open(state, true)
+
+        assertTrue(resumed.isCompleted("a"))
+        assertFalse(resumed.isCompleted("b"))
+        assertEquals(setOf("b"), resumed.interrupted())
+    }
+
+    @Test
+    fun `starting over still reports interrupted items but not completed ones`() {
+        interruptedRun()
+
+        val fresh = IngestionCheckpoint.open(state, false)
+
+        assertFalse(fresh.isCompleted("a"))
+        assertEquals(setOf("b"), fresh.interrupted())
+    }
+
+    @Test
+    fun `interrupted items survive a second interruption until redone`() {
+        interruptedRun()
+        IngestionCheckpoint.open(state, false).close()
+
+        assertEquals(setOf("b"), IngestionCheckpoint.open(state, true).interrupted())
+    }
+
+    @Test
+    fun `resumed run keeps what earlier runs completed`() {
+        interruptedRun()
+        val resumed = IngestionCheckpoint.open(state, true)
+        resumed.begin("b")
+        resumed.complete("b")
+        resumed.begin("c")
+        resumed.close()
+
+        val again = IngestionCheckpoint.open(state, true)
+        assertTrue(again.isCompleted("a"))
+        assertTrue(again.isCompleted("b"))
+        assertEquals(setOf("c"), again.interrupted())
+    }
+
+    @Test
+    fun `torn last line only causes an item to be redone`() {
+        interruptedRun()
+        Files.writeString(state.resolve("checkpoint.log"), "C\tb-partial", StandardOpenOption.APPEND)
+
+        val resumed = IngestionCheckpoint.open(state, true)
+
+        assertFalse(resumed.isCompleted("b"))
+        assertTrue(resumed.interrupted().contains("b"))
+    }
+
+    @Test
+    fun `finished run keeps failed items for a resumed run to retry`() {
+        val checkpoint = IngestionCheckpoint.open(state, false)
+        checkpoint.begin("a")
+        checkpoint.complete("a")
+        checkpoint.begin("b")
+        checkpoint.finish()
+
+        IngestionCheckpoint.open(state, true).use { resumed ->
+            assertTrue(resumed.isCompleted("a"))
+            assertEquals(setOf("b"), resumed.interrupted())
+        }
+    }
+
+    @Test
+    fun `failed fetch is retried but never reported as partially written`() {
+        val checkpoint = IngestionCheckpoint.open(state, false)
+        checkpoint.begin("a")
+        checkpoint.complete("a")
+        checkpoint.fail("b")
+        checkpoint.finish()
+
+        IngestionCheckpoint.open(state, true).use { resumed ->
+            assertTrue(resumed.isCompleted("a"))
+            assertFalse(resumed.isCompleted("b"))
+            assertTrue(resumed.interrupted().isEmpty())
+        }
+    }
+
+    @Test
+    fun `failed write stays partially written`() {
+        val checkpoint = IngestionCheckpoint.open(state, false)
+        checkpoint.begin("b")
+        checkpoint.fail("b")
+        checkpoint.finish()
+
+        IngestionCheckpoint.open(state, false).use { next -> assertEquals(setOf("b"), next.interrupted()) }
+    }
+
+    @Test
+    fun `removed items are not reported again`() {
+        interruptedRun()
+        IngestionCheckpoint.open(state, false).use { next -> next.removed("b") }
+
+        IngestionCheckpoint.open(state, false).use { again -> assertTrue(again.interrupted().isEmpty()) }
+    }
+
+    @Test
+    fun `run that removes every interrupted item and fails nothing deletes the journal`() {
+        interruptedRun()
+        val next = IngestionCheckpoint.open(state, false)
+        next.removed("b")
+        next.finish()
+
+        assertFalse(Files.exists(state.resolve("checkpoint.log")))
+    }
+
+    @Test
+    fun `only one run journals at a time`() {
+        IngestionCheckpoint.open(state, false).use { running ->
+            running.begin("a")
+
+            assertThrows(IOException::class.java) { IngestionCheckpoint.open(state, false) }
+            running.complete("a")
+        }
+
+        IngestionCheckpoint.open(state, false).use { next -> assertTrue(next.interrupted().isEmpty()) }
+    }
+
+    @Test
+    fun `disabled checkpoint records nothing`() {
+        val checkpoint = IngestionCheckpoint.disabled()
+        checkpoint.begin("a")
+        checkpoint.complete("a")
+        checkpoint.fail("b")
+
+        assertFalse(checkpoint.isCompleted("a"))
+        assertTrue(checkpoint.interrupted().isEmpty())
+    }
+}
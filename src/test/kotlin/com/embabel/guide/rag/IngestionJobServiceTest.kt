@@ -0,0 +1,136 @@
+package com.embabel.guide.rag
+
+import org.junit.jupiter.api.AfterEach
+import org.junit.jupiter.api.Assertions.*
+import org.junit.jupiter.api.Test
+import org.mockito.ArgumentMatchers.any
+import org.mockito.Mockito.*
+import java.time.Duration
+import java.util.concurrent.CountDownLatch
+import java.util.concurrent.TimeUnit
+
+class IngestionJobServiceTest {
+
+    private val dataManager = mock(DataManager::class.java)
+    private val service = IngestionJobService(dataManager)
+
+    private val result = IngestionResult(
+        listOf("https://example.com"), emptyList(), emptyList(), emptyList(), emptyList(), Duration.ofSeconds(1)
+    )
+
+    @AfterEach
+    fun shutdown() {
+        service.shutdown()
+    }
+
+    private fun awaitFinished(id: String): IngestionJob {
+        val deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10)
+        while (System.nanoTime() < deadline) {
+            val job = service.find(id).orElseThrow()
+            if (job.status != IngestionJob.Status.RUNNING) return job
+            Thread.sleep(10)
+        }
+        error("Job $id did not finish")
+    }
+
+    @Test
+    fun `job runs in the background and keeps its result`() {
+        val release = CountDownLatch(1)
+        `when`(dataManager.loadReferences(any())).thenAnswer { invocation ->
+            val listener = invocation.getArgument<IngestionListener>(0)
+            listener.onEvent(IngestionEvent.of(IngestionEvent.Type.URL_LOADED, "https://example.com"))
+            release.await(10, TimeUnit.SECONDS)
+            result
+        }
+
+        val started = service.start()
+        assertEquals(IngestionJob.Status.RUNNING, started.status)
+
+        release.countDown()
+        val finished = awaitFinished(started.id)
+
+        assertEquals(IngestionJob.Status.SUCCEEDED, finished.status)
+        assertEquals(result, finished.result)
+        assertEquals(1, finished.events)
+        assertNotNull(finished.finishedAt)
+    }
+
+    @Test
+    fun `starting while a job runs returns the running job`() {
+        val release = CountDownLatch(1)
+        `when`(dataManager.loadReferences(any())).thenAnswer {
+            release.await(10, TimeUnit.SECONDS)
+            result
+        }
+
+        val first = service.start()
+        val second = service.start()
+        release.countDown()
+
+        assertEquals(first.id, second.id)
+        awaitFinished(first.id)
+        verify(dataManager, times(1)).loadReferences(any())
+    }
+
+    @Test
+    fun `failed job reports the error`() {
+        `when`(dataManager.loadReferences(any())).thenThrow(IllegalStateException("store unavailable"))
+
+        val finished = awaitFinished(service.start().id)
+
+        assertEquals(IngestionJob.Status.FAILED, finished.status)
+        assertEquals("store unavailable", finished.error)
+        assertNull(finished.result)
+    }
+
+    @Test
+    fun `a new job can start once the previous one finished`() {
+        `when`(dataManager.loadReferences(any())).thenReturn(result)
+
+        val first = awaitFinished(service.start().id)
+        val second = service.start()
+
+        assertNotEquals(first.id, second.id)
+    }
+
+    @Test
+    fun `synchronous ingestion runs as a job and returns its result`() {
+        val ran = service.runNow { listener ->
+            listener.onEvent(IngestionEvent.of(IngestionEvent.Type.URL_LOADED, "https://example.com"))
+            result
+        }
+
+        assertEquals(result, ran.orElseThrow())
+    }
+
+    @Test
+    fun `synchronous ingestion does not run while a job is running`() {
+        val release = CountDownLatch(1)
+        `when`(dataManager.loadReferences(any())).thenAnswer {
+            release.await(10, TimeUnit.SECONDS)
+            result
+        }
+        val job = service.start()
+
+        val ran = service.runNow { error("must not run") }
+        release.countDown()
+
+        assertTrue(ran.isEmpty)
+        awaitFinished(job.id)
+    }
+
+    @Test
+    fun `failed synchronous ingestion is rethrown and frees the service`() {
+        assertThrows(IllegalStateException::class.java) {
+            service.runNow { throw IllegalStateException("store unavailable") }
+        }
+
+        assertTrue(service.runNow { result }.isPresent)
+    }
+
+    @Test
+    fun `unknown job is not found`() {
+        assertTrue(service.find("missing").isEmpty)
+        assertTrue(service.subscribe("missing").isEmpty)
+    }
+}
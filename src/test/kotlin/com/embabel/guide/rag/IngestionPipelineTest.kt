@@ -0,0 +1,136 @@
+package com.embabel.guide.rag
+
+import com.embabel.agent.rag.ingestion.ContentFetcher
+import com.embabel.agent.rag.ingestion.ContentRefreshPolicy
+import com.embabel.agent.rag.ingestion.HierarchicalContentReader
+import com.embabel.agent.rag.model.NavigableDocument
+import com.embabel.agent.rag.store.ChunkingContentElementRepository
+import com.embabel.guide.PipelineConfig
+import org.junit.jupiter.api.Assertions.*
+import org.junit.jupiter.api.Test
+import org.junit.jupiter.api.io.TempDir
+import org.mockito.ArgumentMatchers.any
+import org.mockito.ArgumentMatchers.anyList
+import org.mockito.ArgumentMatchers.anyString
+import org.mockito.ArgumentMatchers.eq
+import org.mockito.Mockito.*
+import java.io.File
+import java.io.InputStream
+import java.net.URI
+import java.nio.file.Files
+import java.nio.file.Path
+import java.util.concurrent.atomic.AtomicInteger
+
+class IngestionPipelineTest {
+
+    @TempDir
+    lateinit var root: Path
+
+    private val store = mock(ChunkingContentElementRepository::class.java)
+    private val reader = mock(HierarchicalContentReader::class.java)
+
+    private val config = PipelineConfig(enabled = true, parseParallelism = 2, persistParallelism = 1, queueCapacity = 2)
+
+    private val fetcher = mock(ContentFetcher::class.java)
+    private val refreshPolicy = mock(ContentRefreshPolicy::class.java)
+
+    private fun pipeline(bulkDocumentWriter: BulkDocumentWriter? = null) = IngestionPipeline(
+        store, reader, fetcher, null, null, bulkDocumentWriter,
+        refreshPolicy, IngestionCheckpoint.disabled(), NearDuplicateDetector.disabled(),
+        config, 2,
+    )
+
+    @Test
+    fun `streamed files are parsed and written with bounded documents in flight`() {
+        val files = (1..40).map { i -> Files.writeString(root.resolve("doc-$i.md"), "# Doc $i") }
+        val inFlight = AtomicInteger()
+        val peak = AtomicInteger()
+        `when`(reader.parseFile(any(File::class.java), anyString())).thenAnswer { invocation ->
+            peak.accumulateAndGet(inFlight.incrementAndGet()) { a, b -> maxOf(a, b) }
+            mock(NavigableDocument::class.java).also {
+                `when`(it.uri).thenReturn(invocation.getArgument(1))
+            }
+        }
+        doAnswer {
+            Thread.sleep(2) // a slow store lets parsing run ahead until the queue fills
+            inFlight.decrementAndGet()
+            null
+        }.`when`(store).writeAndChunkDocument(any())
+
+        val report = pipeline().ingestFiles(root, files, StagedPipeline.ItemListener.NONE)
+
+        assertEquals(40, report.completed().size)
+        assertTrue(report.failures().isEmpty())
+        verify(store, times(40)).writeAndChunkDocument(any())
+        // Parsed but unwritten documents: each parse worker, the queue between stages and the writer
+        val bound = config.parseParallelism + config.queueCapacity + config.persistParallelism
+        assertTrue(peak.get() <= bound, "At most $bound documents in flight, saw ${peak.get()}")
+    }
+
+    @Test
+    fun `a file that fails to parse is reported and the rest are written`() {
+        val good = Files.writeString(root.resolve("good.md"), "# Good")
+        val bad = Files.writeString(root.resolve("bad.md"), "# Bad")
+        `when`(reader.parseFile(any(File::class.java), anyString())).thenAnswer { invocation ->
+            val uri = invocation.getArgument<String>(1)
+            if (uri.endsWith("bad.md")) throw IllegalArgumentException("unparseable")
+            mock(NavigableDocument::class.java).also { `when`(it.uri).thenReturn(uri) }
+        }
+
+        val report = pipeline().ingestFiles(root, listOf(bad, good), StagedPipeline.ItemListener.NONE)
+
+        assertEquals(listOf("$root -> good.md"), report.completed())
+        assertEquals(1, report.failures().size)
+        assertEquals("$root -> bad.md", report.failures()[0].source())
+    }
+
+    @Test
+    fun `a document already in the store is replaced, not written alongside`() {
+        val file = Files.writeString(root.resolve("doc.md"), "# Doc")
+        val uri = file.toUri().toString()
+        `when`(reader.parseFile(any(File::class.java), anyString())).thenAnswer { invocation ->
+            mock(NavigableDocument::class.java).also { `when`(it.uri).thenReturn(invocation.getArgument(1)) }
+        }
+        `when`(store.existsRootWithUri(uri)).thenReturn(true)
+
+        pipeline().ingestFiles(root, listOf(file), StagedPipeline.ItemListener.NONE)
+
+        val order = inOrder(store)
+        order.verify(store).deleteRootAndDescendants(uri)
+        order.verify(store).writeAndChunkDocument(any())
+    }
+
+    @Test
+    fun `fetched pages are parsed with the content type the server sent`() {
+        val url = "https://docs.example.com/reference"
+        `when`(refreshPolicy.shouldReread(store, url)).thenReturn(true)
+        `when`(refreshPolicy.shouldRefreshDocument(any(), any())).thenReturn(true)
+        `when`(fetcher.fetch(URI.create(url))).thenReturn(fetchResultOf("<h1>Reference</h1>".toByteArray(), "text/html"))
+        val document = mock(NavigableDocument::class.java).also { `when`(it.uri).thenReturn(url) }
+        `when`(reader.parseContent(any(InputStream::class.java), eq(url), eq("text/html"))).thenReturn(document)
+
+        val report = pipeline().ingestUrls(listOf(url), StagedPipeline.ItemListener.NONE)
+
+        assertEquals(listOf(url), report.completed())
+        verify(store).writeAndChunkDocument(document)
+    }
+
+    @Test
+    fun `with a bulk writer, documents are embedded ahead of the store write`() {
+        val files = (1..5).map { i -> Files.writeString(root.resolve("doc-$i.md"), "# Doc $i") }
+        `when`(reader.parseFile(any(File::class.java), anyString())).thenAnswer { invocation ->
+            mock(NavigableDocument::class.java).also { `when`(it.uri).thenReturn(invocation.getArgument(1)) }
+        }
+        val writer = mock(BulkDocumentWriter::class.java)
+        val embedded = mock(BulkDocumentWriter.Embedded::class.java)
+        `when`(writer.embed(anyList())).thenReturn(embedded)
+
+        val report = pipeline(writer).ingestFiles(root, files, StagedPipeline.ItemListener.NONE)
+
+        assertEquals(5, report.completed().size)
+        assertEquals(listOf("parse", "embed", "persist"), report.stages().map { it.name() })
+        verify(writer, times(5)).embed(anyList())
+        verify(writer, times(5)).write(embedded)
+        verify(store, never()).writeAndChunkDocument(any())
+    }
+}
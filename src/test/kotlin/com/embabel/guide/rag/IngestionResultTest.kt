@@ -99,4 +99,28 @@ class IngestionResultTest {
         )
         assertEquals(duration, result.elapsed())
     }
+
+    @Test
+    fun `legacy constructor has empty timings`() {
+        val result = IngestionResult(
+            emptyList(), emptyList(),
+            emptyList(), emptyList(), emptyList(), Duration.ZERO
+        )
+        assertEquals(Duration.ZERO, result.timings().urlPhase())
+        assertTrue(result.timings().perUrl().isEmpty())
+    }
+
+    @Test
+    fun `timings report slowest URLs and total URL time`() {
+        val timings = IngestionTimings(
+            Duration.ofSeconds(10), Duration.ZERO,
+            linkedMapOf(
+                "a" to Duration.ofSeconds(2),
+                "b" to Duration.ofSeconds(9),
+                "c" to Duration.ofSeconds(5),
+            )
+        )
+        assertEquals(listOf("b", "c"), timings.slowestUrls(2).map { it.key })
+        assertEquals(Duration.ofSeconds(16), timings.totalUrlTime())
+    }
 }
@@ -41,6 +41,56 @@ class IngestionRunnerTest {
         verify(dataManager).getStats()
     }
 
+    @Test
+    fun `resume option continues from the last checkpoint`() {
+        val result = IngestionResult(
+            listOf("http://example.com"), emptyList(),
+            emptyList(), emptyList(), emptyList(),
+            Duration.ofSeconds(10)
+        )
+        `when`(dataManager.resumeLoadingReferences()).thenReturn(result)
+        `when`(dataManager.getStats()).thenReturn(ContentElementRepositoryInfoImpl(5, 2, 10, false, true))
+
+        createRunner().run(DefaultApplicationArguments("--resume"))
+
+        verify(dataManager).resumeLoadingReferences()
+        verify(dataManager, never()).loadReferences()
+    }
+
+    @Test
+    fun `import snapshot option replaces ingestion`() {
+        `when`(dataManager.importSnapshot("/tmp/rag.snapshot"))
+            .thenReturn(RagStoreSnapshot.Summary(120, 80, 4096, Duration.ofMillis(350)))
+        `when`(dataManager.getStats()).thenReturn(ContentElementRepositoryInfoImpl(80, 5, 120, false, true))
+
+        val output = captureStdout {
+            createRunner().run(DefaultApplicationArguments("--import-snapshot=/tmp/rag.snapshot"))
+        }
+
+        verify(dataManager).importSnapshot("/tmp/rag.snapshot")
+        verify(dataManager, never()).loadReferences()
+        assertTrue(output.contains("SNAPSHOT IMPORTED"), "Should show import banner")
+        assertTrue(output.contains("120 (80 embedded)"), "Should show imported counts")
+    }
+
+    @Test
+    fun `export snapshot option runs after ingestion`() {
+        val result = IngestionResult(
+            emptyList(), emptyList(),
+            emptyList(), emptyList(), emptyList(), Duration.ZERO
+        )
+        `when`(dataManager.loadReferences()).thenReturn(result)
+        `when`(dataManager.exportSnapshot("/tmp/rag.snapshot"))
+            .thenReturn(RagStoreSnapshot.Summary(10, 6, 1024, Duration.ofMillis(20)))
+        `when`(dataManager.getStats()).thenReturn(ContentElementRepositoryInfoImpl(6, 1, 10, false, true))
+
+        createRunner().run(DefaultApplicationArguments("--export-snapshot=/tmp/rag.snapshot"))
+
+        val order = inOrder(dataManager)
+        order.verify(dataManager).loadReferences()
+        order.verify(dataManager).exportSnapshot("/tmp/rag.snapshot")
+    }
+
     @Test
     fun `summary banner contains URL results`() {
         val result = IngestionResult(
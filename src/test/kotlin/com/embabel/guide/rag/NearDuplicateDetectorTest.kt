@@ -0,0 +1,102 @@
+package com.embabel.guide.rag
+
+import com.embabel.agent.rag.model.LeafSection
+import com.embabel.agent.rag.model.NavigableDocument
+import org.junit.jupiter.api.Assertions.*
+import org.junit.jupiter.api.Test
+import org.mockito.Mockito.*
+
+class NearDuplicateDetectorTest {
+
+    private val agents = "Embabel agents are built from actions and goals. The planner examines the " +
+        "current blackboard and chooses the next action whose preconditions hold, repeating until " +
+        "a goal is satisfied or no further progress can be made by any available action."
+    private val tools = "Tools are exposed to the language model through tool groups. Each group " +
+        "bundles related functions such as web search or file access, and a persona decides which " +
+        "groups it may use so that capabilities are granted deliberately rather than by default."
+    private val rag = "Retrieval augmented generation lets the guide answer from the documentation. " +
+        "Pages are parsed into sections, split into chunks, embedded with a local model and stored " +
+        "in Neo4j, where a vector index finds the chunks most similar to the question."
+
+    private fun leaf(content: String): LeafSection = mock(LeafSection::class.java).also {
+        `when`(it.content).thenReturn(content)
+    }
+
+    private fun document(uri: String, vararg sections: String): NavigableDocument =
+        mock(NavigableDocument::class.java).also { doc ->
+            `when`(doc.uri).thenReturn(uri)
+            `when`(doc.descendants()).thenReturn(sections.map { leaf(it) })
+        }
+
+    private fun detector() = NearDuplicateDetector(0.8, 20, 0.8)
+
+    @Test
+    fun `syndicated copy with light edits is a duplicate`() {
+        val detector = detector()
+        assertFalse(detector.isDuplicate(document("https://medium.com/post", agents, tools, rag)))
+
+        val copy = document(
+            "https://blog.example.com/post",
+            agents, tools.replace("deliberately", "deliberately,"), rag + " Originally published on Medium."
+        )
+
+        assertTrue(detector.isDuplicate(copy))
+        val skipped = detector.skipped().single()
+        assertEquals("https://blog.example.com/post", skipped.uri())
+        assertEquals("https://medium.com/post", skipped.duplicateOf())
+        assertEquals(3, skipped.sections())
+    }
+
+    @Test
+    fun `document sharing only some sections is kept`() {
+        val detector = detector()
+        detector.isDuplicate(document("file:///repo-a/README.md", agents))
+
+        assertFalse(detector.isDuplicate(document("file:///repo-b/README.md", agents, tools, rag)))
+        assertTrue(detector.skipped().isEmpty())
+    }
+
+    @Test
+    fun `short sections are not compared`() {
+        val detector = detector()
+        detector.isDuplicate(document("file:///a.md", "Install with Maven."))
+
+        assertFalse(detector.isDuplicate(document("file:///b.md", "Install with Maven.")))
+    }
+
+    @Test
+    fun `rereading the same document is not a duplicate of itself`() {
+        val detector = detector()
+        detector.isDuplicate(document("https://docs.embabel.com/guide/", agents, tools))
+
+        assertFalse(detector.isDuplicate(document("https://docs.embabel.com/guide/", agents, tools)))
+    }
+
+    @Test
+    fun `the same page of different docs versions is not a duplicate`() {
+        val baseUrl = "https://docs.embabel.com/embabel-agent/guide/"
+        val detector = NearDuplicateDetector(0.8, 20, 0.8) { VersionChunkTransformer.versionOf(it, baseUrl) }
+        detector.isDuplicate(document("${baseUrl}0.3.0/", agents, tools, rag))
+
+        assertFalse(detector.isDuplicate(document("${baseUrl}0.3.1/", agents, tools, rag)))
+        // ...but a copy within a version still is
+        assertTrue(detector.isDuplicate(document("${baseUrl}0.3.1/index.html", agents, tools, rag)))
+    }
+
+    @Test
+    fun `signature similarity tracks shared text`() {
+        fun signature(text: String) = NearDuplicateDetector.signature(NearDuplicateDetector.words(text))
+
+        assertEquals(1.0, NearDuplicateDetector.similarity(signature(agents), signature(agents)))
+        assertTrue(NearDuplicateDetector.similarity(signature(agents), signature(rag)) < 0.2)
+        assertTrue(NearDuplicateDetector.similarity(signature(rag), signature("$rag Originally on Medium.")) > 0.8)
+    }
+
+    @Test
+    fun `disabled detector finds nothing`() {
+        val detector = NearDuplicateDetector.disabled()
+        detector.isDuplicate(document("a", agents))
+
+        assertFalse(detector.isDuplicate(document("b", agents)))
+    }
+}
@@ -0,0 +1,80 @@
+package com.embabel.guide.rag
+
+import com.embabel.common.ai.model.EmbeddingService
+import com.embabel.guide.GuideProperties
+import com.embabel.guide.Neo4jPropertiesInitializer
+import org.junit.jupiter.api.Assertions.assertEquals
+import org.junit.jupiter.api.Assertions.assertTrue
+import org.junit.jupiter.api.Assumptions.assumeTrue
+import org.junit.jupiter.api.Test
+import org.springframework.ai.mcp.client.common.autoconfigure.McpClientAutoConfiguration
+import org.springframework.beans.factory.annotation.Autowired
+import org.springframework.boot.autoconfigure.ImportAutoConfiguration
+import org.springframework.boot.test.context.SpringBootTest
+import org.springframework.test.context.ActiveProfiles
+import org.springframework.test.context.ContextConfiguration
+import java.nio.file.Files
+import java.nio.file.Path
+
+/**
+ * Checks that [OnnxSessionPool] embeds as the ONNX starter's [EmbeddingService] does, so chunks
+ * embedded by the pool at ingestion are comparable with queries embedded by the starter.
+ * Texts longer than [OnnxSessionPool.MAX_TOKENS] tokens are included, since they are where
+ * truncation would make the two differ. Needs the local model, as downloaded by the starter.
+ */
+@SpringBootTest
+@ActiveProfiles("test")
+@ContextConfiguration(initializers = [Neo4jPropertiesInitializer::class])
+@ImportAutoConfiguration(exclude = [McpClientAutoConfiguration::class])
+class OnnxSessionPoolParityTest {
+
+    @Autowired
+    private lateinit var embeddingService: EmbeddingService
+
+    @Autowired
+    private lateinit var guideProperties: GuideProperties
+
+    private val texts = listOf(
+        "GOAP",
+        "How do I define a goal for an Embabel agent?",
+        "Agents are built from actions and goals; the planner chooses actions whose preconditions " +
+            "hold until a goal is reached.",
+        // Well over 256 tokens
+        "Each action declares its inputs and outputs, and the planner searches for a sequence of " +
+            "actions that takes the blackboard from its current state to one satisfying the goal. ".repeat(20),
+        "Tools, prompts and domain objects: ".repeat(120),
+    )
+
+    private fun cosine(a: FloatArray, b: FloatArray): Double {
+        var dot = 0.0
+        var normA = 0.0
+        var normB = 0.0
+        for (i in a.indices) {
+            dot += a[i] * b[i]
+            normA += a[i] * a[i]
+            normB += b[i] * b[i]
+        }
+        return dot / (Math.sqrt(normA) * Math.sqrt(normB))
+    }
+
+    @Test
+    fun `pool vectors match the starter's`() {
+        val config = guideProperties.parallelEmbedding
+        val modelDirectory = Path.of(guideProperties.resolvePath(config.modelDirectory))
+        assumeTrue(Files.exists(modelDirectory.resolve("model.onnx")), "Local embedding model not downloaded")
+
+        val expected = embeddingService.embed(texts)
+        val actual = OnnxSessionPool(modelDirectory, 1, 1, 1).use { it.embed(texts) }
+
+        assertEquals(expected.size, actual.size)
+        texts.indices.forEach { i ->
+            assertEquals(expected[i].size, actual[i].size, "Dimensions of text $i")
+            val similarity = cosine(expected[i], actual[i])
+            assertTrue(similarity > MIN_COSINE, "Text $i (${texts[i].length} chars) has cosine $similarity")
+        }
+    }
+
+    companion object {
+        private const val MIN_COSINE = 0.999
+    }
+}
@@ -0,0 +1,58 @@
+package com.embabel.guide.rag
+
+import com.embabel.common.ai.model.EmbeddingService
+import org.junit.jupiter.api.Assertions.assertArrayEquals
+import org.junit.jupiter.api.Assumptions.assumeTrue
+import org.junit.jupiter.api.Test
+import org.junit.jupiter.api.condition.EnabledIfSystemProperty
+import org.mockito.Mockito.mock
+import java.nio.file.Files
+import java.nio.file.Path
+import kotlin.time.measureTime
+
+/**
+ * Embedding throughput, in chunks per second, of one ONNX session using every core against a
+ * pool of sessions sharing them, at several shard sizes. Needs the local model, as downloaded
+ * by the ONNX starter, and only runs on request:
+ * `mvn test -Dtest=ParallelEmbeddingBenchmarkTest -Dbenchmark=true [-Dbenchmark.sessions=4]`.
+ */
+@EnabledIfSystemProperty(named = "benchmark", matches = "true")
+class ParallelEmbeddingBenchmarkTest {
+
+    private val modelDirectory = Path.of(System.getProperty("user.home"), ".embabel", "models", "all-MiniLM-L6-v2")
+    private val cores = Runtime.getRuntime().availableProcessors()
+    private val sessions = System.getProperty("benchmark.sessions", "4").toInt()
+    private val chunkCount = 2_000
+
+    private val chunks = List(chunkCount) { i ->
+        "Chunk $i. Agents are built from actions and goals; the planner chooses actions whose " +
+            "preconditions hold until a goal is reached. ".repeat(1 + i % 6)
+    }
+
+    private fun throughput(service: EmbeddingService): Double {
+        service.embed(chunks.take(64)) // warm up
+        val elapsed = measureTime { service.embed(chunks) }
+        return chunkCount / (elapsed.inWholeMilliseconds / 1000.0)
+    }
+
+    @Test
+    fun `embedding throughput by shard size and session count`() {
+        assumeTrue(Files.exists(modelDirectory.resolve("model.onnx")), "Local embedding model not downloaded")
+        val delegate = mock(EmbeddingService::class.java)
+
+        OnnxSessionPool(modelDirectory, 1, cores, 1).use { single ->
+            OnnxSessionPool(modelDirectory, sessions, maxOf(1, cores / sessions), 1).use { pool ->
+                val sample = chunks.take(8)
+                single.embed(sample).zip(pool.embed(sample)).forEach { (a, b) -> assertArrayEquals(a, b, 1e-4f) }
+
+                println("Embedding $chunkCount chunks on $cores cores (chunks/s)")
+                println("shard size | 1 session x $cores threads | $sessions sessions x ${maxOf(1, cores / sessions)} threads")
+                for (shardSize in listOf(16, 32, 64, 128)) {
+                    val one = throughput(ParallelEmbeddingService(delegate, single::embed, shardSize))
+                    val many = throughput(ParallelEmbeddingService(delegate, pool::embed, shardSize))
+                    println("%10d | %24.1f | %.1f".format(shardSize, one, many))
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,72 @@
+package com.embabel.guide.rag
+
+import com.embabel.common.ai.model.EmbeddingService
+import org.junit.jupiter.api.Assertions.*
+import org.junit.jupiter.api.Test
+import org.junit.jupiter.api.assertThrows
+import org.mockito.Mockito.mock
+import java.util.concurrent.CountDownLatch
+import java.util.concurrent.TimeUnit
+import java.util.concurrent.atomic.AtomicInteger
+
+class ParallelEmbeddingServiceTest {
+
+    private val delegate = mock(EmbeddingService::class.java)
+
+    private fun vector(text: String) = floatArrayOf(text.length.toFloat(), text.hashCode().toFloat())
+
+    @Test
+    fun `shards are embedded concurrently and reassembled in order`() {
+        val shards = AtomicInteger()
+        // Each shard waits until all three are running, which only happens if they run at once
+        val allRunning = CountDownLatch(3)
+        val service = ParallelEmbeddingService(delegate, { shard ->
+            shards.incrementAndGet()
+            allRunning.countDown()
+            assertTrue(allRunning.await(10, TimeUnit.SECONDS), "Shards should run concurrently")
+            shard.map { vector(it) }
+        }, shardSize = 2)
+        val texts = listOf("a", "bb", "ccc", "dddd", "eeeee")
+
+        val vectors = service.embed(texts)
+
+        assertEquals(3, shards.get())
+        texts.forEachIndexed { i, text -> assertArrayEquals(vector(text), vectors[i]) }
+    }
+
+    @Test
+    fun `small call is embedded directly`() {
+        val calls = mutableListOf<List<String>>()
+        val service = ParallelEmbeddingService(delegate, { shard ->
+            calls += shard
+            shard.map { vector(it) }
+        }, shardSize = 8)
+
+        service.embed(listOf("a", "b"))
+        service.embed("c")
+
+        assertEquals(listOf(listOf("a", "b"), listOf("c")), calls)
+    }
+
+    @Test
+    fun `failure in one shard fails the call`() {
+        val service = ParallelEmbeddingService(delegate, { shard ->
+            if ("bad" in shard) throw IllegalStateException("session failed")
+            shard.map { vector(it) }
+        }, shardSize = 1)
+
+        val e = assertThrows<IllegalStateException> { service.embed(listOf("good", "bad", "fine")) }
+        assertEquals("session failed", e.message)
+    }
+
+    @Test
+    fun `mean pooling ignores padding and normalizes`() {
+        val tokens = arrayOf(floatArrayOf(1f, 0f), floatArrayOf(3f, 4f), floatArrayOf(100f, 100f))
+
+        val pooled = OnnxSessionPool.meanPool(tokens, longArrayOf(1, 1, 0))
+
+        // Mean of the unmasked tokens is (2, 2); normalized that is (1/√2, 1/√2)
+        assertEquals(0.7071f, pooled[0], 1e-4f)
+        assertEquals(0.7071f, pooled[1], 1e-4f)
+    }
+}
@@ -0,0 +1,87 @@
+package com.embabel.guide.rag
+
+import com.embabel.common.ai.model.EmbeddingService
+import org.drivine.manager.PersistenceManager
+import org.junit.jupiter.api.Assertions.*
+import org.junit.jupiter.api.Test
+import org.junit.jupiter.api.io.TempDir
+import org.mockito.Mockito.*
+import org.springframework.transaction.PlatformTransactionManager
+import java.io.ByteArrayInputStream
+import java.io.ByteArrayOutputStream
+import java.io.DataInputStream
+import java.io.DataOutputStream
+import java.io.IOException
+import java.nio.file.Files
+import java.nio.file.Path
+import java.time.LocalDate
+import java.time.LocalTime
+import java.time.OffsetTime
+import java.time.Year
+import java.time.ZoneId
+import java.time.ZoneOffset
+import java.time.ZonedDateTime
+
+class RagStoreSnapshotTest {
+
+    private fun roundTrip(value: Any?): Any? {
+        val bytes = ByteArrayOutputStream().also { RagStoreSnapshot.writeValue(DataOutputStream(it), value) }.toByteArray()
+        return RagStoreSnapshot.readValue(DataInputStream(ByteArrayInputStream(bytes)))
+    }
+
+    @Test
+    fun `property values keep their types`() {
+        assertNull(roundTrip(null))
+        assertEquals("Getting started", roundTrip("Getting started"))
+        assertEquals(42L, roundTrip(42))
+        assertEquals(42L, roundTrip(42L))
+        assertEquals(0.5, roundTrip(0.5f))
+        assertEquals(true, roundTrip(true))
+        assertEquals(listOf("Document", 3L, listOf(false)), roundTrip(listOf("Document", 3, listOf(false))))
+    }
+
+    @Test
+    fun `temporal values come back as the same type`() {
+        val ingested = ZonedDateTime.of(2026, 3, 14, 9, 26, 53, 589_000_000, ZoneId.of("Europe/Paris"))
+
+        assertEquals(ingested, roundTrip(ingested))
+        assertEquals(ingested.toOffsetDateTime().atZoneSameInstant(ZoneOffset.ofHours(1)),
+            roundTrip(ingested.toOffsetDateTime()))
+        assertEquals(ingested.toLocalDateTime(), roundTrip(ingested.toLocalDateTime()))
+        assertEquals(LocalDate.of(1969, 7, 20), roundTrip(LocalDate.of(1969, 7, 20)))
+        assertEquals(LocalTime.of(23, 59, 59, 999_000_000), roundTrip(LocalTime.of(23, 59, 59, 999_000_000)))
+        val opens = OffsetTime.of(8, 0, 0, 0, ZoneOffset.ofHours(-5))
+        assertEquals(opens, roundTrip(opens))
+        assertEquals(ingested.toInstant(), roundTrip(ingested.toInstant()))
+        assertEquals(listOf(ingested), roundTrip(listOf(ingested)))
+    }
+
+    @Test
+    fun `values of other types are rejected rather than written as strings`() {
+        val out = DataOutputStream(ByteArrayOutputStream())
+
+        assertThrows(IllegalArgumentException::class.java) { RagStoreSnapshot.writeValue(out, Path.of("docs")) }
+        assertThrows(IllegalArgumentException::class.java) { RagStoreSnapshot.writeValue(out, Year.of(2026)) }
+    }
+
+    @Test
+    fun `long text survives`() {
+        val text = "é".repeat(70_000)
+
+        assertEquals(text, roundTrip(text))
+    }
+
+    @Test
+    fun `import rejects files that are not snapshots`(@TempDir directory: Path) {
+        val file = Files.write(directory.resolve("rag.snapshot"), byteArrayOf(1, 2, 3, 4))
+        val snapshot = RagStoreSnapshot(
+            mock(PersistenceManager::class.java),
+            mock(PlatformTransactionManager::class.java),
+            StoreSchema(mock(PersistenceManager::class.java), mock(PlatformTransactionManager::class.java)),
+            mock(EmbeddingService::class.java),
+            100,
+        )
+
+        assertThrows(IOException::class.java) { snapshot.importFrom(file) }
+    }
+}
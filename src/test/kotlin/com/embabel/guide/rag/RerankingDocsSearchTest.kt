@@ -0,0 +1,36 @@
+package com.embabel.guide.rag
+
+import org.junit.jupiter.api.Assertions.*
+import org.junit.jupiter.api.Test
+
+class RerankingDocsSearchTest {
+
+    private val retrieved = listOf("planner overview", "goal annotations", "AchievesGoal example", "tool groups")
+        .mapIndexed { i, text -> DocsHit("chunk-$i", text, "0.3.1", 0.9 - i * 0.1) }
+
+    private var requested = 0
+    private val delegate = DocsSearch { _, topK ->
+        requested = topK
+        retrieved.take(topK)
+    }
+
+    @Test
+    fun `overfetches and keeps the passages the scorer ranks highest`() {
+        val search = RerankingDocsSearch(delegate, { _, passages ->
+            FloatArray(passages.size) { if ("AchievesGoal" in passages[it]) 5f else -it.toFloat() }
+        }, 24)
+
+        val hits = search.search("@AchievesGoal", 2)
+
+        assertEquals(24, requested)
+        assertEquals(listOf("chunk-2", "chunk-0"), hits.map { it.id })
+        assertEquals(5.0, hits[0].score)
+    }
+
+    @Test
+    fun `scoring failure keeps retrieval order`() {
+        val search = RerankingDocsSearch(delegate, { _, _ -> throw IllegalStateException("model missing") }, 24)
+
+        assertEquals(listOf("chunk-0", "chunk-1"), search.search("goals", 2).map { it.id })
+    }
+}
@@ -0,0 +1,153 @@
+package com.embabel.guide.rag
+
+import com.embabel.agent.rag.model.LeafSection
+import com.embabel.agent.rag.model.NavigableDocument
+import com.embabel.agent.rag.store.ChunkingContentElementRepository
+import org.junit.jupiter.api.Assertions.*
+import org.junit.jupiter.api.Test
+import org.junit.jupiter.api.io.TempDir
+import org.mockito.ArgumentMatchers.any
+import org.mockito.ArgumentMatchers.anyString
+import org.mockito.Mockito.*
+import java.nio.file.Path
+import java.util.concurrent.atomic.AtomicInteger
+
+class SnapshotRefresherTest {
+
+    @TempDir
+    lateinit var state: Path
+
+    private val uri = "https://docs.embabel.com/embabel-agent/guide/0.3.1-SNAPSHOT/"
+
+    private val store = mock(ChunkingContentElementRepository::class.java)
+
+    private val parsedIds = AtomicInteger()
+
+    /** Each read assigns fresh IDs, as the parser does. */
+    private fun leaf(title: String, content: String): LeafSection = mock(LeafSection::class.java).also {
+        `when`(it.id).thenReturn("section-${parsedIds.incrementAndGet()}")
+        `when`(it.title).thenReturn(title)
+        `when`(it.content).thenReturn(content)
+    }
+
+    private fun document(vararg sections: Pair<String, String>): NavigableDocument =
+        mock(NavigableDocument::class.java).also { doc ->
+            `when`(doc.uri).thenReturn(uri)
+            `when`(doc.descendants()).thenReturn(sections.map { (title, content) -> leaf(title, content) })
+        }
+
+    private val sectionReplacer = mock(SectionReplacer::class.java)
+
+    private fun refresher() = SnapshotRefresher(store, state)
+
+    private fun sectionRefresher() = SnapshotRefresher(store, state, sectionReplacer)
+
+    @Test
+    fun `new document is written`() {
+        assertEquals(SnapshotRefresher.Outcome.ADDED, refresher().write(document("Intro" to "Hello")))
+        verify(store).writeAndChunkDocument(any())
+        verify(store, never()).deleteRootAndDescendants(anyString())
+    }
+
+    @Test
+    fun `unchanged document is left alone`() {
+        refresher().write(document("Intro" to "Hello", "Agents" to "Agents do things"))
+        `when`(store.existsRootWithUri(uri)).thenReturn(true)
+        clearInvocations(store)
+
+        val outcome = refresher().write(document("Intro" to "Hello", "Agents" to "Agents do things"))
+
+        assertEquals(SnapshotRefresher.Outcome.UNCHANGED, outcome)
+        verify(store, never()).writeAndChunkDocument(any())
+        verify(store, never()).deleteRootAndDescendants(anyString())
+    }
+
+    @Test
+    fun `changed document is replaced`() {
+        refresher().write(document("Intro" to "Hello"))
+        `when`(store.existsRootWithUri(uri)).thenReturn(true)
+        clearInvocations(store)
+
+        val outcome = refresher().write(document("Intro" to "Hello, revised"))
+
+        assertEquals(SnapshotRefresher.Outcome.UPDATED, outcome)
+        verify(store).deleteRootAndDescendants(uri)
+        verify(store).writeAndChunkDocument(any())
+    }
+
+    @Test
+    fun `document missing from the store is rewritten even if the digest matches`() {
+        refresher().write(document("Intro" to "Hello"))
+        clearInvocations(store)
+
+        assertEquals(SnapshotRefresher.Outcome.ADDED, refresher().write(document("Intro" to "Hello")))
+        verify(store).writeAndChunkDocument(any())
+    }
+
+    @Test
+    fun `diff reports sections by title and occurrence`() {
+        val before = SectionDigest(
+            linkedMapOf("Intro#1" to "a", "Example#1" to "b", "Example#2" to "c", "Old#1" to "d"), null
+        )
+        val after = SectionDigest(
+            linkedMapOf("Intro#1" to "a", "Example#1" to "b", "Example#2" to "x", "New#1" to "e"), null
+        )
+
+        val diff = after.diff(before)
+
+        assertEquals(2, diff.unchanged())
+        assertEquals(listOf("Example#2"), diff.changed())
+        assertEquals(listOf("New#1"), diff.added())
+        assertEquals(listOf("Old#1"), diff.removed())
+        assertFalse(diff.isEmpty)
+    }
+
+    @Test
+    fun `edited and removed sections are replaced in place`() {
+        sectionRefresher().write(document("Intro" to "Hello", "Agents" to "Agents do things", "Old" to "Gone soon"))
+        `when`(store.existsRootWithUri(uri)).thenReturn(true)
+        clearInvocations(store)
+
+        val revised = document("Intro" to "Hello", "Agents" to "Agents plan with GOAP")
+        val agents = revised.descendants().elementAt(1) as LeafSection
+        // Stored IDs from the first write: Intro was section-1, Agents section-2, Old section-3
+        `when`(sectionReplacer.replace(revised, mapOf("section-2" to agents), listOf("section-3"))).thenReturn(true)
+
+        assertEquals(SnapshotRefresher.Outcome.UPDATED, sectionRefresher().write(revised))
+        verify(store, never()).writeAndChunkDocument(any())
+        verify(store, never()).deleteRootAndDescendants(anyString())
+
+        // The stored IDs carry over, so a further edit still finds the stored node
+        val again = document("Intro" to "Hello, again", "Agents" to "Agents plan with GOAP")
+        val intro = again.descendants().elementAt(0) as LeafSection
+        `when`(sectionReplacer.replace(again, mapOf("section-1" to intro), listOf())).thenReturn(true)
+
+        assertEquals(SnapshotRefresher.Outcome.UPDATED, sectionRefresher().write(again))
+        verify(store, never()).writeAndChunkDocument(any())
+    }
+
+    @Test
+    fun `added section replaces the whole document`() {
+        sectionRefresher().write(document("Intro" to "Hello"))
+        `when`(store.existsRootWithUri(uri)).thenReturn(true)
+        clearInvocations(store)
+
+        sectionRefresher().write(document("Intro" to "Hello", "Agents" to "New section"))
+
+        verifyNoInteractions(sectionReplacer)
+        verify(store).deleteRootAndDescendants(uri)
+        verify(store).writeAndChunkDocument(any())
+    }
+
+    @Test
+    fun `sections that can't be replaced one by one fall back to a whole write`() {
+        sectionRefresher().write(document("Intro" to "Hello"))
+        `when`(store.existsRootWithUri(uri)).thenReturn(true)
+        clearInvocations(store)
+
+        // The replacer declines, as it does when chunks span sections
+        assertEquals(SnapshotRefresher.Outcome.UPDATED, sectionRefresher().write(document("Intro" to "Hello, revised")))
+        verify(store).deleteRootAndDescendants(uri)
+        verify(store).writeAndChunkDocument(any())
+    }
+}
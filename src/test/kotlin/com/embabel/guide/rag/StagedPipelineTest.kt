@@ -0,0 +1,91 @@
+package com.embabel.guide.rag
+
+import org.junit.jupiter.api.Assertions.*
+import org.junit.jupiter.api.Test
+import java.util.concurrent.atomic.AtomicInteger
+
+class StagedPipelineTest {
+
+    private fun inputs(vararg values: Int) = values.map { StagedPipeline.Input("item-$it", it) }
+
+    @Test
+    fun `every item flows through all stages`() {
+        val seen = AtomicInteger()
+
+        val report = StagedPipeline.named<Int>("test")
+            .then("double", 2, 4) { it * 2 }
+            .then("sink", 1, 4) { seen.addAndGet(it); it }
+            .run(inputs(1, 2, 3, 4, 5))
+
+        assertEquals(30, seen.get())
+        assertEquals(setOf("item-1", "item-2", "item-3", "item-4", "item-5"), report.completed().toSet())
+        assertTrue(report.failures().isEmpty())
+    }
+
+    @Test
+    fun `failures are reported with the failing stage and do not stop other items`() {
+        val report = StagedPipeline.named<Int>("test")
+            .then("parse", 2, 2) { if (it == 2) throw IllegalArgumentException("bad page") else it }
+            .then("persist", 1, 2) { it }
+            .run(inputs(1, 2, 3))
+
+        assertEquals(setOf("item-1", "item-3"), report.completed().toSet())
+        assertEquals(1, report.failures().size)
+        assertEquals("item-2", report.failures()[0].source())
+        assertEquals("parse: bad page", report.failures()[0].reason())
+    }
+
+    @Test
+    fun `null results drop items without failing them`() {
+        val report = StagedPipeline.named<Int>("test")
+            .then("fetch", 1, 2) { if (it % 2 == 0) null else it }
+            .then("persist", 1, 2) { it }
+            .run(inputs(1, 2, 3, 4))
+
+        assertEquals(setOf("item-1", "item-3"), report.completed().toSet())
+        assertEquals(setOf("item-2", "item-4"), report.dropped().toSet())
+        assertTrue(report.failures().isEmpty())
+    }
+
+    @Test
+    fun `stages overlap so wall time tracks the slowest stage`() {
+        val items = 8
+        val report = StagedPipeline.named<Int>("test")
+            .then("fetch", 1, 2) { Thread.sleep(50); it }
+            .then("parse", 1, 2) { Thread.sleep(50); it }
+            .then("persist", 1, 2) { Thread.sleep(50); it }
+            .run(inputs(*IntArray(items) { it }))
+
+        // Sequential would take 8 * 150ms; pipelined is about (8 + 2) * 50ms
+        assertTrue(report.elapsed().toMillis() < items * 150L,
+            "Pipeline took ${report.elapsed().toMillis()}ms")
+        assertEquals(items, report.completed().size)
+    }
+
+    @Test
+    fun `bottleneck is the stage with the most busy time per worker`() {
+        val report = StagedPipeline.named<Int>("test")
+            .then("fast", 1, 2) { it }
+            .then("slow", 1, 2) { Thread.sleep(20); it }
+            .run(inputs(1, 2, 3))
+
+        assertEquals("slow", report.bottleneck().name())
+    }
+
+    @Test
+    fun `a throwing listener does not stall the pipeline`() {
+        val listener = object : StagedPipeline.ItemListener {
+            override fun completed(source: String) = throw IllegalStateException("progress bar gone")
+            override fun failed(failure: IngestionFailure) = throw IllegalStateException("progress bar gone")
+        }
+
+        // One worker per stage and tiny queues: a dead worker would leave the producer blocked
+        val report = StagedPipeline.named<Int>("test")
+            .then("parse", 1, 1) { if (it == 3) throw IllegalArgumentException("bad page") else it }
+            .then("persist", 1, 1) { it }
+            .run(inputs(*IntArray(10) { it }), listener)
+
+        assertEquals(9, report.completed().size)
+        assertEquals(listOf("item-3"), report.failures().map { it.source() })
+    }
+}
@@ -0,0 +1,41 @@
+package com.embabel.guide.rag
+
+import org.drivine.manager.PersistenceManager
+import org.drivine.query.QuerySpecification
+import org.junit.jupiter.api.Assertions.assertEquals
+import org.junit.jupiter.api.Test
+import org.mockito.ArgumentMatchers.any
+import org.mockito.Mockito.*
+import org.springframework.transaction.PlatformTransactionManager
+
+class StoreSchemaTest {
+
+    private val persistenceManager = mock(PersistenceManager::class.java)
+    private val schema = StoreSchema(persistenceManager, mock(PlatformTransactionManager::class.java))
+
+    @Test
+    fun `embedding property is the one the store indexed, looked up once`() {
+        `when`(persistenceManager.query(any<QuerySpecification<StoreSchema.VectorIndex>>()))
+            .thenReturn(listOf(StoreSchema.VectorIndex("chunk_vectors", "vector")))
+
+        assertEquals("vector", schema.embeddingProperty())
+        assertEquals("chunk_vectors", schema.vectorIndex()?.name)
+        verify(persistenceManager, times(1)).query(any<QuerySpecification<StoreSchema.VectorIndex>>())
+    }
+
+    @Test
+    fun `an empty store falls back to the library's names and is asked again`() {
+        assertEquals(StoreSchema.DEFAULT_EMBEDDING, schema.embeddingProperty())
+        assertEquals(StoreSchema.DEFAULT_PARENT_RELATIONSHIP, schema.parentRelationship())
+
+        `when`(persistenceManager.query(any<QuerySpecification<String>>())).thenReturn(listOf("CHILD_OF"))
+
+        assertEquals("CHILD_OF", schema.parentRelationship())
+    }
+
+    @Test
+    fun `names are quoted as Cypher identifiers`() {
+        assertEquals("`HAS_PARENT`", StoreSchema.quote("HAS_PARENT"))
+        assertEquals("`odd``name`", StoreSchema.quote("odd`name"))
+    }
+}
@@ -0,0 +1,32 @@
+package com.embabel.guide.rag
+
+import org.drivine.manager.PersistenceManager
+import org.junit.jupiter.api.Assertions.assertEquals
+import org.junit.jupiter.api.Test
+import org.mockito.Mockito.*
+import org.springframework.transaction.PlatformTransactionManager
+
+class UnwindWriterTest {
+
+    private val persistenceManager = mock(PersistenceManager::class.java)
+    private val transactionManager = mock(PlatformTransactionManager::class.java)
+    // The schema queries its own mocks, so only the writer's statements are counted here
+    private val schema = StoreSchema(mock(PersistenceManager::class.java), mock(PlatformTransactionManager::class.java))
+    private val writer = UnwindWriter(persistenceManager, transactionManager, schema, 2)
+
+    private fun node(id: String, vararg labels: String) = UnwindWriter.NodeRow(labels.toList(), id, mapOf("text" to id))
+
+    @Test
+    fun `a write runs every statement in one transaction`() {
+        val nodes = listOf(node("doc", "Document"), node("s1", "Section"), node("s2", "Section"), node("s3", "Section"))
+        val parents = listOf("s1", "s2", "s3").map { UnwindWriter.ParentRow(it, "doc") }
+
+        val statements = writer.write(nodes, parents)
+
+        // One statement for the document, two for three sections, two for three relationships
+        assertEquals(5, statements)
+        assertEquals(5, mockingDetails(persistenceManager).invocations.size)
+        val transactions = mockingDetails(transactionManager).invocations.map { it.method.name }
+        assertEquals(listOf("getTransaction", "commit"), transactions)
+    }
+}
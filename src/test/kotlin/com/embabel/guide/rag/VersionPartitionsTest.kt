@@ -0,0 +1,71 @@
+package com.embabel.guide.rag
+
+import com.embabel.common.ai.model.EmbeddingService
+import com.embabel.guide.ContentConfig
+import com.embabel.guide.VersionedContentConfig
+import org.drivine.manager.PersistenceManager
+import org.drivine.query.QuerySpecification
+import org.junit.jupiter.api.Assertions.*
+import org.junit.jupiter.api.Test
+import org.mockito.ArgumentMatchers.any
+import org.mockito.Mockito.*
+import org.springframework.transaction.PlatformTransactionManager
+
+class VersionPartitionsTest {
+
+    private val persistenceManager = mock(PersistenceManager::class.java)
+    private val embeddingService = mock(EmbeddingService::class.java).also {
+        `when`(it.embed("planner")).thenReturn(floatArrayOf(0.1f, 0.2f))
+    }
+
+    private fun partitions(vararg versions: String) = VersionPartitions(
+        persistenceManager,
+        mock(PlatformTransactionManager::class.java),
+        StoreSchema(persistenceManager, mock(PlatformTransactionManager::class.java)),
+        embeddingService,
+        ContentConfig(VersionedContentConfig("https://docs.embabel.com/embabel-agent/guide/", versions.toList())),
+    )
+
+    @Test
+    fun `only the active version and supplementary content are searched`() {
+        assertEquals(
+            listOf("0.3.1", VersionChunkTransformer.SUPPLEMENTARY),
+            partitions("0.3.1", "0.3.0", "0.2.0").searchedVersions(),
+        )
+        assertEquals(listOf(VersionChunkTransformer.SUPPLEMENTARY), partitions().searchedVersions())
+    }
+
+    @Test
+    fun `hits from each partition are merged by score`() {
+        `when`(persistenceManager.query(any<QuerySpecification<DocsHit>>())).thenReturn(
+            listOf(
+                DocsHit("a", "Actions have preconditions", "0.3.1", 0.71),
+                DocsHit("b", "The planner picks actions", "0.3.1", 0.93),
+            ),
+            listOf(DocsHit("c", "Blog: planning explained", "supplementary", 0.85)),
+        )
+
+        val hits = partitions("0.3.1", "0.3.0").search("planner", 2)
+
+        assertEquals(listOf("b", "c"), hits.map { it.id })
+        verify(persistenceManager, times(2)).query(any<QuerySpecification<DocsHit>>())
+    }
+
+    @Test
+    fun `partition without an index yet is skipped`() {
+        `when`(persistenceManager.query(any<QuerySpecification<DocsHit>>()))
+            .thenThrow(IllegalStateException("There is no such vector schema index: chunk_embedding_0_3_1"))
+            .thenReturn(listOf(DocsHit("c", "Blog post", "supplementary", 0.5)))
+
+        val hits = partitions("0.3.1").search("planner", 5)
+
+        assertEquals(listOf("c"), hits.map { it.id })
+    }
+
+    @Test
+    fun `versions map to valid labels and index names`() {
+        assertEquals("Version_0_3_1_SNAPSHOT", VersionPartitions.label("0.3.1-SNAPSHOT"))
+        assertEquals("chunk_embedding_0_3_1_snapshot", VersionPartitions.indexName("0.3.1-SNAPSHOT"))
+        assertEquals("Version_supplementary", VersionPartitions.label(VersionChunkTransformer.SUPPLEMENTARY))
+    }
+}